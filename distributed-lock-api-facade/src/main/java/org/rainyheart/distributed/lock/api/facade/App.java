@@ -1,11 +1,19 @@
 package org.rainyheart.distributed.lock.api.facade;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.util.StringUtils;
 
 import org.rainyheart.distributed.lock.api.DistributedLockApi;
 import org.rainyheart.distributed.lock.api.Lock;
 import org.rainyheart.distributed.lock.api.LockLevel;
 import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.facade.daemon.LockDaemon;
+import org.rainyheart.distributed.lock.api.facade.exec.LockedCommand;
+import org.rainyheart.distributed.lock.api.facade.load.LoadGenerator;
 import org.rainyheart.distributed.lock.api.impl.DistributedLockApiImpl;
 import org.rainyheart.distributed.lock.api.impl.LockImpl;
 import org.rainyheart.distributed.lock.thridparty.zk.ZkServerConnectionException;
@@ -17,9 +25,38 @@ import org.rainyheart.distributed.lock.thridparty.zk.ZooKeeperManager;
 public class App {
     private static final String UNLOCK_CMD = "unlock";
     private static final String LOCK_CMD = "lock";
+    private static final String LOAD_CMD = "load";
+    private static final String DAEMON_CMD = "daemon";
+    private static final String EXEC_CMD = "exec";
     private static DistributedLockApi api = null;
 
-    public static void main(String[] args) throws DistributedLockException, NumberFormatException, InterruptedException {
+    /**
+     * The command run under a lock by exec, stopped before the ZooKeeper
+     * session when the facade is stopped
+     */
+    private static volatile LockedCommand lockedCommand = null;
+
+    /**
+     * Where the facade reports itself, the standard error in daemon mode whose
+     * standard output carries the answers
+     */
+    private static PrintStream console = System.out;
+
+    public static void main(String[] args)
+            throws DistributedLockException, NumberFormatException, InterruptedException, IOException {
+        if (args != null && args.length > 0 && LOAD_CMD.equals(args[0])) {
+            // the load test starts its own ZooKeeper clients
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args != null && args.length > 0 && DAEMON_CMD.equals(args[0])) {
+            runDaemon(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args != null && args.length > 0 && EXEC_CMD.equals(args[0])) {
+            runLockedCommand(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         registerShutdownHook();
 
         initializeDistributedLockApi();
@@ -52,6 +89,48 @@ public class App {
         }
     }
 
+    /**
+     * Serve the lock commands with one ZooKeeper session until the input ends,
+     * the locks still held are released then
+     */
+    private static void runDaemon(String[] args) throws ZkServerConnectionException, IOException {
+        console = System.err;
+        registerShutdownHook();
+        initializeDistributedLockApi();
+        try {
+            new LockDaemon(api).run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            exit1();
+        }
+        exit0();
+    }
+
+    /**
+     * Run a command under an ephemeral lock, the facade exits with the exit
+     * code of the command
+     */
+    private static void runLockedCommand(String[] args)
+            throws ZkServerConnectionException, DistributedLockException, IOException, InterruptedException {
+        LockedCommand command;
+        try {
+            command = LockedCommand.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LockedCommand.usage());
+            exit1();
+            return;
+        }
+        // the output of the facade must not mix with the one of the command
+        console = System.err;
+        lockedCommand = command;
+        registerShutdownHook();
+        initializeDistributedLockApi();
+        ZooKeeperManager zkMgr = (ZooKeeperManager) ((DistributedLockApiImpl) api).getManager();
+        command.setSessionTimeout(zkMgr.getSessionTimeout());
+        System.exit(command.run(api));
+    }
+
     private static void exit0() {
         System.exit(0);
     }
@@ -60,6 +139,15 @@ public class App {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
+                LockedCommand command = App.lockedCommand;
+                if (command != null) {
+                    command.destroy();
+                    try {
+                        command.waitFor(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
                 if (App.api == null) {
                     return;
                 }
@@ -67,7 +155,7 @@ public class App {
                 try {
                     if (zkMgr != null) {
                         zkMgr.destroy();
-                        System.out.println("Zookeeper Manager is destryed!");
+                        console.println("Zookeeper Manager is destryed!");
                     }
 
                 } catch (ZkServerConnectionException e) {
@@ -139,7 +227,7 @@ public class App {
         DistributedLockApiImpl api = new DistributedLockApiImpl();
         api.setManager(zkMgr);
         App.api = api;
-        System.out.println("DistributedLockApi initialized completed!");
+        console.println("DistributedLockApi initialized completed!");
     }
 
     private static void checkEnvVars(String... envVars) {
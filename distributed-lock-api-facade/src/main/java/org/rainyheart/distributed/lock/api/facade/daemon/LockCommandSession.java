@@ -0,0 +1,251 @@
+package org.rainyheart.distributed.lock.api.facade.daemon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * One client of the {@link LockDaemon}, reading a command per line and
+ * answering each with one line:
+ *
+ * <pre>
+ * lock &lt;id&gt; &lt;timeout in seconds&gt;  -&gt; OK lock &lt;id&gt;    | FAIL lock &lt;id&gt;
+ * trylock &lt;id&gt;                  -&gt; OK trylock &lt;id&gt; | FAIL trylock &lt;id&gt;
+ * unlock &lt;id&gt;                   -&gt; OK unlock &lt;id&gt;  | FAIL unlock &lt;id&gt;
+ * ping                          -&gt; OK ping
+ * quit                          -&gt; OK quit, and the session ends
+ * </pre>
+ *
+ * An id of the form @file stands for the ids in the file, one per line, which
+ * are locked all or none in one call, tried or released together. The answer
+ * then counts them, e.g. "OK trylock @ids.txt 10/10" or "FAIL trylock
+ * @ids.txt 7/10". A bad command or a failed call is answered by "ERROR
+ * message". The empty lines and the ones starting with # are skipped.
+ *
+ * All the commands of a session run on its thread, which owns the locks, so
+ * they are ephemeral application locks and those still held when the session
+ * ends are released.
+ *
+ * @author Ken Ye
+ *
+ */
+class LockCommandSession implements Runnable {
+
+    static final String LOCK_CMD = "lock";
+    static final String TRY_LOCK_CMD = "trylock";
+    static final String UNLOCK_CMD = "unlock";
+    static final String PING_CMD = "ping";
+    static final String QUIT_CMD = "quit";
+
+    static final String OK = "OK";
+    static final String FAIL = "FAIL";
+    static final String ERROR = "ERROR";
+
+    private static final String FILE_PREFIX = "@";
+    private static final String COMMENT_PREFIX = "#";
+    private static final String SPACE = " ";
+    private static final String SLASH = "/";
+
+    private final DistributedLockApi api;
+    private final BufferedReader in;
+    private final BufferedWriter out;
+
+    /**
+     * The hold count of each lock obtained in the session
+     */
+    private final Map<String, Integer> held = new LinkedHashMap<>();
+
+    private boolean quit = false;
+
+    LockCommandSession(DistributedLockApi api, BufferedReader in, BufferedWriter out) {
+        this.api = api;
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (String line = this.in.readLine(); line != null; line = this.in.readLine()) {
+                String reply = execute(line);
+                if (reply == null) {
+                    continue;
+                }
+                this.out.write(reply);
+                this.out.newLine();
+                if (this.quit) {
+                    break;
+                } else if (!this.in.ready()) { // answer a burst of commands with one write
+                    this.out.flush();
+                }
+            }
+            this.out.flush();
+        } catch (IOException e) {
+            System.err.println("Lock daemon session is closed: " + e.getMessage());
+        } finally {
+            releaseAll();
+        }
+    }
+
+    /**
+     * @return the answer of the command line, null if the line is skipped
+     */
+    String execute(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith(COMMENT_PREFIX)) {
+            return null;
+        }
+        String[] args = trimmed.split("\\s+");
+        try {
+            switch (args[0]) {
+            case LOCK_CMD:
+                checkArgCount(args, 3);
+                return lock(LOCK_CMD, args[1], toMillis(args[2]));
+            case TRY_LOCK_CMD:
+                checkArgCount(args, 2);
+                return lock(TRY_LOCK_CMD, args[1], 0);
+            case UNLOCK_CMD:
+                checkArgCount(args, 2);
+                return unlock(args[1]);
+            case PING_CMD:
+                return OK + SPACE + PING_CMD;
+            case QUIT_CMD:
+                this.quit = true;
+                return OK + SPACE + QUIT_CMD;
+            default:
+                return ERROR + SPACE + "Unknown command: " + args[0];
+            }
+        } catch (IllegalArgumentException | IOException | DistributedLockException e) {
+            return ERROR + SPACE + e.getMessage();
+        }
+    }
+
+    private String lock(String cmd, String id, long timeout) throws IOException, DistributedLockException {
+        boolean tryLock = TRY_LOCK_CMD.equals(cmd);
+        if (!tryLock && timeout > 0) {
+            // the answers written so far are not held back while it waits
+            this.out.flush();
+        }
+        if (!id.startsWith(FILE_PREFIX)) {
+            Lock lock = newLock(id);
+            boolean obtained = tryLock ? this.api.tryLock(lock) : this.api.lock(lock, timeout);
+            if (obtained) {
+                hold(id);
+            }
+            return answer(obtained, cmd, id);
+        }
+        List<Lock> locks = readLocks(id);
+        List<Lock> obtained;
+        if (tryLock) {
+            obtained = this.api.tryLockBatch(locks);
+        } else {
+            obtained = this.api.lockAll(locks, timeout) ? locks : new ArrayList<Lock>();
+        }
+        for (Lock lock : obtained) {
+            hold(lock.id());
+        }
+        return answer(obtained.size() == locks.size(), cmd, id + SPACE + obtained.size() + SLASH + locks.size());
+    }
+
+    private String unlock(String id) throws IOException, DistributedLockException {
+        if (!id.startsWith(FILE_PREFIX)) {
+            boolean released = this.api.unlock(newLock(id));
+            if (released) {
+                release(id);
+            }
+            return answer(released, UNLOCK_CMD, id);
+        }
+        List<Lock> locks = readLocks(id);
+        List<Lock> released = this.api.unlockBatch(locks);
+        for (Lock lock : released) {
+            release(lock.id());
+        }
+        return answer(released.size() == locks.size(), UNLOCK_CMD,
+                id + SPACE + released.size() + SLASH + locks.size());
+    }
+
+    /**
+     * Release the locks the client did not release, it may be gone
+     */
+    private void releaseAll() {
+        for (Map.Entry<String, Integer> entry : this.held.entrySet()) {
+            Lock lock = newLock(entry.getKey());
+            try {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    this.api.unlock(lock);
+                }
+            } catch (DistributedLockException e) {
+                System.err.println("Unable to release lock " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        this.held.clear();
+    }
+
+    private void hold(String id) {
+        this.held.merge(id, 1, Integer::sum);
+    }
+
+    private void release(String id) {
+        this.held.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * @return the locks of the ids in the file of an @file argument
+     */
+    private static List<Lock> readLocks(String fileArg) throws IOException {
+        String path = fileArg.substring(FILE_PREFIX.length());
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IOException("Unable to read the lock ids of " + path + ": " + e, e);
+        }
+        List<Lock> locks = new ArrayList<>();
+        for (String line : lines) {
+            String id = line.trim();
+            if (!id.isEmpty() && !id.startsWith(COMMENT_PREFIX)) {
+                locks.add(newLock(id));
+            }
+        }
+        return locks;
+    }
+
+    private static Lock newLock(String id) {
+        return new LockImpl(id, null, LockLevel.APPLICATION);
+    }
+
+    /**
+     * @return the timeout in milliseconds of the given seconds, which may have
+     *         a fraction
+     */
+    private static long toMillis(String seconds) {
+        double value = Double.parseDouble(seconds);
+        if (value < 0 || Double.isNaN(value)) {
+            throw new IllegalArgumentException("Invalid timeout: " + seconds);
+        }
+        return Math.max(Math.round(value * 1000), value > 0 ? 1 : 0);
+    }
+
+    private static void checkArgCount(String[] args, int count) {
+        if (args.length != count) {
+            throw new IllegalArgumentException("Invalid " + args[0] + " arguments: " + String.join(SPACE, args));
+        }
+    }
+
+    private static String answer(boolean success, String cmd, String detail) {
+        return (success ? OK : FAIL) + SPACE + cmd + SPACE + detail;
+    }
+}
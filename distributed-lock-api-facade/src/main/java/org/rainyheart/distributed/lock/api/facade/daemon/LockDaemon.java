@@ -0,0 +1,126 @@
+package org.rainyheart.distributed.lock.api.facade.daemon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+
+/**
+ * Keep one ZooKeeper session for many lock commands, instead of a JVM and a
+ * session per command. The commands are read from the standard input, or from
+ * the clients of a local Unix socket, each in its own session, see
+ * {@link LockCommandSession}.
+ *
+ * <pre>
+ * App daemon                     serve the standard input until its end
+ * App daemon --socket &lt;path&gt;     serve the clients of a Unix socket
+ * </pre>
+ *
+ * The Unix sockets need Java 16 or later, they are opened by reflection so
+ * the facade still runs on Java 8.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockDaemon {
+
+    public static final String SOCKET_OPTION = "--socket";
+
+    private final DistributedLockApi api;
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    public LockDaemon(DistributedLockApi api) {
+        this.api = api;
+    }
+
+    public static String usage() {
+        return "Usage: daemon [" + SOCKET_OPTION + " <path>]";
+    }
+
+    /**
+     * Serve the standard input, or the Unix socket given by the arguments
+     */
+    public void run(String[] args) throws IOException {
+        if (args.length == 0) {
+            serve(System.in, System.out);
+        } else if (args.length == 2 && SOCKET_OPTION.equals(args[0])) {
+            serveSocket(Paths.get(args[1]));
+        } else {
+            throw new IllegalArgumentException(usage());
+        }
+    }
+
+    /**
+     * Serve one session on the current thread, until the end of its input
+     */
+    public void serve(InputStream in, OutputStream out) {
+        new LockCommandSession(this.api, new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))).run();
+    }
+
+    /**
+     * Serve each client of the Unix socket on its own thread, until the daemon
+     * is stopped
+     */
+    public void serveSocket(Path path) throws IOException {
+        // a socket file left by a daemon killed before
+        Files.deleteIfExists(path);
+        try (ServerSocketChannel server = openUnixServerSocket(path)) {
+            path.toFile().deleteOnExit();
+            System.err.println("Lock daemon is listening on " + path);
+            while (true) {
+                SocketChannel client = server.accept();
+                Thread session = new Thread(() -> {
+                    try (SocketChannel channel = client) {
+                        serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+                    } catch (IOException e) {
+                        System.err.println("Unable to close a lock daemon session: " + e.getMessage());
+                    }
+                }, "distributed-lock-daemon-" + this.sessions.incrementAndGet());
+                session.setDaemon(true);
+                session.start();
+            }
+        }
+    }
+
+    private static ServerSocketChannel openUnixServerSocket(Path path) throws IOException {
+        ProtocolFamily unix;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets need Java 16 or later, use the standard input instead", e);
+        }
+        try {
+            ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class
+                    .getMethod("open", ProtocolFamily.class).invoke(null, unix);
+            SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", Path.class).invoke(null, path);
+            server.bind(address);
+            return server;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to open the Unix socket " + path, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unable to open the Unix socket " + path, e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.rainyheart.distributed.lock.api.facade.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * Run a command while holding a lock, e.g.
+ *
+ * <pre>
+ * App exec &lt;id&gt; &lt;timeout in seconds&gt; -- &lt;command...&gt;
+ * </pre>
+ *
+ * The lock is an ephemeral application lock, obtained before the command
+ * starts and released once it exits. If the facade dies in between, its
+ * ZooKeeper session ends and the lock goes with it, unlike the persistent
+ * locks of "App lock" and "App unlock" which stay until they are released.
+ *
+ * The command shares the standard input, output and error of the facade, and
+ * its exit code is the one of the facade. It is {@link #LOCK_FAILURE} if the
+ * lock is not obtained in time, the command is not run then.
+ *
+ * While the command runs, the fencing token of the lock is validated every
+ * {@link #DEFAULT_CHECK_INTERVAL} milliseconds. If the lock is lost, e.g. the
+ * ZooKeeper session expired, the command is stopped and the exit code is
+ * {@link #LOCK_LOST}, it must not go on without the lock. A validation that
+ * fails, e.g. while the client reconnects, is tried again, the lock is only
+ * taken as lost once the validations have failed for the session timeout,
+ * the session has expired by then.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockedCommand {
+
+    public static final String SEPARATOR = "--";
+
+    /**
+     * The exit code when the lock is not obtained, EX_TEMPFAIL of sysexits.h
+     */
+    public static final int LOCK_FAILURE = 75;
+
+    /**
+     * The exit code when the lock is lost while the command runs,
+     * EX_UNAVAILABLE of sysexits.h
+     */
+    public static final int LOCK_LOST = 69;
+
+    /**
+     * Milliseconds between two validations of the lock
+     */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    /**
+     * Milliseconds of the failed validations before the lock is taken as lost,
+     * when the session timeout is not set
+     */
+    public static final long DEFAULT_SESSION_TIMEOUT = 30000;
+
+    /**
+     * Seconds for the command to exit once it is asked to stop, it is killed
+     * afterwards
+     */
+    private static final long STOP_TIMEOUT = 10;
+
+    private final Lock lock;
+    private final long timeout;
+    private final List<String> command;
+    private final long checkInterval;
+
+    private long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+    private volatile Process process;
+
+    /**
+     * Time of the first validation failed since the last one which succeeded,
+     * -1 if the last one succeeded
+     */
+    private long failingSince = -1;
+
+    /**
+     * @param id:
+     *            id of the application lock
+     * @param timeout:
+     *            timeout in milliseconds to obtain the lock
+     * @param command:
+     *            the command and its arguments
+     */
+    public LockedCommand(String id, long timeout, List<String> command) {
+        this(id, timeout, command, DEFAULT_CHECK_INTERVAL);
+    }
+
+    LockedCommand(String id, long timeout, List<String> command, long checkInterval) {
+        this.lock = new LockImpl(id, null, LockLevel.APPLICATION);
+        this.timeout = timeout;
+        this.command = new ArrayList<>(command);
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * @param sessionTimeout:
+     *            the session timeout in milliseconds of the lock client, the
+     *            lock is taken as lost once it cannot be validated for so long
+     */
+    public void setSessionTimeout(long sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    public static String usage() {
+        return "Usage: exec <id> <timeout in seconds> " + SEPARATOR + " <command...>";
+    }
+
+    /**
+     * @param args:
+     *            the arguments following "exec"
+     * @return the command of the arguments
+     */
+    public static LockedCommand parse(String[] args) {
+        if (args.length < 4 || !SEPARATOR.equals(args[2])) {
+            throw new IllegalArgumentException("Invalid exec arguments : " + String.join(" ", args));
+        }
+        long seconds;
+        try {
+            seconds = Long.parseLong(args[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid timeout : " + args[1]);
+        }
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Invalid timeout : " + args[1]);
+        }
+        return new LockedCommand(args[0], seconds * 1000, Arrays.asList(args).subList(3, args.length));
+    }
+
+    /**
+     * Obtain the lock, run the command on the current thread until it exits
+     * and release the lock
+     *
+     * @param api:
+     *            the api to obtain the lock from
+     * @return the exit code of the command, {@link #LOCK_FAILURE} if the lock
+     *         is not obtained, {@link #LOCK_LOST} if it is lost before the
+     *         command exits
+     * @throws IOException
+     *             if the command cannot be started
+     */
+    public int run(DistributedLockApi api) throws DistributedLockException, IOException, InterruptedException {
+        LockHandle handle = api.lockWithToken(this.lock, this.timeout);
+        if (handle == null) {
+            System.err.println("Fail to Lock: " + this.lock.id() + " in " + this.timeout + " milliseconds!!");
+            return LOCK_FAILURE;
+        }
+        try {
+            this.process = new ProcessBuilder(this.command).inheritIO().start();
+            try {
+                while (!this.process.waitFor(this.checkInterval, TimeUnit.MILLISECONDS)) {
+                    if (!isHeld(api, handle)) {
+                        System.err.println("Lost Lock: " + this.lock.id() + ", stop the command!!");
+                        stop();
+                        return LOCK_LOST;
+                    }
+                }
+                return this.process.exitValue();
+            } catch (InterruptedException e) {
+                destroy();
+                throw e;
+            }
+        } finally {
+            api.unlock(this.lock);
+        }
+    }
+
+    /**
+     * @return false if the lock is lost, or it cannot be told whether it is
+     *         still held for the session timeout
+     */
+    private boolean isHeld(DistributedLockApi api, LockHandle handle) {
+        try {
+            boolean held = api.validateToken(this.lock, handle.fencingToken());
+            this.failingSince = -1;
+            return held;
+        } catch (DistributedLockException e) {
+            System.err.println("Fail to validate Lock: " + this.lock.id() + ", " + e.getMessage());
+            long now = System.currentTimeMillis();
+            if (this.failingSince < 0) {
+                this.failingSince = now;
+            }
+            return now - this.failingSince < this.sessionTimeout;
+        }
+    }
+
+    /**
+     * Ask the command to stop and kill it if it does not exit in time
+     */
+    private void stop() throws InterruptedException {
+        destroy();
+        if (!waitFor(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+            this.process.destroyForcibly().waitFor();
+        }
+    }
+
+    /**
+     * Stop the command if it is still running, it must not outlive the lock
+     * when the facade is stopped
+     */
+    public void destroy() {
+        Process process = this.process;
+        if (process != null && process.isAlive()) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Wait for the command to exit, e.g. after {@link #destroy()}
+     *
+     * @return false if the command is still running after the timeout
+     */
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        Process process = this.process;
+        return process == null || process.waitFor(timeout, unit);
+    }
+}
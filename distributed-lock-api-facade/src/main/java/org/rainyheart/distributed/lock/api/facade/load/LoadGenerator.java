@@ -0,0 +1,228 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fork worker JVMs locking against the same ZooKeeper, to see the behaviour
+ * between processes that a single JVM benchmark does not: herd wake-ups,
+ * session churn and unfairness. A local ZooKeeper server stands in for the
+ * ensemble unless --hostPort is given.
+ *
+ * It reports the throughput, the percentiles of the acquisition latency, the
+ * share of the locks obtained by each process and the ZooKeeper requests sent
+ * per obtained lock.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LoadGenerator {
+
+    /**
+     * Time in seconds the workers are given to connect, and to report once the
+     * duration is over
+     */
+    private static final long GRACE_SECONDS = 60;
+
+    private final LoadWorkload workload;
+    private final PrintStream out;
+
+    LoadGenerator(LoadWorkload workload, PrintStream out) {
+        this.workload = workload;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadWorkload workload;
+        try {
+            workload = LoadWorkload.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadWorkload.usage());
+            System.exit(1);
+            return;
+        }
+        new LoadGenerator(workload, System.out).run();
+    }
+
+    void run() throws IOException, InterruptedException {
+        if (this.workload.hostPort != null) {
+            print(runWorkers());
+            return;
+        }
+        try (LocalZooKeeperServer server = new LocalZooKeeperServer()) {
+            this.workload.hostPort = server.getHostPort();
+            this.out.println("Started a local ZooKeeper server at " + this.workload.hostPort);
+            print(runWorkers());
+        }
+    }
+
+    private List<LoadReport> runWorkers() throws IOException, InterruptedException {
+        this.out.println("Workload: " + this.workload);
+        List<WorkerProcess> workers = new ArrayList<>();
+        ExecutorService readers = Executors.newFixedThreadPool(this.workload.processes);
+        boolean reported = false;
+        try {
+            for (int i = 0; i < this.workload.processes; i++) {
+                workers.add(new WorkerProcess(i, this.workload.toWorkerArgs(i)));
+            }
+            List<CompletableFuture<String>> ready = new ArrayList<>();
+            for (WorkerProcess worker : workers) {
+                ready.add(CompletableFuture.supplyAsync(() -> worker.readLine(LoadWorker.READY), readers));
+            }
+            await(ready, GRACE_SECONDS);
+
+            // start all the workers together
+            for (WorkerProcess worker : workers) {
+                worker.go();
+            }
+            List<CompletableFuture<String>> reports = new ArrayList<>();
+            for (WorkerProcess worker : workers) {
+                reports.add(CompletableFuture.supplyAsync(() -> worker.readLine(LoadReport.PREFIX), readers));
+            }
+            List<LoadReport> results = new ArrayList<>();
+            for (String line : await(reports, this.workload.durationSeconds + GRACE_SECONDS)) {
+                results.add(LoadReport.parse(line));
+            }
+            reported = true;
+            return results;
+        } finally {
+            for (WorkerProcess worker : workers) {
+                worker.stop(!reported);
+            }
+            readers.shutdownNow();
+        }
+    }
+
+    private static List<String> await(List<CompletableFuture<String>> futures, long seconds)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<String> lines = new ArrayList<>();
+        for (CompletableFuture<String> future : futures) {
+            try {
+                lines.add(future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("A worker did not answer in " + seconds + " seconds", e);
+            }
+        }
+        return lines;
+    }
+
+    void print(List<LoadReport> reports) {
+        LoadReport total = new LoadReport();
+        for (LoadReport report : reports) {
+            total.merge(report);
+        }
+        this.out.println(String.format("Throughput: %.1f locks/s, %d obtained, %d not obtained, %d errors, %d reconnects",
+                (double) total.acquired / this.workload.durationSeconds, total.acquired, total.notAcquired,
+                total.errors, total.reconnects));
+        this.out.println(String.format("Acquisition latency (ms): mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f",
+                millis(total.latency.getMean()), millis(total.latency.getValueAtPercentile(50)),
+                millis(total.latency.getValueAtPercentile(90)), millis(total.latency.getValueAtPercentile(99)),
+                millis(total.latency.getValueAtPercentile(99.9)), millis(total.latency.getMax())));
+        this.out.println(String.format("Fairness: Jain's index %.3f", jainIndex(reports)));
+        for (LoadReport report : reports) {
+            this.out.println(String.format("  process %d: %d obtained (%.1f%%), p99=%.3f ms", report.process,
+                    report.acquired, percent(report.acquired, total.acquired),
+                    millis(report.latency.getValueAtPercentile(99))));
+        }
+        this.out.println(String.format("ZK ops per obtained lock: %.2f (%d ops)",
+                total.acquired == 0 ? 0 : (double) total.zkOps / total.acquired, total.zkOps));
+    }
+
+    /**
+     * @return Jain's fairness index of the locks obtained by each process, 1 if
+     *         they are all equal, 1/n if one process obtains all of them
+     */
+    static double jainIndex(List<LoadReport> reports) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (LoadReport report : reports) {
+            sum += report.acquired;
+            sumOfSquares += (double) report.acquired * report.acquired;
+        }
+        return sumOfSquares == 0 ? 1 : sum * sum / (reports.size() * sumOfSquares);
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * A forked {@link LoadWorker}, its standard error goes to the one of the
+     * coordinator
+     */
+    private static final class WorkerProcess {
+
+        private final int index;
+        private final Process process;
+        private final BufferedReader reader;
+        private final Writer writer;
+
+        WorkerProcess(int index, List<String> args) throws IOException {
+            this.index = index;
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(LoadWorker.class.getName());
+            command.addAll(args);
+            this.process = new ProcessBuilder(command).redirectError(Redirect.INHERIT).start();
+            this.reader = new BufferedReader(new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = new OutputStreamWriter(this.process.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the first line of the worker starting with the given prefix, the
+         *         other lines are skipped
+         */
+        String readLine(String prefix) {
+            try {
+                for (String line = this.reader.readLine(); line != null; line = this.reader.readLine()) {
+                    if (line.startsWith(prefix)) {
+                        return line;
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read the output of worker " + this.index, e);
+            }
+            throw new IllegalStateException("Worker " + this.index + " exited before writing " + prefix.trim());
+        }
+
+        void go() throws IOException {
+            this.writer.write(LoadWorker.GO + System.lineSeparator());
+            this.writer.close();
+        }
+
+        /**
+         * Wait for the worker to close its ZK session, or kill it if the load test
+         * failed
+         */
+        void stop(boolean kill) throws InterruptedException {
+            if (kill || !this.process.waitFor(GRACE_SECONDS, TimeUnit.SECONDS)) {
+                this.process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import org.rainyheart.distributed.lock.api.metrics.LatencyHistogram;
+
+/**
+ * The result of a worker JVM, written to its standard output as one line:
+ * REPORT process=0 acquired=10 notAcquired=1 errors=0 reconnects=0 zkOps=40
+ * latency=12:3,13:7
+ *
+ * The latency is given as bucket:count pairs of its {@link LatencyHistogram}.
+ *
+ * @author Ken Ye
+ *
+ */
+final class LoadReport {
+
+    static final String PREFIX = "REPORT ";
+
+    int process;
+    long acquired;
+    long notAcquired;
+    long errors;
+    long reconnects;
+
+    /**
+     * ZooKeeper requests sent by the lock client
+     */
+    long zkOps;
+
+    /**
+     * Latency of the calls obtaining a lock
+     */
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    String toLine() {
+        StringBuilder line = new StringBuilder(PREFIX);
+        line.append("process=").append(this.process);
+        line.append(" acquired=").append(this.acquired);
+        line.append(" notAcquired=").append(this.notAcquired);
+        line.append(" errors=").append(this.errors);
+        line.append(" reconnects=").append(this.reconnects);
+        line.append(" zkOps=").append(this.zkOps);
+        line.append(" latency=");
+        long[] counts = this.latency.getBucketCounts();
+        String separator = "";
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] > 0) {
+                line.append(separator).append(bucket).append(':').append(counts[bucket]);
+                separator = ",";
+            }
+        }
+        return line.toString();
+    }
+
+    static LoadReport parse(String line) {
+        LoadReport report = new LoadReport();
+        for (String field : line.substring(PREFIX.length()).split(" ")) {
+            int equals = field.indexOf('=');
+            String name = field.substring(0, equals);
+            String value = field.substring(equals + 1);
+            switch (name) {
+            case "process":
+                report.process = Integer.parseInt(value);
+                break;
+            case "acquired":
+                report.acquired = Long.parseLong(value);
+                break;
+            case "notAcquired":
+                report.notAcquired = Long.parseLong(value);
+                break;
+            case "errors":
+                report.errors = Long.parseLong(value);
+                break;
+            case "reconnects":
+                report.reconnects = Long.parseLong(value);
+                break;
+            case "zkOps":
+                report.zkOps = Long.parseLong(value);
+                break;
+            case "latency":
+                report.mergeLatency(value);
+                break;
+            default:
+                break; // written by a newer worker
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Add the counts and latencies of another report to this one
+     */
+    void merge(LoadReport other) {
+        this.acquired += other.acquired;
+        this.notAcquired += other.notAcquired;
+        this.errors += other.errors;
+        this.reconnects += other.reconnects;
+        this.zkOps += other.zkOps;
+        long[] counts = other.latency.getBucketCounts();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            this.latency.record(LatencyHistogram.getBucketValue(bucket), counts[bucket]);
+        }
+    }
+
+    private void mergeLatency(String buckets) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        for (String pair : buckets.split(",")) {
+            int colon = pair.indexOf(':');
+            int bucket = Integer.parseInt(pair.substring(0, colon));
+            this.latency.record(LatencyHistogram.getBucketValue(bucket), Long.parseLong(pair.substring(colon + 1)));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.DistributedLockApiImpl;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.metrics.DistributedLockMetrics;
+import org.rainyheart.distributed.lock.thridparty.zk.ZkServerConnectionException;
+import org.rainyheart.distributed.lock.thridparty.zk.ZooKeeperManager;
+
+/**
+ * A worker JVM of a load test, forked by {@link LoadGenerator}. It connects to
+ * ZooKeeper, prints READY and waits for GO on its standard input, so all the
+ * workers start locking together. Then its threads lock random lock ids through
+ * {@link DistributedLockApi} until the duration is over, and it prints its
+ * {@link LoadReport}.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LoadWorker {
+
+    static final String READY = "READY";
+    static final String GO = "GO";
+
+    static final String APP_NAME = "distributed-lock-load";
+    static final String ADMIN_AUTH = "admin:loadtest";
+    static final String SESSION_TIMEOUT = "30000";
+    static final String LOCK_ID_PREFIX = "load-";
+
+    private final LoadWorkload workload;
+    private final ZipfianKeys keys;
+    private final DistributedLockApi api;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder notAcquired = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LoadReport report = new LoadReport();
+
+    private volatile long deadline;
+
+    LoadWorker(LoadWorkload workload, DistributedLockApi api) {
+        this.workload = workload;
+        this.keys = new ZipfianKeys(workload.keys, workload.zipfExponent);
+        this.api = api;
+    }
+
+    public static void main(String[] args) throws ZkServerConnectionException, IOException, InterruptedException {
+        LoadWorkload workload = LoadWorkload.parse(args);
+
+        ZooKeeperManager zkMgr = new ZooKeeperManager();
+        zkMgr.setAdminAuth(ADMIN_AUTH);
+        zkMgr.setAppName(APP_NAME);
+        zkMgr.setHostPort(workload.hostPort);
+        zkMgr.setSessionTimeout(SESSION_TIMEOUT);
+        DistributedLockMetrics metrics = new DistributedLockMetrics();
+        zkMgr.setMetrics(metrics);
+        zkMgr.init();
+        DistributedLockApiImpl api = new DistributedLockApiImpl();
+        api.setManager(zkMgr);
+        api.setMetrics(metrics);
+        api.init();
+
+        try {
+            System.out.println(READY);
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            if (!GO.equals(in.readLine())) {
+                return; // the coordinator gave up
+            }
+            LoadWorker worker = new LoadWorker(workload, api);
+            worker.run();
+            System.out.println(worker.report(metrics).toLine());
+        } finally {
+            zkMgr.destroy();
+        }
+    }
+
+    void run() throws InterruptedException {
+        this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.workload.durationSeconds);
+        Thread[] threads = new Thread[this.workload.threads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(this::lockUntilDeadline, "load-worker-" + this.workload.process + "-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void lockUntilDeadline() {
+        byte[] owner = Thread.currentThread().getName().getBytes(StandardCharsets.UTF_8);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() - this.deadline < 0) {
+            Lock lock = new LockImpl(LOCK_ID_PREFIX + this.keys.next(random), owner, this.workload.level);
+            try {
+                long start = System.nanoTime();
+                boolean obtained = this.workload.timeoutMillis == 0 ? this.api.tryLock(lock)
+                        : this.api.lock(lock, this.workload.timeoutMillis);
+                if (!obtained) {
+                    this.notAcquired.increment();
+                    continue;
+                }
+                this.report.latency.record(System.nanoTime() - start);
+                this.acquired.increment();
+                try {
+                    if (this.workload.holdMillis > 0) {
+                        Thread.sleep(this.workload.holdMillis);
+                    }
+                } finally {
+                    this.api.unlock(lock);
+                }
+            } catch (DistributedLockException | RuntimeException e) {
+                this.errors.increment(); // e.g. the session expired, go on with the next lock
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    LoadReport report(DistributedLockMetrics metrics) {
+        LoadReport report = this.report;
+        report.process = this.workload.process;
+        report.acquired = this.acquired.sum();
+        report.notAcquired = this.notAcquired.sum();
+        report.errors = this.errors.sum();
+        report.reconnects = metrics.getReconnects();
+        // every request of the lock client, e.g. multi, sync and getData too
+        report.zkOps = metrics.getRoundTripCount();
+        return report;
+    }
+}
@@ -0,0 +1,166 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rainyheart.distributed.lock.api.LockLevel;
+
+/**
+ * The workload of a load test, given as --name value options, e.g.
+ * --processes 4 --threads 8 --keys 100 --zipf 0.99 --hold 5 --timeout 1000
+ *
+ * @author Ken Ye
+ *
+ */
+final class LoadWorkload {
+
+    static final String PROCESSES = "--processes";
+    static final String THREADS = "--threads";
+    static final String KEYS = "--keys";
+    static final String HOLD = "--hold";
+    static final String TIMEOUT = "--timeout";
+    static final String DURATION = "--duration";
+    static final String ZIPF = "--zipf";
+    static final String LEVEL = "--level";
+    static final String HOST_PORT = "--hostPort";
+    static final String PROCESS = "--process";
+
+    /**
+     * Number of worker JVMs
+     */
+    int processes = 4;
+
+    /**
+     * Number of locking threads of each worker JVM
+     */
+    int threads = 4;
+
+    /**
+     * Number of distinct lock ids
+     */
+    int keys = 16;
+
+    /**
+     * Time in milliseconds a lock is held once it is obtained
+     */
+    long holdMillis = 10;
+
+    /**
+     * Timeout in milliseconds of a lock call, tryLock is called if it is 0
+     */
+    long timeoutMillis = 1000;
+
+    /**
+     * Time in seconds the workers lock for
+     */
+    int durationSeconds = 30;
+
+    /**
+     * Exponent of the Zipfian distribution of the lock ids, 0 is uniform
+     */
+    double zipfExponent = 0;
+
+    LockLevel level = LockLevel.APPLICATION;
+
+    /**
+     * ZooKeeper connection string, a local stand-in server is started if it is
+     * null
+     */
+    String hostPort;
+
+    /**
+     * Index of a worker JVM, -1 in the coordinator
+     */
+    int process = -1;
+
+    static LoadWorkload parse(String[] args) {
+        LoadWorkload workload = new LoadWorkload();
+        for (int i = 0; i < args.length; i += 2) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + name);
+            }
+            String value = args[i + 1];
+            switch (name) {
+            case PROCESSES:
+                workload.processes = positive(name, Integer.parseInt(value));
+                break;
+            case THREADS:
+                workload.threads = positive(name, Integer.parseInt(value));
+                break;
+            case KEYS:
+                workload.keys = positive(name, Integer.parseInt(value));
+                break;
+            case HOLD:
+                workload.holdMillis = Long.parseLong(value);
+                break;
+            case TIMEOUT:
+                workload.timeoutMillis = Long.parseLong(value);
+                break;
+            case DURATION:
+                workload.durationSeconds = positive(name, Integer.parseInt(value));
+                break;
+            case ZIPF:
+                workload.zipfExponent = Double.parseDouble(value);
+                break;
+            case LEVEL:
+                workload.level = LockLevel.valueOf(value);
+                break;
+            case HOST_PORT:
+                workload.hostPort = value;
+                break;
+            case PROCESS:
+                workload.process = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        if (workload.holdMillis < 0 || workload.timeoutMillis < 0 || workload.zipfExponent < 0) {
+            throw new IllegalArgumentException("--hold, --timeout and --zipf must not be negative");
+        }
+        return workload;
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    /**
+     * @return the options of the given worker JVM
+     */
+    List<String> toWorkerArgs(int process) {
+        List<String> args = new ArrayList<>();
+        add(args, THREADS, this.threads);
+        add(args, KEYS, this.keys);
+        add(args, HOLD, this.holdMillis);
+        add(args, TIMEOUT, this.timeoutMillis);
+        add(args, DURATION, this.durationSeconds);
+        add(args, ZIPF, this.zipfExponent);
+        add(args, LEVEL, this.level);
+        add(args, HOST_PORT, this.hostPort);
+        add(args, PROCESS, process);
+        return args;
+    }
+
+    private static void add(List<String> args, String name, Object value) {
+        args.add(name);
+        args.add(String.valueOf(value));
+    }
+
+    @Override
+    public String toString() {
+        return processes + " processes x " + threads + " threads, " + keys + " keys (zipf " + zipfExponent
+                + "), hold " + holdMillis + " ms, timeout " + timeoutMillis + " ms, " + durationSeconds + " s, "
+                + level + " level";
+    }
+
+    static String usage() {
+        return "Usage: load [" + PROCESSES + " n] [" + THREADS + " n] [" + KEYS + " n] [" + HOLD + " ms] [" + TIMEOUT
+                + " ms] [" + DURATION + " s] [" + ZIPF + " exponent] [" + LEVEL + " level] [" + HOST_PORT
+                + " host:port]";
+    }
+}
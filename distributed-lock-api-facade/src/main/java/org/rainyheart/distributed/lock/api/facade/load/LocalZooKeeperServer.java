@@ -0,0 +1,58 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * A standalone ZooKeeper server on a free local port and a temporary data
+ * directory, standing in for an ensemble during a load test
+ *
+ * @author Ken Ye
+ *
+ */
+final class LocalZooKeeperServer implements Closeable {
+
+    private static final int TICK_TIME = 2000;
+
+    /**
+     * No limit of connections, all the workers connect from the same address
+     */
+    private static final int MAX_CLIENT_CONNECTIONS = 0;
+
+    private final File dataDir;
+    private final ServerCnxnFactory factory;
+
+    LocalZooKeeperServer() throws IOException, InterruptedException {
+        this.dataDir = Files.createTempDirectory("distributed-lock-load").toFile();
+        ZooKeeperServer server = new ZooKeeperServer(this.dataDir, this.dataDir, TICK_TIME);
+        this.factory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0),
+                MAX_CLIENT_CONNECTIONS);
+        this.factory.startup(server);
+    }
+
+    String getHostPort() {
+        return "127.0.0.1:" + this.factory.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        this.factory.shutdown();
+        delete(this.dataDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,45 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pick lock ids with a Zipfian skew: the key of rank k is picked with a
+ * probability proportional to 1 / k^exponent, so a few hot keys get most of the
+ * calls. An exponent of 0 picks the keys uniformly.
+ *
+ * @author Ken Ye
+ *
+ */
+final class ZipfianKeys {
+
+    /**
+     * Cumulative probability of the keys, by rank
+     */
+    private final double[] cumulative;
+
+    ZipfianKeys(int keys, double exponent) {
+        this.cumulative = new double[keys];
+        double sum = 0;
+        for (int rank = 1; rank <= keys; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            this.cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < keys; i++) {
+            this.cumulative[i] /= sum;
+        }
+        this.cumulative[keys - 1] = 1;
+    }
+
+    /**
+     * @return the index of the next key, 0 is the hottest one
+     */
+    int next(Random random) {
+        int index = Arrays.binarySearch(this.cumulative, random.nextDouble());
+        return index >= 0 ? index : -index - 1;
+    }
+
+    int size() {
+        return this.cumulative.length;
+    }
+}
@@ -0,0 +1,154 @@
+package org.rainyheart.distributed.lock.api.facade.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.DistributedLockApiImpl;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.memory.InMemoryDistributedLockManager;
+
+/**
+ * Verify the commands of a lock daemon session, against the in-memory lock
+ * manager
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockCommandSessionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    InMemoryDistributedLockManager manager;
+    DistributedLockApiImpl api;
+    ExecutorService executor;
+
+    @Before
+    public void setup() {
+        manager = new InMemoryDistributedLockManager();
+        api = new DistributedLockApiImpl();
+        api.setManager(manager);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        manager.destroy();
+    }
+
+    @Test
+    public void testCommands() throws Exception {
+        LockCommandSession session = newSession("");
+        assertNull(session.execute("  "));
+        assertNull(session.execute("# a comment"));
+        assertEquals("OK ping", session.execute("ping"));
+        assertEquals("OK lock job-1", session.execute("lock job-1 0.5"));
+        assertEquals("OK trylock job-1", session.execute("trylock job-1"));
+        assertFalse(isFree("job-1"));
+        assertEquals("OK unlock job-1", session.execute("unlock job-1"));
+        assertEquals("OK unlock job-1", session.execute("unlock job-1"));
+        assertEquals("FAIL unlock job-1", session.execute("unlock job-1"));
+        assertTrue(isFree("job-1"));
+
+        assertTrue(session.execute("lock job-1").startsWith("ERROR Invalid lock arguments"));
+        assertTrue(session.execute("lock job-1 soon").startsWith("ERROR "));
+        assertTrue(session.execute("lock job-1 -1").startsWith("ERROR Invalid timeout"));
+        assertEquals("ERROR Unknown command: steal", session.execute("steal job-1"));
+    }
+
+    @Test
+    public void testIdsFromFile() throws Exception {
+        File ids = folder.newFile("ids.txt");
+        Files.write(ids.toPath(), Arrays.asList("job-1", "# skipped", "", "job-2", "job-3"), StandardCharsets.UTF_8);
+        LockCommandSession session = newSession("");
+        assertEquals("OK lock @" + ids + " 3/3", session.execute("lock @" + ids + " 1"));
+        assertFalse(isFree("job-2"));
+        assertEquals("OK unlock @" + ids + " 3/3", session.execute("unlock @" + ids));
+        assertTrue(isFree("job-2"));
+
+        Lock taken = newLock("job-3");
+        assertTrue(executor.submit(() -> api.tryLock(taken)).get(5, TimeUnit.SECONDS));
+        assertEquals("FAIL trylock @" + ids + " 2/3", session.execute("trylock @" + ids));
+        assertEquals("FAIL lock @" + ids + " 0/3", session.execute("lock @" + ids + " 0.1"));
+        assertEquals("FAIL unlock @" + ids + " 2/3", session.execute("unlock @" + ids));
+        assertTrue(session.execute("lock @" + ids + ".missing 1").startsWith("ERROR Unable to read the lock ids"));
+    }
+
+    @Test
+    public void testSessionReleasesLocks() throws Exception {
+        StringWriter replies = new StringWriter();
+        LockCommandSession session = new LockCommandSession(api,
+                new BufferedReader(new StringReader("lock job-1 1\ntrylock job-1\nlock job-2 1\nunlock job-2\n")),
+                new BufferedWriter(replies));
+        session.run();
+        assertEquals("OK lock job-1\nOK trylock job-1\nOK lock job-2\nOK unlock job-2\n",
+                replies.toString().replace(System.lineSeparator(), "\n"));
+        // the locks left are released once the input ends
+        assertTrue(isFree("job-1"));
+        assertTrue(isFree("job-2"));
+
+        replies = new StringWriter();
+        new LockCommandSession(api, new BufferedReader(new StringReader("lock job-1 1\nquit\nlock job-2 1\n")),
+                new BufferedWriter(replies)).run();
+        assertEquals("OK lock job-1\nOK quit\n", replies.toString().replace(System.lineSeparator(), "\n"));
+        assertTrue(isFree("job-1"));
+    }
+
+    @Test
+    public void testAnswersAreFlushedBeforeWaiting() throws Exception {
+        Lock taken = newLock("job-2");
+        assertTrue(executor.submit(() -> api.tryLock(taken)).get(5, TimeUnit.SECONDS));
+        StringWriter replies = new StringWriter();
+        Thread client = new Thread(new LockCommandSession(api,
+                new BufferedReader(new StringReader("trylock job-1\nlock job-2 10\n")), new BufferedWriter(replies)));
+        client.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!replies.toString().startsWith("OK trylock job-1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // answered while the next command is waiting for the lock
+        assertEquals("OK trylock job-1\n", replies.toString().replace(System.lineSeparator(), "\n"));
+        assertTrue(executor.submit(() -> api.unlock(taken)).get(5, TimeUnit.SECONDS));
+        client.join(5000);
+        assertEquals("OK trylock job-1\nOK lock job-2\n", replies.toString().replace(System.lineSeparator(), "\n"));
+    }
+
+    private LockCommandSession newSession(String input) {
+        return new LockCommandSession(api, new BufferedReader(new StringReader(input)),
+                new BufferedWriter(new StringWriter()));
+    }
+
+    /**
+     * @return true if another thread can obtain the lock
+     */
+    private boolean isFree(String id) throws Exception {
+        Lock lock = newLock(id);
+        return executor.submit(() -> api.tryLock(lock) && api.unlock(lock)).get(5, TimeUnit.SECONDS);
+    }
+
+    private static Lock newLock(String id) {
+        return new LockImpl(id, null, LockLevel.APPLICATION);
+    }
+}
@@ -0,0 +1,226 @@
+package org.rainyheart.distributed.lock.api.facade.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.DistributedLockApiImpl;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.memory.InMemoryDistributedLockManager;
+
+/**
+ * Verify a command runs while its lock is held, against the in-memory lock
+ * manager. The command is a JVM running {@link #main(String[])}.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockedCommandTest {
+
+    private static final String TEST_ID = "lockedCommandTestId";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    InMemoryDistributedLockManager manager;
+    DistributedLockApiImpl api;
+    ExecutorService executor;
+
+    @Before
+    public void setup() {
+        manager = new InMemoryDistributedLockManager();
+        api = new DistributedLockApiImpl();
+        api.setManager(manager);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        manager.destroy();
+    }
+
+    /**
+     * The command of the tests: wait for the file of args[1] if any, then exit
+     * with the code of args[0]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 1) {
+            File file = new File(args[1]);
+            long deadline = System.currentTimeMillis() + 30000;
+            while (!file.exists() && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+        System.exit(Integer.parseInt(args[0]));
+    }
+
+    @Test
+    public void testLockIsHeldWhileCommandRuns() throws Exception {
+        File go = new File(folder.getRoot(), "go");
+        LockedCommand command = new LockedCommand(TEST_ID, 1000, javaCommand("3", go.getPath()));
+        Future<Integer> exitCode = executor.submit(() -> command.run(api));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (isFree(TEST_ID)) {
+            assertTrue("the lock is not obtained", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertFalse(exitCode.isDone());
+        Files.createFile(go.toPath());
+        assertEquals(3, exitCode.get(30, TimeUnit.SECONDS).intValue());
+        assertTrue(isFree(TEST_ID));
+    }
+
+    @Test
+    public void testCommandIsStoppedWhenLockIsLost() throws Exception {
+        // the command would not exit before the file is created
+        File go = new File(folder.getRoot(), "go");
+        LockedCommand command = new LockedCommand(TEST_ID, 1000, javaCommand("0", go.getPath()), 50);
+        Future<Integer> exitCode = executor.submit(() -> command.run(api));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (isFree(TEST_ID)) {
+            assertTrue("the lock is not obtained", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        // released by others like an expired session does
+        Lock persistent = new LockImpl(TEST_ID, null, LockLevel.APPLICATION, 1);
+        assertTrue(executor.submit(() -> api.unlock(persistent)).get(5, TimeUnit.SECONDS));
+        assertEquals(LockedCommand.LOCK_LOST, exitCode.get(30, TimeUnit.SECONDS).intValue());
+        assertTrue(command.waitFor(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedValidationIsTriedAgain() throws Exception {
+        FailingValidationApi failingApi = new FailingValidationApi();
+        failingApi.setManager(manager);
+        failingApi.failing = true;
+        File go = new File(folder.getRoot(), "go");
+        LockedCommand command = new LockedCommand(TEST_ID, 1000, javaCommand("3", go.getPath()), 50);
+        command.setSessionTimeout(30000);
+        Future<Integer> exitCode = executor.submit(() -> command.run(failingApi));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (isFree(TEST_ID)) {
+            assertTrue("the lock is not obtained", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        // failed for several checks, but shorter than the session timeout
+        TimeUnit.MILLISECONDS.sleep(500);
+        failingApi.failing = false;
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertFalse(exitCode.isDone());
+        Files.createFile(go.toPath());
+        assertEquals(3, exitCode.get(30, TimeUnit.SECONDS).intValue());
+        assertTrue(isFree(TEST_ID));
+    }
+
+    @Test
+    public void testLockIsLostWhenValidationFailsForSessionTimeout() throws Exception {
+        FailingValidationApi failingApi = new FailingValidationApi();
+        failingApi.setManager(manager);
+        failingApi.failing = true;
+        // the command would not exit before the file is created
+        File go = new File(folder.getRoot(), "go");
+        LockedCommand command = new LockedCommand(TEST_ID, 1000, javaCommand("0", go.getPath()), 50);
+        command.setSessionTimeout(500);
+        long start = System.currentTimeMillis();
+        assertEquals(LockedCommand.LOCK_LOST, command.run(failingApi));
+        assertTrue(System.currentTimeMillis() - start >= 500);
+        assertTrue(isFree(TEST_ID));
+    }
+
+    @Test
+    public void testCommandIsNotRunWithoutLock() throws Exception {
+        Lock taken = newLock(TEST_ID);
+        assertTrue(executor.submit(() -> api.tryLock(taken)).get(5, TimeUnit.SECONDS));
+        // the command would not exit before the file is created
+        File go = new File(folder.getRoot(), "go");
+        LockedCommand command = new LockedCommand(TEST_ID, 100, javaCommand("0", go.getPath()));
+        long start = System.currentTimeMillis();
+        assertEquals(LockedCommand.LOCK_FAILURE, command.run(api));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testLockIsReleasedWhenCommandCannotStart() throws Exception {
+        LockedCommand command = new LockedCommand(TEST_ID, 1000,
+                Arrays.asList(new File(folder.getRoot(), "missing-command").getPath()));
+        try {
+            command.run(api);
+            fail("the command does not exist");
+        } catch (IOException e) {
+            assertTrue(isFree(TEST_ID));
+        }
+    }
+
+    @Test
+    public void testParse() {
+        LockedCommand.parse(new String[] { TEST_ID, "5", "--", "echo", "--", "done" });
+        for (String[] args : Arrays.asList(new String[] { TEST_ID, "5", "--" },
+                new String[] { TEST_ID, "5", "echo", "done" }, new String[] { TEST_ID, "soon", "--", "echo" },
+                new String[] { TEST_ID, "-1", "--", "echo" })) {
+            try {
+                LockedCommand.parse(args);
+                fail("invalid arguments: " + Arrays.toString(args));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static List<String> javaCommand(String... args) {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java", "-cp",
+                System.getProperty("java.class.path"), LockedCommandTest.class.getName()));
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    /**
+     * @return true if another thread can obtain the lock
+     */
+    private boolean isFree(String id) throws Exception {
+        Lock lock = newLock(id);
+        return executor.submit(() -> api.tryLock(lock) && api.unlock(lock)).get(5, TimeUnit.SECONDS);
+    }
+
+    private static Lock newLock(String id) {
+        return new LockImpl(id, null, LockLevel.APPLICATION);
+    }
+
+    /**
+     * Fails to validate a lock while failing is set, like a client which lost
+     * its connection
+     */
+    static class FailingValidationApi extends DistributedLockApiImpl {
+
+        volatile boolean failing = false;
+
+        @Override
+        public boolean validateToken(Lock lock, long fencingToken) throws DistributedLockException {
+            if (this.failing) {
+                throw new DistributedLockException("connection is lost");
+            }
+            return super.validateToken(lock, fencingToken);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.rainyheart.distributed.lock.api.facade.load;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Verify the reports of the load test workers survive their transport and the
+ * lock ids are skewed as configured
+ *
+ * @author Ken Ye
+ *
+ */
+public class LoadReportTest {
+
+    @Test
+    public void testReportLine() {
+        LoadReport report = new LoadReport();
+        report.process = 2;
+        report.acquired = 3;
+        report.notAcquired = 1;
+        report.zkOps = 12;
+        report.latency.record(1000);
+        report.latency.record(2000000);
+        report.latency.record(2000000);
+
+        LoadReport parsed = LoadReport.parse(report.toLine());
+        assertEquals(2, parsed.process);
+        assertEquals(3, parsed.acquired);
+        assertEquals(1, parsed.notAcquired);
+        assertEquals(12, parsed.zkOps);
+        assertEquals(3, parsed.latency.getCount());
+        assertArrayEquals(report.latency.getBucketCounts(), parsed.latency.getBucketCounts());
+
+        LoadReport empty = LoadReport.parse(new LoadReport().toLine());
+        assertEquals(0, empty.latency.getCount());
+    }
+
+    @Test
+    public void testJainIndex() {
+        LoadReport even = new LoadReport();
+        even.acquired = 10;
+        LoadReport starved = new LoadReport();
+        assertEquals(1, LoadGenerator.jainIndex(Arrays.asList(even, even)), 1e-9);
+        assertEquals(0.5, LoadGenerator.jainIndex(Arrays.asList(even, starved)), 1e-9);
+        assertEquals(1, LoadGenerator.jainIndex(Arrays.asList(starved, starved)), 1e-9);
+    }
+
+    @Test
+    public void testZipfianKeys() {
+        Random random = new Random(42);
+        int[] uniform = new int[10];
+        int[] skewed = new int[10];
+        ZipfianKeys uniformKeys = new ZipfianKeys(10, 0);
+        ZipfianKeys skewedKeys = new ZipfianKeys(10, 1.2);
+        for (int i = 0; i < 100000; i++) {
+            uniform[uniformKeys.next(random)]++;
+            skewed[skewedKeys.next(random)]++;
+        }
+        for (int count : uniform) {
+            assertTrue(Arrays.toString(uniform), Math.abs(count - 10000) < 1000);
+        }
+        for (int rank = 1; rank < 10; rank++) {
+            assertTrue(Arrays.toString(skewed), skewed[rank - 1] > skewed[rank]);
+        }
+        // 1 / H(10, 1.2) of the calls go to the hottest key
+        assertTrue(Arrays.toString(skewed), skewed[0] > 35000);
+    }
+}
@@ -1,5 +1,9 @@
 package org.rainyheart.distributed.lock.api;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
 
 public interface DistributedLockApi {
@@ -25,6 +29,9 @@ public interface DistributedLockApi {
      * obtained unless timeout. If timeout < 0, then the current thread will be
      * always blocked. If timeout = 0, it equals to {@link tryLock}
      * 
+     * The lock is reentrant, a thread already holding it obtains it again at once
+     * and needs to unlock it as many times as it is obtained.
+     * 
      * @param lock:
      *            the lock instance to obtain
      * @return true: acquire lock successfully, false: fail to acquire lock
@@ -35,7 +42,8 @@ public interface DistributedLockApi {
     public boolean lock(Lock lock, long timeout) throws DistributedLockException;
 
     /**
-     * This API will try to unlock the specific lock object.
+     * This API will try to unlock the specific lock object. The lock is released
+     * by the last unlock of the owner thread only.
      * 
      * @param lock:
      *            the lock instance to obtain
@@ -45,4 +53,248 @@ public interface DistributedLockApi {
      *             lock
      */
     public boolean unlock(Lock lock) throws DistributedLockException;
+
+    /**
+     * Same as {@link #lock(Lock, long)} but return a handle carrying the fencing
+     * token of this holding of the lock. The token of a later holder is always
+     * greater, so a downstream store remembering the greatest token it has seen
+     * can reject the writes of a holder which has lost the lock in the meantime,
+     * e.g. after a long GC pause. The lock is released by {@link #unlock(Lock)}
+     * as usual, and a reentered lock returns the token it is held with.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @param timeout:
+     *            the max time to wait in milliseconds, the same as
+     *            {@link #lock(Lock, long)}
+     * @return the handle of the obtained lock, null if failed to acquire lock
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             lock
+     */
+    public LockHandle lockWithToken(Lock lock, long timeout) throws DistributedLockException;
+
+    /**
+     * Check the fencing token against the current holder of the lock without
+     * obtaining the lock, e.g. by a store before it accepts a write.
+     * 
+     * @param lock:
+     *            the lock instance the token is obtained with
+     * @param fencingToken:
+     *            the fencing token to check
+     * @return true: the token belongs to the current holder of the lock, false:
+     *         the lock is released or held by another holding
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to check the
+     *             current holder of the given lock
+     */
+    public boolean validateToken(Lock lock, long fencingToken) throws DistributedLockException;
+
+    /**
+     * Asynchronous version of {@link #tryLock(Lock)}. The returned future may be
+     * completed by the thread of the underlying lock client, so please use the
+     * *Async methods of CompletableFuture with your own executor for any blocking
+     * work depending on it.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @return a future of true: acquire lock successfully, false: fail to acquire
+     *         lock, it is completed exceptionally with a DistributedLockException
+     *         if failed to lock the given lock
+     */
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock);
+
+    /**
+     * Asynchronous version of {@link #lock(Lock, long)}. No thread is blocked
+     * while waiting for the lock, the future is completed when the lock is
+     * obtained or timeout. If timeout < 0, then the future is completed only when
+     * the lock is obtained.
+     * 
+     * A lock obtained by this API can be released by
+     * {@link #unlockAsync(Lock)} from any thread with an equal lock instance.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @return a future of true: acquire lock successfully, false: fail to acquire
+     *         lock, it is completed exceptionally with a DistributedLockException
+     *         if failed to lock the given lock
+     */
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout);
+
+    /**
+     * Asynchronous version of {@link #unlock(Lock)}
+     * 
+     * @param lock:
+     *            the lock instance to release
+     * @return a future of true: unlock successfully, false: unlock failed, it is
+     *         completed exceptionally with a DistributedLockException if failed
+     *         to unlock the given lock
+     */
+    public CompletableFuture<Boolean> unlockAsync(Lock lock);
+
+    /**
+     * This API will try to get a shared read lock for the specific lock object.
+     * Many threads and processes can hold the read lock of the same id at once,
+     * but not together with the write lock of it.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @return true: acquire read lock successfully, false: fail to acquire lock
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             lock
+     */
+    public boolean tryReadLock(Lock lock) throws DistributedLockException;
+
+    /**
+     * Same as {@link #tryReadLock(Lock)} but block current thread until the read
+     * lock is obtained unless timeout. A reader only waits for the write locks
+     * requested before it.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @param timeout:
+     *            the max time to wait in milliseconds, < 0 to wait until it is
+     *            obtained
+     * @return true: acquire read lock successfully, false: fail to acquire lock
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             lock
+     */
+    public boolean readLock(Lock lock, long timeout) throws DistributedLockException;
+
+    /**
+     * This API will try to release the read lock of the specific lock object
+     * held by current thread.
+     * 
+     * @param lock:
+     *            the lock instance to release
+     * @return true: unlock successfully, false: unlock failed
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to unlock the given
+     *             lock
+     */
+    public boolean readUnlock(Lock lock) throws DistributedLockException;
+
+    /**
+     * The exclusive write lock of the specific lock object, it is the same lock
+     * as {@link #tryLock(Lock)}.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @return true: acquire write lock successfully, false: fail to acquire lock
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             lock
+     */
+    public boolean tryWriteLock(Lock lock) throws DistributedLockException;
+
+    /**
+     * The exclusive write lock of the specific lock object, it is the same lock
+     * as {@link #lock(Lock, long)}. A writer waits for all the readers and
+     * writers requested before it.
+     * 
+     * @param lock:
+     *            the lock instance to obtain
+     * @param timeout:
+     *            the max time to wait in milliseconds, < 0 to wait until it is
+     *            obtained
+     * @return true: acquire write lock successfully, false: fail to acquire lock
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             lock
+     */
+    public boolean writeLock(Lock lock, long timeout) throws DistributedLockException;
+
+    /**
+     * Release the write lock, it is the same as {@link #unlock(Lock)}.
+     * 
+     * @param lock:
+     *            the lock instance to release
+     * @return true: unlock successfully, false: unlock failed
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to unlock the given
+     *             lock
+     */
+    public boolean writeUnlock(Lock lock) throws DistributedLockException;
+
+    /**
+     * Turn the write lock held by current thread into a read lock without
+     * releasing it in between, so no other writer can get in. The read lock is
+     * released by {@link #readUnlock(Lock)} afterwards. A write lock reentered
+     * more than once cannot be downgraded.
+     * 
+     * @param lock:
+     *            the lock instance of the write lock
+     * @return true: downgrade successfully, false: the write lock is not held by
+     *         current thread
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to downgrade the
+     *             given lock
+     */
+    public boolean downgradeWriteLock(Lock lock) throws DistributedLockException;
+
+    /**
+     * This API will try to get all the given locks at once, all or nothing. The
+     * locks are requested in one transaction and in a canonical order, so two
+     * callers asking for some of the same locks in different orders cannot
+     * deadlock each other. It blocks current thread until all the locks are
+     * obtained unless timeout, the timeout has the same meaning as
+     * {@link #lock(Lock, long)}.
+     * 
+     * @param locks:
+     *            the lock instances to obtain
+     * @param timeout:
+     *            the max time to wait in milliseconds
+     * @return true: all the locks are obtained, false: none of them is obtained
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             locks
+     */
+    public boolean lockAll(Collection<Lock> locks, long timeout) throws DistributedLockException;
+
+    /**
+     * This API will release all the given locks in one transaction.
+     * 
+     * @param locks:
+     *            the lock instances to release
+     * @return true: all the locks are released, false: some of them are not held
+     *         by current thread or fail to release
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to unlock the given
+     *             locks
+     */
+    public boolean unlockAll(Collection<Lock> locks) throws DistributedLockException;
+
+    /**
+     * This API will try to get each of the given locks without waiting, e.g. to
+     * claim a batch of work items. Unlike {@link #lockAll(Collection, long)} the
+     * locks are independent, the ones held by others are skipped and the others
+     * are obtained. The requests are pipelined, so a batch costs about the same
+     * round trips as a single {@link #tryLock(Lock)}. A lock given twice is
+     * obtained once.
+     * 
+     * @param locks:
+     *            the lock instances to obtain
+     * @return the obtained locks in the given order, an empty list if none of
+     *         them is obtained
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to lock the given
+     *             locks
+     */
+    public List<Lock> tryLockBatch(List<Lock> locks) throws DistributedLockException;
+
+    /**
+     * This API will release each of the given locks, the requests are
+     * pipelined.
+     * 
+     * @param locks:
+     *            the lock instances to release
+     * @return the released locks, the ones not held by current thread or fail
+     *         to release are left out
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to unlock the given
+     *             locks
+     */
+    public List<Lock> unlockBatch(List<Lock> locks) throws DistributedLockException;
 }
@@ -1,5 +1,9 @@
 package org.rainyheart.distributed.lock.api;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
 
 public interface DistributedLockManager {
@@ -74,6 +78,31 @@ public interface DistributedLockManager {
      */
     public boolean unlock(Lock lock) throws DistributedLockException;
 
+    /**
+     * Obtain the lock and its fencing token
+     * 
+     * @param lock:
+     *            lock instance to try to obtain
+     * @param timeout:
+     *            timeout value to obtain the given lock
+     * @return the handle of the obtained lock, or null if it is not obtained
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to obtain this lock
+     */
+    public LockHandle lockWithToken(Lock lock, long timeout) throws DistributedLockException;
+
+    /**
+     * 
+     * @param lock:
+     *            lock instance the token is obtained with
+     * @param fencingToken:
+     *            the fencing token to check
+     * @return the token belongs to the current holder of this lock or not
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to check this lock
+     */
+    public boolean validateToken(Lock lock, long fencingToken) throws DistributedLockException;
+
     /**
      * AppLevel unlock by the given lock id
      * 
@@ -106,4 +135,131 @@ public interface DistributedLockManager {
      *             throw this exception when anything wrong to release this lock
      */
     public boolean globalUnlock(String id) throws DistributedLockException;
+
+    /**
+     * Asynchronous version of {@link #tryLock(Lock)}
+     * 
+     * @param lock:
+     *            lock instance to try to obtain
+     * @return a future completed with success or not to obtain this lock, or
+     *         completed exceptionally with a DistributedLockException when
+     *         anything wrong to obtain this lock
+     */
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock);
+
+    /**
+     * Asynchronous version of {@link #lock(Lock, long)}, no thread is blocked
+     * while waiting for the lock
+     * 
+     * @param lock:
+     *            lock instance to try to obtain
+     * @param timeout:
+     *            timeout value to obtain the given lock
+     * @return a future completed with success or not to obtain this lock, or
+     *         completed exceptionally with a DistributedLockException when
+     *         anything wrong to obtain this lock
+     */
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout);
+
+    /**
+     * Asynchronous version of {@link #unlock(Lock)}
+     * 
+     * @param lock:
+     *            lock instance to try to release
+     * @return a future completed with success or not to release this lock, or
+     *         completed exceptionally with a DistributedLockException when
+     *         anything wrong to release this lock
+     */
+    public CompletableFuture<Boolean> unlockAsync(Lock lock);
+
+    /**
+     * 
+     * @param lock:
+     *            lock instance to try to obtain as a shared read lock
+     * @return success or not to obtain this read lock
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to obtain this lock
+     */
+    public boolean tryReadLock(Lock lock) throws DistributedLockException;
+
+    /**
+     * 
+     * @param lock:
+     *            lock instance to try to obtain as a shared read lock
+     * @param timeout:
+     *            timeout value to obtain the given lock
+     * @return success or not to obtain this read lock
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to obtain this lock
+     */
+    public boolean readLock(Lock lock, long timeout) throws DistributedLockException;
+
+    /**
+     * 
+     * @param lock:
+     *            lock instance to try to release the read lock
+     * @return success or not to release this read lock
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to release this lock
+     */
+    public boolean readUnlock(Lock lock) throws DistributedLockException;
+
+    /**
+     * Turn the write (exclusive) lock held by current thread into a read lock
+     * atomically
+     * 
+     * @param lock:
+     *            lock instance of the write lock to downgrade
+     * @return success or not to downgrade this lock
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to downgrade this lock
+     */
+    public boolean downgradeWriteLock(Lock lock) throws DistributedLockException;
+
+    /**
+     * Obtain all the given locks in one transaction, all or nothing
+     * 
+     * @param locks:
+     *            lock instances to try to obtain
+     * @param timeout:
+     *            timeout value to obtain the given locks
+     * @return success or not to obtain all the locks
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to obtain the locks
+     */
+    public boolean lockAll(Collection<Lock> locks, long timeout) throws DistributedLockException;
+
+    /**
+     * Release all the given locks in one transaction
+     * 
+     * @param locks:
+     *            lock instances to try to release
+     * @return success or not to release all the locks
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to release the locks
+     */
+    public boolean unlockAll(Collection<Lock> locks) throws DistributedLockException;
+
+    /**
+     * Try to obtain each of the given locks without waiting, the requests are
+     * pipelined
+     * 
+     * @param locks:
+     *            lock instances to try to obtain
+     * @return the obtained locks in the given order
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to obtain the locks
+     */
+    public List<Lock> tryLockBatch(List<Lock> locks) throws DistributedLockException;
+
+    /**
+     * Release each of the given locks, the requests are pipelined
+     * 
+     * @param locks:
+     *            lock instances to try to release
+     * @return the released locks
+     * @throws DistributedLockException:
+     *             throw this exception when anything wrong to release the locks
+     */
+    public List<Lock> unlockBatch(List<Lock> locks) throws DistributedLockException;
 }
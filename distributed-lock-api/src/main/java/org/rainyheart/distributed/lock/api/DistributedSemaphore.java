@@ -0,0 +1,83 @@
+package org.rainyheart.distributed.lock.api;
+
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+
+/**
+ * A counting semaphore shared by all the nodes, e.g. to cap the concurrent
+ * access to a downstream system. The semaphore is identified by the id and
+ * level of the given lock instance, and every caller of the same semaphore must
+ * use the same maxPermits.
+ *
+ * The permits are not owned by the acquiring thread, any thread of the same
+ * process can release them.
+ *
+ * @author Ken Ye
+ *
+ */
+public interface DistributedSemaphore {
+
+    /**
+     * Try to acquire the given number of permits without waiting
+     *
+     * @param semaphore:
+     *            the lock instance identifying the semaphore
+     * @param permits:
+     *            the number of permits to acquire
+     * @param maxPermits:
+     *            the total number of permits of the semaphore
+     * @return true: permits are acquired, false: not enough permits available
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to acquire the
+     *             permits
+     */
+    public boolean tryAcquire(Lock semaphore, int permits, int maxPermits) throws DistributedLockException;
+
+    /**
+     * Acquire the given number of permits, block current thread until they are
+     * acquired unless timeout. If timeout < 0, then the current thread will be
+     * always blocked. If timeout = 0, it equals to
+     * {@link #tryAcquire(Lock, int, int)}. The waiters are served in FIFO order.
+     *
+     * @param semaphore:
+     *            the lock instance identifying the semaphore
+     * @param permits:
+     *            the number of permits to acquire
+     * @param maxPermits:
+     *            the total number of permits of the semaphore
+     * @param timeout:
+     *            the max time to wait in milliseconds
+     * @return true: permits are acquired, false: timeout
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to acquire the
+     *             permits
+     */
+    public boolean acquire(Lock semaphore, int permits, int maxPermits, long timeout)
+            throws DistributedLockException;
+
+    /**
+     * Release the given number of permits acquired by this process
+     *
+     * @param semaphore:
+     *            the lock instance identifying the semaphore
+     * @param permits:
+     *            the number of permits to release
+     * @return true: released successfully, false: this process does not hold so
+     *         many permits
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to release the
+     *             permits
+     */
+    public boolean release(Lock semaphore, int permits) throws DistributedLockException;
+
+    /**
+     * @param semaphore:
+     *            the lock instance identifying the semaphore
+     * @param maxPermits:
+     *            the total number of permits of the semaphore
+     * @return the number of permits not acquired or waited for by anyone
+     * @throws DistributedLockException:
+     *             throws an DistributedLockException if failed to read the
+     *             semaphore
+     */
+    public int availablePermits(Lock semaphore, int maxPermits) throws DistributedLockException;
+}
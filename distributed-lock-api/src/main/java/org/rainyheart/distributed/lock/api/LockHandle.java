@@ -0,0 +1,16 @@
+package org.rainyheart.distributed.lock.api;
+
+public interface LockHandle {
+    /**
+     *
+     * @return the lock instance this handle is obtained with
+     */
+    public Lock lock();
+
+    /**
+     *
+     * @return the fencing token of this holding of the lock, it is greater than
+     *         the token of any earlier holding of the same lock
+     */
+    public long fencingToken();
+}
@@ -1,24 +1,34 @@
 package org.rainyheart.distributed.lock.api.annotation;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
+import org.springframework.expression.ExpressionException;
+import org.springframework.util.ClassUtils;
+
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+
+/**
+ * Resolve the lock ids of @DistributedLock, see {@link LockIdExpression}. The
+ * ids are parsed once per method into its {@link LockDescriptor}, the later
+ * calls only read the arguments.
+ *
+ * @author Ken Ye
+ *
+ */
 public final class AnnotationResolver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AnnotationResolver.class);
 
-    private static final String SPACE = "";
-
     private static volatile AnnotationResolver resolver;
 
-    private static final Pattern REGEX = Pattern.compile("#\\{\\D*\\}");
+    private final ConcurrentMap<Method, LockDescriptor> descriptors = new ConcurrentHashMap<>();
 
     private AnnotationResolver() {
         super();
@@ -35,83 +45,103 @@ public final class AnnotationResolver {
         return resolver;
     }
 
+    /**
+     * @param joinPoint:
+     *            the call of the annotated method
+     * @param str:
+     *            the id of the annotation
+     * @return the value of the id for the call, null if it cannot be resolved
+     */
     public Object resolve(JoinPoint joinPoint, String str) {
         if (str == null) {
             return null;
         }
-        Object value = null;
-        Matcher matcher = REGEX.matcher(str);
-        if (matcher.matches()) {
-            String newStr = str.replaceAll("#\\{", SPACE).replaceAll("\\}", SPACE);
-            if (newStr.contains(".")) {
-                try {
-                    value = complexResolver(joinPoint, newStr);
-                } catch (Exception e) {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.error(e.getMessage(), e);
-                    }
-                }
-            } else {
-                value = simpleResolver(joinPoint, newStr);
+        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
+        LockIdExpression expression = null;
+        try {
+            expression = getDescriptor(joinPoint).getId(str);
+        } catch (DistributedLockException e) {
+            // not annotated, or another id of it is invalid
+        }
+        if (expression == null) {
+            try {
+                expression = LockIdExpression.parse(str, methodSignature.getParameterNames());
+            } catch (ExpressionException e) {
+                LOGGER.error("Invalid lock id " + str + " of " + methodSignature.getMethod(), e);
+                return null;
             }
-        } else {
-            value = str;
         }
-        return value;
+        return getValue(expression, joinPoint.getArgs());
     }
 
-    private Object complexResolver(JoinPoint joinPoint, String str) throws NoSuchMethodException, SecurityException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+    /**
+     * @return the descriptor of the annotated method of the call, parsed at
+     *         its first call
+     */
+    LockDescriptor getDescriptor(JoinPoint joinPoint) throws DistributedLockException {
         MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
-
-        String[] names = methodSignature.getParameterNames();
-        Object[] args = joinPoint.getArgs();
-        String[] strs = str.split("\\.");
-
-        for (int i = 0; i < names.length; i++) {
-            if (strs[0].equals(names[i])) {
-                Object obj = args[i];
-                Method dmethod = obj.getClass().getDeclaredMethod(getMethodName(strs[1]), null);
-                Object value = dmethod.invoke(args[i]);
-                return getValue(value, 1, strs);
+        Method method = methodSignature.getMethod();
+        LockDescriptor descriptor = this.descriptors.get(method);
+        if (descriptor == null) {
+            descriptor = newDescriptor(joinPoint, methodSignature);
+            LockDescriptor existing = this.descriptors.putIfAbsent(method, descriptor);
+            if (existing != null) {
+                descriptor = existing;
             }
         }
-
-        return null;
+        return descriptor;
     }
 
-    private Object getValue(Object obj, int index, String[] strs) {
-        try {
-            if (obj != null && index < strs.length - 1) {
-                Method method = obj.getClass().getDeclaredMethod(getMethodName(strs[index + 1]), null);
-                obj = method.invoke(obj);
-                getValue(obj, index + 1, strs);
-            }
-
-            return obj;
-
-        } catch (Exception e) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.error(e.getMessage(), e);
+    private static LockDescriptor newDescriptor(JoinPoint joinPoint, MethodSignature methodSignature)
+            throws DistributedLockException {
+        Method method = methodSignature.getMethod();
+        DistributedLock[] annotations = method.getAnnotationsByType(DistributedLock.class);
+        if (annotations.length == 0 && joinPoint.getTarget() != null) {
+            // annotated by the implementation of an interface method
+            annotations = ClassUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass())
+                    .getAnnotationsByType(DistributedLock.class);
+        }
+        if (annotations.length == 0) {
+            throw new DistributedLockException("No @DistributedLock on " + method);
+        }
+        LockIdExpression[] ids = new LockIdExpression[annotations.length];
+        LockLevel[] levels = new LockLevel[annotations.length];
+        long timeout = 0;
+        for (int i = 0; i < annotations.length; i++) {
+            try {
+                ids[i] = LockIdExpression.parse(annotations[i].id(), methodSignature.getParameterNames());
+            } catch (ExpressionException e) {
+                throw new DistributedLockException("Invalid lock id " + annotations[i].id() + " of " + method, e);
             }
-            return null;
+            levels[i] = annotations[i].level();
+            timeout = longerTimeout(timeout, annotations[i].timeout());
         }
+        return new LockDescriptor(method.getName(), ids, levels, timeout);
     }
 
-    private String getMethodName(String name) {
-        return "get" + name.replaceFirst(name.substring(0, 1), name.substring(0, 1).toUpperCase());
+    /**
+     * @return the longer timeout, a negative one waits forever
+     */
+    static long longerTimeout(long timeout, long another) {
+        if (timeout < 0 || another < 0) {
+            return -1;
+        }
+        return Math.max(timeout, another);
     }
 
-    private Object simpleResolver(JoinPoint joinPoint, String str) {
-        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
-        String[] names = methodSignature.getParameterNames();
-        Object[] args = joinPoint.getArgs();
-
-        for (int i = 0; i < names.length; i++) {
-            if (str.equals(names[i])) {
-                return args[i];
+    /**
+     * @return the value of the expression, null if it fails
+     */
+    static Object getValue(LockIdExpression expression, Object[] args) {
+        try {
+            return expression.getValue(args);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.error("Fail to resolve " + expression.getSource() + ": " + e.getMessage(), e);
             }
+            return null;
         }
-        return null;
     }
-
 }
@@ -6,6 +6,7 @@ package org.rainyheart.distributed.lock.api.annotation;
 import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
+import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 
@@ -13,7 +14,13 @@ import org.rainyheart.distributed.lock.api.LockLevel;
 
 @Retention(RUNTIME)
 @Target(METHOD)
+@Repeatable(DistributedLocks.class)
 /**
+ * Lock the id while the method runs. Repeated, all the ids are obtained at
+ * once in a canonical order, see
+ * {@link org.rainyheart.distributed.lock.api.DistributedLockApi#lockAll},
+ * waiting up to the longest timeout.
+ *
  * @author Ken Ye
  *
  */
@@ -1,18 +1,12 @@
 package org.rainyheart.distributed.lock.api.annotation;
 
-import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
-import javax.annotation.PreDestroy;
-
-import org.aspectj.lang.JoinPoint;
-import org.aspectj.lang.annotation.After;
-import org.aspectj.lang.annotation.AfterThrowing;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.annotation.Before;
 import org.aspectj.lang.annotation.Pointcut;
-import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,84 +26,79 @@ public class DistributedLockAspect {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DistributedLockAspect.class);
 
-    private ThreadLocal<Map<JoinPoint, Lock>> lockHolder = new ThreadLocal<>();
-
     @Autowired
     private DistributedLockApi api;
 
-    @Pointcut("@annotation(org.rainyheart.distributed.lock.api.annotation.DistributedLock)")
+    @Pointcut("@annotation(org.rainyheart.distributed.lock.api.annotation.DistributedLock)"
+            + " || @annotation(org.rainyheart.distributed.lock.api.annotation.DistributedLocks)")
     public void pointcut() {
         // No need to do anything
     }
 
-    @Before(value = "pointcut() && @annotation(distributedLock)")
-    public void before(JoinPoint point, DistributedLock distributedLock) throws DistributedLockException {
-        if (this.lockHolder.get() != null && this.lockHolder.get().size() > 0) {
-            throw new DistributedLockException("Cannot obtain another lock:" + distributedLock.id()
-                    + " because an existing lock " + this.lockHolder.get() + " had existed!");
-        }
-
-        String methodFullName = point.getTarget().getClass().getName() + point.getSignature().getName();
-
-        String id = distributedLock.id();
-        if (id.contains("#")) {
-            MethodSignature methodSignature = (MethodSignature) point.getSignature();
-            Method method = methodSignature.getMethod();
-            DistributedLock definedLock = method.getAnnotation(DistributedLock.class);
-
-            Object idInParm = AnnotationResolver.getInstance().resolve(point, definedLock.id());
-            if (idInParm instanceof String) {
-                id = (String) idInParm;
-            } else {
-                // this should never happen unless the id inside @DistributedLock is changed
-                throw new DistributedLockException(
-                        "Fail to handle the parameter in " + methodFullName + ", idInParm: " + idInParm);
+    /**
+     * The locks are kept on the call stack of the annotated method instead of a
+     * ThreadLocal, nested calls are allowed because the locks are reentrant and
+     * they are released in the reverse order. The annotations are parsed at the
+     * first call of the method, see {@link LockDescriptor}. A repeated
+     * annotation obtains all its locks at once by
+     * {@link DistributedLockApi#lockAll}.
+     */
+    @Around(value = "pointcut()")
+    public Object around(ProceedingJoinPoint point) throws Throwable {
+        LockDescriptor descriptor = AnnotationResolver.getInstance().getDescriptor(point);
+        LockDescriptor.LockTarget target = descriptor.target(point.getTarget().getClass());
+        Object[] args = point.getArgs();
+
+        long timeout = descriptor.getTimeout();
+        Lock lock = null;
+        List<Lock> locks = null;
+        boolean obtained;
+        if (descriptor.size() == 1) {
+            lock = newLock(descriptor, 0, args, target);
+            obtained = lock(lock, timeout);
+        } else {
+            locks = new ArrayList<>(descriptor.size());
+            for (int i = 0; i < descriptor.size(); i++) {
+                locks.add(newLock(descriptor, i, args, target));
             }
+            obtained = api.lockAll(locks, timeout);
         }
-
-        long timeout = distributedLock.timeout();
-        Lock lock = new LockImpl(id, methodFullName.getBytes(), distributedLock.level());
-        if (lock(lock, timeout)) {
-            Map<JoinPoint, Lock> map = new HashMap<>();
-            map.put(point, lock);
-            lockHolder.set(map);
-        } else {
-            throw new DistributedLockException("Failed to get lock for " + lock + " in " + methodFullName);
+        if (!obtained) {
+            throw new DistributedLockException(
+                    "Failed to get lock for " + (lock != null ? lock : locks) + " in " + target.methodFullName);
         }
-    }
-
-    @After(value = "pointcut() && @annotation(distributedLock)")
-    public void after(JoinPoint point, DistributedLock distributedLock) throws DistributedLockException {
-        Map<JoinPoint, Lock> map = lockHolder.get();
-        if (map != null && map.get(point) != null) {
+        Object result;
+        try {
+            result = point.proceed();
+        } catch (Throwable e) {
+            LOGGER.error("Exception occurred in distributed lock operation", e);
             try {
-                api.unlock(map.get(point));
-            } finally {
-                lockHolder.remove();
+                unlock(lock, locks);
+            } catch (Exception unlockEx) {
+                LOGGER.error("Failed to unlock during exception handling", unlockEx);
             }
+            throw e;
         }
+        unlock(lock, locks);
+        return result;
     }
 
-    @AfterThrowing(value = "pointcut()", throwing = "e")
-    public void afterThrow(JoinPoint point, Exception e) throws DistributedLockException {
-        try {
-        LOGGER.error("Exception occurred in distributed lock operation", e);
-        Map<JoinPoint, Lock> lockMap = lockHolder.get();
-        if (lockMap != null) {
-            Lock lock = lockMap.get(point);
-            if (lock != null) {
-                try {
-                    api.unlock(lock);
-                } catch (Exception unlockEx) {
-                    LOGGER.error("Failed to unlock during exception handling", unlockEx);
-                }
-            }
-            lockMap.remove(point);
+    private static Lock newLock(LockDescriptor descriptor, int index, Object[] args, LockDescriptor.LockTarget target)
+            throws DistributedLockException {
+        String id = descriptor.resolveId(index, args);
+        if (id == null) {
+            throw new DistributedLockException("Fail to handle the parameter in " + target.methodFullName
+                    + ", idInParm: " + descriptor.getSource(index));
         }
-    } finally {
-        // Ensure ThreadLocal is always cleaned up
-        lockHolder.remove();
+        return new LockImpl(id, target.value, descriptor.getLevel(index));
     }
+
+    private void unlock(Lock lock, List<Lock> locks) throws DistributedLockException {
+        if (lock != null) {
+            api.unlock(lock);
+        } else if (!api.unlockAll(locks)) {
+            LOGGER.warn("Failed to release all the locks {}", locks);
+        }
     }
 
     private boolean lock(Lock lock, long timeout) throws DistributedLockException {
@@ -119,9 +108,4 @@ public class DistributedLockAspect {
             return api.tryLock(lock);
         }
     }
-    
-    @PreDestroy
-    public void cleanup() {
-        lockHolder.remove();
-    }
 }
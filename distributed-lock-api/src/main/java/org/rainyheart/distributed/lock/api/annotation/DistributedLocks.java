@@ -0,0 +1,20 @@
+package org.rainyheart.distributed.lock.api.annotation;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * The container of a repeated {@link DistributedLock}, all the locks are
+ * obtained at once before the method is called
+ *
+ * @author Ken Ye
+ *
+ */
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface DistributedLocks {
+    DistributedLock[] value();
+}
@@ -0,0 +1,101 @@
+package org.rainyheart.distributed.lock.api.annotation;
+
+import org.rainyheart.distributed.lock.api.LockLevel;
+
+/**
+ * What {@link DistributedLockAspect} needs to lock a call of an annotated
+ * method, computed at its first call: the parsed ids and their levels, the
+ * timeout and the lock value of the target class.
+ *
+ * @author Ken Ye
+ *
+ */
+final class LockDescriptor {
+
+    private final String methodName;
+    private final LockIdExpression[] ids;
+    private final LockLevel[] levels;
+    private final long timeout;
+
+    private volatile LockTarget target;
+
+    LockDescriptor(String methodName, LockIdExpression[] ids, LockLevel[] levels, long timeout) {
+        this.methodName = methodName;
+        this.ids = ids;
+        this.levels = levels;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the number of locks of a call
+     */
+    int size() {
+        return this.ids.length;
+    }
+
+    /**
+     * @param index:
+     *            index of the lock, in the order of the annotations
+     * @param args:
+     *            the arguments of the call
+     * @return the lock id of the call, null if it cannot be resolved
+     */
+    String resolveId(int index, Object[] args) {
+        Object value = AnnotationResolver.getValue(this.ids[index], args);
+        return value == null ? null : value.toString();
+    }
+
+    String getSource(int index) {
+        return this.ids[index].getSource();
+    }
+
+    /**
+     * @param source:
+     *            an id of the annotations
+     * @return the parsed id, null if no annotation of the method has it
+     */
+    LockIdExpression getId(String source) {
+        for (LockIdExpression id : this.ids) {
+            if (id.getSource().equals(source)) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param targetClass:
+     *            the class of the called object
+     * @return the name of the called method and the lock value, the last one
+     *         is kept since a method is mostly called on one class
+     */
+    LockTarget target(Class<?> targetClass) {
+        LockTarget target = this.target;
+        if (target == null || target.type != targetClass) {
+            target = new LockTarget(targetClass, targetClass.getName() + this.methodName);
+            this.target = target;
+        }
+        return target;
+    }
+
+    LockLevel getLevel(int index) {
+        return this.levels[index];
+    }
+
+    long getTimeout() {
+        return this.timeout;
+    }
+
+    static final class LockTarget {
+
+        final Class<?> type;
+        final String methodFullName;
+        final byte[] value;
+
+        LockTarget(Class<?> type, String methodFullName) {
+            this.type = type;
+            this.methodFullName = methodFullName;
+            this.value = methodFullName.getBytes();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.rainyheart.distributed.lock.api.annotation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+/**
+ * The id of a @DistributedLock parsed once for its method:
+ *
+ * <pre>
+ * "orders"                       a constant id
+ * "#{orderId}"                   the parameter orderId
+ * "#{order.customer.id}"         a property of a parameter, read by its getters
+ * "#{#order.type + ':' + #p1}"   a SpEL expression, the parameters are its
+ *                                variables by name and as p0, p1...
+ * "order:#{order.id}"            a template of the ones above
+ * </pre>
+ *
+ * @author Ken Ye
+ *
+ */
+abstract class LockIdExpression {
+
+    private static final Pattern EXPRESSION = Pattern.compile("#\\{([^}]*)\\}");
+
+    private static final Pattern PROPERTY_PATH = Pattern
+            .compile("\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*"
+                    + "(\\.\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)*");
+
+    private static final String PARAMETER_ALIAS = "p";
+
+    private static final SpelExpressionParser SPEL_PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, LockIdExpression.class.getClassLoader()));
+
+    private final String source;
+
+    LockIdExpression(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @param args:
+     *            the arguments of the call
+     * @return the value of the expression, null if a parameter or a property
+     *         of it is null
+     */
+    abstract Object getValue(Object[] args) throws Throwable;
+
+    String getSource() {
+        return this.source;
+    }
+
+    /**
+     * @param source:
+     *            the id of the annotation
+     * @param parameterNames:
+     *            the parameter names of the method, null if they are unknown
+     */
+    static LockIdExpression parse(String source, String[] parameterNames) {
+        String[] names = parameterNames == null ? new String[0] : parameterNames;
+        Matcher matcher = EXPRESSION.matcher(source);
+        List<LockIdExpression> parts = new ArrayList<>();
+        int end = 0;
+        while (matcher.find()) {
+            if (matcher.start() > end) {
+                parts.add(new Constant(source.substring(end, matcher.start())));
+            }
+            parts.add(compile(matcher.group(), matcher.group(1).trim(), names));
+            end = matcher.end();
+        }
+        if (parts.isEmpty()) {
+            return new Constant(source);
+        }
+        if (end < source.length()) {
+            parts.add(new Constant(source.substring(end)));
+        }
+        return parts.size() == 1 ? parts.get(0) : new Template(source, parts);
+    }
+
+    private static LockIdExpression compile(String source, String expression, String[] names) {
+        if (!PROPERTY_PATH.matcher(expression).matches()) {
+            return new Spel(source, SPEL_PARSER.parseExpression(expression), names);
+        }
+        String[] path = expression.split("\\.");
+        for (int i = 0; i < names.length; i++) {
+            if (path[0].equals(names[i])) {
+                PropertyAccessor[] accessors = new PropertyAccessor[path.length - 1];
+                for (int j = 1; j < path.length; j++) {
+                    accessors[j - 1] = new PropertyAccessor(path[j]);
+                }
+                return new PropertyPath(source, i, accessors);
+            }
+        }
+        // an unknown parameter resolves to nothing
+        return new Constant(source, null);
+    }
+
+    /**
+     * A constant id, or a constant part of a template
+     */
+    static final class Constant extends LockIdExpression {
+
+        private final Object value;
+
+        Constant(String value) {
+            this(value, value);
+        }
+
+        Constant(String source, Object value) {
+            super(source);
+            this.value = value;
+        }
+
+        @Override
+        Object getValue(Object[] args) {
+            return this.value;
+        }
+    }
+
+    /**
+     * A parameter, or a property of it read through its getters
+     */
+    static final class PropertyPath extends LockIdExpression {
+
+        private final int parameterIndex;
+        private final PropertyAccessor[] accessors;
+
+        PropertyPath(String source, int parameterIndex, PropertyAccessor[] accessors) {
+            super(source);
+            this.parameterIndex = parameterIndex;
+            this.accessors = accessors;
+        }
+
+        @Override
+        Object getValue(Object[] args) throws Throwable {
+            Object value = args[this.parameterIndex];
+            for (PropertyAccessor accessor : this.accessors) {
+                value = accessor.get(value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A SpEL expression, compiled to bytecode once it has run with the same
+     * types a few times. Each call gets its own evaluation context, so the
+     * arguments of a call are not kept after it.
+     */
+    static final class Spel extends LockIdExpression {
+
+        private final Expression expression;
+        private final String[] names;
+        private final String[] aliases;
+
+        Spel(String source, Expression expression, String[] names) {
+            super(source);
+            this.expression = expression;
+            this.names = names;
+            this.aliases = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                this.aliases[i] = PARAMETER_ALIAS + i;
+            }
+        }
+
+        @Override
+        Object getValue(Object[] args) {
+            StandardEvaluationContext context = new StandardEvaluationContext(args);
+            for (int i = 0; i < args.length; i++) {
+                if (i < this.names.length) {
+                    context.setVariable(this.names[i], args[i]);
+                    context.setVariable(this.aliases[i], args[i]);
+                } else {
+                    context.setVariable(PARAMETER_ALIAS + i, args[i]);
+                }
+            }
+            return this.expression.getValue(context);
+        }
+    }
+
+    /**
+     * Constant parts and expressions joined into a string
+     */
+    static final class Template extends LockIdExpression {
+
+        private final LockIdExpression[] parts;
+
+        Template(String source, List<LockIdExpression> parts) {
+            super(source);
+            this.parts = parts.toArray(new LockIdExpression[parts.size()]);
+        }
+
+        @Override
+        Object getValue(Object[] args) throws Throwable {
+            StringBuilder value = new StringBuilder();
+            for (LockIdExpression part : this.parts) {
+                Object partValue = part.getValue(args);
+                if (partValue == null) {
+                    return null;
+                }
+                value.append(partValue);
+            }
+            return value.toString();
+        }
+    }
+}
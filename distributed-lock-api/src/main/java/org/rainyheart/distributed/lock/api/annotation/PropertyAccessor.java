@@ -0,0 +1,94 @@
+package org.rainyheart.distributed.lock.api.annotation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Read one property of a lock id expression like #{order.customer.id} by its
+ * getter, getName() or isName(), declared by the class of the object or
+ * inherited.
+ *
+ * The getter of the last class seen is kept as a MethodHandle, so a call site
+ * always passing the same class looks it up once.
+ *
+ * @author Ken Ye
+ *
+ */
+final class PropertyAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final String name;
+
+    private volatile Getter getter;
+
+    PropertyAccessor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the property of the target, null if the target is null
+     * @throws NoSuchMethodException
+     *             if the class of the target has no getter of the property
+     */
+    Object get(Object target) throws Throwable {
+        if (target == null) {
+            return null;
+        }
+        Getter getter = this.getter;
+        if (getter == null || getter.type != target.getClass()) {
+            getter = new Getter(target.getClass(), findGetter(target.getClass()));
+            this.getter = getter;
+        }
+        return (Object) getter.handle.invokeExact(target);
+    }
+
+    private MethodHandle findGetter(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+        String suffix = Character.toUpperCase(this.name.charAt(0)) + this.name.substring(1);
+        Method method = findMethod(type, "get" + suffix);
+        if (method == null) {
+            method = findMethod(type, "is" + suffix);
+        }
+        if (method == null || method.getReturnType() == void.class) {
+            throw new NoSuchMethodException("No getter of " + this.name + " in " + type.getName());
+        }
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            method.setAccessible(true);
+        }
+        return MethodHandles.lookup().unreflect(method).asType(GETTER_TYPE);
+    }
+
+    /**
+     * @return the public method, inherited or not, else the closest one
+     *         declared by the class or a super class
+     */
+    private static Method findMethod(Class<?> type, String methodName) {
+        try {
+            return type.getMethod(methodName);
+        } catch (NoSuchMethodException e) {
+            // not public
+        }
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                return current.getDeclaredMethod(methodName);
+            } catch (NoSuchMethodException e) {
+                // declared by a super class
+            }
+        }
+        return null;
+    }
+
+    private static final class Getter {
+
+        final Class<?> type;
+        final MethodHandle handle;
+
+        Getter(Class<?> type, MethodHandle handle) {
+            this.type = type;
+            this.handle = handle;
+        }
+    }
+}
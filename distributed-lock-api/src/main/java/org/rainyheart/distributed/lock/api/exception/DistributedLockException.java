@@ -17,4 +17,8 @@ public class DistributedLockException extends Exception {
     public DistributedLockException(String msg, NoSuchAlgorithmException e) {
         super(msg, e);
     }
+
+    public DistributedLockException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
@@ -1,5 +1,11 @@
 package org.rainyheart.distributed.lock.api.impl;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PostConstruct;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,7 +14,10 @@ import org.springframework.stereotype.Component;
 import org.rainyheart.distributed.lock.api.DistributedLockApi;
 import org.rainyheart.distributed.lock.api.DistributedLockManager;
 import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
 import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.metrics.DistributedLockMetrics;
+import org.rainyheart.distributed.lock.api.metrics.MeteredDistributedLockManager;
 
 @Component
 public class DistributedLockApiImpl implements DistributedLockApi {
@@ -18,24 +27,147 @@ public class DistributedLockApiImpl implements DistributedLockApi {
     @Autowired
     private DistributedLockManager manager;
 
+    @Autowired(required = false)
+    private DistributedLockMetrics metrics;
+
+    /**
+     * Record the calls of the manager into the metrics when they are available
+     */
+    @PostConstruct
+    public void init() {
+        if (metrics != null && manager != null && !(manager instanceof MeteredDistributedLockManager)) {
+            manager = new MeteredDistributedLockManager(manager, metrics);
+        }
+    }
+
     @Override
     public boolean tryLock(Lock lock) throws DistributedLockException {
-        LOGGER.debug("tryLock: " + lock);
+        LOGGER.debug("tryLock: {}", lock);
         return manager.tryLock(lock);
     }
 
     @Override
     public boolean lock(Lock lock, long timeout) throws DistributedLockException {
-        LOGGER.debug("lock: " + lock + ", timeout: " + timeout);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("lock: {}, timeout: {}", lock, timeout);
+        }
         return manager.lock(lock, timeout);
     }
 
     @Override
     public boolean unlock(Lock lock) throws DistributedLockException {
-        LOGGER.debug("unlock: " + lock);
+        LOGGER.debug("unlock: {}", lock);
+        return manager.unlock(lock);
+    }
+
+    @Override
+    public LockHandle lockWithToken(Lock lock, long timeout) throws DistributedLockException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("lockWithToken: {}, timeout: {}", lock, timeout);
+        }
+        return manager.lockWithToken(lock, timeout);
+    }
+
+    @Override
+    public boolean validateToken(Lock lock, long fencingToken) throws DistributedLockException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("validateToken: {}, fencingToken: {}", lock, fencingToken);
+        }
+        return manager.validateToken(lock, fencingToken);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock) {
+        LOGGER.debug("tryLockAsync: {}", lock);
+        return manager.tryLockAsync(lock);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("lockAsync: {}, timeout: {}", lock, timeout);
+        }
+        return manager.lockAsync(lock, timeout);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> unlockAsync(Lock lock) {
+        LOGGER.debug("unlockAsync: {}", lock);
+        return manager.unlockAsync(lock);
+    }
+
+    @Override
+    public boolean tryReadLock(Lock lock) throws DistributedLockException {
+        LOGGER.debug("tryReadLock: {}", lock);
+        return manager.tryReadLock(lock);
+    }
+
+    @Override
+    public boolean readLock(Lock lock, long timeout) throws DistributedLockException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("readLock: {}, timeout: {}", lock, timeout);
+        }
+        return manager.readLock(lock, timeout);
+    }
+
+    @Override
+    public boolean readUnlock(Lock lock) throws DistributedLockException {
+        LOGGER.debug("readUnlock: {}", lock);
+        return manager.readUnlock(lock);
+    }
+
+    @Override
+    public boolean tryWriteLock(Lock lock) throws DistributedLockException {
+        LOGGER.debug("tryWriteLock: {}", lock);
+        return manager.tryLock(lock);
+    }
+
+    @Override
+    public boolean writeLock(Lock lock, long timeout) throws DistributedLockException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("writeLock: {}, timeout: {}", lock, timeout);
+        }
+        return manager.lock(lock, timeout);
+    }
+
+    @Override
+    public boolean writeUnlock(Lock lock) throws DistributedLockException {
+        LOGGER.debug("writeUnlock: {}", lock);
         return manager.unlock(lock);
     }
 
+    @Override
+    public boolean downgradeWriteLock(Lock lock) throws DistributedLockException {
+        LOGGER.debug("downgradeWriteLock: {}", lock);
+        return manager.downgradeWriteLock(lock);
+    }
+
+    @Override
+    public boolean lockAll(Collection<Lock> locks, long timeout) throws DistributedLockException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("lockAll: {}, timeout: {}", locks, timeout);
+        }
+        return manager.lockAll(locks, timeout);
+    }
+
+    @Override
+    public boolean unlockAll(Collection<Lock> locks) throws DistributedLockException {
+        LOGGER.debug("unlockAll: {}", locks);
+        return manager.unlockAll(locks);
+    }
+
+    @Override
+    public List<Lock> tryLockBatch(List<Lock> locks) throws DistributedLockException {
+        LOGGER.debug("tryLockBatch: {}", locks);
+        return manager.tryLockBatch(locks);
+    }
+
+    @Override
+    public List<Lock> unlockBatch(List<Lock> locks) throws DistributedLockException {
+        LOGGER.debug("unlockBatch: {}", locks);
+        return manager.unlockBatch(locks);
+    }
+
     public DistributedLockManager getManager() {
         return manager;
     }
@@ -44,4 +176,12 @@ public class DistributedLockApiImpl implements DistributedLockApi {
         this.manager = manager;
     }
 
+    public DistributedLockMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(DistributedLockMetrics metrics) {
+        this.metrics = metrics;
+    }
+
 }
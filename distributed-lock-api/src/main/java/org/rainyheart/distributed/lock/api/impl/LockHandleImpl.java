@@ -0,0 +1,59 @@
+package org.rainyheart.distributed.lock.api.impl;
+
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+
+public class LockHandleImpl implements LockHandle {
+
+    private final Lock lock;
+    private final long fencingToken;
+
+    public LockHandleImpl(Lock lock, long fencingToken) {
+        super();
+        this.lock = lock;
+        this.fencingToken = fencingToken;
+    }
+
+    @Override
+    public Lock lock() {
+        return this.lock;
+    }
+
+    @Override
+    public long fencingToken() {
+        return this.fencingToken;
+    }
+
+    @Override
+    public String toString() {
+        return "LockHandleImpl [lock=" + lock + ", fencingToken=" + fencingToken + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (fencingToken ^ (fencingToken >>> 32));
+        result = prime * result + ((lock == null) ? 0 : lock.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        LockHandleImpl other = (LockHandleImpl) obj;
+        if (fencingToken != other.fencingToken)
+            return false;
+        if (lock == null) {
+            if (other.lock != null)
+                return false;
+        } else if (!lock.equals(other.lock))
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,504 @@
+package org.rainyheart.distributed.lock.api.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockHandleImpl;
+
+/**
+ * A lock manager within one JVM, for single-node deployments and tests which
+ * do not need ZooKeeper. It is selected by the in-memory profile of
+ * distributed-lock-spring.xml, e.g. -Dspring.profiles.active=in-memory
+ *
+ * It keeps the semantics of the ZooKeeperManager: the locks of each LockLevel
+ * are apart, a lock is reentrant for its owner thread, the waiters are served
+ * in FIFO order and a tryLock() fails while others are waiting, the readers
+ * share a lock and a read lock is never upgraded, and a lock obtained with mode
+ * 1 (persistent) can be released by any thread.
+ *
+ * The lock states are kept in a ConcurrentHashMap, whose bins are updated
+ * independently, and each state is a CAS word with a lock free queue of
+ * waiters, so an uncontended lock and unlock takes no lock at all.
+ *
+ * @author Ken Ye
+ *
+ */
+public class InMemoryDistributedLockManager implements DistributedLockManager {
+
+    /**
+     * The Spring profile selecting this manager instead of the ZooKeeperManager
+     */
+    public static final String PROFILE = "in-memory";
+
+    private static final String SEPARATOR = "/";
+
+    private final ConcurrentMap<String, InMemoryLockState> states = new ConcurrentHashMap<>();
+
+    /**
+     * The write lock holders by lock key
+     */
+    private final ConcurrentMap<String, InMemoryLockHolder> holders = new ConcurrentHashMap<>();
+
+    /**
+     * The read lock holders by lock key and owner thread
+     */
+    private final ConcurrentMap<String, InMemoryLockHolder> readHolders = new ConcurrentHashMap<>();
+
+    private final AtomicLong fencingTokens = new AtomicLong();
+
+    private final ScheduledThreadPoolExecutor asyncTimer;
+
+    public InMemoryDistributedLockManager() {
+        super();
+        this.asyncTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "distributed-lock-memory-async-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.asyncTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.asyncTimer.shutdownNow();
+    }
+
+    @Override
+    public boolean tryLock(Lock lock) {
+        return lock(lock, keyOf(lock), 0);
+    }
+
+    @Override
+    public boolean lock(Lock lock, long timeout) {
+        return lock(lock, keyOf(lock), timeout);
+    }
+
+    @Override
+    public boolean appLock(Lock lock, long timeout) {
+        return lock(lock, keyOf(LockLevel.APPLICATION, lock.id()), timeout);
+    }
+
+    @Override
+    public boolean serverLock(Lock lock, long timeout) {
+        return lock(lock, keyOf(LockLevel.SERVER, lock.id()), timeout);
+    }
+
+    @Override
+    public boolean globalLock(Lock lock, long timeout) {
+        return lock(lock, keyOf(LockLevel.GLOBAL, lock.id()), timeout);
+    }
+
+    @Override
+    public boolean unlock(Lock lock) {
+        // the lock mode goes with the call, it only matters to a lock held by others
+        return unlock(keyOf(lock), lock.mode());
+    }
+
+    @Override
+    public boolean appUnlock(String id) {
+        return unlock(keyOf(LockLevel.APPLICATION, id), null);
+    }
+
+    @Override
+    public boolean serverUnlock(String id) {
+        return unlock(keyOf(LockLevel.SERVER, id), null);
+    }
+
+    @Override
+    public boolean globalUnlock(String id) {
+        return unlock(keyOf(LockLevel.GLOBAL, id), null);
+    }
+
+    /**
+     * The fencing tokens come from one sequence of this manager, so a later
+     * holding of a lock always has a greater token
+     */
+    @Override
+    public LockHandle lockWithToken(Lock lock, long timeout) {
+        if (!lock(lock, timeout)) {
+            return null;
+        }
+        InMemoryLockHolder holder = this.holders.get(keyOf(lock));
+        return new LockHandleImpl(lock, holder.fence(this.fencingTokens));
+    }
+
+    @Override
+    public boolean validateToken(Lock lock, long fencingToken) {
+        if (fencingToken <= 0) {
+            return false;
+        }
+        InMemoryLockHolder holder = this.holders.get(keyOf(lock));
+        return holder != null && holder.getFencingToken() == fencingToken;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock) {
+        return lockAsync(lock, 0);
+    }
+
+    /**
+     * The lock is handed over to a lockAsync() by the thread releasing it, no
+     * thread is waiting for it. A lock held by the calling thread is reentered
+     * at once, like lock() does.
+     */
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout) {
+        String key = keyOf(lock);
+        InMemoryLockHolder holder = this.holders.get(key);
+        if (holder != null && holder.isOwnedBy(currentThreadId())) {
+            holder.increaseHoldCount(); // reentered by the owner thread
+            return CompletableFuture.completedFuture(Boolean.TRUE);
+        }
+        if (!this.readHolders.isEmpty() && this.readHolders.containsKey(readHolderKey(key))) {
+            return CompletableFuture.completedFuture(Boolean.FALSE); // upgrading a read lock would wait for itself
+        }
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        lockAsync(lock, key, timeout, System.currentTimeMillis() + timeout, future);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> unlockAsync(Lock lock) {
+        String key = keyOf(lock);
+        InMemoryLockHolder holder = this.holders.get(key);
+        if (holder != null && holder.isObtainedAsyncBy(lock)) {
+            return CompletableFuture.completedFuture(release(key, holder));
+        }
+        return CompletableFuture.completedFuture(unlock(key, lock.mode()));
+    }
+
+    @Override
+    public boolean tryReadLock(Lock lock) {
+        return readLock(keyOf(lock), 0);
+    }
+
+    @Override
+    public boolean readLock(Lock lock, long timeout) {
+        return readLock(keyOf(lock), timeout);
+    }
+
+    @Override
+    public boolean readUnlock(Lock lock) {
+        String key = keyOf(lock);
+        String readKey = readHolderKey(key);
+        InMemoryLockHolder holder = this.readHolders.get(readKey);
+        if (holder == null) {
+            return false;
+        } else if (holder.decreaseHoldCount() > 0) {
+            return true;
+        }
+        this.readHolders.remove(readKey, holder);
+        this.states.get(key).release(true);
+        return true;
+    }
+
+    @Override
+    public boolean downgradeWriteLock(Lock lock) {
+        String key = keyOf(lock);
+        InMemoryLockHolder holder = this.holders.get(key);
+        if (holder == null || !holder.isOwnedBy(currentThreadId()) || holder.getHoldCount() > 1) {
+            return false;
+        }
+        String readKey = readHolderKey(key);
+        InMemoryLockHolder readHolder = this.readHolders.get(readKey);
+        if (readHolder != null) { // the read lock is held already, just release the write lock
+            readHolder.increaseHoldCount();
+            return unlock(key, null);
+        }
+        this.holders.remove(key, holder);
+        this.readHolders.put(readKey, new InMemoryLockHolder(currentThreadId()));
+        this.states.get(key).downgrade();
+        return true;
+    }
+
+    /**
+     * The locks are obtained one by one in the canonical order, so two callers
+     * never wait for each other, and the ones obtained are released again if any
+     * of them is not obtained before timeout
+     */
+    @Override
+    public boolean lockAll(Collection<Lock> locks, long timeout) {
+        SortedMap<String, Lock> sorted = toLockKeys(locks);
+        long threadId = currentThreadId();
+        List<InMemoryLockHolder> reentered = new ArrayList<>();
+        for (String key : new ArrayList<>(sorted.keySet())) {
+            InMemoryLockHolder holder = this.holders.get(key);
+            if (holder != null && holder.isOwnedBy(threadId)) {
+                reentered.add(holder);
+                sorted.remove(key);
+            } else if (this.readHolders.containsKey(readHolderKey(key))) {
+                return false; // upgrading a read lock would wait for itself
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        List<InMemoryLockState> obtained = new ArrayList<>(sorted.size());
+        for (String key : sorted.keySet()) {
+            long remaining = timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 0) : timeout;
+            InMemoryLockState state = acquire(key, false, remaining);
+            if (state == null) {
+                for (InMemoryLockState acquired : obtained) {
+                    acquired.release(false);
+                }
+                return false;
+            }
+            obtained.add(state);
+        }
+        for (String key : sorted.keySet()) {
+            this.holders.put(key, new InMemoryLockHolder(threadId));
+        }
+        for (InMemoryLockHolder holder : reentered) {
+            holder.increaseHoldCount();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unlockAll(Collection<Lock> locks) {
+        boolean success = true;
+        for (String key : toLockKeys(locks).keySet()) {
+            InMemoryLockHolder holder = this.holders.get(key);
+            if (holder == null || !holder.isOwnedBy(currentThreadId())) {
+                success = false;
+            } else if (holder.decreaseHoldCount() == 0) {
+                release(key, holder);
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public List<Lock> tryLockBatch(List<Lock> locks) {
+        Set<String> obtained = new HashSet<>();
+        Map<String, Lock> given = new LinkedHashMap<>();
+        for (Lock lock : locks) {
+            given.putIfAbsent(keyOf(lock), lock); // the same lock may be given twice
+        }
+        for (Map.Entry<String, Lock> entry : given.entrySet()) {
+            if (lock(entry.getValue(), entry.getKey(), 0)) {
+                obtained.add(entry.getKey());
+            }
+        }
+        List<Lock> result = new ArrayList<>(obtained.size());
+        for (Lock lock : locks) {
+            if (obtained.remove(keyOf(lock))) {
+                result.add(lock);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Lock> unlockBatch(List<Lock> locks) {
+        List<Lock> released = new ArrayList<>(locks.size());
+        for (Lock lock : locks) {
+            if (unlock(lock)) {
+                released.add(lock);
+            }
+        }
+        return released;
+    }
+
+    private boolean lock(Lock lock, String key, long timeout) {
+        long threadId = currentThreadId();
+        InMemoryLockHolder holder = this.holders.get(key);
+        if (holder != null && holder.isOwnedBy(threadId)) {
+            holder.increaseHoldCount(); // reentered by the owner thread
+            return true;
+        }
+        if (!this.readHolders.isEmpty() && this.readHolders.containsKey(readHolderKey(key))) {
+            return false; // upgrading a read lock would wait for itself
+        }
+        if (acquire(key, false, timeout) == null) {
+            return false;
+        }
+        this.holders.put(key, new InMemoryLockHolder(threadId));
+        return true;
+    }
+
+    private boolean unlock(String key, Integer mode) {
+        InMemoryLockHolder holder = this.holders.get(key);
+        if (holder == null) {
+            return false;
+        } else if (holder.isOwnedBy(currentThreadId())) {
+            if (holder.decreaseHoldCount() > 0) {
+                return true;
+            }
+        } else if (!isPersistentLockMode(mode)) {
+            return false;
+        }
+        // a persistent lock can be released by anyone
+        return release(key, holder);
+    }
+
+    private boolean release(String key, InMemoryLockHolder holder) {
+        if (!this.holders.remove(key, holder)) {
+            return false; // released by another thread in the meantime
+        }
+        this.states.get(key).release(false);
+        return true;
+    }
+
+    private boolean readLock(String key, long timeout) {
+        long threadId = currentThreadId();
+        String readKey = readHolderKey(key);
+        InMemoryLockHolder readHolder = this.readHolders.get(readKey);
+        if (readHolder != null) {
+            readHolder.increaseHoldCount();
+            return true;
+        }
+        InMemoryLockHolder writeHolder = this.holders.get(key);
+        if (writeHolder != null && writeHolder.isOwnedBy(threadId)) {
+            this.states.get(key).addReader(); // beside the write lock, ahead of all the waiters
+        } else if (acquire(key, true, timeout) == null) {
+            return false;
+        }
+        this.readHolders.put(readKey, new InMemoryLockHolder(threadId));
+        return true;
+    }
+
+    /**
+     * @return the state the lock is obtained on, or null if it is not obtained
+     *         before timeout
+     */
+    private InMemoryLockState acquire(String key, boolean shared, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            InMemoryLockState state = stateOf(key);
+            int result = state.tryAcquire(shared);
+            if (result == InMemoryLockWaiter.WAITING && timeout != 0) {
+                result = state.acquire(shared,
+                        timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 0) : timeout);
+            }
+            if (result == InMemoryLockWaiter.GRANTED) {
+                return state;
+            } else if (result != InMemoryLockWaiter.RETIRED) {
+                return null;
+            }
+        }
+    }
+
+    private void lockAsync(Lock lock, String key, long timeout, long deadline, CompletableFuture<Boolean> future) {
+        InMemoryLockState state = stateOf(key);
+        int result = state.tryAcquire(false);
+        if (result != InMemoryLockWaiter.WAITING || timeout == 0) {
+            completeAsync(lock, key, result, timeout, deadline, future);
+            return;
+        }
+        InMemoryLockWaiter waiter = InMemoryLockWaiter.forAsync();
+        ScheduledFuture<?> timeoutTask = null;
+        if (timeout > 0) {
+            timeoutTask = this.asyncTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (waiter.cancel()) {
+                        state.leave(waiter);
+                        future.complete(Boolean.FALSE);
+                    }
+                }
+            }, Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+        ScheduledFuture<?> scheduled = timeoutTask;
+        waiter.getOutcome().thenAccept(outcome -> {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            completeAsync(lock, key, outcome, timeout, deadline, future);
+        });
+        state.enqueue(waiter);
+    }
+
+    private void completeAsync(Lock lock, String key, int result, long timeout, long deadline,
+            CompletableFuture<Boolean> future) {
+        if (result == InMemoryLockWaiter.GRANTED) {
+            this.holders.put(key, new InMemoryLockHolder(lock));
+            future.complete(Boolean.TRUE);
+        } else if (result == InMemoryLockWaiter.RETIRED) {
+            long remaining = timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 0) : timeout;
+            lockAsync(lock, key, remaining, deadline, future);
+        } else {
+            future.complete(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * @return the state of the given lock, created if it is not used yet
+     */
+    private InMemoryLockState stateOf(String key) {
+        while (true) {
+            InMemoryLockState state = this.states.get(key);
+            if (state == null) {
+                state = this.states.computeIfAbsent(key, k -> new InMemoryLockState(k, this.states));
+            }
+            if (!state.isRetired()) {
+                return state;
+            }
+            this.states.remove(key, state); // removed by the retiring thread soon
+        }
+    }
+
+    /**
+     * @return the lock keys of the given locks in the canonical order
+     */
+    private SortedMap<String, Lock> toLockKeys(Collection<Lock> locks) {
+        SortedMap<String, Lock> keys = new TreeMap<>();
+        for (Lock lock : locks) {
+            keys.put(keyOf(lock), lock);
+        }
+        return keys;
+    }
+
+    private static String keyOf(Lock lock) {
+        return keyOf(lock.level(), lock.id());
+    }
+
+    private static String keyOf(LockLevel level, String id) {
+        return level.name() + SEPARATOR + id;
+    }
+
+    private static String readHolderKey(String key) {
+        return key + SEPARATOR + currentThreadId();
+    }
+
+    private static long currentThreadId() {
+        return Thread.currentThread().getId();
+    }
+
+    /**
+     * The lock mode of the unlock call, a lock without mode is released in the
+     * same way as a persistent one, as the ZooKeeperManager does
+     */
+    private static boolean isPersistentLockMode(Integer mode) {
+        return mode == null || mode.intValue() == 1;
+    }
+
+    /**
+     * @return the number of locks held or waited for, the others take no memory
+     */
+    int getLockCount() {
+        return this.states.size();
+    }
+}
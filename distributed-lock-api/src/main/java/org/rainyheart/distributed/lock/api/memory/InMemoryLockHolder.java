@@ -0,0 +1,92 @@
+package org.rainyheart.distributed.lock.api.memory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rainyheart.distributed.lock.api.Lock;
+
+/**
+ * The holder of a lock in memory, the thread owning it, or the lock instance a
+ * lockAsync() obtained it with. The owner thread can obtain the lock again,
+ * which only increases the hold count.
+ *
+ * @author Ken Ye
+ *
+ */
+final class InMemoryLockHolder {
+
+    /**
+     * Thread ids are positive, so no thread owns a lock obtained by lockAsync()
+     */
+    private static final long NO_OWNER = -1;
+
+    private final long ownerThreadId;
+    private final Lock asyncLock;
+
+    /**
+     * Only changed by the owner thread
+     */
+    private int holdCount = 1;
+
+    /**
+     * Given out once a fencing token is asked for, tokens are positive
+     */
+    private volatile long fencingToken = 0;
+
+    InMemoryLockHolder(long ownerThreadId) {
+        this(ownerThreadId, null);
+    }
+
+    InMemoryLockHolder(Lock asyncLock) {
+        this(NO_OWNER, asyncLock);
+    }
+
+    private InMemoryLockHolder(long ownerThreadId, Lock asyncLock) {
+        super();
+        this.ownerThreadId = ownerThreadId;
+        this.asyncLock = asyncLock;
+    }
+
+    boolean isOwnedBy(long threadId) {
+        return this.asyncLock == null && this.ownerThreadId == threadId;
+    }
+
+    boolean isObtainedAsyncBy(Lock lock) {
+        return this.asyncLock != null && this.asyncLock.equals(lock);
+    }
+
+    void increaseHoldCount() {
+        this.holdCount++;
+    }
+
+    /**
+     * @return the hold count left, the lock should be released when it is 0
+     */
+    int decreaseHoldCount() {
+        return --this.holdCount;
+    }
+
+    int getHoldCount() {
+        return this.holdCount;
+    }
+
+    /**
+     * @return the fencing token of this holding, taken from the given sequence
+     *         the first time
+     */
+    long fence(AtomicLong tokens) {
+        if (this.fencingToken == 0) {
+            this.fencingToken = tokens.incrementAndGet();
+        }
+        return this.fencingToken;
+    }
+
+    long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryLockHolder [ownerThreadId=" + ownerThreadId + ", asyncLock=" + asyncLock + ", holdCount="
+                + holdCount + ", fencingToken=" + fencingToken + "]";
+    }
+}
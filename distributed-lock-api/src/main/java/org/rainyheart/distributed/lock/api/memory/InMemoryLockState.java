@@ -0,0 +1,168 @@
+package org.rainyheart.distributed.lock.api.memory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The state of one lock in memory, without any lock of its own: a word updated
+ * by CAS with the write bit and the number of read holders, and a lock free
+ * FIFO queue of waiters. A released lock is handed over to the head of the
+ * queue directly, one writer or a run of readers, so the waiters are served in
+ * order like the znodes queued under a ZooKeeper lock path.
+ *
+ * A free state without waiters is retired and removes itself from the map of
+ * states, so that the locks no longer used do not take any memory. A caller
+ * finding its state retired asks for a new one.
+ *
+ * @author Ken Ye
+ *
+ */
+final class InMemoryLockState {
+
+    private static final int FREE = 0;
+    private static final int WRITER = 1;
+    private static final int READER = 2;
+    private static final int RETIRED_WORD = -1;
+
+    private final AtomicInteger word = new AtomicInteger(FREE);
+    private final ConcurrentLinkedQueue<InMemoryLockWaiter> waiters = new ConcurrentLinkedQueue<>();
+
+    private final String key;
+    private final ConcurrentMap<String, InMemoryLockState> states;
+
+    InMemoryLockState(String key, ConcurrentMap<String, InMemoryLockState> states) {
+        super();
+        this.key = key;
+        this.states = states;
+    }
+
+    boolean isRetired() {
+        return this.word.get() == RETIRED_WORD;
+    }
+
+    /**
+     * Obtain the lock without waiting, it is not obtained while others are
+     * waiting for it
+     *
+     * @return GRANTED, WAITING if it is held by others, or RETIRED
+     */
+    int tryAcquire(boolean shared) {
+        if (!this.waiters.isEmpty()) {
+            return isRetired() ? InMemoryLockWaiter.RETIRED : InMemoryLockWaiter.WAITING;
+        }
+        return take(shared);
+    }
+
+    /**
+     * Queue up for the lock and wait for it, the timeout is in milliseconds and
+     * negative for no timeout
+     *
+     * @return GRANTED, RETIRED, or CANCELLED if it is not obtained
+     */
+    int acquire(boolean shared, long timeout) {
+        InMemoryLockWaiter waiter = InMemoryLockWaiter.forCurrentThread(shared);
+        enqueue(waiter);
+        int result = waiter.await(timeout);
+        if (result == InMemoryLockWaiter.CANCELLED) {
+            leave(waiter);
+        }
+        return result;
+    }
+
+    void enqueue(InMemoryLockWaiter waiter) {
+        this.waiters.add(waiter);
+        // the lock may be released before the waiter is queued
+        handOver();
+    }
+
+    /**
+     * Remove a cancelled waiter, it may be the one blocking the tryAcquire() of
+     * others
+     */
+    void leave(InMemoryLockWaiter waiter) {
+        this.waiters.remove(waiter);
+        handOver();
+        retireIfIdle();
+    }
+
+    /**
+     * A read lock taken by the thread holding the write lock, it does not wait
+     */
+    void addReader() {
+        this.word.addAndGet(READER);
+    }
+
+    /**
+     * Turn the write lock into a read lock, the readers waiting for it are let in
+     */
+    void downgrade() {
+        int current;
+        do {
+            current = this.word.get();
+        } while (!this.word.compareAndSet(current, (current & ~WRITER) + READER));
+        handOver();
+    }
+
+    void release(boolean shared) {
+        untake(shared);
+        handOver();
+        retireIfIdle();
+    }
+
+    private void retireIfIdle() {
+        if (this.waiters.isEmpty() && this.word.compareAndSet(FREE, RETIRED_WORD)) {
+            this.states.remove(this.key, this);
+            handOver(); // a waiter queued in the meantime goes to a new state
+        }
+    }
+
+    /**
+     * @return GRANTED, WAITING or RETIRED
+     */
+    private int take(boolean shared) {
+        while (true) {
+            int current = this.word.get();
+            if (current == RETIRED_WORD) {
+                return InMemoryLockWaiter.RETIRED;
+            } else if (shared ? (current & WRITER) != 0 : current != FREE) {
+                return InMemoryLockWaiter.WAITING;
+            } else if (this.word.compareAndSet(current, shared ? current + READER : WRITER)) {
+                return InMemoryLockWaiter.GRANTED;
+            }
+        }
+    }
+
+    private void untake(boolean shared) {
+        int current;
+        do {
+            current = this.word.get();
+        } while (!this.word.compareAndSet(current, shared ? current - READER : current & ~WRITER));
+    }
+
+    /**
+     * Hand the lock over to the waiters at the head of the queue for as long as
+     * they can hold it together. Any thread changing the state calls it, a
+     * waiter is only completed by one of them.
+     */
+    private void handOver() {
+        while (true) {
+            InMemoryLockWaiter head = this.waiters.peek();
+            if (head == null) {
+                return;
+            } else if (head.isDone()) {
+                this.waiters.remove(head);
+                continue;
+            }
+            int result = take(head.isShared());
+            if (result == InMemoryLockWaiter.WAITING) {
+                return;
+            }
+            if (head.complete(result)) {
+                this.waiters.remove(head);
+            } else if (result == InMemoryLockWaiter.GRANTED) {
+                untake(head.isShared()); // cancelled in the meantime
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.rainyheart.distributed.lock.api.memory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A caller queued for a lock state, either a parked thread or a lockAsync()
+ * waiting for its outcome. Its status is only changed once from WAITING: by
+ * the thread handing the lock over, or by the waiter itself when it gives up.
+ *
+ * @author Ken Ye
+ *
+ */
+final class InMemoryLockWaiter {
+
+    static final int WAITING = 0;
+    static final int GRANTED = 1;
+
+    /**
+     * The lock state is retired, the waiter has to queue up on a new one
+     */
+    static final int RETIRED = 2;
+
+    /**
+     * Timed out or interrupted
+     */
+    static final int CANCELLED = 3;
+
+    private final boolean shared;
+
+    /**
+     * The parked thread, null for a lockAsync()
+     */
+    private final Thread thread;
+
+    private final CompletableFuture<Integer> outcome;
+
+    private final AtomicInteger status = new AtomicInteger(WAITING);
+
+    private InMemoryLockWaiter(boolean shared, Thread thread, CompletableFuture<Integer> outcome) {
+        super();
+        this.shared = shared;
+        this.thread = thread;
+        this.outcome = outcome;
+    }
+
+    static InMemoryLockWaiter forCurrentThread(boolean shared) {
+        return new InMemoryLockWaiter(shared, Thread.currentThread(), null);
+    }
+
+    static InMemoryLockWaiter forAsync() {
+        return new InMemoryLockWaiter(false, null, new CompletableFuture<>());
+    }
+
+    boolean isShared() {
+        return this.shared;
+    }
+
+    boolean isDone() {
+        return this.status.get() != WAITING;
+    }
+
+    /**
+     * @return the status of a lockAsync() once it is no longer waiting
+     */
+    CompletableFuture<Integer> getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * @return true if the waiter gets the given status, false if it is done
+     *         already
+     */
+    boolean complete(int result) {
+        if (!this.status.compareAndSet(WAITING, result)) {
+            return false;
+        }
+        if (this.thread != null) {
+            LockSupport.unpark(this.thread);
+        } else {
+            this.outcome.complete(result);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the waiter gives up, false if it is done already
+     */
+    boolean cancel() {
+        return this.status.compareAndSet(WAITING, CANCELLED);
+    }
+
+    /**
+     * Park the current thread until the waiter is done, the timeout is in
+     * milliseconds and negative for no timeout. The interrupt status is kept.
+     *
+     * @return GRANTED, RETIRED or CANCELLED
+     */
+    int await(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                int current = this.status.get();
+                if (current != WAITING) {
+                    return current;
+                }
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    cancel();
+                } else if (timeout < 0) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        cancel();
+                    } else {
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
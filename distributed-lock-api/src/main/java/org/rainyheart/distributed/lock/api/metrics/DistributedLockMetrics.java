@@ -0,0 +1,443 @@
+package org.rainyheart.distributed.lock.api.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * The lock metrics of this JVM: the latency of each operation by lock level,
+ * the hold time of the exclusive locks, the contention, timeout, error and
+ * reconnect counters, the round trip time of the lock client and the most
+ * contended lock ids. Recording a call only updates atomic counters, the
+ * histograms are created on the first call of their operation and level.
+ *
+ * It is registered as the MBean
+ * org.rainyheart.distributed.lock:type=DistributedLockMetrics when it is
+ * created by Spring.
+ *
+ * @author Ken Ye
+ *
+ */
+@Component
+public class DistributedLockMetrics implements DistributedLockMetricsMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributedLockMetrics.class);
+
+    public static final String OBJECT_NAME = "org.rainyheart.distributed.lock:type=DistributedLockMetrics";
+
+    /**
+     * Label of the operations on the locks of several levels
+     */
+    private static final String ANY_LEVEL = "ANY";
+
+    /**
+     * Max number of contended lock ids and holds tracked, they are cleared when
+     * it is reached
+     */
+    private static final int MAX_TRACKED = 10000;
+
+    private static final int HOT_LOCKS = 10;
+
+    private static final LockLevel[] LEVELS = LockLevel.values();
+    private static final LockOperation[] OPERATIONS = LockOperation.values();
+
+    private final AtomicReferenceArray<LatencyHistogram> latencies = new AtomicReferenceArray<>(
+            OPERATIONS.length * (LEVELS.length + 1));
+    private final AtomicReferenceArray<LatencyHistogram> holdTimes = new AtomicReferenceArray<>(LEVELS.length + 1);
+    private final ConcurrentMap<String, LatencyHistogram> roundTrips = new ConcurrentHashMap<>();
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contentions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    /**
+     * Contentions and timeouts by lock level slot and lock id, the label of a
+     * lock is only built when the hot locks are read
+     */
+    private final ConcurrentMap<String, LongAdder>[] contendedLocks = newContendedLocks();
+
+    /**
+     * Start time and reentrance of the exclusive locks held, by lock level slot
+     * and lock id and owner. Nothing is kept per thread, so a thread that dies
+     * leaves only the holds it never released, which are cleared with the others
+     * when too many are tracked.
+     */
+    private final ConcurrentMap<HoldKey, Hold>[] holds = newHolds();
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            for (int i = 1; server.isRegistered(name); i++) { // e.g. another application context
+                name = new ObjectName(OBJECT_NAME + ",id=" + i);
+            }
+            server.registerMBean(this, name);
+            this.objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            LOGGER.warn("DistributedLockMetrics is registered by another thread in the meantime", e);
+        } catch (JMException e) {
+            LOGGER.warn("Unable to register DistributedLockMetrics as an MBean", e);
+        }
+    }
+
+    @PreDestroy
+    public void unregister() {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                LOGGER.warn("Unable to unregister MBean " + this.objectName, e);
+            }
+            this.objectName = null;
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return this.objectName;
+    }
+
+    /**
+     * Record the latency of a call
+     *
+     * @param operation:
+     *            the operation called
+     * @param level:
+     *            the lock level, null if the call is on several locks
+     * @param nanos:
+     *            the latency in nanoseconds
+     */
+    public void recordLatency(LockOperation operation, LockLevel level, long nanos) {
+        getOrCreate(this.latencies, operation.ordinal() * (LEVELS.length + 1) + slotOf(level)).record(nanos);
+    }
+
+    public void recordAcquired() {
+        this.acquisitions.increment();
+    }
+
+    /**
+     * A lock is not obtained because it is held by others
+     *
+     * @param lock:
+     *            the lock instance not obtained
+     * @param timeout:
+     *            the timeout of the call, 0 if it does not wait at all
+     */
+    public void recordNotAcquired(Lock lock, long timeout) {
+        if (timeout == 0) {
+            this.contentions.increment();
+        } else {
+            this.timeouts.increment();
+        }
+        ConcurrentMap<String, LongAdder> contended = this.contendedLocks[slotOf(lock.level())];
+        LongAdder counter = contended.get(lock.id());
+        if (counter == null) {
+            if (contended.size() >= MAX_TRACKED) {
+                contended.clear();
+            }
+            counter = contended.computeIfAbsent(lock.id(), k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public void recordError() {
+        this.errors.increment();
+    }
+
+    public void recordReconnect() {
+        this.reconnects.increment();
+    }
+
+    /**
+     * Record the round trip time of a request of the lock client
+     *
+     * @param request:
+     *            the request type, e.g. create
+     * @param nanos:
+     *            the round trip time in nanoseconds
+     */
+    public void recordRoundTrip(String request, long nanos) {
+        LatencyHistogram histogram = this.roundTrips.get(request);
+        if (histogram == null) {
+            histogram = this.roundTrips.computeIfAbsent(request, k -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * An exclusive lock is obtained or reentered by the given owner
+     *
+     * @param owner:
+     *            the id of the owner thread, or -1 for an async lock
+     */
+    public void holdStarted(LockLevel level, String id, long owner) {
+        ConcurrentMap<HoldKey, Hold> holds = this.holds[slotOf(level)];
+        HoldKey key = new HoldKey(id, owner);
+        Hold hold = holds.get(key);
+        if (hold != null) {
+            hold.reentrance++;
+            return;
+        }
+        if (holds.size() >= MAX_TRACKED) {
+            holds.clear(); // e.g. locks never released by their owner
+        }
+        holds.put(key, new Hold(System.nanoTime()));
+    }
+
+    /**
+     * An exclusive lock is released by the given owner, the hold time is
+     * recorded by the last release
+     */
+    public void holdEnded(LockLevel level, String id, long owner) {
+        ConcurrentMap<HoldKey, Hold> holds = this.holds[slotOf(level)];
+        HoldKey key = new HoldKey(id, owner);
+        Hold hold = holds.get(key);
+        if (hold == null) {
+            return;
+        }
+        if (hold.reentrance > 0) {
+            hold.reentrance--;
+            return;
+        }
+        holds.remove(key, hold);
+        getOrCreate(this.holdTimes, slotOf(level)).record(System.nanoTime() - hold.start);
+    }
+
+    /**
+     * @return the latency histogram of the given operation and level, null if it
+     *         is not called yet
+     */
+    public LatencyHistogram getLatency(LockOperation operation, LockLevel level) {
+        return this.latencies.get(operation.ordinal() * (LEVELS.length + 1) + slotOf(level));
+    }
+
+    /**
+     * @return the hold time histogram of the given level, null if no lock of
+     *         the level is released yet
+     */
+    public LatencyHistogram getHoldTime(LockLevel level) {
+        return this.holdTimes.get(slotOf(level));
+    }
+
+    /**
+     * @return the round trip histogram of the given request type, null if it is
+     *         not sent yet
+     */
+    public LatencyHistogram getRoundTrip(String request) {
+        return this.roundTrips.get(request);
+    }
+
+    /**
+     * @return the number of the requests of the lock client of all types
+     */
+    public long getRoundTripCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : this.roundTrips.values()) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the given number of the most contended lock ids, prefixed by their
+     *         lock level, with their contentions and timeouts
+     */
+    public List<Map.Entry<String, Long>> getHotLocks(int top) {
+        List<Map.Entry<String, Long>> hotLocks = new ArrayList<>();
+        for (int slot = 0; slot <= LEVELS.length; slot++) {
+            for (Map.Entry<String, LongAdder> entry : this.contendedLocks[slot].entrySet()) {
+                hotLocks.add(new java.util.AbstractMap.SimpleImmutableEntry<>(labelOf(slot) + ":" + entry.getKey(),
+                        entry.getValue().sum()));
+            }
+        }
+        hotLocks.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return hotLocks.size() > top ? new ArrayList<>(hotLocks.subList(0, top)) : hotLocks;
+    }
+
+    @Override
+    public long getAcquisitions() {
+        return this.acquisitions.sum();
+    }
+
+    @Override
+    public long getContentions() {
+        return this.contentions.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return this.reconnects.sum();
+    }
+
+    @Override
+    public String[] getLatencies() {
+        List<String> summaries = new ArrayList<>();
+        for (LockOperation operation : OPERATIONS) {
+            for (int slot = 0; slot <= LEVELS.length; slot++) {
+                LatencyHistogram histogram = this.latencies.get(operation.ordinal() * (LEVELS.length + 1) + slot);
+                if (histogram != null) {
+                    summaries.add(operation.getLabel() + "." + labelOf(slot) + " " + histogram.summary());
+                }
+            }
+        }
+        return summaries.toArray(new String[summaries.size()]);
+    }
+
+    @Override
+    public String[] getHoldTimes() {
+        List<String> summaries = new ArrayList<>();
+        for (int slot = 0; slot <= LEVELS.length; slot++) {
+            LatencyHistogram histogram = this.holdTimes.get(slot);
+            if (histogram != null) {
+                summaries.add(labelOf(slot) + " " + histogram.summary());
+            }
+        }
+        return summaries.toArray(new String[summaries.size()]);
+    }
+
+    @Override
+    public String[] getRoundTrips() {
+        List<String> summaries = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : this.roundTrips.entrySet()) {
+            summaries.add(entry.getKey() + " " + entry.getValue().summary());
+        }
+        return summaries.toArray(new String[summaries.size()]);
+    }
+
+    @Override
+    public String[] getHotLocks() {
+        List<String> hotLocks = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : getHotLocks(HOT_LOCKS)) {
+            hotLocks.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return hotLocks.toArray(new String[hotLocks.size()]);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < this.latencies.length(); i++) {
+            this.latencies.set(i, null);
+        }
+        for (int i = 0; i < this.holdTimes.length(); i++) {
+            this.holdTimes.set(i, null);
+        }
+        this.roundTrips.clear();
+        this.acquisitions.reset();
+        this.contentions.reset();
+        this.timeouts.reset();
+        this.errors.reset();
+        this.reconnects.reset();
+        for (ConcurrentMap<String, LongAdder> contended : this.contendedLocks) {
+            contended.clear();
+        }
+    }
+
+    private static LatencyHistogram getOrCreate(AtomicReferenceArray<LatencyHistogram> histograms, int index) {
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+
+    private static int slotOf(LockLevel level) {
+        return level == null ? 0 : level.ordinal() + 1;
+    }
+
+    private static String labelOf(int slot) {
+        return slot == 0 ? ANY_LEVEL : LEVELS[slot - 1].name();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<String, LongAdder>[] newContendedLocks() {
+        ConcurrentMap<String, LongAdder>[] contendedLocks = new ConcurrentMap[LEVELS.length + 1];
+        for (int slot = 0; slot < contendedLocks.length; slot++) {
+            contendedLocks[slot] = new ConcurrentHashMap<>();
+        }
+        return contendedLocks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<HoldKey, Hold>[] newHolds() {
+        ConcurrentMap<HoldKey, Hold>[] holds = new ConcurrentMap[LEVELS.length + 1];
+        for (int slot = 0; slot < holds.length; slot++) {
+            holds[slot] = new ConcurrentHashMap<>();
+        }
+        return holds;
+    }
+
+    /**
+     * A lock id and the id of its owner thread, or -1 for an async lock
+     */
+    private static final class HoldKey {
+        private final String id;
+        private final long owner;
+
+        HoldKey(String id, long owner) {
+            this.id = id;
+            this.owner = owner;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.id.hashCode() + Long.hashCode(this.owner);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof HoldKey)) {
+                return false;
+            }
+            HoldKey other = (HoldKey) obj;
+            return this.owner == other.owner && this.id.equals(other.id);
+        }
+    }
+
+    /**
+     * Only changed by its owner
+     */
+    private static class Hold {
+        private final long start;
+        private int reentrance = 0;
+
+        Hold(long start) {
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.rainyheart.distributed.lock.api.metrics;
+
+/**
+ * The JMX view of {@link DistributedLockMetrics}, the durations are in
+ * microseconds
+ *
+ * @author Ken Ye
+ *
+ */
+public interface DistributedLockMetricsMBean {
+
+    /**
+     * @return number of locks obtained
+     */
+    public long getAcquisitions();
+
+    /**
+     * @return number of locks not obtained because they are held by others,
+     *         without waiting
+     */
+    public long getContentions();
+
+    /**
+     * @return number of locks not obtained before timeout
+     */
+    public long getTimeouts();
+
+    /**
+     * @return number of calls failed with an exception
+     */
+    public long getErrors();
+
+    /**
+     * @return number of lock client sessions rebuilt
+     */
+    public long getReconnects();
+
+    /**
+     * @return the latency of each operation and lock level called so far
+     */
+    public String[] getLatencies();
+
+    /**
+     * @return the time the exclusive locks are held for, by lock level
+     */
+    public String[] getHoldTimes();
+
+    /**
+     * @return the round trip time of each request type of the lock client
+     */
+    public String[] getRoundTrips();
+
+    /**
+     * @return the most contended lock ids with their contentions and timeouts
+     */
+    public String[] getHotLocks();
+
+    /**
+     * Clear all the counters and histograms
+     */
+    public void reset();
+}
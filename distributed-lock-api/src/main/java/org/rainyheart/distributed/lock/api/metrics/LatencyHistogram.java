@@ -0,0 +1,167 @@
+package org.rainyheart.distributed.lock.api.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log-linear histogram of durations in nanoseconds, in the way of
+ * HdrHistogram: each power of 2 is split into 16 linear sub-buckets, so a value
+ * is kept within 1/16 of its magnitude. Recording is lock free and does not
+ * allocate, a snapshot can be read while other threads are recording.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values from 2^40 ns, about 18 minutes, are counted in the last bucket
+     */
+    private static final int MAX_EXPONENT = 39;
+
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Record the same duration several times, e.g. to merge the bucket counts of
+     * another histogram
+     */
+    public void record(long nanos, long times) {
+        if (times <= 0) {
+            return;
+        }
+        long value = Math.max(nanos, 0);
+        this.counts.addAndGet(bucketOf(value), times);
+        this.count.add(times);
+        this.sum.add(value * times);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the mean in nanoseconds, 0 if nothing is recorded
+     */
+    public long getMean() {
+        long n = this.count.sum();
+        return n == 0 ? 0 : this.sum.sum() / n;
+    }
+
+    /**
+     * @return the max in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param percentile:
+     *            0 to 100
+     * @return the highest value in nanoseconds of the bucket holding the given
+     *         percentile, 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = getBucketCounts();
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(total * Math.min(percentile, 100) / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return a snapshot of the count of each bucket, see
+     *         {@link #getBucketValue(int)}
+     */
+    public long[] getBucketCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the highest value in nanoseconds counted by the given bucket
+     */
+    public static long getBucketValue(int bucket) {
+        return highestValueOf(bucket);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    /**
+     * @return count, mean, percentiles and max in microseconds
+     */
+    public String summary() {
+        return "count=" + getCount() + " mean=" + micros(getMean()) + "us p50=" + micros(getValueAtPercentile(50))
+                + "us p90=" + micros(getValueAtPercentile(90)) + "us p99=" + micros(getValueAtPercentile(99))
+                + "us p999=" + micros(getValueAtPercentile(99.9)) + "us max=" + micros(getMax()) + "us";
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [" + summary() + "]";
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,37 @@
+package org.rainyheart.distributed.lock.api.metrics;
+
+/**
+ * The operations of {@link org.rainyheart.distributed.lock.api.DistributedLockManager}
+ * measured by {@link DistributedLockMetrics}
+ *
+ * @author Ken Ye
+ *
+ */
+public enum LockOperation {
+    TRY_LOCK("tryLock"),
+    LOCK("lock"),
+    UNLOCK("unlock"),
+    LOCK_WITH_TOKEN("lockWithToken"),
+    VALIDATE_TOKEN("validateToken"),
+    TRY_LOCK_ASYNC("tryLockAsync"),
+    LOCK_ASYNC("lockAsync"),
+    UNLOCK_ASYNC("unlockAsync"),
+    TRY_READ_LOCK("tryReadLock"),
+    READ_LOCK("readLock"),
+    READ_UNLOCK("readUnlock"),
+    DOWNGRADE_WRITE_LOCK("downgradeWriteLock"),
+    LOCK_ALL("lockAll"),
+    UNLOCK_ALL("unlockAll"),
+    TRY_LOCK_BATCH("tryLockBatch"),
+    UNLOCK_BATCH("unlockBatch");
+
+    private final String label;
+
+    private LockOperation(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+}
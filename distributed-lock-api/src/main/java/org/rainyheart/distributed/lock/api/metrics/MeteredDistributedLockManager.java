@@ -0,0 +1,388 @@
+package org.rainyheart.distributed.lock.api.metrics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+
+/**
+ * Record the latency and the outcome of each call of the given manager into
+ * {@link DistributedLockMetrics}
+ *
+ * @author Ken Ye
+ *
+ */
+public class MeteredDistributedLockManager implements DistributedLockManager {
+
+    /**
+     * Owner of the holds obtained asynchronously, they are not bound to a thread
+     */
+    private static final long ASYNC_OWNER = -1L;
+
+    private final DistributedLockManager delegate;
+    private final DistributedLockMetrics metrics;
+
+    public MeteredDistributedLockManager(DistributedLockManager delegate, DistributedLockMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public DistributedLockManager getDelegate() {
+        return delegate;
+    }
+
+    public DistributedLockMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean tryLock(Lock lock) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.TRY_LOCK, lock, lock.level(), 0, true, start, delegate.tryLock(lock));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.TRY_LOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean lock(Lock lock, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.LOCK, lock, lock.level(), timeout, true, start, delegate.lock(lock, timeout));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.LOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean appLock(Lock lock, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.LOCK, lock, LockLevel.APPLICATION, timeout, true, start,
+                    delegate.appLock(lock, timeout));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.LOCK, LockLevel.APPLICATION, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean serverLock(Lock lock, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.LOCK, lock, LockLevel.SERVER, timeout, true, start,
+                    delegate.serverLock(lock, timeout));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.LOCK, LockLevel.SERVER, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean globalLock(Lock lock, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.LOCK, lock, LockLevel.GLOBAL, timeout, true, start,
+                    delegate.globalLock(lock, timeout));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.LOCK, LockLevel.GLOBAL, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean unlock(Lock lock) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return released(LockOperation.UNLOCK, lock.level(), lock.id(), currentOwner(), start,
+                    delegate.unlock(lock));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.UNLOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public LockHandle lockWithToken(Lock lock, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            LockHandle handle = delegate.lockWithToken(lock, timeout);
+            acquired(LockOperation.LOCK_WITH_TOKEN, lock, lock.level(), timeout, true, start, handle != null);
+            return handle;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.LOCK_WITH_TOKEN, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean validateToken(Lock lock, long fencingToken) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            boolean valid = delegate.validateToken(lock, fencingToken);
+            metrics.recordLatency(LockOperation.VALIDATE_TOKEN, lock.level(), System.nanoTime() - start);
+            return valid;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.VALIDATE_TOKEN, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean appUnlock(String id) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return released(LockOperation.UNLOCK, LockLevel.APPLICATION, id, currentOwner(), start,
+                    delegate.appUnlock(id));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.UNLOCK, LockLevel.APPLICATION, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean serverUnlock(String id) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return released(LockOperation.UNLOCK, LockLevel.SERVER, id, currentOwner(), start,
+                    delegate.serverUnlock(id));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.UNLOCK, LockLevel.SERVER, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean globalUnlock(String id) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return released(LockOperation.UNLOCK, LockLevel.GLOBAL, id, currentOwner(), start,
+                    delegate.globalUnlock(id));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.UNLOCK, LockLevel.GLOBAL, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock) {
+        long start = System.nanoTime();
+        return delegate.tryLockAsync(lock).whenComplete((success, e) -> {
+            if (e != null) {
+                failed(LockOperation.TRY_LOCK_ASYNC, lock.level(), start);
+            } else {
+                acquiredAsync(LockOperation.TRY_LOCK_ASYNC, lock, 0, start, success);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout) {
+        long start = System.nanoTime();
+        return delegate.lockAsync(lock, timeout).whenComplete((success, e) -> {
+            if (e != null) {
+                failed(LockOperation.LOCK_ASYNC, lock.level(), start);
+            } else {
+                acquiredAsync(LockOperation.LOCK_ASYNC, lock, timeout, start, success);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> unlockAsync(Lock lock) {
+        long start = System.nanoTime();
+        return delegate.unlockAsync(lock).whenComplete((success, e) -> {
+            if (e != null) {
+                failed(LockOperation.UNLOCK_ASYNC, lock.level(), start);
+            } else {
+                released(LockOperation.UNLOCK_ASYNC, lock.level(), lock.id(), ASYNC_OWNER, start,
+                        Boolean.TRUE.equals(success));
+            }
+        });
+    }
+
+    @Override
+    public boolean tryReadLock(Lock lock) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.TRY_READ_LOCK, lock, lock.level(), 0, false, start,
+                    delegate.tryReadLock(lock));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.TRY_READ_LOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean readLock(Lock lock, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            return acquired(LockOperation.READ_LOCK, lock, lock.level(), timeout, false, start,
+                    delegate.readLock(lock, timeout));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.READ_LOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean readUnlock(Lock lock) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            boolean success = delegate.readUnlock(lock);
+            metrics.recordLatency(LockOperation.READ_UNLOCK, lock.level(), System.nanoTime() - start);
+            return success;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.READ_UNLOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean downgradeWriteLock(Lock lock) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            // the exclusive hold ends here, the read lock is not timed
+            return released(LockOperation.DOWNGRADE_WRITE_LOCK, lock.level(), lock.id(), currentOwner(), start,
+                    delegate.downgradeWriteLock(lock));
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.DOWNGRADE_WRITE_LOCK, lock.level(), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean lockAll(Collection<Lock> locks, long timeout) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            boolean success = delegate.lockAll(locks, timeout);
+            metrics.recordLatency(LockOperation.LOCK_ALL, null, System.nanoTime() - start);
+            long owner = currentOwner();
+            for (Lock lock : locks) {
+                if (success) {
+                    metrics.recordAcquired();
+                    metrics.holdStarted(lock.level(), lock.id(), owner);
+                } else {
+                    metrics.recordNotAcquired(lock, timeout);
+                }
+            }
+            return success;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.LOCK_ALL, null, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean unlockAll(Collection<Lock> locks) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            boolean success = delegate.unlockAll(locks);
+            metrics.recordLatency(LockOperation.UNLOCK_ALL, null, System.nanoTime() - start);
+            if (success) {
+                long owner = currentOwner();
+                for (Lock lock : locks) {
+                    metrics.holdEnded(lock.level(), lock.id(), owner);
+                }
+            }
+            return success;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.UNLOCK_ALL, null, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Lock> tryLockBatch(List<Lock> locks) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            List<Lock> obtained = delegate.tryLockBatch(locks);
+            metrics.recordLatency(LockOperation.TRY_LOCK_BATCH, null, System.nanoTime() - start);
+            long owner = currentOwner();
+            for (Lock lock : locks) {
+                if (obtained.contains(lock)) {
+                    metrics.recordAcquired();
+                    metrics.holdStarted(lock.level(), lock.id(), owner);
+                } else {
+                    metrics.recordNotAcquired(lock, 0);
+                }
+            }
+            return obtained;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.TRY_LOCK_BATCH, null, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Lock> unlockBatch(List<Lock> locks) throws DistributedLockException {
+        long start = System.nanoTime();
+        try {
+            List<Lock> released = delegate.unlockBatch(locks);
+            metrics.recordLatency(LockOperation.UNLOCK_BATCH, null, System.nanoTime() - start);
+            long owner = currentOwner();
+            for (Lock lock : released) {
+                metrics.holdEnded(lock.level(), lock.id(), owner);
+            }
+            return released;
+        } catch (DistributedLockException | RuntimeException e) {
+            failed(LockOperation.UNLOCK_BATCH, null, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MeteredDistributedLockManager [delegate=" + delegate + "]";
+    }
+
+    private boolean acquired(LockOperation operation, Lock lock, LockLevel level, long timeout, boolean exclusive,
+            long start, boolean success) {
+        metrics.recordLatency(operation, level, System.nanoTime() - start);
+        if (success) {
+            metrics.recordAcquired();
+            if (exclusive) {
+                metrics.holdStarted(level, lock.id(), currentOwner());
+            }
+        } else {
+            metrics.recordNotAcquired(lock, timeout);
+        }
+        return success;
+    }
+
+    private void acquiredAsync(LockOperation operation, Lock lock, long timeout, long start, Boolean success) {
+        metrics.recordLatency(operation, lock.level(), System.nanoTime() - start);
+        if (Boolean.TRUE.equals(success)) {
+            metrics.recordAcquired();
+            metrics.holdStarted(lock.level(), lock.id(), ASYNC_OWNER);
+        } else {
+            metrics.recordNotAcquired(lock, timeout);
+        }
+    }
+
+    private boolean released(LockOperation operation, LockLevel level, String id, long owner, long start,
+            boolean success) {
+        metrics.recordLatency(operation, level, System.nanoTime() - start);
+        if (success) {
+            metrics.holdEnded(level, id, owner);
+        }
+        return success;
+    }
+
+    private void failed(LockOperation operation, LockLevel level, long start) {
+        metrics.recordLatency(operation, level, System.nanoTime() - start);
+        metrics.recordError();
+    }
+
+    private static long currentOwner() {
+        return Thread.currentThread().getId();
+    }
+}
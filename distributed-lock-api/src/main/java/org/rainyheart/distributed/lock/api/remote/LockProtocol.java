@@ -0,0 +1,162 @@
+package org.rainyheart.distributed.lock.api.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.rainyheart.distributed.lock.api.LockLevel;
+
+/**
+ * The binary protocol between a lock server and its clients. Every frame is
+ * prefixed by its length and carries the id of its request, so a client can
+ * send many requests on one connection without waiting for the responses, and
+ * the server answers each of them as soon as it is done, in any order.
+ *
+ * <pre>
+ * request  := length:int requestId:int op:byte level:byte mode:byte owner:long timeout:long idLength:short id:utf8
+ * response := length:int requestId:int status:byte [messageLength:short message:utf8]
+ * </pre>
+ *
+ * The length does not count itself. A lock without mode, e.g. of appUnlock(id),
+ * is sent with MODE_NONE. The owner tells apart the callers sharing a
+ * connection, and the message is only sent with STATUS_ERROR.
+ *
+ * @author Ken Ye
+ *
+ */
+public final class LockProtocol {
+
+    public static final byte OP_LOCK = 1;
+    public static final byte OP_TRY_LOCK = 2;
+    public static final byte OP_UNLOCK = 3;
+
+    /**
+     * The mode of a lock without mode, which is released like a persistent one
+     */
+    public static final byte MODE_NONE = -1;
+
+    public static final byte STATUS_FALSE = 0;
+    public static final byte STATUS_TRUE = 1;
+    public static final byte STATUS_ERROR = 2;
+
+    /**
+     * Size of the length prefix of a frame
+     */
+    public static final int LENGTH_SIZE = 4;
+
+    /**
+     * Frames longer than it are refused, the connection is closed
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private static final int REQUEST_FIXED_LENGTH = 4 + 1 + 1 + 1 + 8 + 8 + 2;
+    private static final int RESPONSE_FIXED_LENGTH = 4 + 1;
+
+    private static final LockLevel[] LEVELS = LockLevel.values();
+
+    private LockProtocol() {
+    }
+
+    /**
+     * @return the frame of the given request, ready to be written
+     */
+    public static ByteBuffer encodeRequest(int requestId, byte op, LockLevel level, Integer mode, long owner,
+            long timeout, String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int length = REQUEST_FIXED_LENGTH + idBytes.length;
+        checkLength(length);
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + length);
+        frame.putInt(length).putInt(requestId).put(op).put((byte) level.ordinal())
+                .put(mode == null ? MODE_NONE : mode.byteValue()).putLong(owner).putLong(timeout)
+                .putShort((short) idBytes.length).put(idBytes);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @param frame:
+     *            a frame without its length prefix, as given by
+     *            {@link #nextFrame(ByteBuffer)}
+     */
+    public static LockRequest decodeRequest(ByteBuffer frame) {
+        int requestId = frame.getInt();
+        byte op = frame.get();
+        int level = frame.get();
+        if (level < 0 || level >= LEVELS.length) {
+            throw new IllegalArgumentException("Unknown lock level: " + level);
+        }
+        byte mode = frame.get();
+        long owner = frame.getLong();
+        long timeout = frame.getLong();
+        byte[] idBytes = new byte[frame.getShort() & 0xFFFF];
+        frame.get(idBytes);
+        return new LockRequest(requestId, op, LEVELS[level], mode == MODE_NONE ? null : Integer.valueOf(mode), owner,
+                timeout,
+                new String(idBytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param message:
+     *            only sent with STATUS_ERROR, may be null
+     */
+    public static ByteBuffer encodeResponse(int requestId, byte status, String message) {
+        byte[] messageBytes = status == STATUS_ERROR ? toMessageBytes(message) : null;
+        int length = RESPONSE_FIXED_LENGTH + (messageBytes == null ? 0 : 2 + messageBytes.length);
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + length);
+        frame.putInt(length).putInt(requestId).put(status);
+        if (messageBytes != null) {
+            frame.putShort((short) messageBytes.length).put(messageBytes);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @return the error message of a STATUS_ERROR response frame, whose request
+     *         id and status are read already
+     */
+    public static String decodeMessage(ByteBuffer frame) {
+        byte[] messageBytes = new byte[frame.getShort() & 0xFFFF];
+        frame.get(messageBytes);
+        return new String(messageBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Take the next complete frame out of the bytes received, the buffer is in
+     * read mode and its position is moved past the frame
+     *
+     * @return the frame without its length prefix, or null if it is not
+     *         received completely yet
+     * @throws IllegalArgumentException
+     *             if the frame is longer than MAX_FRAME_LENGTH
+     */
+    public static ByteBuffer nextFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < LENGTH_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        if (buffer.remaining() < LENGTH_SIZE + length) {
+            return null;
+        }
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(buffer.position() + LENGTH_SIZE).limit(buffer.position() + LENGTH_SIZE + length);
+        buffer.position(frame.limit());
+        return frame.slice();
+    }
+
+    private static void checkLength(int length) {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid frame length: " + length);
+        }
+    }
+
+    private static byte[] toMessageBytes(String message) {
+        String text = String.valueOf(message);
+        if (text.length() > MAX_MESSAGE_LENGTH) { // it is only for the logs
+            text = text.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
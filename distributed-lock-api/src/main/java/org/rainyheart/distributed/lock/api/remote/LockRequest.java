@@ -0,0 +1,80 @@
+package org.rainyheart.distributed.lock.api.remote;
+
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * A request received by a lock server, see {@link LockProtocol}
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockRequest {
+
+    private final int requestId;
+    private final byte op;
+    private final LockLevel level;
+    private final Integer mode;
+    private final long owner;
+    private final long timeout;
+    private final String id;
+
+    public LockRequest(int requestId, byte op, LockLevel level, Integer mode, long owner, long timeout, String id) {
+        super();
+        this.requestId = requestId;
+        this.op = op;
+        this.level = level;
+        this.mode = mode;
+        this.owner = owner;
+        this.timeout = timeout;
+        this.id = id;
+    }
+
+    public int requestId() {
+        return this.requestId;
+    }
+
+    public byte op() {
+        return this.op;
+    }
+
+    public LockLevel level() {
+        return this.level;
+    }
+
+    public Integer mode() {
+        return this.mode;
+    }
+
+    /**
+     * @return the caller on the client, unique within its connection
+     */
+    public long owner() {
+        return this.owner;
+    }
+
+    /**
+     * @return the timeout in milliseconds of OP_LOCK, negative for no timeout
+     */
+    public long timeout() {
+        return this.timeout;
+    }
+
+    public String id() {
+        return this.id;
+    }
+
+    /**
+     * @return a new lock of the requested id, level and mode
+     */
+    public Lock toLock() {
+        return new LockImpl(this.id, null, this.level, this.mode);
+    }
+
+    @Override
+    public String toString() {
+        return "LockRequest [requestId=" + requestId + ", op=" + op + ", level=" + level + ", mode=" + mode
+                + ", owner=" + owner + ", timeout=" + timeout + ", id=" + id + "]";
+    }
+}
@@ -0,0 +1,459 @@
+package org.rainyheart.distributed.lock.api.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+
+/**
+ * A lock manager locking through a lock server, which holds the ZooKeeper
+ * sessions for all its clients. It needs neither ZooKeeper nor a session
+ * handshake, so it suits the short lived processes, and one connection is
+ * shared by all the threads of a JVM.
+ *
+ * The locks are reentrant for their owner thread, the hold counts are kept here
+ * and the server only sees the first lock and the last unlock. The server
+ * releases the locks of a connection once it is closed, but for the persistent
+ * ones (mode 1). The read locks and the fencing tokens are not supported.
+ *
+ * @author Ken Ye
+ *
+ */
+public class RemoteDistributedLockManager implements DistributedLockManager {
+
+    private static final String SEPARATOR = "/";
+    private static final String MSG_NOT_SUPPORTED = " is not supported by the lock server";
+
+    private final InetSocketAddress address;
+
+    /**
+     * The locks obtained by the callers of this manager, by lock key
+     */
+    private final ConcurrentMap<String, RemoteLockHolder> holders = new ConcurrentHashMap<>();
+
+    /**
+     * The owners of lockAsync() calls, negative so that they are not thread ids
+     */
+    private final AtomicLong asyncOwners = new AtomicLong();
+
+    private volatile RemoteLockConnection connection;
+    private volatile boolean destroyed = false;
+
+    public RemoteDistributedLockManager(String host, int port) {
+        super();
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        synchronized (this) {
+            this.destroyed = true;
+        }
+        RemoteLockConnection current = this.connection;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public boolean tryLock(Lock lock) throws DistributedLockException {
+        return lock(lock, lock.level(), 0);
+    }
+
+    @Override
+    public boolean lock(Lock lock, long timeout) throws DistributedLockException {
+        return lock(lock, lock.level(), timeout);
+    }
+
+    @Override
+    public boolean appLock(Lock lock, long timeout) throws DistributedLockException {
+        return lock(lock, LockLevel.APPLICATION, timeout);
+    }
+
+    @Override
+    public boolean serverLock(Lock lock, long timeout) throws DistributedLockException {
+        return lock(lock, LockLevel.SERVER, timeout);
+    }
+
+    @Override
+    public boolean globalLock(Lock lock, long timeout) throws DistributedLockException {
+        return lock(lock, LockLevel.GLOBAL, timeout);
+    }
+
+    @Override
+    public boolean unlock(Lock lock) throws DistributedLockException {
+        return await(release(lock.id(), lock.level(), lock.mode()));
+    }
+
+    @Override
+    public boolean appUnlock(String id) throws DistributedLockException {
+        return await(release(id, LockLevel.APPLICATION, null));
+    }
+
+    @Override
+    public boolean serverUnlock(String id) throws DistributedLockException {
+        return await(release(id, LockLevel.SERVER, null));
+    }
+
+    @Override
+    public boolean globalUnlock(String id) throws DistributedLockException {
+        return await(release(id, LockLevel.GLOBAL, null));
+    }
+
+    @Override
+    public LockHandle lockWithToken(Lock lock, long timeout) throws DistributedLockException {
+        throw new DistributedLockException("lockWithToken" + MSG_NOT_SUPPORTED);
+    }
+
+    @Override
+    public boolean validateToken(Lock lock, long fencingToken) throws DistributedLockException {
+        throw new DistributedLockException("validateToken" + MSG_NOT_SUPPORTED);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock) {
+        return lockAsync(lock, 0);
+    }
+
+    /**
+     * The lock is held by the given lock instance, not by the calling thread,
+     * and it is released by unlockAsync() with an equal lock
+     */
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout) {
+        String key = keyOf(lock.level(), lock.id());
+        long owner = this.asyncOwners.decrementAndGet();
+        try {
+            return connection().send(toLockOp(timeout), lock.level(), lock.mode(), owner, timeout, lock.id())
+                    .thenApply(obtained -> {
+                        if (obtained) {
+                            this.holders.put(key, new RemoteLockHolder(owner, lock));
+                        }
+                        return obtained;
+                    });
+        } catch (DistributedLockException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> unlockAsync(Lock lock) {
+        String key = keyOf(lock.level(), lock.id());
+        RemoteLockHolder holder = this.holders.get(key);
+        if (holder != null && holder.isObtainedAsyncBy(lock)) {
+            this.holders.remove(key, holder);
+            return send(LockProtocol.OP_UNLOCK, lock.level(), lock.mode(), holder.getOwner(), lock.id());
+        }
+        return release(lock.id(), lock.level(), lock.mode());
+    }
+
+    @Override
+    public boolean tryReadLock(Lock lock) throws DistributedLockException {
+        throw new DistributedLockException("tryReadLock" + MSG_NOT_SUPPORTED);
+    }
+
+    @Override
+    public boolean readLock(Lock lock, long timeout) throws DistributedLockException {
+        throw new DistributedLockException("readLock" + MSG_NOT_SUPPORTED);
+    }
+
+    @Override
+    public boolean readUnlock(Lock lock) throws DistributedLockException {
+        throw new DistributedLockException("readUnlock" + MSG_NOT_SUPPORTED);
+    }
+
+    @Override
+    public boolean downgradeWriteLock(Lock lock) throws DistributedLockException {
+        throw new DistributedLockException("downgradeWriteLock" + MSG_NOT_SUPPORTED);
+    }
+
+    /**
+     * The locks are obtained one by one in the canonical order, so two callers
+     * never wait for each other, and the ones obtained are released again if any
+     * of them is not obtained before timeout
+     */
+    @Override
+    public boolean lockAll(Collection<Lock> locks, long timeout) throws DistributedLockException {
+        SortedMap<String, Lock> sorted = toLockKeys(locks);
+        long threadId = currentThreadId();
+        List<RemoteLockHolder> reentered = new ArrayList<>();
+        for (String key : new ArrayList<>(sorted.keySet())) {
+            RemoteLockHolder holder = this.holders.get(key);
+            if (holder != null && holder.isOwnedBy(threadId)) {
+                reentered.add(holder);
+                sorted.remove(key);
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        List<Lock> obtained = new ArrayList<>(sorted.size());
+        try {
+            for (Lock lock : sorted.values()) {
+                long remaining = timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 0) : timeout;
+                if (!lock(lock, lock.level(), remaining)) {
+                    break;
+                }
+                obtained.add(lock);
+            }
+        } finally {
+            if (obtained.size() < sorted.size()) {
+                for (Lock lock : obtained) {
+                    unlock(lock);
+                }
+            }
+        }
+        if (obtained.size() < sorted.size()) {
+            return false;
+        }
+        for (RemoteLockHolder holder : reentered) {
+            holder.increaseHoldCount();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unlockAll(Collection<Lock> locks) throws DistributedLockException {
+        boolean success = true;
+        for (Map.Entry<String, Lock> entry : toLockKeys(locks).entrySet()) {
+            RemoteLockHolder holder = this.holders.get(entry.getKey());
+            if (holder == null || !holder.isOwnedBy(currentThreadId())) {
+                success = false;
+            } else {
+                success &= unlock(entry.getValue());
+            }
+        }
+        return success;
+    }
+
+    /**
+     * All the requests are sent before the first answer is read, so the batch
+     * takes about one round trip to the server
+     */
+    @Override
+    public List<Lock> tryLockBatch(List<Lock> locks) throws DistributedLockException {
+        long threadId = currentThreadId();
+        Map<String, Lock> given = new LinkedHashMap<>();
+        for (Lock lock : locks) {
+            given.putIfAbsent(keyOf(lock.level(), lock.id()), lock); // the same lock may be given twice
+        }
+        RemoteLockConnection current = connection();
+        Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Lock> entry : given.entrySet()) {
+            RemoteLockHolder holder = this.holders.get(entry.getKey());
+            if (holder != null && holder.isOwnedBy(threadId)) {
+                holder.increaseHoldCount();
+                futures.put(entry.getKey(), CompletableFuture.completedFuture(Boolean.TRUE));
+            } else {
+                Lock lock = entry.getValue();
+                futures.put(entry.getKey(),
+                        current.send(LockProtocol.OP_TRY_LOCK, lock.level(), lock.mode(), threadId, 0, lock.id()));
+            }
+        }
+        List<String> obtained = new ArrayList<>();
+        DistributedLockException error = null;
+        for (Map.Entry<String, CompletableFuture<Boolean>> entry : futures.entrySet()) {
+            try {
+                if (entry.getValue().join()) {
+                    this.holders.putIfAbsent(entry.getKey(), new RemoteLockHolder(threadId));
+                    obtained.add(entry.getKey());
+                }
+            } catch (CompletionException e) {
+                error = toException(e.getCause());
+            }
+        }
+        if (error != null) {
+            for (String key : obtained) {
+                unlock(given.get(key));
+            }
+            throw error;
+        }
+        List<Lock> result = new ArrayList<>(obtained.size());
+        for (Lock lock : locks) {
+            if (obtained.remove(keyOf(lock.level(), lock.id()))) {
+                result.add(lock);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The unlock requests are all sent before the first answer is read
+     */
+    @Override
+    public List<Lock> unlockBatch(List<Lock> locks) throws DistributedLockException {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(locks.size());
+        for (Lock lock : locks) {
+            futures.add(release(lock.id(), lock.level(), lock.mode()));
+        }
+        List<Lock> released = new ArrayList<>(locks.size());
+        for (int i = 0; i < locks.size(); i++) {
+            if (await(futures.get(i))) {
+                released.add(locks.get(i));
+            }
+        }
+        return released;
+    }
+
+    private boolean lock(Lock lock, LockLevel level, long timeout) throws DistributedLockException {
+        String key = keyOf(level, lock.id());
+        long threadId = currentThreadId();
+        RemoteLockHolder holder = this.holders.get(key);
+        if (holder != null && holder.isOwnedBy(threadId)) {
+            holder.increaseHoldCount(); // reentered by the owner thread
+            return true;
+        }
+        RemoteLockConnection current = connection();
+        CompletableFuture<Boolean> future = current.send(toLockOp(timeout), level, lock.mode(), threadId, timeout,
+                lock.id());
+        try {
+            if (!future.get()) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the lock may still be granted, nobody would release it
+            future.thenAccept(obtained -> {
+                if (obtained) {
+                    current.send(LockProtocol.OP_UNLOCK, level, lock.mode(), threadId, 0, lock.id());
+                }
+            });
+            return false;
+        } catch (ExecutionException e) {
+            throw toException(e.getCause());
+        }
+        this.holders.put(key, new RemoteLockHolder(threadId));
+        return true;
+    }
+
+    /**
+     * Release a lock held by the current thread, or any persistent lock
+     */
+    private CompletableFuture<Boolean> release(String id, LockLevel level, Integer mode) {
+        String key = keyOf(level, id);
+        long threadId = currentThreadId();
+        RemoteLockHolder holder = this.holders.get(key);
+        if (holder != null && holder.isOwnedBy(threadId)) {
+            if (holder.decreaseHoldCount() > 0) {
+                return CompletableFuture.completedFuture(Boolean.TRUE);
+            }
+            this.holders.remove(key, holder);
+        } else if (isPersistentLockMode(mode)) {
+            // a persistent lock can be released by anyone
+            if (holder != null) {
+                this.holders.remove(key, holder);
+            }
+        } else {
+            return CompletableFuture.completedFuture(Boolean.FALSE);
+        }
+        return send(LockProtocol.OP_UNLOCK, level, mode, threadId, id);
+    }
+
+    private CompletableFuture<Boolean> send(byte op, LockLevel level, Integer mode, long owner, String id) {
+        try {
+            return connection().send(op, level, mode, owner, 0, id);
+        } catch (DistributedLockException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * @return the open connection to the lock server, connected again if it is
+     *         lost. The locks of a lost connection are released by the server.
+     */
+    private RemoteLockConnection connection() throws DistributedLockException {
+        RemoteLockConnection current = this.connection;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        synchronized (this) {
+            if (this.destroyed) {
+                throw new DistributedLockException("The lock manager is destroyed");
+            }
+            if (this.connection == null || !this.connection.isOpen()) {
+                if (this.connection != null) {
+                    this.holders.clear();
+                }
+                try {
+                    this.connection = new RemoteLockConnection(this.address);
+                } catch (IOException e) {
+                    throw new DistributedLockException("Unable to connect to the lock server at " + this.address, e);
+                }
+            }
+            return this.connection;
+        }
+    }
+
+    private static boolean await(CompletableFuture<Boolean> future) throws DistributedLockException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw toException(e.getCause());
+        }
+    }
+
+    private static DistributedLockException toException(Throwable cause) {
+        if (cause instanceof DistributedLockException) {
+            return (DistributedLockException) cause;
+        }
+        return new DistributedLockException(String.valueOf(cause.getMessage()), cause);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * @return the lock keys of the given locks in the canonical order
+     */
+    private static SortedMap<String, Lock> toLockKeys(Collection<Lock> locks) {
+        SortedMap<String, Lock> keys = new TreeMap<>();
+        for (Lock lock : locks) {
+            keys.put(keyOf(lock.level(), lock.id()), lock);
+        }
+        return keys;
+    }
+
+    private static String keyOf(LockLevel level, String id) {
+        return level.name() + SEPARATOR + id;
+    }
+
+    private static byte toLockOp(long timeout) {
+        return timeout == 0 ? LockProtocol.OP_TRY_LOCK : LockProtocol.OP_LOCK;
+    }
+
+    private static long currentThreadId() {
+        return Thread.currentThread().getId();
+    }
+
+    /**
+     * A lock without mode is released in the same way as a persistent one, as
+     * the ZooKeeperManager does
+     */
+    private static boolean isPersistentLockMode(Integer mode) {
+        return mode == null || mode.intValue() == 1;
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+}
@@ -0,0 +1,140 @@
+package org.rainyheart.distributed.lock.api.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+
+/**
+ * A connection to a lock server shared by all the callers of a
+ * {@link RemoteDistributedLockManager}. The requests are written as they come
+ * and a reader thread completes them by their request id, so a caller waiting
+ * for a lock never holds up the others.
+ *
+ * @author Ken Ye
+ *
+ */
+class RemoteLockConnection {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final Thread reader;
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final ConcurrentMap<Integer, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    private volatile Throwable closedBy;
+
+    RemoteLockConnection(InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+        this.reader = new Thread(this::readResponses, "distributed-lock-remote-reader-" + address.getPort());
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    boolean isOpen() {
+        return this.closedBy == null;
+    }
+
+    /**
+     * @return completed with the answer of the server, or exceptionally with a
+     *         DistributedLockException if the connection is lost
+     */
+    CompletableFuture<Boolean> send(byte op, LockLevel level, Integer mode, long owner, long timeout, String id) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        int requestId = this.requestIds.incrementAndGet();
+        ByteBuffer frame;
+        try {
+            frame = LockProtocol.encodeRequest(requestId, op, level, mode, owner, timeout, id);
+        } catch (IllegalArgumentException e) {
+            future.completeExceptionally(new DistributedLockException(e.getMessage(), e));
+            return future;
+        }
+        this.pending.put(requestId, future);
+        try {
+            synchronized (this.writeLock) {
+                while (frame.hasRemaining()) {
+                    this.channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+        if (this.closedBy != null) { // closed before the request is written or answered
+            failPending(this.closedBy);
+        }
+        return future;
+    }
+
+    void close() {
+        close(new IOException("Connection to the lock server is closed"));
+    }
+
+    private void close(Throwable cause) {
+        synchronized (this) {
+            if (this.closedBy != null) {
+                return;
+            }
+            this.closedBy = cause;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+        failPending(cause);
+    }
+
+    private void failPending(Throwable cause) {
+        for (Integer requestId : this.pending.keySet()) {
+            CompletableFuture<Boolean> future = this.pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(
+                        new DistributedLockException("Lost the connection to the lock server", cause));
+            }
+        }
+    }
+
+    private void readResponses() {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try {
+            while (this.channel.read(buffer) >= 0) {
+                buffer.flip();
+                for (ByteBuffer frame = LockProtocol.nextFrame(buffer); frame != null; frame = LockProtocol
+                        .nextFrame(buffer)) {
+                    complete(frame);
+                }
+                buffer.compact();
+                if (!buffer.hasRemaining()) { // a frame larger than the buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put((ByteBuffer) buffer.flip());
+                }
+            }
+            close();
+        } catch (IOException | IllegalArgumentException e) {
+            close(e);
+        }
+    }
+
+    private void complete(ByteBuffer frame) {
+        int requestId = frame.getInt();
+        byte status = frame.get();
+        CompletableFuture<Boolean> future = this.pending.remove(requestId);
+        if (future == null) {
+            return;
+        } else if (status == LockProtocol.STATUS_ERROR) {
+            future.completeExceptionally(new DistributedLockException(LockProtocol.decodeMessage(frame)));
+        } else {
+            future.complete(status == LockProtocol.STATUS_TRUE);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.rainyheart.distributed.lock.api.remote;
+
+import org.rainyheart.distributed.lock.api.Lock;
+
+/**
+ * A lock obtained from the lock server, held by a thread or by the lock
+ * instance of a lockAsync(). The hold count of the owner thread is kept here,
+ * the server only sees the first lock and the last unlock.
+ *
+ * @author Ken Ye
+ *
+ */
+final class RemoteLockHolder {
+
+    /**
+     * The owner sent to the server, the thread id or a negative id of a
+     * lockAsync()
+     */
+    private final long owner;
+    private final Lock asyncLock;
+
+    /**
+     * Only changed by the owner thread
+     */
+    private int holdCount = 1;
+
+    RemoteLockHolder(long ownerThreadId) {
+        this(ownerThreadId, null);
+    }
+
+    RemoteLockHolder(long asyncOwner, Lock asyncLock) {
+        super();
+        this.owner = asyncOwner;
+        this.asyncLock = asyncLock;
+    }
+
+    long getOwner() {
+        return this.owner;
+    }
+
+    boolean isOwnedBy(long threadId) {
+        return this.asyncLock == null && this.owner == threadId;
+    }
+
+    boolean isObtainedAsyncBy(Lock lock) {
+        return this.asyncLock != null && this.asyncLock.equals(lock);
+    }
+
+    void increaseHoldCount() {
+        this.holdCount++;
+    }
+
+    /**
+     * @return the hold count left, the lock should be released when it is 0
+     */
+    int decreaseHoldCount() {
+        return --this.holdCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteLockHolder [owner=" + owner + ", asyncLock=" + asyncLock + ", holdCount=" + holdCount + "]";
+    }
+}
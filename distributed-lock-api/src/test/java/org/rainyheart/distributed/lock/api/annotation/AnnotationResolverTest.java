@@ -0,0 +1,197 @@
+package org.rainyheart.distributed.lock.api.annotation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+import org.rainyheart.distributed.lock.api.LockLevel;
+
+/**
+ * Verify the lock id expressions of @DistributedLock
+ *
+ * @author Ken Ye
+ *
+ */
+public class AnnotationResolverTest {
+
+    private static final String[] NAMES = { "order", "count" };
+
+    @Test
+    public void testConstant() {
+        assertEquals("orders", resolve("orders", null, 1));
+        assertEquals("a#b", resolve("a#b", null, 1));
+    }
+
+    @Test
+    public void testParameter() {
+        assertEquals("A-1", resolve("#{order}", "A-1", 1));
+        assertEquals(2, resolve("#{ count }", null, 2));
+        assertNull(resolve("#{order}", null, 1));
+        // an unknown parameter
+        assertNull(resolve("#{customer}", "A-1", 1));
+    }
+
+    @Test
+    public void testPropertyPath() {
+        Order order = new Order("A-1", new Customer("C-1", new Address("Hong Kong")));
+        assertEquals("A-1", resolve("#{order.id}", order, 1));
+        // the getters of a super class
+        assertEquals("C-1", resolve("#{order.customer.id}", order, 1));
+        assertEquals("Hong Kong", resolve("#{order.customer.address.city}", order, 1));
+        assertEquals(true, resolve("#{order.customer.vip}", order, 1));
+        assertNull(resolve("#{order.customer.address.city}", new Order("A-2", null), 1));
+        assertNull(resolve("#{order.missing}", order, 1));
+    }
+
+    @Test
+    public void testPropertyPathOfSeveralClasses() throws Throwable {
+        LockIdExpression expression = LockIdExpression.parse("#{order.id}", NAMES);
+        assertEquals("A-1", expression.getValue(new Object[] { new Order("A-1", null), 1 }));
+        assertEquals("S-1", expression.getValue(new Object[] { new SpecialOrder("S-1"), 1 }));
+        assertEquals("A-2", expression.getValue(new Object[] { new Order("A-2", null), 1 }));
+    }
+
+    @Test
+    public void testTemplate() {
+        Order order = new Order("A-1", new Customer("C-1", null));
+        assertEquals("order:A-1", resolve("order:#{order.id}", order, 1));
+        assertEquals("C-1/A-1#3", resolve("#{order.customer.id}/#{order.id}##{count}", order, 3));
+        assertNull(resolve("order:#{order.customer.address.city}", order, 1));
+    }
+
+    @Test
+    public void testSpel() {
+        Order order = new Order("A-1", new Customer("C-1", null));
+        assertEquals("A-1:2", resolve("#{#order.id + ':' + #count}", order, 2));
+        assertEquals("A-1:2", resolve("#{#p0.id + ':' + #p1}", order, 2));
+        LockIdExpression expression = LockIdExpression.parse("order-#{#count * 2}", NAMES);
+        // compiled after a few runs, with the same result
+        for (int i = 0; i < 200; i++) {
+            assertEquals("order-" + (i * 2), AnnotationResolver.getValue(expression, new Object[] { order, i }));
+        }
+    }
+
+    @Test
+    public void testSpelOfSeveralCalls() throws Throwable {
+        LockIdExpression expression = LockIdExpression.parse("#{#order?.id + ':' + #p1}", NAMES);
+        assertEquals("A-1:1", expression.getValue(new Object[] { new Order("A-1", null), 1 }));
+        // the arguments of the last call are not kept
+        assertEquals("null:2", expression.getValue(new Object[] { null, 2 }));
+        FutureTask<Object> another = new FutureTask<>(
+                () -> AnnotationResolver.getValue(expression, new Object[] { new Order("A-3", null), 3 }));
+        new Thread(another).start();
+        assertEquals("A-3:3", another.get());
+        assertEquals("A-4:4", expression.getValue(new Object[] { new Order("A-4", null), 4 }));
+    }
+
+    @Test
+    public void testDescriptor() throws Exception {
+        LockDescriptor descriptor = new LockDescriptor("process",
+                new LockIdExpression[] { LockIdExpression.parse("#{count}", NAMES),
+                        LockIdExpression.parse("orders", NAMES) },
+                new LockLevel[] { LockLevel.GLOBAL, LockLevel.APPLICATION }, 1000);
+        assertEquals(2, descriptor.size());
+        assertEquals("7", descriptor.resolveId(0, new Object[] { null, 7 }));
+        assertNull(descriptor.resolveId(0, new Object[] { null, null }));
+        assertEquals("orders", descriptor.resolveId(1, new Object[] { null, null }));
+        assertEquals(LockLevel.APPLICATION, descriptor.getLevel(1));
+        LockDescriptor.LockTarget target = descriptor.target(Order.class);
+        assertSame(target, descriptor.target(Order.class));
+        assertEquals(Order.class.getName() + "process", target.methodFullName);
+        assertArrayEquals(target.methodFullName.getBytes(), target.value);
+        assertTrue(target != descriptor.target(SpecialOrder.class));
+    }
+
+    @Test
+    public void testLongerTimeout() {
+        assertEquals(0, AnnotationResolver.longerTimeout(0, 0));
+        assertEquals(1000, AnnotationResolver.longerTimeout(0, 1000));
+        assertEquals(1000, AnnotationResolver.longerTimeout(1000, 500));
+        assertEquals(-1, AnnotationResolver.longerTimeout(1000, -1));
+        assertEquals(-1, AnnotationResolver.longerTimeout(-1, 0));
+    }
+
+    private static Object resolve(String id, Object order, Object count) {
+        return AnnotationResolver.getValue(LockIdExpression.parse(id, NAMES), new Object[] { order, count });
+    }
+
+    static class Person {
+
+        private final String id;
+
+        Person(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    static class Customer extends Person {
+
+        private final Address address;
+
+        Customer(String id, Address address) {
+            super(id);
+            this.address = address;
+        }
+
+        Address getAddress() {
+            return address;
+        }
+
+        public boolean isVip() {
+            return true;
+        }
+    }
+
+    static class Address {
+
+        private final String city;
+
+        Address(String city) {
+            this.city = city;
+        }
+
+        public String getCity() {
+            return city;
+        }
+    }
+
+    public static class Order {
+
+        private final String id;
+        private final Customer customer;
+
+        public Order(String id, Customer customer) {
+            this.id = id;
+            this.customer = customer;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    public static class SpecialOrder extends Order {
+
+        public SpecialOrder(String id) {
+            super(id, null);
+        }
+
+        @Override
+        public String getId() {
+            return super.getId();
+        }
+    }
+}
@@ -29,14 +29,13 @@ public class DistributedLockTestController {
         return new Result(1, "testId");
     }
 
-    @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
-    @RequestMapping(value = "/tryLockFailedDueToDuplicatedLockAnnotated", method = RequestMethod.GET)
+    @ResponseStatus(HttpStatus.OK)
+    @RequestMapping(value = "/nestedTryLock", method = RequestMethod.GET)
     @DistributedLock(id = "testId", level = LockLevel.GLOBAL)
     @ResponseBody
-    public Result tryLockFailedDueToDuplicatedLockAnnotated() throws Exception {
-        System.out.println("tryLockFailedDueToDuplicatedLockAnnotated->" + "testId");
+    public Result nestedTryLock() throws Exception {
+        System.out.println("nestedTryLock->" + "testId");
         service.test("testId");
-        System.out.println("This should not be printed");
         return new Result(1, "testId");
     }
 
@@ -84,6 +83,16 @@ public class DistributedLockTestController {
         return new Result(1, lock);
     }
 
+    @ResponseStatus(HttpStatus.OK)
+    @RequestMapping(value = "/multiLock", method = RequestMethod.GET)
+    @DistributedLock(id = "#{from}", level = LockLevel.GLOBAL)
+    @DistributedLock(id = "#{to}", level = LockLevel.APPLICATION, timeout = 1000)
+    @ResponseBody
+    public Result multiLock(String from, String to) {
+        service.transfer(from, to);
+        return new Result(1, from + "->" + to);
+    }
+
     public class Result {
         private int id;
         private String name;
@@ -1,17 +1,23 @@
 package org.rainyheart.distributed.lock.api.annotation;
 
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-import org.junit.Assert;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -25,7 +31,6 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
-import org.springframework.web.util.NestedServletException;
 
 import org.rainyheart.distributed.lock.api.DistributedLockManager;
 import org.rainyheart.distributed.lock.api.Lock;
@@ -82,13 +87,14 @@ public class DistributedLockTestControllerTest {
     }
 
     @Test
-    public void testtryLockFailedDueToDuplicatedLockAnnotated() throws Exception {
-        thrown.expect(NestedServletException.class);
+    public void testNestedTryLock() throws Exception {
         Mockito.when(distributedLockManager.tryLock(Matchers.any(Lock.class))).thenReturn(true);
-        mockMvc.perform(get("/aop/tryLockFailedDueToDuplicatedLockAnnotated"));
-        // below codes should never reach
-        System.out.println("This line should not be printed");
-        Assert.assertTrue(false);
+
+        mockMvc.perform(get("/aop/nestedTryLock")).andExpect(status().isOk());
+
+        // the same lock is reentered by the nested method and released by both
+        Mockito.verify(distributedLockManager, Mockito.times(2)).tryLock(Matchers.any(Lock.class));
+        Mockito.verify(distributedLockManager, Mockito.times(2)).unlock(Matchers.any(Lock.class));
     }
     
     @Test
@@ -164,13 +170,49 @@ public class DistributedLockTestControllerTest {
     @Test
     public void testDoubleAnnotation() throws Exception {
         Mockito.when(distributedLockManager.lock(Matchers.any(Lock.class), Matchers.anyLong())).thenReturn(true);
+        Mockito.when(distributedLockManager.tryLock(Matchers.any(Lock.class))).thenReturn(true);
+
+        mockMvc.perform(get("/aop/testDoubleAnnotation").param("lock", "123")).andExpect(status().isOk());
+
+        Mockito.verify(distributedLockManager, Mockito.times(1)).lock(Matchers.any(Lock.class), Matchers.anyLong());
+        Mockito.verify(distributedLockManager, Mockito.times(1)).tryLock(Matchers.any(Lock.class));
+        Mockito.verify(distributedLockManager, Mockito.times(2)).unlock(Matchers.any(Lock.class));
+    }
+
+    @Test
+    public void testRepeatedAnnotation() throws Exception {
+        Mockito.when(distributedLockManager.lockAll(Matchers.anyCollectionOf(Lock.class), Matchers.anyLong()))
+                .thenReturn(true);
+        Mockito.when(distributedLockManager.unlockAll(Matchers.anyCollectionOf(Lock.class))).thenReturn(true);
+
+        mockMvc.perform(get("/aop/multiLock").param("from", "A").param("to", "B")).andExpect(status().isOk());
+
+        // the outer locks in one batch, and the nested ones reentered in another
+        ArgumentCaptor<Collection> locks = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(distributedLockManager, Mockito.times(2)).lockAll(locks.capture(), Matchers.eq(1000L));
+        Mockito.verify(distributedLockManager, Mockito.times(2)).unlockAll(Matchers.anyCollectionOf(Lock.class));
+        Mockito.verify(distributedLockManager, Mockito.never()).lock(Matchers.any(Lock.class), Matchers.anyLong());
+        List<String> outer = new ArrayList<>();
+        for (Object lock : locks.getAllValues().get(0)) {
+            outer.add(((Lock) lock).level() + ":" + ((Lock) lock).id());
+        }
+        assertEquals(Arrays.asList("GLOBAL:A", "APPLICATION:B"), outer);
+        assertEquals(2, locks.getAllValues().get(1).size());
+    }
+
+    @Test
+    public void testRepeatedAnnotationLockFail() throws Exception {
+        Mockito.when(distributedLockManager.lockAll(Matchers.anyCollectionOf(Lock.class), Matchers.anyLong()))
+                .thenReturn(false);
 
         try {
-            mockMvc.perform(get("/aop/testDoubleAnnotation").param("lock", "123"));
+            mockMvc.perform(get("/aop/multiLock").param("from", "A").param("to", "B"));
+            fail("The call must fail when the locks are not acquired");
         } catch (Exception e) {
-            assertNotNull(e);
+            // thrown by the aspect, wrapped by the servlet
         }
-        Mockito.verify(distributedLockManager, Mockito.times(1)).lock(Matchers.any(Lock.class), Matchers.anyLong());
-        Mockito.verify(distributedLockManager, Mockito.times(1)).unlock(Matchers.any(Lock.class));
+        Mockito.verify(distributedLockManager, Mockito.times(1)).lockAll(Matchers.anyCollectionOf(Lock.class),
+                Matchers.anyLong());
+        Mockito.verify(distributedLockManager, Mockito.never()).unlockAll(Matchers.anyCollectionOf(Lock.class));
     }
 }
@@ -10,4 +10,10 @@ public class DistributedLockTestService {
     public void test(String id) {
         System.out.println("test: " + id);
     }
+
+    @DistributedLock(id = "#{from}", level = LockLevel.GLOBAL)
+    @DistributedLock(id = "#{to}", level = LockLevel.GLOBAL, timeout = 1000)
+    public void transfer(String from, String to) {
+        System.out.println("transfer: " + from + " -> " + to);
+    }
 }
@@ -0,0 +1,267 @@
+package org.rainyheart.distributed.lock.api.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * Verify the in-memory manager keeps the lock semantics of the ZooKeeperManager
+ *
+ * @author Ken Ye
+ *
+ */
+public class InMemoryDistributedLockManagerTest {
+
+    private static final String TEST_ID = "inMemoryTestId";
+
+    InMemoryDistributedLockManager manager;
+    ExecutorService executor;
+    Lock lock;
+
+    @Before
+    public void setup() {
+        manager = new InMemoryDistributedLockManager();
+        executor = Executors.newCachedThreadPool();
+        lock = new LockImpl(TEST_ID, null, LockLevel.GLOBAL);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        manager.destroy();
+    }
+
+    @Test
+    public void testReentrantLock() throws Exception {
+        assertTrue(manager.lock(lock, 100));
+        assertTrue(manager.tryLock(lock));
+        assertFalse(call(() -> manager.tryLock(lock)));
+        assertTrue(manager.unlock(lock));
+        assertFalse(call(() -> manager.lock(lock, 50)));
+        assertTrue(manager.unlock(lock));
+        assertFalse(manager.unlock(lock));
+        assertTrue(call(() -> manager.tryLock(lock) && manager.unlock(lock)));
+        assertEquals(0, manager.getLockCount());
+    }
+
+    @Test
+    public void testLockLevels() throws Exception {
+        assertTrue(manager.appLock(lock, 0));
+        assertTrue(manager.serverLock(lock, 0));
+        assertTrue(manager.globalLock(lock, 0));
+        assertFalse(call(() -> manager.appLock(lock, 0)));
+        assertTrue(manager.appUnlock(TEST_ID));
+        assertTrue(call(() -> manager.appLock(lock, 0) && manager.appUnlock(TEST_ID)));
+        assertTrue(manager.serverUnlock(TEST_ID));
+        // an unlock without lock mode releases the lock of another thread
+        assertTrue(call(() -> manager.globalUnlock(TEST_ID)));
+        assertFalse(manager.globalUnlock(TEST_ID));
+    }
+
+    @Test
+    public void testWaiterIsHandedOver() throws Exception {
+        assertTrue(manager.lock(lock, 0));
+        Future<Boolean> waiter = executor.submit(() -> manager.lock(lock, -1) && manager.unlock(lock));
+        waitForWaiter();
+        // the queued waiter comes first
+        assertFalse(call(() -> manager.tryLock(lock)));
+        assertTrue(manager.unlock(lock));
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(0, manager.getLockCount());
+    }
+
+    @Test
+    public void testTimeoutLeavesQueue() throws Exception {
+        assertTrue(manager.lock(lock, 0));
+        long start = System.currentTimeMillis();
+        assertFalse(call(() -> manager.lock(lock, 100)));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        // no cancelled waiter is left to block tryLock()
+        assertTrue(manager.unlock(lock));
+        assertTrue(call(() -> manager.tryLock(lock) && manager.unlock(lock)));
+    }
+
+    @Test
+    public void testInterruptedWaiter() throws Exception {
+        assertTrue(manager.lock(lock, 0));
+        AtomicInteger interrupted = new AtomicInteger();
+        Thread waiter = new Thread(() -> {
+            if (!manager.lock(lock, -1) && Thread.currentThread().isInterrupted()) {
+                interrupted.incrementAndGet();
+            }
+        });
+        waiter.start();
+        waitForWaiter();
+        waiter.interrupt();
+        waiter.join(5000);
+        assertEquals(1, interrupted.get());
+        assertTrue(manager.unlock(lock));
+        assertTrue(call(() -> manager.tryLock(lock) && manager.unlock(lock)));
+    }
+
+    @Test
+    public void testPersistentLockUnlockedByOthers() throws Exception {
+        Lock persistent = new LockImpl(TEST_ID, null, LockLevel.GLOBAL, 1);
+        assertTrue(manager.lock(persistent, 0));
+        assertFalse(call(() -> manager.unlock(lock)));
+        assertTrue(call(() -> manager.unlock(persistent)));
+        assertTrue(call(() -> manager.tryLock(lock) && manager.unlock(lock)));
+    }
+
+    @Test
+    public void testReadWriteLock() throws Exception {
+        assertTrue(manager.readLock(lock, 0));
+        assertTrue(call(() -> manager.tryReadLock(lock) && manager.readUnlock(lock)));
+        assertFalse(call(() -> manager.tryLock(lock)));
+        // a read lock is never upgraded
+        assertFalse(manager.lock(lock, 0));
+        Future<Boolean> writer = executor.submit(() -> manager.lock(lock, -1) && manager.unlock(lock));
+        waitForWaiter();
+        // a reader queues up behind the writer
+        assertFalse(call(() -> manager.tryReadLock(lock)));
+        assertTrue(manager.readUnlock(lock));
+        assertTrue(writer.get(5, TimeUnit.SECONDS));
+        assertFalse(manager.readUnlock(lock));
+    }
+
+    @Test
+    public void testDowngradeWriteLock() throws Exception {
+        assertFalse(manager.downgradeWriteLock(lock));
+        assertTrue(manager.lock(lock, 0));
+        Future<Boolean> reader = executor.submit(() -> manager.readLock(lock, -1) && manager.readUnlock(lock));
+        waitForWaiter();
+        assertTrue(manager.downgradeWriteLock(lock));
+        assertTrue(reader.get(5, TimeUnit.SECONDS));
+        assertFalse(call(() -> manager.tryLock(lock)));
+        assertTrue(manager.readUnlock(lock));
+
+        // a read lock beside the write lock is kept
+        assertTrue(manager.lock(lock, 0));
+        assertTrue(manager.readLock(lock, 0));
+        assertTrue(manager.downgradeWriteLock(lock));
+        assertTrue(manager.readUnlock(lock));
+        assertFalse(call(() -> manager.tryLock(lock)));
+        assertTrue(manager.readUnlock(lock));
+        assertTrue(call(() -> manager.tryLock(lock) && manager.unlock(lock)));
+    }
+
+    @Test
+    public void testFencingToken() throws Exception {
+        LockHandle first = manager.lockWithToken(lock, 0);
+        assertNotNull(first);
+        assertTrue(manager.validateToken(lock, first.fencingToken()));
+        assertNull(call(() -> manager.lockWithToken(lock, 0)));
+        assertTrue(manager.unlock(lock));
+        assertFalse(manager.validateToken(lock, first.fencingToken()));
+        LockHandle second = manager.lockWithToken(lock, 0);
+        assertTrue(second.fencingToken() > first.fencingToken());
+        assertFalse(manager.validateToken(lock, first.fencingToken()));
+        assertTrue(manager.unlock(lock));
+    }
+
+    @Test
+    public void testLockAll() throws Exception {
+        Lock other = new LockImpl(TEST_ID + "Other", null, LockLevel.GLOBAL);
+        List<Lock> locks = Arrays.asList(other, lock);
+        assertTrue(call(() -> manager.lock(other, 0)));
+        assertFalse(manager.lockAll(locks, 50));
+        // the lock obtained before the failure is released again
+        assertTrue(call(() -> manager.tryLock(lock) && manager.unlock(lock)));
+        assertTrue(manager.unlock(new LockImpl(TEST_ID + "Other", null, LockLevel.GLOBAL, 1)));
+
+        assertTrue(manager.lock(lock, 0));
+        assertTrue(manager.lockAll(locks, 0));
+        assertTrue(manager.unlockAll(locks));
+        assertFalse(call(() -> manager.tryLock(lock)));
+        assertTrue(manager.unlock(lock));
+        assertFalse(manager.unlockAll(locks));
+
+        assertEquals(Arrays.asList(lock), manager.tryLockBatch(Arrays.asList(lock, lock)));
+        assertEquals(Arrays.asList(lock), manager.unlockBatch(Arrays.asList(lock, other)));
+        assertEquals(0, manager.getLockCount());
+    }
+
+    @Test
+    public void testLockAsync() throws Exception {
+        assertTrue(manager.lock(lock, 0));
+        // reentered by the owner thread without waiting
+        assertTrue(manager.lockAsync(lock, -1).get(5, TimeUnit.SECONDS));
+        assertTrue(manager.unlockAsync(lock).get());
+        CompletableFuture<Boolean> timedOut = call(() -> manager.lockAsync(lock, 50));
+        assertFalse(timedOut.get(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> future = call(() -> manager.lockAsync(lock, -1));
+        assertFalse(future.isDone());
+        assertFalse(call(() -> manager.tryLockAsync(lock)).get());
+        assertTrue(manager.unlock(lock));
+        assertTrue(future.get(5, TimeUnit.SECONDS));
+        // it is held by the lock instance, not by a thread
+        assertFalse(manager.tryLock(lock));
+        assertTrue(call(() -> manager.unlockAsync(lock).get()));
+        assertEquals(0, manager.getLockCount());
+    }
+
+    @Test
+    public void testMutualExclusion() throws Exception {
+        int threads = 8;
+        int rounds = 2000;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[threads];
+        for (int i = 0; i < threads; i++) {
+            futures[i] = executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < rounds; j++) {
+                    if (!manager.lock(lock, -1)) {
+                        violations.incrementAndGet();
+                        continue;
+                    }
+                    if (inside.incrementAndGet() != 1) {
+                        violations.incrementAndGet();
+                    }
+                    inside.decrementAndGet();
+                    manager.unlock(lock);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        assertEquals(0, violations.get());
+        assertEquals(0, manager.getLockCount());
+    }
+
+    private <T> T call(Callable<T> callable) throws Exception {
+        return executor.submit(callable).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Give the waiter submitted before time to queue up
+     */
+    private static void waitForWaiter() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(100);
+    }
+}
@@ -0,0 +1,161 @@
+package org.rainyheart.distributed.lock.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * Verify the calls of the metered manager are counted and timed by lock level
+ *
+ * @author Ken Ye
+ *
+ */
+public class MeteredDistributedLockManagerTest {
+
+    /**
+     * Sub-buckets per power of 2 of the histogram
+     */
+    private static final int PRECISION = 16;
+
+    DistributedLockManager delegate;
+    DistributedLockMetrics metrics;
+    MeteredDistributedLockManager manager;
+    Lock lock;
+
+    @Before
+    public void setup() {
+        delegate = Mockito.mock(DistributedLockManager.class);
+        metrics = new DistributedLockMetrics();
+        manager = new MeteredDistributedLockManager(delegate, metrics);
+        lock = new LockImpl("meteredTestId", null, LockLevel.GLOBAL);
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        // each value is kept within 1/16 of its magnitude
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(500), histogram.getValueAtPercentile(50));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(990), histogram.getValueAtPercentile(99));
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testHistogramMerge() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        long[] counts = histogram.getBucketCounts();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            merged.record(LatencyHistogram.getBucketValue(bucket), counts[bucket]);
+        }
+        assertEquals(1000, merged.getCount());
+        assertEquals(histogram.getValueAtPercentile(50), merged.getValueAtPercentile(50));
+        assertWithin(histogram.getValueAtPercentile(99), merged.getValueAtPercentile(99));
+        assertWithin(histogram.getMax(), merged.getMax());
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[] { 0, 15, 16, 17, 40, 1000, 123456789, Long.MAX_VALUE }) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            if (bucket < LatencyHistogram.BUCKETS - 1) {
+                assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+                assertTrue(bucket == 0 || value > LatencyHistogram.highestValueOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testContentionAndTimeout() throws DistributedLockException {
+        Mockito.when(delegate.tryLock(lock)).thenReturn(false);
+        Mockito.when(delegate.lock(lock, 100)).thenReturn(false);
+        assertFalse(manager.tryLock(lock));
+        assertFalse(manager.lock(lock, 100));
+
+        assertEquals(1, metrics.getContentions());
+        assertEquals(1, metrics.getTimeouts());
+        assertEquals(0, metrics.getAcquisitions());
+        assertEquals(1, metrics.getLatency(LockOperation.TRY_LOCK, LockLevel.GLOBAL).getCount());
+        assertNull(metrics.getLatency(LockOperation.TRY_LOCK, LockLevel.SERVER));
+        assertEquals("GLOBAL:meteredTestId=2", metrics.getHotLocks()[0]);
+    }
+
+    @Test
+    public void testHoldTimeOfReentrantLock() throws DistributedLockException {
+        Mockito.when(delegate.lock(lock, 100)).thenReturn(true);
+        Mockito.when(delegate.unlock(lock)).thenReturn(true);
+        assertTrue(manager.lock(lock, 100));
+        assertTrue(manager.lock(lock, 100));
+        assertTrue(manager.unlock(lock));
+        assertNull(metrics.getHoldTime(LockLevel.GLOBAL));
+        assertTrue(manager.unlock(lock));
+
+        assertEquals(2, metrics.getAcquisitions());
+        assertNotNull(metrics.getHoldTime(LockLevel.GLOBAL));
+        assertEquals(1, metrics.getHoldTime(LockLevel.GLOBAL).getCount());
+        assertEquals(2, metrics.getLatency(LockOperation.UNLOCK, LockLevel.GLOBAL).getCount());
+        assertEquals(1, metrics.getHoldTimes().length);
+        assertEquals(2, metrics.getLatencies().length);
+    }
+
+    @Test
+    public void testHoldsOfOwnersAreKeptApart() {
+        metrics.holdStarted(LockLevel.GLOBAL, "heldTwice", 1L);
+        metrics.holdStarted(LockLevel.GLOBAL, "heldTwice", 2L);
+        metrics.holdEnded(LockLevel.GLOBAL, "heldTwice", 1L);
+        assertEquals(1, metrics.getHoldTime(LockLevel.GLOBAL).getCount());
+        metrics.holdEnded(LockLevel.GLOBAL, "heldTwice", 2L);
+        assertEquals(2, metrics.getHoldTime(LockLevel.GLOBAL).getCount());
+        // released already
+        metrics.holdEnded(LockLevel.GLOBAL, "heldTwice", 1L);
+        assertEquals(2, metrics.getHoldTime(LockLevel.GLOBAL).getCount());
+    }
+
+    @Test
+    public void testErrorIsCountedAndRethrown() throws DistributedLockException {
+        Mockito.when(delegate.tryLock(lock)).thenThrow(new DistributedLockException("broken"));
+        try {
+            manager.tryLock(lock);
+            fail();
+        } catch (DistributedLockException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals(1, metrics.getErrors());
+
+        metrics.reset();
+        assertEquals(0, metrics.getErrors());
+        assertEquals(0, metrics.getLatencies().length);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / PRECISION);
+    }
+}
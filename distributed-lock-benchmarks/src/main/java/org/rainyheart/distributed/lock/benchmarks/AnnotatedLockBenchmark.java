@@ -0,0 +1,58 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Call a method locked by @DistributedLock through DistributedLockAspect, the
+ * difference to {@link UncontendedLockBenchmark#tryLockUnlock} at GLOBAL level
+ * is the cost of the aspect and the id resolution
+ *
+ * @author Ken Ye
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotatedLockBenchmark {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Caller {
+
+        LockedService service;
+        String id;
+        int value;
+
+        @Setup(Level.Trial)
+        public void setup(LockApiState state) {
+            this.service = state.getBean(LockedService.class);
+            this.id = "annotated-" + IDS.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public String lockedById(Caller caller) {
+        return caller.service.lockedById(caller.id);
+    }
+
+    @Benchmark
+    public int lockedByConstant(Caller caller) {
+        return caller.service.lockedByConstant(caller.value++);
+    }
+}
@@ -0,0 +1,92 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * All the threads queue up for the same lock id, so the throughput is the rate
+ * the lock is handed over from one holder to the next
+ *
+ * @author Ken Ye
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContendedLockBenchmark {
+
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * CPU work done while the lock is held, in JMH tokens
+     */
+    private static final long WORK = 100;
+
+    @State(Scope.Thread)
+    public static class Contender {
+
+        @Param({ "GLOBAL", "SERVER", "APPLICATION" })
+        LockLevel level;
+
+        DistributedLockApi api;
+        Lock lock;
+
+        @Setup(Level.Trial)
+        public void setup(LockApiState state) {
+            this.api = state.getApi();
+            this.lock = new LockImpl("contended-" + this.level, Thread.currentThread().getName().getBytes(),
+                    this.level);
+        }
+    }
+
+    @Benchmark
+    @Threads(2)
+    public boolean handoff02(Contender contender) throws DistributedLockException {
+        return lockWorkUnlock(contender);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean handoff08(Contender contender) throws DistributedLockException {
+        return lockWorkUnlock(contender);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean handoff32(Contender contender) throws DistributedLockException {
+        return lockWorkUnlock(contender);
+    }
+
+    static boolean lockWorkUnlock(Contender contender) throws DistributedLockException {
+        boolean locked = contender.api.lock(contender.lock, TIMEOUT);
+        if (locked) {
+            try {
+                Blackhole.consumeCPU(WORK);
+            } finally {
+                contender.api.unlock(contender.lock);
+            }
+        }
+        return locked;
+    }
+}
@@ -0,0 +1,130 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.retry.RetryNTimes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The Curator InterProcessMutex baseline of {@link UncontendedLockBenchmark}
+ * and {@link ContendedLockBenchmark} against the same embedded server. The
+ * modes of each benchmark are the same as its counterpart.
+ *
+ * @author Ken Ye
+ *
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CuratorMutexBenchmark {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private static final String LOCK_ROOT = "/curatorBenchmark/";
+
+    @State(Scope.Benchmark)
+    public static class Client {
+
+        CuratorFramework curator;
+
+        @Setup(Level.Trial)
+        public void start(ZooKeeperServerState server) throws InterruptedException {
+            this.curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryNTimes(3, 100));
+            this.curator.start();
+            this.curator.blockUntilConnected();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            if (this.curator != null) {
+                this.curator.close();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadMutex {
+
+        InterProcessMutex mutex;
+
+        @Setup(Level.Trial)
+        public void setup(Client client) {
+            this.mutex = new InterProcessMutex(client.curator, LOCK_ROOT + "uncontended-" + IDS.incrementAndGet());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Contender {
+
+        InterProcessMutex mutex;
+
+        @Setup(Level.Trial)
+        public void setup(Client client) {
+            this.mutex = new InterProcessMutex(client.curator, LOCK_ROOT + "contended");
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean acquireRelease(ThreadMutex state) throws Exception {
+        boolean locked = state.mutex.acquire(1000, TimeUnit.MILLISECONDS);
+        if (locked) {
+            state.mutex.release();
+        }
+        return locked;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(2)
+    public boolean handoff02(Contender contender) throws Exception {
+        return acquireWorkRelease(contender);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public boolean handoff08(Contender contender) throws Exception {
+        return acquireWorkRelease(contender);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(32)
+    public boolean handoff32(Contender contender) throws Exception {
+        return acquireWorkRelease(contender);
+    }
+
+    private static boolean acquireWorkRelease(Contender contender) throws Exception {
+        boolean locked = contender.mutex.acquire(10, TimeUnit.SECONDS);
+        if (locked) {
+            try {
+                Blackhole.consumeCPU(100);
+            } finally {
+                contender.mutex.release();
+            }
+        }
+        return locked;
+    }
+}
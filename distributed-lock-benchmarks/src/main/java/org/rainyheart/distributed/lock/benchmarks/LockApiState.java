@@ -0,0 +1,45 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * The Spring context of distributed-lock-spring.xml connected to the embedded
+ * server, in the same way as an application uses it
+ *
+ * @author Ken Ye
+ *
+ */
+@State(Scope.Benchmark)
+public class LockApiState {
+
+    private ClassPathXmlApplicationContext context;
+
+    private DistributedLockApi api;
+
+    @Setup(Level.Trial)
+    public void start(ZooKeeperServerState server) {
+        this.context = new ClassPathXmlApplicationContext("classpath*:distributed-lock-spring.xml");
+        this.api = this.context.getBean(DistributedLockApi.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        if (this.context != null) {
+            this.context.close();
+        }
+    }
+
+    public DistributedLockApi getApi() {
+        return this.api;
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return this.context.getBean(type);
+    }
+}
@@ -0,0 +1,26 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.annotation.DistributedLock;
+import org.springframework.stereotype.Component;
+
+/**
+ * The annotated methods called by {@link AnnotatedLockBenchmark}, proxied by
+ * DistributedLockAspect
+ *
+ * @author Ken Ye
+ *
+ */
+@Component
+public class LockedService {
+
+    @DistributedLock(id = "#{id}", level = LockLevel.GLOBAL)
+    public String lockedById(String id) {
+        return id;
+    }
+
+    @DistributedLock(id = "annotated-constant", level = LockLevel.GLOBAL, timeout = 1000)
+    public int lockedByConstant(int value) {
+        return value;
+    }
+}
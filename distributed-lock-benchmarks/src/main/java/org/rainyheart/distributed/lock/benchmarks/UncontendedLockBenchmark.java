@@ -0,0 +1,104 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+
+/**
+ * Obtain and release a lock nobody else asks for, at each lock level. Each
+ * thread has its own lock id.
+ *
+ * @author Ken Ye
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UncontendedLockBenchmark {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadLock {
+
+        @Param({ "GLOBAL", "SERVER", "APPLICATION" })
+        LockLevel level;
+
+        DistributedLockApi api;
+        Lock lock;
+
+        @Setup(Level.Trial)
+        public void setup(LockApiState state) {
+            this.api = state.getApi();
+            this.lock = new LockImpl("uncontended-" + IDS.incrementAndGet(),
+                    Thread.currentThread().getName().getBytes(), this.level);
+        }
+    }
+
+    /**
+     * The lock is held by the benchmark thread for the whole iteration, so only
+     * the reentrance is measured
+     */
+    @State(Scope.Thread)
+    public static class HeldLock extends ThreadLock {
+
+        @Setup(Level.Iteration)
+        public void hold() throws DistributedLockException {
+            if (!this.api.tryLock(this.lock)) {
+                throw new IllegalStateException("Unable to hold " + this.lock);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void release() throws DistributedLockException {
+            this.api.unlock(this.lock);
+        }
+    }
+
+    @Benchmark
+    public boolean tryLockUnlock(ThreadLock state) throws DistributedLockException {
+        boolean locked = state.api.tryLock(state.lock);
+        if (locked) {
+            state.api.unlock(state.lock);
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public boolean lockUnlock(ThreadLock state) throws DistributedLockException {
+        boolean locked = state.api.lock(state.lock, 1000);
+        if (locked) {
+            state.api.unlock(state.lock);
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public boolean reentrantTryLockUnlock(HeldLock state) throws DistributedLockException {
+        boolean locked = state.api.tryLock(state.lock);
+        if (locked) {
+            state.api.unlock(state.lock);
+        }
+        return locked;
+    }
+}
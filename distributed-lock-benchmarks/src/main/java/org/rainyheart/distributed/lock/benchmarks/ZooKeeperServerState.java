@@ -0,0 +1,39 @@
+package org.rainyheart.distributed.lock.benchmarks;
+
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The embedded ZooKeeper server of one benchmark run, on the port of
+ * profiles/test/zookeeper.properties
+ *
+ * @author Ken Ye
+ *
+ */
+@State(Scope.Benchmark)
+public class ZooKeeperServerState {
+
+    public static final int PORT = 2181;
+
+    private TestingServer server;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        this.server = new TestingServer(PORT, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    public String getConnectString() {
+        return this.server.getConnectString();
+    }
+}
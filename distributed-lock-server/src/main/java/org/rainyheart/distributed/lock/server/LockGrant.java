@@ -0,0 +1,57 @@
+package org.rainyheart.distributed.lock.server;
+
+import org.rainyheart.distributed.lock.api.Lock;
+
+/**
+ * A lock held by the server for an owner on a client connection. The server
+ * obtains it by lockAsync(), so it is held by the lock instance and any thread
+ * of the server can release it.
+ *
+ * @author Ken Ye
+ *
+ */
+final class LockGrant {
+
+    private final String key;
+    private final LockServerConnection connection;
+    private final long owner;
+    private final Lock lock;
+
+    LockGrant(String key, LockServerConnection connection, long owner, Lock lock) {
+        super();
+        this.key = key;
+        this.connection = connection;
+        this.owner = owner;
+        this.lock = lock;
+    }
+
+    boolean isOwnedBy(LockServerConnection connection, long owner) {
+        return this.connection == connection && this.owner == owner;
+    }
+
+    /**
+     * @return true if it outlives the connection, like the persistent znode of
+     *         its lock, a lock without mode is queued with an ephemeral one
+     */
+    boolean isPersistent() {
+        Integer mode = this.lock.mode();
+        return mode != null && mode.intValue() == 1;
+    }
+
+    String getKey() {
+        return this.key;
+    }
+
+    LockServerConnection getConnection() {
+        return this.connection;
+    }
+
+    Lock getLock() {
+        return this.lock;
+    }
+
+    @Override
+    public String toString() {
+        return "LockGrant [key=" + key + ", connection=" + connection + ", owner=" + owner + "]";
+    }
+}
@@ -0,0 +1,335 @@
+package org.rainyheart.distributed.lock.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.remote.LockProtocol;
+import org.rainyheart.distributed.lock.api.remote.LockRequest;
+import org.rainyheart.distributed.lock.api.remote.RemoteDistributedLockManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lock server for the {@link RemoteDistributedLockManager} clients, so that
+ * they share the few ZooKeeper sessions of the server instead of opening their
+ * own ones. It speaks the {@link LockProtocol} on one selector thread, and
+ * obtains the locks by the asynchronous calls of the lock manager, so a waiting
+ * request takes no thread and the answers go out in the order they are done.
+ *
+ * A lock is held for the owner and connection which asked for it, only they
+ * can release it, but for the persistent locks (mode 1) which anyone can
+ * release. The locks of a connection are released once it is closed, but for
+ * the persistent ones.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockServer.class);
+
+    private static final String SEPARATOR = "/";
+    private static final int BACKLOG = 128;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final DistributedLockManager manager;
+    private final InetSocketAddress address;
+
+    /**
+     * The locks held by the server, by lock key
+     */
+    private final ConcurrentMap<String, LockGrant> grants = new ConcurrentHashMap<>();
+
+    /**
+     * The connections with responses to be written by the selector thread
+     */
+    private final ConcurrentLinkedQueue<LockServerConnection> flushQueue = new ConcurrentLinkedQueue<>();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running = false;
+
+    /**
+     * @param manager:
+     *            the lock manager obtaining the locks, a ZooKeeperManager
+     *            normally
+     * @param address:
+     *            the address to listen on, its port may be 0 for any free port
+     */
+    public LockServer(DistributedLockManager manager, InetSocketAddress address) {
+        super();
+        this.manager = manager;
+        this.address = address;
+    }
+
+    public synchronized void start() throws IOException {
+        if (this.running) {
+            return;
+        }
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(this.address, BACKLOG);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.running = true;
+        this.selectorThread = new Thread(this::run, "distributed-lock-server");
+        this.selectorThread.start();
+        LOGGER.info("Lock server is listening on {}", getAddress());
+    }
+
+    /**
+     * @return the address listened on, with the port actually bound
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.serverChannel.getLocalAddress();
+    }
+
+    public int getPort() throws IOException {
+        return getAddress().getPort();
+    }
+
+    /**
+     * Stop the server, the locks of its connections are released but the
+     * persistent ones
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!this.running) {
+                return;
+            }
+            this.running = false;
+        }
+        this.selector.wakeup();
+        try {
+            if (!this.stopped.await(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Lock server is not stopped in {} seconds", CLOSE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (this.running) {
+                this.selector.select();
+                flushQueued();
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    } else if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    LockServerConnection connection = (LockServerConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.warn("Closing the connection of " + connection + ": " + e.getMessage());
+                        close(connection);
+                    }
+                }
+                flushQueued();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Lock server is stopped by an error", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        key.attach(new LockServerConnection(channel, key));
+    }
+
+    private void read(LockServerConnection connection) throws IOException {
+        ByteBuffer buffer = connection.read();
+        if (buffer == null) {
+            close(connection);
+            return;
+        }
+        for (ByteBuffer frame = LockProtocol.nextFrame(buffer); frame != null; frame = LockProtocol
+                .nextFrame(buffer)) {
+            handle(connection, LockProtocol.decodeRequest(frame));
+        }
+        connection.compact();
+    }
+
+    private void handle(LockServerConnection connection, LockRequest request) {
+        try {
+            switch (request.op()) {
+            case LockProtocol.OP_LOCK:
+            case LockProtocol.OP_TRY_LOCK:
+                lock(connection, request);
+                break;
+            case LockProtocol.OP_UNLOCK:
+                unlock(connection, request);
+                break;
+            default:
+                reply(connection, request, null, new IllegalArgumentException("Unknown op: " + request.op()));
+            }
+        } catch (RuntimeException e) {
+            reply(connection, request, null, e);
+        }
+    }
+
+    private void lock(LockServerConnection connection, LockRequest request) {
+        String key = keyOf(request.level(), request.id());
+        LockGrant held = this.grants.get(key);
+        if (held != null && held.isOwnedBy(connection, request.owner())) {
+            // the client keeps the hold counts, it is held already
+            reply(connection, request, Boolean.TRUE, null);
+            return;
+        }
+        Lock lock = request.toLock();
+        CompletableFuture<Boolean> future = request.op() == LockProtocol.OP_TRY_LOCK ? this.manager.tryLockAsync(lock)
+                : this.manager.lockAsync(lock, request.timeout());
+        future.whenComplete((obtained, error) -> {
+            if (error != null || !obtained) {
+                reply(connection, request, obtained, error);
+                return;
+            }
+            LockGrant grant = new LockGrant(key, connection, request.owner(), lock);
+            this.grants.put(key, grant);
+            if (connection.addGrant(grant)) {
+                reply(connection, request, Boolean.TRUE, null);
+            } else { // the client is gone already
+                release(grant);
+            }
+        });
+    }
+
+    private void unlock(LockServerConnection connection, LockRequest request) {
+        String key = keyOf(request.level(), request.id());
+        LockGrant grant = this.grants.get(key);
+        boolean persistent = isPersistentLockMode(request.mode());
+        if (grant != null && (grant.isOwnedBy(connection, request.owner()) || persistent)) {
+            if (this.grants.remove(key, grant)) {
+                grant.getConnection().removeGrant(grant);
+                this.manager.unlockAsync(grant.getLock()).whenComplete(replier(connection, request));
+                return;
+            }
+        } else if (grant == null && persistent) {
+            // held by another process, or by this server before it restarted
+            this.manager.unlockAsync(request.toLock()).whenComplete(replier(connection, request));
+            return;
+        }
+        reply(connection, request, Boolean.FALSE, null);
+    }
+
+    private void release(LockGrant grant) {
+        if (this.grants.remove(grant.getKey(), grant)) {
+            this.manager.unlockAsync(grant.getLock()).whenComplete((released, error) -> {
+                if (error != null) {
+                    LOGGER.warn("Unable to release " + grant + ": " + error.getMessage());
+                }
+            });
+        }
+    }
+
+    private void close(LockServerConnection connection) {
+        for (LockGrant grant : connection.close()) {
+            if (!grant.isPersistent()) {
+                release(grant);
+            }
+        }
+    }
+
+    private BiConsumer<Boolean, Throwable> replier(LockServerConnection connection, LockRequest request) {
+        return (result, error) -> reply(connection, request, result, error);
+    }
+
+    private void reply(LockServerConnection connection, LockRequest request, Boolean result, Throwable error) {
+        ByteBuffer response;
+        if (error != null) {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            response = LockProtocol.encodeResponse(request.requestId(), LockProtocol.STATUS_ERROR,
+                    cause.getClass().getSimpleName() + ": " + cause.getMessage());
+        } else {
+            response = LockProtocol.encodeResponse(request.requestId(),
+                    Boolean.TRUE.equals(result) ? LockProtocol.STATUS_TRUE : LockProtocol.STATUS_FALSE, null);
+        }
+        if (connection.queue(response)) {
+            this.flushQueue.add(connection);
+            this.selector.wakeup();
+        }
+    }
+
+    private void flushQueued() {
+        for (LockServerConnection connection = this.flushQueue.poll(); connection != null; connection = this.flushQueue
+                .poll()) {
+            try {
+                connection.flush();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Closing the connection of " + connection + ": " + e.getMessage());
+                close(connection);
+            }
+        }
+    }
+
+    private void shutdown() {
+        for (SelectionKey key : new ArrayList<>(this.selector.keys())) {
+            if (key.attachment() instanceof LockServerConnection) {
+                close((LockServerConnection) key.attachment());
+            }
+        }
+        try {
+            this.serverChannel.close();
+            this.selector.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close the lock server: " + e.getMessage());
+        }
+        this.running = false;
+        this.stopped.countDown();
+    }
+
+    /**
+     * A lock without mode is released in the same way as a persistent one, as
+     * the ZooKeeperManager does
+     */
+    static boolean isPersistentLockMode(Integer mode) {
+        return mode == null || mode.intValue() == 1;
+    }
+
+    private static String keyOf(LockLevel level, String id) {
+        return level.name() + SEPARATOR + id;
+    }
+}
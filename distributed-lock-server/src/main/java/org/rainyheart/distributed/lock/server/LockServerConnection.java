@@ -0,0 +1,179 @@
+package org.rainyheart.distributed.lock.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.rainyheart.distributed.lock.api.remote.LockProtocol;
+
+/**
+ * A client connection of the {@link LockServer}. It is read and written by the
+ * selector thread only, the responses of the other threads are queued for it.
+ *
+ * @author Ken Ye
+ *
+ */
+final class LockServerConnection {
+
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Responses written by one gathering write at most
+     */
+    private static final int MAX_WRITE_BATCH = 64;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String name;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * The responses of any thread, not taken by the selector thread yet
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The responses being written by the selector thread
+     */
+    private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+
+    /**
+     * Whether the connection is queued for the selector thread to flush
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * The locks held for this connection, guarded by this
+     */
+    private final Set<LockGrant> grants = new HashSet<>();
+    private boolean closed = false;
+
+    LockServerConnection(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+        this.name = String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * Read what the client sent, the buffer is returned in read mode with the
+     * complete frames in it
+     *
+     * @return null if the client closed the connection
+     */
+    ByteBuffer read() throws IOException {
+        if (this.channel.read(this.readBuffer) < 0) {
+            return null;
+        }
+        this.readBuffer.flip();
+        return this.readBuffer;
+    }
+
+    /**
+     * Keep the part of a frame left in the buffer for the next read
+     */
+    void compact() {
+        this.readBuffer.compact();
+        if (!this.readBuffer.hasRemaining()) { // a frame larger than the buffer
+            this.readBuffer.flip();
+            this.readBuffer = ByteBuffer
+                    .allocate(Math.min(this.readBuffer.capacity() * 2, LockProtocol.LENGTH_SIZE + LockProtocol.MAX_FRAME_LENGTH))
+                    .put(this.readBuffer);
+        }
+    }
+
+    /**
+     * Queue a response, it is written by the selector thread
+     *
+     * @return true if the connection has to be scheduled for a flush
+     */
+    boolean queue(ByteBuffer response) {
+        this.outbound.add(response);
+        return this.flushScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Write the queued responses as far as the socket takes them, the rest is
+     * written once the socket is writable again
+     */
+    void flush() throws IOException {
+        this.flushScheduled.set(false);
+        for (ByteBuffer response = this.outbound.poll(); response != null; response = this.outbound.poll()) {
+            this.writing.add(response);
+        }
+        while (!this.writing.isEmpty()) {
+            ByteBuffer[] batch = new ByteBuffer[Math.min(this.writing.size(), MAX_WRITE_BATCH)];
+            long length = 0;
+            int i = 0;
+            for (ByteBuffer response : this.writing) {
+                if (i == batch.length) {
+                    break;
+                }
+                batch[i++] = response;
+                length += response.remaining();
+            }
+            long written = this.channel.write(batch);
+            while (!this.writing.isEmpty() && !this.writing.peek().hasRemaining()) {
+                this.writing.poll();
+            }
+            if (written < length) {
+                break; // the socket buffer is full
+            }
+        }
+        if (this.key.isValid()) {
+            this.key.interestOps(this.writing.isEmpty() ? SelectionKey.OP_READ
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * @return false if the connection is closed, the lock has to be released
+     */
+    synchronized boolean addGrant(LockGrant grant) {
+        if (this.closed) {
+            return false;
+        }
+        this.grants.add(grant);
+        return true;
+    }
+
+    synchronized void removeGrant(LockGrant grant) {
+        this.grants.remove(grant);
+    }
+
+    /**
+     * @return the locks held for the connection, to be released
+     */
+    List<LockGrant> close() {
+        List<LockGrant> held;
+        synchronized (this) {
+            if (this.closed) {
+                return Collections.emptyList();
+            }
+            this.closed = true;
+            held = new ArrayList<>(this.grants);
+            this.grants.clear();
+        }
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+        return held;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
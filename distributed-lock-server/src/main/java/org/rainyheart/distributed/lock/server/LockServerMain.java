@@ -0,0 +1,74 @@
+package org.rainyheart.distributed.lock.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.rainyheart.distributed.lock.thridparty.zk.ZkServerConnectionException;
+import org.rainyheart.distributed.lock.thridparty.zk.ZooKeeperManager;
+
+/**
+ * Run a lock server as a sidecar, e.g.
+ *
+ * <pre>
+ * java -jar distributed-lock-server.jar [port] [bindAddress]
+ * </pre>
+ *
+ * It is configured like the facade by the environment variables appName,
+ * hostPort, sessionTimeout and adminAuth, and sessionCount for the number of
+ * ZooKeeper sessions shared by the clients. It listens on 127.0.0.1:7070 by
+ * default.
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockServerMain {
+
+    public static final int DEFAULT_PORT = 7070;
+    public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+    private static final String SESSION_COUNT = "sessionCount";
+
+    public static void main(String[] args) throws ZkServerConnectionException, IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String bindAddress = args.length > 1 ? args[1] : DEFAULT_BIND_ADDRESS;
+        checkEnvVars("appName", "hostPort", "sessionTimeout", "adminAuth");
+
+        ZooKeeperManager zkMgr = new ZooKeeperManager();
+        zkMgr.setAdminAuth(System.getenv("adminAuth"));
+        zkMgr.setAppName(System.getenv("appName"));
+        zkMgr.setHostPort(System.getenv("hostPort"));
+        zkMgr.setSessionTimeout(System.getenv("sessionTimeout"));
+        String sessionCount = System.getenv(SESSION_COUNT);
+        if (sessionCount != null && !sessionCount.isEmpty()) {
+            zkMgr.setSessionCount(Integer.parseInt(sessionCount));
+        }
+        zkMgr.init();
+
+        LockServer server = new LockServer(zkMgr, new InetSocketAddress(bindAddress, port));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                    zkMgr.destroy();
+                    System.out.println("Lock server is stopped!");
+                } catch (IOException | ZkServerConnectionException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        server.start();
+        System.out.println("Lock server is listening on " + server.getAddress());
+        Thread.currentThread().join();
+    }
+
+    private static void checkEnvVars(String... envVars) {
+        for (String envVarKey : envVars) {
+            String envVar = System.getenv(envVarKey);
+            if (envVar == null || envVar.isEmpty()) {
+                System.err.println("Empty environment variable " + envVarKey);
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.rainyheart.distributed.lock.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.remote.RemoteDistributedLockManager;
+import org.rainyheart.distributed.lock.thridparty.zk.ZooKeeperManager;
+
+/**
+ * Verify the clients of a lock server on localhost lock against each other
+ * through the ZooKeeper sessions of the server
+ *
+ * @author Ken Ye
+ *
+ */
+public class LockServerTest {
+
+    private static final String TEST_ID = "lockServerTestId";
+
+    static TestingServer zkServer;
+    static ZooKeeperManager zkMgr;
+
+    LockServer server;
+    RemoteDistributedLockManager client;
+    RemoteDistributedLockManager otherClient;
+    ExecutorService executor;
+    Lock lock;
+
+    @BeforeClass
+    public static void startZooKeeper() throws Exception {
+        zkServer = new TestingServer(true);
+        zkMgr = new ZooKeeperManager();
+        zkMgr.setAdminAuth("admin:lockserver");
+        zkMgr.setAppName("distributed-lock-server-test");
+        zkMgr.setHostPort(zkServer.getConnectString());
+        zkMgr.setSessionTimeout("30000");
+        zkMgr.setSessionCount(2);
+        zkMgr.init();
+    }
+
+    @AfterClass
+    public static void stopZooKeeper() throws Exception {
+        zkMgr.destroy();
+        zkServer.close();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        server = new LockServer(zkMgr, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        client = new RemoteDistributedLockManager("127.0.0.1", server.getPort());
+        otherClient = new RemoteDistributedLockManager("127.0.0.1", server.getPort());
+        executor = Executors.newCachedThreadPool();
+        lock = new LockImpl(TEST_ID, null, LockLevel.GLOBAL);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        client.destroy();
+        otherClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testLockAndUnlock() throws Exception {
+        assertTrue(client.lock(lock, 1000));
+        assertTrue(client.tryLock(lock)); // reentered
+        assertFalse(otherClient.tryLock(lock));
+        assertFalse(otherClient.lock(lock, 200));
+        assertFalse(otherClient.unlock(lock));
+        assertTrue(client.unlock(lock));
+        assertFalse(otherClient.tryLock(lock));
+        assertTrue(client.unlock(lock));
+        assertFalse(client.unlock(lock));
+        assertTrue(otherClient.tryLock(lock));
+        assertTrue(otherClient.unlock(lock));
+    }
+
+    @Test
+    public void testWaiterIsGrantedOnUnlock() throws Exception {
+        assertTrue(client.lock(lock, 1000));
+        Future<Boolean> waiter = executor.submit(() -> otherClient.lock(lock, -1) && otherClient.unlock(lock));
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertFalse(waiter.isDone());
+        assertTrue(client.unlock(lock));
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThreadsShareConnection() throws Exception {
+        assertTrue(client.lock(lock, 1000));
+        // another thread of the same client is another owner
+        assertFalse(call(() -> client.tryLock(lock)));
+        assertFalse(call(() -> client.unlock(lock)));
+        assertTrue(client.unlock(lock));
+
+        int threads = 8;
+        int rounds = 20;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            RemoteDistributedLockManager manager = i % 2 == 0 ? client : otherClient;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < rounds; j++) {
+                    if (!manager.lock(lock, -1)) {
+                        violations.incrementAndGet();
+                        continue;
+                    }
+                    if (inside.incrementAndGet() != 1) {
+                        violations.incrementAndGet();
+                    }
+                    inside.decrementAndGet();
+                    manager.unlock(lock);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    public void testClosedConnectionReleasesLocks() throws Exception {
+        Lock persistent = new LockImpl(TEST_ID + "Persistent", null, LockLevel.GLOBAL, 1);
+        assertTrue(client.lock(lock, 1000));
+        assertTrue(client.lock(persistent, 1000));
+        client.destroy();
+        assertTrue(otherClient.lock(lock, 5000));
+        assertTrue(otherClient.unlock(lock));
+        // a persistent lock outlives the connection, anyone can release it
+        assertFalse(otherClient.tryLock(persistent));
+        assertTrue(otherClient.unlock(persistent));
+        assertTrue(otherClient.tryLock(persistent));
+        assertTrue(otherClient.unlock(persistent));
+    }
+
+    @Test
+    public void testUnlockByIdReleasesLockOfAnotherOwner() throws Exception {
+        Lock appLock = new LockImpl(TEST_ID + "App", null, LockLevel.APPLICATION);
+        assertTrue(client.lock(appLock, 1000));
+        assertFalse(otherClient.tryLock(appLock));
+        // released like by a local manager, a lock without mode is released as a persistent one
+        assertTrue(otherClient.appUnlock(appLock.id()));
+        assertTrue(otherClient.tryLock(appLock));
+        assertTrue(otherClient.unlock(appLock));
+    }
+
+    @Test
+    public void testPipelinedBatch() throws Exception {
+        List<Lock> locks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            locks.add(new LockImpl(TEST_ID + i, null, LockLevel.APPLICATION));
+        }
+        assertTrue(otherClient.tryLock(locks.get(3)));
+        List<Lock> obtained = client.tryLockBatch(locks);
+        assertEquals(locks.size() - 1, obtained.size());
+        assertFalse(obtained.contains(locks.get(3)));
+        assertEquals(obtained, client.unlockBatch(locks));
+        assertTrue(otherClient.unlock(locks.get(3)));
+
+        assertTrue(client.lockAll(Arrays.asList(lock, locks.get(0)), 1000));
+        assertTrue(client.unlockAll(Arrays.asList(lock, locks.get(0))));
+    }
+
+    @Test
+    public void testLockAsync() throws Exception {
+        assertTrue(client.lock(lock, 1000));
+        CompletableFuture<Boolean> future = otherClient.lockAsync(lock, 5000);
+        assertFalse(otherClient.tryLockAsync(lock).get(5, TimeUnit.SECONDS));
+        assertTrue(client.unlock(lock));
+        assertTrue(future.get(10, TimeUnit.SECONDS));
+        // held by the lock instance, any thread releases it
+        assertTrue(call(() -> otherClient.unlockAsync(lock).get()));
+        assertTrue(client.tryLock(lock));
+        assertTrue(client.unlock(lock));
+    }
+
+    @Test
+    public void testUnsupportedCall() throws Exception {
+        try {
+            client.readLock(lock, 0);
+            fail("read locks are not supported by the lock server");
+        } catch (DistributedLockException e) {
+            assertTrue(e.getMessage().contains("readLock"));
+        }
+    }
+
+    private <T> T call(Callable<T> callable) throws Exception {
+        return executor.submit(callable).get(10, TimeUnit.SECONDS);
+    }
+}
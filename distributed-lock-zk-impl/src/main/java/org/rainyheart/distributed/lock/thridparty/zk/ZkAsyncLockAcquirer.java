@@ -0,0 +1,333 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Obtain a lock with the asynchronous ZooKeeper APIs. It runs the same queue
+ * algorithm as {@link ZooKeeperManager#lock(Lock, long)}, but every step is
+ * driven by a callback on the ZK event thread, so no thread is waiting for the
+ * lock. The znode is created first, also for a tryLock, and carries the owner
+ * of the calling thread like the znodes of the blocking calls, its name is
+ * another one for each call though. The acquire is recorded in the same flight
+ * recorder event.
+ *
+ * A znode not obtaining the lock is deleted before the future is completed, so
+ * any later call of the caller on the same session is queued after the delete.
+ *
+ * A lock reentered by its owner thread is never queued for, see
+ * {@link ZooKeeperManager#lockAsync(Lock, long)}. With the lock cohorting on
+ * the znode queues up like the one of another node, the local handoffs are
+ * bounded by cohortMaxHandoffs so it is not starved.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkAsyncLockAcquirer implements StringCallback, ChildrenCallback, StatCallback, Watcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkAsyncLockAcquirer.class);
+
+    private static final String CREATE_LOCK_PATH = "createLockPath";
+    private static final String CREATE_ZNODE = "createZnode";
+    private static final String RECOVER = "recover";
+    private static final String CHECK = "check";
+
+    private final ZooKeeperManager manager;
+    private final ZooKeeper zk;
+    private final Lock lock;
+    private final String path;
+    private final long timeout;
+    private final byte[] uuidBytes;
+    private final String znodePrefix;
+    private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+    /**
+     * Set by whoever completes the future: the queue check, the timeout or a
+     * failure
+     */
+    private final AtomicBoolean settled = new AtomicBoolean(false);
+
+    private volatile String znodeName;
+    private volatile ScheduledFuture<?> timeoutTask;
+    private boolean recovered = false;
+
+    /**
+     * Number of times the lookup of a znode created before a lost connection
+     * failed, only changed on the ZK event thread
+     */
+    private int failedLookups = 0;
+
+    /**
+     * Number of times the queue is checked, only changed on the ZK event thread
+     */
+    private volatile int attempts = 0;
+
+    ZkAsyncLockAcquirer(ZooKeeperManager manager, Lock lock, String path, long timeout, ZkLockOwner owner) {
+        super();
+        this.manager = manager;
+        this.zk = manager.getZk(path);
+        this.lock = lock;
+        this.path = path;
+        this.timeout = timeout;
+        this.uuidBytes = owner.getUuidBytes();
+        this.znodePrefix = owner.newAsyncZnodePrefix(manager.nextAsyncCall());
+    }
+
+    CompletableFuture<Boolean> start() {
+        if (zk == null) {
+            future.completeExceptionally(new ZkServerConnectionException("ZooKeeper client is not initialized"));
+            return future;
+        }
+        Object event = ZkFlightRecorder.beginAcquire();
+        if (event != null) {
+            future.whenComplete((success, e) -> ZkFlightRecorder.endAcquire(event, lock.id(),
+                    String.valueOf(lock.level()), false, attempts, outcomeOf(success)));
+        }
+        if (timeout > 0) {
+            timeoutTask = manager.getAsyncTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onTimeout();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        createZnode();
+        return future;
+    }
+
+    private String outcomeOf(Boolean success) {
+        if (success == null) {
+            return ZkFlightRecorder.FAILED;
+        } else if (success) {
+            return ZkFlightRecorder.ACQUIRED;
+        }
+        return timeout == 0 ? ZkFlightRecorder.HELD_BY_OTHERS : ZkFlightRecorder.TIMEOUT;
+    }
+
+    private void createZnode() {
+        CreateMode mode = manager.determinMode(lock.mode());
+        zk.create(path + ZkLockConstant.SLASH + znodePrefix, uuidBytes, ZkLockConstant.GLOBAL_ACL, mode, this,
+                CREATE_ZNODE);
+    }
+
+    /**
+     * Result of zk.create() for either the lock path or the queued znode
+     */
+    @Override
+    public void processResult(int rc, String createPath, Object ctx, String name) {
+        Code code = Code.get(rc);
+        if (CREATE_LOCK_PATH.equals(ctx)) {
+            if (code == Code.OK || code == Code.NODEEXISTS) {
+                createZnode();
+            } else {
+                fail(code, createPath);
+            }
+        } else if (code == Code.OK) {
+            znodeName = name.substring(path.length() + 1);
+            if (settled.get()) { // timeout before the znode is created
+                deleteZnode();
+            } else {
+                zk.getChildren(path, false, this, CHECK);
+            }
+        } else if (code == Code.NONODE) {
+            zk.create(path, ZooKeeperManager.class.getSimpleName().getBytes(), ZkLockConstant.GLOBAL_ACL,
+                    CreateMode.PERSISTENT, this, CREATE_LOCK_PATH);
+        } else if (code == Code.CONNECTIONLOSS && !recovered) {
+            // the znode may be created before the connection is lost
+            recovered = true;
+            lookUpZnode();
+        } else {
+            fail(code, createPath);
+        }
+    }
+
+    /**
+     * Result of zk.getChildren() on the lock path
+     */
+    @Override
+    public void processResult(int rc, String childrenPath, Object ctx, List<String> children) {
+        Code code = Code.get(rc);
+        if (code == Code.NONODE) {
+            children = Collections.emptyList();
+        } else if (code == Code.CONNECTIONLOSS && RECOVER.equals(ctx)) {
+            retryLookUpZnode(childrenPath);
+            return;
+        } else if (code != Code.OK) {
+            fail(code, childrenPath);
+            return;
+        }
+        if (RECOVER.equals(ctx)) {
+            znodeName = ZooKeeperManager.findZnode(children, znodePrefix);
+            if (settled.get()) { // timeout before the znode is known, it must not block the path for good
+                if (znodeName != null) {
+                    deleteZnode();
+                }
+                return;
+            } else if (znodeName == null) {
+                createZnode();
+                return;
+            }
+        }
+        if (settled.get()) {
+            return;
+        }
+        ZooKeeperManager.sortBySequence(children);
+        checkQueue(children);
+    }
+
+    /**
+     * Look for the znode a create() failed with CONNECTIONLOSS may have created
+     */
+    private void lookUpZnode() {
+        zk.getChildren(path, false, this, RECOVER);
+    }
+
+    /**
+     * The znode is still unknown, look for it again once the session is
+     * reconnected. It is only given up with the session, which takes the
+     * ephemeral znode with it.
+     */
+    private void retryLookUpZnode(String childrenPath) {
+        if (!zk.getState().isAlive()) {
+            fail(Code.SESSIONEXPIRED, childrenPath);
+            return;
+        }
+        manager.requestRecovery(path);
+        long delay = ZkSessionRecovery.backoff(++failedLookups, manager.getReconnectBackoffBase(),
+                manager.getReconnectBackoffMax());
+        try {
+            manager.getAsyncTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    lookUpZnode();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) { // the manager is destroyed
+            fail(Code.CONNECTIONLOSS, childrenPath);
+        }
+    }
+
+    private void checkQueue(List<String> children) {
+        attempts++;
+        int index = children.indexOf(znodeName);
+        if (index < 0) { // our znode is gone with the expired session
+            znodeName = null;
+            createZnode();
+            return;
+        }
+        String blocker = ZooKeeperManager.findBlocker(children, index, false);
+        if (blocker == null) {
+            onObtained();
+        } else if (timeout == 0) {
+            if (settled.compareAndSet(false, true)) {
+                deleteZnode();
+                future.complete(Boolean.FALSE);
+            }
+        } else {
+            zk.exists(path + ZkLockConstant.SLASH + blocker, this, this, null);
+        }
+    }
+
+    /**
+     * Result of zk.exists() on the predecessor znode
+     */
+    @Override
+    public void processResult(int rc, String existsPath, Object ctx, Stat stat) {
+        Code code = Code.get(rc);
+        if (code == Code.NONODE) { // predecessor was gone before the watcher is left
+            zk.getChildren(path, false, this, CHECK);
+        } else if (code != Code.OK) {
+            fail(code, existsPath);
+        }
+    }
+
+    /**
+     * The predecessor znode is changed
+     */
+    @Override
+    public void process(WatchedEvent event) {
+        if (settled.get()) {
+            return;
+        }
+        if (event.getType() != EventType.None) {
+            zk.getChildren(path, false, this, CHECK);
+        } else if (event.getState() == KeeperState.Expired) {
+            fail(Code.SESSIONEXPIRED, path);
+        }
+    }
+
+    private void onObtained() {
+        String znodePath = path + ZkLockConstant.SLASH + znodeName;
+        manager.registerHolder(path, new ZkLockHolder(znodePath, lock));
+        if (settled.compareAndSet(false, true)) {
+            cancelTimeoutTask();
+            future.complete(Boolean.TRUE);
+        } else {
+            manager.removeHolder(path, znodePath);
+            deleteZnode();
+        }
+    }
+
+    private void onTimeout() {
+        if (settled.compareAndSet(false, true)) {
+            if (znodeName != null) {
+                deleteZnode();
+            }
+            future.complete(Boolean.FALSE);
+        }
+    }
+
+    private void fail(Code code, String failedPath) {
+        if (code == Code.CONNECTIONLOSS || code == Code.SESSIONEXPIRED) {
+            manager.requestRecovery(path); // the callback thread never waits for it
+        }
+        KeeperException e = KeeperException.create(code, failedPath);
+        if (settled.compareAndSet(false, true)) {
+            cancelTimeoutTask();
+            if (znodeName != null) {
+                deleteZnode();
+            }
+            future.completeExceptionally(new ZkServerConnectionException(failedPath + ", " + e.getMessage(), e));
+        }
+    }
+
+    private void cancelTimeoutTask() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+        }
+    }
+
+    private void deleteZnode() {
+        zk.delete(path + ZkLockConstant.SLASH + znodeName, ZkLockConstant.CREATED_ZNODE_VERSION, new VoidCallback() {
+            @Override
+            public void processResult(int rc, String deletePath, Object ctx) {
+                Code code = Code.get(rc);
+                if (code != Code.OK && code != Code.NONODE) {
+                    LOGGER.error("Unable to delete Znode: " + deletePath + ", " + code);
+                }
+            }
+        }, null);
+    }
+}
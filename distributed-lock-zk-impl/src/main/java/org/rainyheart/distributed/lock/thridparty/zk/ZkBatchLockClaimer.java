@@ -0,0 +1,219 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.rainyheart.distributed.lock.api.Lock;
+
+/**
+ * Try to obtain many independent locks without waiting, e.g. to claim work
+ * items. The creates, the children reads and the deletes of the lost znodes
+ * are pipelined asynchronously, so a batch costs about three round trips
+ * instead of a few round trips per lock. Unlike
+ * {@link ZkMultiLockAcquirer} the locks are not all or nothing, the locks held
+ * by others are simply skipped.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkBatchLockClaimer {
+
+    private final ZooKeeperManager manager;
+    private final Map<String, Lock> locks;
+    private final byte[] uuidBytes;
+    private final String znodePrefix;
+
+    /**
+     * The names of the obtained znodes keyed by the lock path
+     */
+    private final Map<String, String> claimed = new ConcurrentHashMap<>();
+
+    /**
+     * The lock paths whose result is unknown because of a connection issue, they
+     * have to be claimed again one by one
+     */
+    private final Set<String> unconfirmed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * The first error reported by the callbacks, which may run on the event
+     * threads of different sessions
+     */
+    private final AtomicReference<KeeperException> error = new AtomicReference<>();
+
+    /**
+     * @param locks:
+     *            the locks to claim keyed by their lock path
+     */
+    ZkBatchLockClaimer(ZooKeeperManager manager, Map<String, Lock> locks, byte[] uuidBytes, String znodePrefix) {
+        super();
+        this.manager = manager;
+        this.locks = locks;
+        this.uuidBytes = uuidBytes;
+        this.znodePrefix = znodePrefix;
+    }
+
+    /**
+     * @return the names of the obtained znodes keyed by the lock path
+     */
+    Map<String, String> claim() throws ZkServerConnectionException {
+        Map<String, String> created = new ConcurrentHashMap<>();
+        try {
+            List<String> missingPaths = createZnodes(locks.keySet(), created);
+            if (!missingPaths.isEmpty()) {
+                for (String path : missingPaths) {
+                    manager.createLockPathIfNotExist(path);
+                }
+                createZnodes(missingPaths, created);
+            }
+            List<String> lost = checkZnodes(created);
+            deleteZnodes(manager, lost);
+        } catch (KeeperException e) {
+            manager.handleException(e.getPath(), e);
+        } catch (InterruptedException e) {
+            manager.handleException(locks.keySet().iterator().next(), e);
+            // the created znodes not checked yet are given up one by one
+            for (String path : created.keySet()) {
+                if (!claimed.containsKey(path)) {
+                    unconfirmed.add(path);
+                }
+            }
+        }
+        if (error.get() != null) {
+            manager.handleException(error.get().getPath(), error.get());
+        }
+        return claimed;
+    }
+
+    /**
+     * @return the lock paths which have to be claimed again one by one
+     */
+    Set<String> getUnconfirmed() {
+        return unconfirmed;
+    }
+
+    /**
+     * @return the lock paths which do not exist yet
+     */
+    private List<String> createZnodes(Collection<String> paths, Map<String, String> created)
+            throws InterruptedException {
+        List<String> missingPaths = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(paths.size());
+        StringCallback callback = new StringCallback() {
+            @Override
+            public void processResult(int rc, String znodePath, Object ctx, String name) {
+                String path = (String) ctx;
+                Code code = Code.get(rc);
+                if (code == Code.OK) {
+                    created.put(path, name.substring(path.length() + 1));
+                } else if (code == Code.NONODE) {
+                    missingPaths.add(path);
+                } else {
+                    fail(path, code);
+                }
+                done.countDown();
+            }
+        };
+        for (String path : paths) {
+            manager.getZk(path).create(path + ZkLockConstant.SLASH + znodePrefix, uuidBytes, ZkLockConstant.GLOBAL_ACL,
+                    manager.determinMode(locks.get(path).mode()), callback, path);
+        }
+        done.await();
+        return missingPaths;
+    }
+
+    /**
+     * Keep the created znodes at the head of their queues
+     *
+     * @return the paths of the created znodes which are not at the head
+     */
+    private List<String> checkZnodes(Map<String, String> created) throws InterruptedException {
+        List<String> lost = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(created.size());
+        ChildrenCallback callback = new ChildrenCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx, List<String> children) {
+                Code code = Code.get(rc);
+                String znodeName = created.get(path);
+                if (code == Code.OK) {
+                    ZooKeeperManager.sortBySequence(children);
+                    int index = children.indexOf(znodeName);
+                    if (index == 0) {
+                        claimed.put(path, znodeName);
+                    } else if (index > 0) {
+                        lost.add(path + ZkLockConstant.SLASH + znodeName);
+                    } else { // gone with the expired session
+                        unconfirmed.add(path);
+                    }
+                } else {
+                    fail(path, code);
+                }
+                done.countDown();
+            }
+        };
+        for (String path : created.keySet()) {
+            manager.getZk(path).getChildren(path, false, callback, null);
+        }
+        done.await();
+        return lost;
+    }
+
+    private void fail(String path, Code code) {
+        unconfirmed.add(path);
+        error.compareAndSet(null, KeeperException.create(code, path));
+    }
+
+    /**
+     * Delete the znodes by pipelining the asynchronous requests
+     *
+     * @return the paths of the deleted znodes
+     */
+    static Set<String> deleteZnodes(ZooKeeperManager manager, List<String> znodePaths)
+            throws ZkServerConnectionException {
+        Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        if (znodePaths.isEmpty()) {
+            return deleted;
+        }
+        AtomicReference<KeeperException> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(znodePaths.size());
+        VoidCallback callback = new VoidCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx) {
+                Code code = Code.get(rc);
+                if (code == Code.OK) {
+                    deleted.add(path);
+                } else if (code != Code.NONODE && code != Code.BADVERSION) {
+                    // a NONODE znode is gone with the expired session, a BADVERSION one is changed by others
+                    error.compareAndSet(null, KeeperException.create(code, path));
+                }
+                done.countDown();
+            }
+        };
+        for (String znodePath : znodePaths) {
+            // the session of the lock path, i.e. the parent of the znode
+            ZooKeeper zk = manager.getZk(znodePath.substring(0, znodePath.lastIndexOf(ZkLockConstant.SLASH)));
+            zk.delete(znodePath, ZkLockConstant.CREATED_ZNODE_VERSION, callback, null);
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            manager.handleException(znodePaths.get(0), e);
+        }
+        if (error.get() != null) {
+            manager.handleException(error.get().getPath(), error.get());
+        }
+        return deleted;
+    }
+}
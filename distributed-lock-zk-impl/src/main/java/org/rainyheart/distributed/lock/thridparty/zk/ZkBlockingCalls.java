@@ -0,0 +1,163 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * The ZK calls made while obtaining and releasing a lock. The synchronous API
+ * of ZooKeeper 3.4 waits for the response on the monitor of its request
+ * packet, which pins the carrier thread of a virtual thread for the whole round
+ * trip. A virtual thread sends the request by the async API and waits on a
+ * CountDownLatch instead, a platform thread simply uses the synchronous API.
+ * The calls are recorded by the {@link ZkRecordingClient} of the session.
+ *
+ * @author Ken Ye
+ *
+ */
+final class ZkBlockingCalls {
+
+    private ZkBlockingCalls() {
+        super();
+    }
+
+    static String create(ZooKeeper zk, String path, byte[] data, List<ACL> acl, CreateMode mode)
+            throws KeeperException, InterruptedException {
+        if (!ZkThreads.isCurrentThreadVirtual()) {
+            return zk.create(path, data, acl, mode);
+        }
+        return createAsync(zk, path, data, acl, mode);
+    }
+
+    static List<String> getChildren(ZooKeeper zk, String path) throws KeeperException, InterruptedException {
+        return getChildren(zk, path, null);
+    }
+
+    static List<String> getChildren(ZooKeeper zk, String path, Watcher watcher)
+            throws KeeperException, InterruptedException {
+        if (!ZkThreads.isCurrentThreadVirtual()) {
+            return zk.getChildren(path, watcher);
+        }
+        return getChildrenAsync(zk, path, watcher);
+    }
+
+    static Stat exists(ZooKeeper zk, String path, Watcher watcher) throws KeeperException, InterruptedException {
+        if (!ZkThreads.isCurrentThreadVirtual()) {
+            return zk.exists(path, watcher);
+        }
+        return existsAsync(zk, path, watcher);
+    }
+
+    static void delete(ZooKeeper zk, String path, int version) throws KeeperException, InterruptedException {
+        if (!ZkThreads.isCurrentThreadVirtual()) {
+            zk.delete(path, version);
+        } else {
+            deleteAsync(zk, path, version);
+        }
+    }
+
+    static Stat setData(ZooKeeper zk, String path, byte[] data, int version)
+            throws KeeperException, InterruptedException {
+        if (!ZkThreads.isCurrentThreadVirtual()) {
+            return zk.setData(path, data, version);
+        }
+        return setDataAsync(zk, path, data, version);
+    }
+
+    static String createAsync(ZooKeeper zk, String path, byte[] data, List<ACL> acl, CreateMode mode)
+            throws KeeperException, InterruptedException {
+        ZkCallResult<String> result = new ZkCallResult<>();
+        zk.create(path, data, acl, mode, new StringCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, String name) {
+                result.complete(rc, name);
+            }
+        }, null);
+        return result.get(path);
+    }
+
+    static List<String> getChildrenAsync(ZooKeeper zk, String path) throws KeeperException, InterruptedException {
+        return getChildrenAsync(zk, path, null);
+    }
+
+    static List<String> getChildrenAsync(ZooKeeper zk, String path, Watcher watcher)
+            throws KeeperException, InterruptedException {
+        ZkCallResult<List<String>> result = new ZkCallResult<>();
+        zk.getChildren(path, watcher, new Children2Callback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, List<String> children, Stat stat) {
+                result.complete(rc, children);
+            }
+        }, null);
+        return result.get(path);
+    }
+
+    static Stat existsAsync(ZooKeeper zk, String path, Watcher watcher) throws KeeperException, InterruptedException {
+        ZkCallResult<Stat> result = new ZkCallResult<>();
+        zk.exists(path, watcher, new StatCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, Stat stat) {
+                // a missing znode is a normal result of exists(), the watch is left anyway
+                result.complete(rc == Code.NONODE.intValue() ? Code.OK.intValue() : rc, stat);
+            }
+        }, null);
+        return result.get(path);
+    }
+
+    static void deleteAsync(ZooKeeper zk, String path, int version) throws KeeperException, InterruptedException {
+        ZkCallResult<Void> result = new ZkCallResult<>();
+        zk.delete(path, version, new VoidCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx) {
+                result.complete(rc, null);
+            }
+        }, null);
+        result.get(path);
+    }
+
+    static Stat setDataAsync(ZooKeeper zk, String path, byte[] data, int version)
+            throws KeeperException, InterruptedException {
+        ZkCallResult<Stat> result = new ZkCallResult<>();
+        zk.setData(path, data, version, new StatCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx, Stat stat) {
+                result.complete(rc, stat);
+            }
+        }, null);
+        return result.get(path);
+    }
+
+    /**
+     * The result of one async call, the latch publishes the fields to the caller
+     */
+    private static class ZkCallResult<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int rc;
+        private T value;
+
+        void complete(int rc, T value) {
+            this.rc = rc;
+            this.value = value;
+            this.done.countDown();
+        }
+
+        T get(String path) throws KeeperException, InterruptedException {
+            this.done.await();
+            if (this.rc != Code.OK.intValue()) {
+                throw KeeperException.create(Code.get(this.rc), path);
+            }
+            return this.value;
+        }
+    }
+}
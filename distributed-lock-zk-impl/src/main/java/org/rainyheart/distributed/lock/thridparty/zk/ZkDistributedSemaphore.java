@@ -0,0 +1,342 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.rainyheart.distributed.lock.api.DistributedSemaphore;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.memory.InMemoryDistributedLockManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * The ZooKeeper semaphore. Each permit is a sequential lease znode under the
+ * semaphore path, and the leases of one acquire() are created in one
+ * transaction so that they are next to each other. The first maxPermits leases
+ * hold the permits and the others are waiting in FIFO order, so an acquire()
+ * succeeds when its last lease is among the first maxPermits.
+ *
+ * The waiters are woken up one by one like the ones of a lock. Only the first
+ * waiter, the one right behind the holders, watches the children of the
+ * semaphore path, since any holder may release. Every other waiter watches the
+ * lease just ahead of its own only, which is deleted on timeout or changed
+ * once its acquire gets the permits: an acquire getting the permits with any
+ * lease behind it sets the data of its last lease, so that the waiter behind
+ * takes over the watch of the holders.
+ *
+ * @author Ken Ye
+ *
+ */
+@Component
+@Profile("!" + InMemoryDistributedLockManager.PROFILE)
+public class ZkDistributedSemaphore implements DistributedSemaphore {
+
+    private static final byte[] LEASE_DATA = ZkDistributedSemaphore.class.getSimpleName().getBytes();
+
+    /**
+     * Data version of a lease whose data is set to wake up the waiter behind it
+     */
+    private static final int SIGNALLED_LEASE_VERSION = ZkLockConstant.CREATED_ZNODE_VERSION + 1;
+
+    @Autowired
+    private ZooKeeperManager manager;
+
+    /**
+     * The lease znodes held by this JVM for each semaphore path, a deque is
+     * changed under its own monitor
+     */
+    private final ConcurrentMap<String, Deque<String>> leases = new ConcurrentHashMap<>();
+
+    /**
+     * The paths of the leases held by this JVM whose data is set
+     */
+    private final Set<String> signalledLeases = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean tryAcquire(Lock semaphore, int permits, int maxPermits) throws ZkServerConnectionException {
+        return acquire(semaphore, permits, maxPermits, 0);
+    }
+
+    @Override
+    public boolean acquire(Lock semaphore, int permits, int maxPermits, long timeout)
+            throws ZkServerConnectionException {
+        if (permits <= 0 || permits > maxPermits) {
+            throw new IllegalArgumentException("permits must be between 1 and maxPermits: " + maxPermits);
+        }
+        String path = getSemaphorePath(semaphore);
+        List<String> acquired = acquireLeases(semaphore, path, permits, maxPermits, timeout);
+        if (acquired == null) {
+            return false;
+        }
+        Deque<String> held = this.leases.computeIfAbsent(path, key -> new ArrayDeque<>());
+        synchronized (held) {
+            held.addAll(acquired);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean release(Lock semaphore, int permits) throws ZkServerConnectionException {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        String path = getSemaphorePath(semaphore);
+        Deque<String> held = this.leases.get(path);
+        if (held == null) {
+            return false;
+        }
+        List<String> released = new ArrayList<>(permits);
+        synchronized (held) {
+            if (held.size() < permits) {
+                return false;
+            }
+            for (int i = 0; i < permits; i++) {
+                released.add(held.poll());
+            }
+        }
+        deleteLeases(path, released);
+        return true;
+    }
+
+    @Override
+    public int availablePermits(Lock semaphore, int maxPermits) throws ZkServerConnectionException {
+        String path = getSemaphorePath(semaphore);
+        try {
+            return Math.max(maxPermits - getSortedLeases(path, null).size(), 0);
+        } catch (KeeperException | InterruptedException e) {
+            manager.handleException(path, e);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the names of the lease znodes, or null if the permits are not
+     *         acquired before timeout
+     */
+    private List<String> acquireLeases(Lock semaphore, String path, int permits, int maxPermits, long timeout)
+            throws ZkServerConnectionException {
+        long deadline = System.currentTimeMillis() + timeout;
+        String leasePrefix = ZkLockConstant.LEASE_ZNODE_PREFIX + UUID.randomUUID().toString()
+                + ZkLockConstant.LOCK_ZNODE_SEPARATOR;
+        List<String> acquired = null;
+        boolean createUnconfirmed = false;
+        boolean first = false;
+        int failures = 0;
+        while (true) {
+            CountDownLatch childrenChanged = null;
+            CountDownLatch predecessorChanged = null;
+            String predecessor = null;
+            try {
+                if (acquired == null && timeout == 0 && getSortedLeases(path, null).size() + permits > maxPermits) {
+                    return null; // not enough permits, no need to queue up for a tryAcquire
+                }
+                if (acquired == null && createUnconfirmed) {
+                    // the previous transaction may have succeeded before the connection is lost
+                    acquired = findLeases(getSortedLeases(path, null), leasePrefix);
+                }
+                if (acquired == null) {
+                    createUnconfirmed = true;
+                    acquired = createLeases(semaphore, path, leasePrefix, permits);
+                    createUnconfirmed = false;
+                }
+                if (first) {
+                    childrenChanged = manager.newWaitingLatch(path);
+                }
+                List<String> children = getSortedLeases(path,
+                        childrenChanged == null ? null : ZooKeeperManager.newLatchWatcher(childrenChanged));
+                int firstIndex = children.indexOf(acquired.get(0));
+                int lastIndex = children.indexOf(acquired.get(acquired.size() - 1));
+                if (firstIndex < 0 || lastIndex < 0) { // gone with the expired session
+                    List<String> left = findLeases(children, leasePrefix);
+                    if (left != null) {
+                        deleteLeasesQuietly(path, left);
+                    }
+                    acquired = null;
+                    first = false;
+                    continue;
+                }
+                if (lastIndex < maxPermits) {
+                    if (lastIndex == children.size() - 1 || signalSuccessor(path, children.get(lastIndex))) {
+                        return acquired;
+                    }
+                    continue; // gone with the expired session in the meantime
+                } else if (ZooKeeperManager.isTimeout(timeout, deadline)) {
+                    break;
+                }
+                if (firstIndex <= maxPermits) { // the lease ahead holds a permit, any holder may release
+                    if (!first) {
+                        first = true;
+                        continue; // read them again with the watch
+                    }
+                    ZooKeeperManager.awaitLatch(childrenChanged, timeout, deadline);
+                } else {
+                    predecessor = children.get(firstIndex - 1);
+                    predecessorChanged = new CountDownLatch(1);
+                    manager.watchZnode(path, predecessor, predecessorChanged);
+                    ZooKeeperManager.awaitLatch(predecessorChanged, timeout, deadline);
+                }
+            } catch (KeeperException e) {
+                manager.handleException(path, e, timeout, deadline);
+                // always give it one more try after the exception is handled, e.g. the session is rebuilt
+                if (++failures > 1 && ZooKeeperManager.isTimeout(timeout, deadline)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                manager.handleException(path, e);
+                break;
+            } finally {
+                if (childrenChanged != null) {
+                    manager.removeWaitingLatch(childrenChanged);
+                }
+                if (predecessorChanged != null) {
+                    manager.unwatchZnode(path, predecessor, predecessorChanged);
+                }
+            }
+        }
+        try {
+            if (acquired == null && createUnconfirmed) {
+                acquired = findLeases(getSortedLeases(path, null), leasePrefix);
+            }
+        } catch (KeeperException | InterruptedException e) {
+            manager.handleException(path, e, timeout, deadline);
+        }
+        if (acquired != null) {
+            deleteLeasesQuietly(path, acquired);
+        }
+        return null;
+    }
+
+    /**
+     * Wake up the waiter watching the last lease of the permits just acquired
+     *
+     * @return false if the lease is gone with the expired session
+     */
+    private boolean signalSuccessor(String path, String lastLease) throws KeeperException, InterruptedException {
+        String leasePath = path + ZkLockConstant.SLASH + lastLease;
+        try {
+            ZkBlockingCalls.setData(manager.getZk(path), leasePath, LEASE_DATA, ZkLockConstant.CREATED_ZNODE_VERSION);
+        } catch (KeeperException.BadVersionException e) {
+            // set already before the connection is lost
+        } catch (KeeperException.NoNodeException e) {
+            return false;
+        }
+        this.signalledLeases.add(leasePath);
+        return true;
+    }
+
+    private List<String> createLeases(Lock semaphore, String path, String leasePrefix, int permits)
+            throws KeeperException, InterruptedException {
+        CreateMode mode = manager.determinMode(semaphore.mode());
+        List<Op> ops = new ArrayList<>(permits);
+        for (int i = 0; i < permits; i++) {
+            ops.add(Op.create(path + ZkLockConstant.SLASH + leasePrefix, LEASE_DATA, ZkLockConstant.GLOBAL_ACL,
+                    mode));
+        }
+        List<OpResult> results;
+        try {
+            results = manager.getZk(path).multi(ops);
+        } catch (KeeperException.NoNodeException e) {
+            manager.createLockPathIfNotExist(path);
+            results = manager.getZk(path).multi(ops);
+        }
+        List<String> created = new ArrayList<>(permits);
+        for (OpResult result : results) {
+            created.add(((OpResult.CreateResult) result).getPath().substring(path.length() + 1));
+        }
+        return created;
+    }
+
+    private void deleteLeases(String path, List<String> names) throws ZkServerConnectionException {
+        List<Op> ops = new ArrayList<>(names.size());
+        for (String name : names) {
+            String leasePath = path + ZkLockConstant.SLASH + name;
+            ops.add(Op.delete(leasePath, getLeaseVersion(leasePath)));
+        }
+        try {
+            manager.getZk(path).multi(ops);
+            forgetSignalled(path, names);
+        } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+            // some of them are gone with an expired session, delete the others one by one
+            deleteLeasesQuietly(path, names);
+        } catch (KeeperException | InterruptedException e) {
+            manager.handleException(path, e);
+        }
+    }
+
+    private void deleteLeasesQuietly(String path, List<String> names) throws ZkServerConnectionException {
+        try {
+            for (String name : names) {
+                String leasePath = path + ZkLockConstant.SLASH + name;
+                try {
+                    ZkBlockingCalls.delete(manager.getZk(path), leasePath, getLeaseVersion(leasePath));
+                } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+                    // already gone, or not ours any more
+                } catch (KeeperException | InterruptedException e) {
+                    manager.handleException(path, e);
+                }
+            }
+        } finally {
+            forgetSignalled(path, names);
+        }
+    }
+
+    private int getLeaseVersion(String leasePath) {
+        return this.signalledLeases.contains(leasePath) ? SIGNALLED_LEASE_VERSION
+                : ZkLockConstant.CREATED_ZNODE_VERSION;
+    }
+
+    private void forgetSignalled(String path, List<String> names) {
+        if (!this.signalledLeases.isEmpty()) {
+            for (String name : names) {
+                this.signalledLeases.remove(path + ZkLockConstant.SLASH + name);
+            }
+        }
+    }
+
+    private List<String> getSortedLeases(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        List<String> children;
+        try {
+            children = ZkBlockingCalls.getChildren(manager.getZk(path), path, watcher);
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        }
+        ZooKeeperManager.sortBySequence(children);
+        return children;
+    }
+
+    private static List<String> findLeases(List<String> children, String leasePrefix) {
+        List<String> found = new ArrayList<>();
+        for (String child : children) {
+            if (child.startsWith(leasePrefix)) {
+                found.add(child);
+            }
+        }
+        return found.isEmpty() ? null : found;
+    }
+
+    private String getSemaphorePath(Lock semaphore) {
+        return manager.getLockPath(semaphore) + ZkLockConstant.SEMAPHORE_PATH_SUFFIX;
+    }
+
+    public ZooKeeperManager getManager() {
+        return manager;
+    }
+
+    public void setManager(ZooKeeperManager manager) {
+        this.manager = manager;
+    }
+}
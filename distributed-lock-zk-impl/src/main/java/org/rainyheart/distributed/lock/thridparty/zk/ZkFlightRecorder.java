@@ -0,0 +1,99 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emit the lock events to Java Flight Recorder, so the time waiting for a lock
+ * lines up with GC and CPU in one timeline. Nothing is done on a JVM without
+ * JFR, or while no recording has the events enabled: a begin method returns
+ * null and the end methods ignore it.
+ *
+ * The thresholds are the ones of the recording, e.g.
+ * org.rainyheart.distributed.lock.LockAcquire#threshold in a .jfc file.
+ *
+ * @author Ken Ye
+ *
+ */
+final class ZkFlightRecorder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkFlightRecorder.class);
+
+    /**
+     * Outcomes of a lock acquire event
+     */
+    static final String ACQUIRED = "ACQUIRED";
+    static final String HELD_BY_OTHERS = "HELD_BY_OTHERS";
+    static final String TIMEOUT = "TIMEOUT";
+    static final String INTERRUPTED = "INTERRUPTED";
+    static final String FAILED = "FAILED";
+
+    /**
+     * Result code of a ZK operation without KeeperException
+     */
+    static final String OK = "OK";
+
+    private static final boolean AVAILABLE = loadEvents();
+
+    private ZkFlightRecorder() {
+        super();
+    }
+
+    private static boolean loadEvents() {
+        try {
+            Class.forName("jdk.jfr.Event", false, ZkFlightRecorder.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false; // e.g. Java 8 before 8u262
+        }
+        try {
+            ZkLockEvents.beginOperation(); // registers the event types
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            LOGGER.warn("Java Flight Recorder events of the distributed lock are disabled", e);
+            return false;
+        }
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return the begun acquire event, or null if it is not recorded
+     */
+    static Object beginAcquire() {
+        return AVAILABLE ? ZkLockEvents.beginAcquire() : null;
+    }
+
+    static void endAcquire(Object event, String id, String level, boolean readLock, int attempts, String outcome) {
+        if (event != null) {
+            ZkLockEvents.endAcquire(event, id, level, readLock, attempts, outcome);
+        }
+    }
+
+    /**
+     * @return the begun held event, or null if it is not recorded
+     */
+    static Object beginHeld() {
+        return AVAILABLE ? ZkLockEvents.beginHeld() : null;
+    }
+
+    static void endHeld(Object event, String znodePath) {
+        if (event != null) {
+            ZkLockEvents.endHeld(event, znodePath);
+        }
+    }
+
+    /**
+     * @return the begun ZK operation event, or null if it is not recorded
+     */
+    static Object beginOperation() {
+        return AVAILABLE ? ZkLockEvents.beginOperation() : null;
+    }
+
+    static void endOperation(Object event, String operation, String path, String resultCode) {
+        if (event != null) {
+            ZkLockEvents.endOperation(event, operation, path, resultCode);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The threads of this JVM contending for the same lock path. Only the owner of
+ * the local lock competes for the znode, the others are queued on the local
+ * lock. On release the znode can be kept and handed over to the next local
+ * waiter, up to the max handoffs in a row before it is released to the other
+ * nodes.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkLockCohort {
+
+    private final ReentrantLock localLock = new ReentrantLock(true);
+
+    /**
+     * Number of threads between join and leave, it is only changed when the
+     * cohort map entry is locked
+     */
+    private volatile int users = 0;
+
+    private String keptZnodePath;
+    private long keptSessionId;
+    private int handoffs = 0;
+
+    void join() {
+        this.users++;
+    }
+
+    /**
+     * @return true if it is the last thread leaving the cohort
+     */
+    boolean leave() {
+        return --this.users == 0;
+    }
+
+    boolean isDeserted() {
+        return this.users == 0;
+    }
+
+    /**
+     * Wait for the local lock, in the same way as waiting for the znode:
+     * timeout < 0 means waiting until it is obtained and timeout == 0 means no
+     * wait at all
+     */
+    boolean lockLocally(long timeout) throws InterruptedException {
+        if (timeout < 0) {
+            this.localLock.lockInterruptibly();
+            return true;
+        } else if (timeout == 0) {
+            return this.localLock.tryLock();
+        }
+        return this.localLock.tryLock(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    void unlockLocally() {
+        this.localLock.unlock();
+    }
+
+    boolean isLockedByCurrentThread() {
+        return this.localLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Keep the znode for the next local waiter if there is any and the max
+     * handoffs is not reached yet. It must be called by the local lock owner.
+     *
+     * @return true if the znode is kept, else the caller should delete it
+     */
+    synchronized boolean handOver(String znodePath, long sessionId, int maxHandoffs) {
+        if (this.localLock.hasQueuedThreads() && this.handoffs < maxHandoffs) {
+            this.keptZnodePath = znodePath;
+            this.keptSessionId = sessionId;
+            this.handoffs++;
+            return true;
+        }
+        this.handoffs = 0;
+        return false;
+    }
+
+    /**
+     * Take over the znode kept by the previous local owner. A znode kept in an
+     * expired session is gone with it and is not returned.
+     *
+     * @return the path of the kept znode or null
+     */
+    synchronized String takeOver(long sessionId) {
+        String znodePath = this.keptZnodePath;
+        this.keptZnodePath = null;
+        if (znodePath == null || this.keptSessionId != sessionId) {
+            this.handoffs = 0;
+            return null;
+        }
+        return znodePath;
+    }
+
+    /**
+     * @return the path of the znode kept for a waiter which has given up, so
+     *         that the last thread leaving the cohort can delete it
+     */
+    synchronized String takeOverAbandoned() {
+        String znodePath = this.keptZnodePath;
+        this.keptZnodePath = null;
+        return znodePath;
+    }
+}
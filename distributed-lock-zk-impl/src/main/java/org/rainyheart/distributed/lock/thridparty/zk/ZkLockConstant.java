@@ -19,5 +19,49 @@ public class ZkLockConstant {
 
     public static final String DEBUG = "debug";
     public static final String ZK_SCHEME = "digest";
+    /**
+     * @deprecated the waiters are woken up by the watch of their predecessor
+     *             znode, there is no wait interval any more and the environment
+     *             variable is ignored
+     */
+    @Deprecated
     public static final String ENV_DISTRIBUTED_LOCK_THREAD_INTERVAL = "distributed_lock_thread_interval";
+
+    /**
+     * Name prefix of the exclusive (write) sequential znodes queued under a lock
+     * path
+     */
+    public static final String LOCK_ZNODE_PREFIX = "lock-";
+    /**
+     * Name prefix of the shared (read) sequential znodes queued under a lock path
+     */
+    public static final String READ_ZNODE_PREFIX = "read-";
+    /**
+     * Name prefix of the lease znodes of a semaphore, one for each permit
+     */
+    public static final String LEASE_ZNODE_PREFIX = "lease-";
+    /**
+     * Suffix of a semaphore path, which is next to the lock path of the same id
+     */
+    public static final String SEMAPHORE_PATH_SUFFIX = ".semaphore";
+    /**
+     * Data version of a znode just created. The lock and read znodes are never
+     * written afterwards, nor a lease except once to wake up the waiter behind
+     * it, so their owner releases them by a versioned delete in one round trip
+     * and never deletes a znode changed by others.
+     */
+    public static final int CREATED_ZNODE_VERSION = 0;
+    /**
+     * Request types of the round trip times in the lock metrics
+     */
+    public static final String ROUND_TRIP_CREATE = "create";
+    public static final String ROUND_TRIP_GET_CHILDREN = "getChildren";
+    public static final String ROUND_TRIP_DELETE = "delete";
+    public static final String ROUND_TRIP_EXISTS = "exists";
+    public static final String ROUND_TRIP_GET_DATA = "getData";
+    public static final String ROUND_TRIP_SET_DATA = "setData";
+    public static final String ROUND_TRIP_MULTI = "multi";
+    public static final String ROUND_TRIP_SYNC = "sync";
+    public static final String LOCK_ZNODE_SEPARATOR = "-";
+    public static final int SEQUENCE_LENGTH = 10;
 }
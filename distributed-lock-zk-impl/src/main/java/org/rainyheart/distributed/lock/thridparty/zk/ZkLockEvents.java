@@ -0,0 +1,144 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Java Flight Recorder events of the locking engine. Only
+ * {@link ZkFlightRecorder} uses this class, and only when the JVM has JFR, so
+ * the engine still runs on a JVM without the jdk.jfr module.
+ *
+ * An event is only created while a recording has it enabled, and its fields
+ * are only filled in when its duration reaches the threshold of the recording.
+ *
+ * @author Ken Ye
+ *
+ */
+final class ZkLockEvents {
+
+    static final String CATEGORY = "Distributed Lock";
+
+    @Name("org.rainyheart.distributed.lock.LockAcquire")
+    @Label("Lock Acquire")
+    @Description("A lock znode is queued and waited for until it holds the lock, the lock is held by others or the timeout expires")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    static class LockAcquireEvent extends Event {
+        @Label("Lock Id")
+        String id;
+
+        @Label("Lock Level")
+        String level;
+
+        @Label("Read Lock")
+        boolean readLock;
+
+        @Label("Attempts")
+        @Description("Number of times the queue is checked, one more after each wake-up or ZooKeeper error")
+        int attempts;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("org.rainyheart.distributed.lock.LockHeld")
+    @Label("Lock Held")
+    @Description("A lock znode is held by this JVM, from obtaining to releasing it")
+    @Category(CATEGORY)
+    @Threshold("100 ms")
+    static class LockHeldEvent extends Event {
+        @Label("Znode Path")
+        String znodePath;
+    }
+
+    @Name("org.rainyheart.distributed.lock.ZkOperation")
+    @Label("ZooKeeper Operation")
+    @Description("A ZooKeeper request made while obtaining or releasing a lock")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class ZkOperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Path")
+        String path;
+
+        @Label("Result Code")
+        String resultCode;
+    }
+
+    private static final EventType ACQUIRE_TYPE = EventType.getEventType(LockAcquireEvent.class);
+    private static final EventType HELD_TYPE = EventType.getEventType(LockHeldEvent.class);
+    private static final EventType OPERATION_TYPE = EventType.getEventType(ZkOperationEvent.class);
+
+    private ZkLockEvents() {
+        super();
+    }
+
+    static Object beginAcquire() {
+        if (!ACQUIRE_TYPE.isEnabled()) {
+            return null;
+        }
+        LockAcquireEvent event = new LockAcquireEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endAcquire(Object begun, String id, String level, boolean readLock, int attempts, String outcome) {
+        LockAcquireEvent event = (LockAcquireEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.id = id;
+            event.level = level;
+            event.readLock = readLock;
+            event.attempts = attempts;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    static Object beginHeld() {
+        if (!HELD_TYPE.isEnabled()) {
+            return null;
+        }
+        LockHeldEvent event = new LockHeldEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endHeld(Object begun, String znodePath) {
+        LockHeldEvent event = (LockHeldEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.znodePath = znodePath;
+            event.commit();
+        }
+    }
+
+    static Object beginOperation() {
+        if (!OPERATION_TYPE.isEnabled()) {
+            return null;
+        }
+        ZkOperationEvent event = new ZkOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endOperation(Object begun, String operation, String path, String resultCode) {
+        ZkOperationEvent event = (ZkOperationEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = path;
+            event.resultCode = resultCode;
+            event.commit();
+        }
+    }
+}
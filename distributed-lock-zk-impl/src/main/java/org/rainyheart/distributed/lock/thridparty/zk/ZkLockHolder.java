@@ -0,0 +1,111 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import org.rainyheart.distributed.lock.api.Lock;
+
+/**
+ * The sequential znode which currently holds a lock path in this JVM, together
+ * with the id of the thread owning it. A znode obtained by lockAsync() is not
+ * owned by any thread but by the lock instance it was obtained with.
+ * 
+ * The owner thread can obtain the lock again, which only increases the hold
+ * count, and the znode is deleted by the last unlock.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkLockHolder {
+
+    /**
+     * Thread ids are positive, so no thread owns a znode obtained by lockAsync()
+     */
+    private static final long NO_OWNER = -1;
+
+    private final long ownerThreadId;
+    private final String znodePath;
+    private final Lock asyncLock;
+
+    /**
+     * Only changed by the owner thread
+     */
+    private int holdCount = 1;
+
+    /**
+     * The creation zxid of the znode once a fencing token is asked for, zxids
+     * are positive
+     */
+    private long fencingToken = 0;
+
+    /**
+     * The lock held event begun when the znode is obtained, null if it is not
+     * recorded
+     */
+    private final Object heldEvent;
+
+    ZkLockHolder(long ownerThreadId, String znodePath) {
+        this(ownerThreadId, znodePath, null);
+    }
+
+    ZkLockHolder(String znodePath, Lock asyncLock) {
+        this(NO_OWNER, znodePath, asyncLock);
+    }
+
+    private ZkLockHolder(long ownerThreadId, String znodePath, Lock asyncLock) {
+        super();
+        this.ownerThreadId = ownerThreadId;
+        this.znodePath = znodePath;
+        this.asyncLock = asyncLock;
+        this.heldEvent = ZkFlightRecorder.beginHeld();
+    }
+
+    boolean isOwnedBy(long threadId) {
+        return asyncLock == null && this.ownerThreadId == threadId;
+    }
+
+    boolean isObtainedAsyncBy(Lock lock) {
+        return asyncLock != null && asyncLock.equals(lock);
+    }
+
+    void increaseHoldCount() {
+        this.holdCount++;
+    }
+
+    /**
+     * @return the hold count left, the znode should be deleted when it is 0
+     */
+    int decreaseHoldCount() {
+        return --this.holdCount;
+    }
+
+    int getHoldCount() {
+        return this.holdCount;
+    }
+
+    String getZnodePath() {
+        return this.znodePath;
+    }
+
+    long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
+    boolean isFenced() {
+        return this.fencingToken > 0;
+    }
+
+    /**
+     * The znode is no longer held by this holder, it is deleted or handed over
+     */
+    void released() {
+        ZkFlightRecorder.endHeld(this.heldEvent, this.znodePath);
+    }
+
+    @Override
+    public String toString() {
+        return "ZkLockHolder [ownerThreadId=" + ownerThreadId + ", znodePath=" + znodePath + ", asyncLock="
+                + asyncLock + ", holdCount=" + holdCount + ", fencingToken=" + fencingToken + "]";
+    }
+}
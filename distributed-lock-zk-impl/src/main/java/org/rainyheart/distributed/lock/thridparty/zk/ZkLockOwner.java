@@ -0,0 +1,114 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+/**
+ * The identity of the thread obtaining a lock, written into its znodes. It is
+ * made of the instance id of the manager and the id of the thread, and built
+ * for each call from the id of current thread, so nothing is kept per thread
+ * and thousands of short lived (virtual) threads leave nothing behind. Its
+ * znode data and prefixes are only built when the call needs them. A thread id
+ * is never reused within a JVM.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkLockOwner {
+
+    /**
+     * Separator of the number of a lockAsync() call in its znode prefix, it is
+     * not the LOCK_ZNODE_SEPARATOR, so the prefix of a blocking call never
+     * matches the znode of a lockAsync()
+     */
+    private static final String ASYNC_SEPARATOR = ".";
+
+    private final String instanceId;
+    private final long threadId;
+    private String uuid;
+    private byte[] uuidBytes;
+    private String lockZnodePrefix;
+    private String readZnodePrefix;
+
+    ZkLockOwner(String instanceId, long threadId) {
+        super();
+        this.instanceId = instanceId;
+        this.threadId = threadId;
+    }
+
+    /**
+     * @param instanceId:
+     *            the instance id of the manager called
+     * @return the owner of current thread for the manager, to be used by one
+     *         call only
+     */
+    static ZkLockOwner current(String instanceId) {
+        return new ZkLockOwner(instanceId, ZkThreads.currentThreadId());
+    }
+
+    /**
+     * @return the data of the znodes created by this owner, shared by the requests
+     *         of the call and never to be changed
+     */
+    byte[] getUuidBytes() {
+        if (this.uuidBytes == null) {
+            this.uuidBytes = getUuid().getBytes();
+        }
+        return this.uuidBytes;
+    }
+
+    String getLockZnodePrefix() {
+        if (this.lockZnodePrefix == null) {
+            this.lockZnodePrefix = newZnodePrefix(ZkLockConstant.LOCK_ZNODE_PREFIX);
+        }
+        return this.lockZnodePrefix;
+    }
+
+    String getReadZnodePrefix() {
+        if (this.readZnodePrefix == null) {
+            this.readZnodePrefix = newZnodePrefix(ZkLockConstant.READ_ZNODE_PREFIX);
+        }
+        return this.readZnodePrefix;
+    }
+
+    /**
+     * The strings of an owner are built on each lock call, so they are built at
+     * their exact size without growing a buffer
+     */
+    private String getUuid() {
+        if (this.uuid == null) {
+            String threadHex = Long.toHexString(this.threadId);
+            this.uuid = new StringBuilder(this.instanceId.length() + 1 + threadHex.length()).append(this.instanceId)
+                    .append(ZkLockConstant.LOCK_ZNODE_SEPARATOR).append(threadHex).toString();
+        }
+        return this.uuid;
+    }
+
+    private String newZnodePrefix(String typePrefix) {
+        String uuid = getUuid();
+        return new StringBuilder(typePrefix.length() + uuid.length() + 1).append(typePrefix).append(uuid)
+                .append(ZkLockConstant.LOCK_ZNODE_SEPARATOR).toString();
+    }
+
+    /**
+     * @param path:
+     *            the lock path
+     * @param znodePrefix:
+     *            the lock or read znode prefix of this owner
+     * @return the path to create a sequential znode of this owner at
+     */
+    static String getCreatePath(String path, String znodePrefix) {
+        return new StringBuilder(path.length() + 1 + znodePrefix.length()).append(path).append(ZkLockConstant.SLASH)
+                .append(znodePrefix).toString();
+    }
+
+    /**
+     * @param call:
+     *            the number of the lockAsync() call in the manager
+     * @return the lock znode prefix of a lockAsync() call of this owner, it is
+     *         another one for each call, so two calls pending at the same time
+     *         never take the znode of each other when they look for it after a
+     *         connection loss
+     */
+    String newAsyncZnodePrefix(long call) {
+        return ZkLockConstant.LOCK_ZNODE_PREFIX + getUuid() + ASYNC_SEPARATOR + Long.toHexString(call)
+                + ZkLockConstant.LOCK_ZNODE_SEPARATOR;
+    }
+}
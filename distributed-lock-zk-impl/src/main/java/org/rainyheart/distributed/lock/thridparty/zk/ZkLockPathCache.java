@@ -0,0 +1,39 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The lock paths of the recently used lock ids under one root path, so that
+ * the same path string is not built again on every lock() and unlock(). The
+ * cache is simply cleared when it is full, e.g. by the ids of work items used
+ * only once.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkLockPathCache {
+
+    private static final int MAX_SIZE = 10000;
+
+    private final String rootPath;
+
+    private final ConcurrentMap<String, String> paths = new ConcurrentHashMap<>();
+
+    ZkLockPathCache(String rootPath) {
+        super();
+        this.rootPath = rootPath;
+    }
+
+    String getLockPath(String id) {
+        String path = this.paths.get(id);
+        if (path == null) {
+            if (this.paths.size() >= MAX_SIZE) {
+                this.paths.clear();
+            }
+            path = this.rootPath + ZkLockConstant.SLASH + id;
+            this.paths.put(id, path);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,83 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delete the persistent lock paths of the ids nobody uses any more, e.g. the
+ * ids of work items locked only once, so they do not pile up under the lock
+ * roots. A lock path released by this JVM is deleted after it is left idle for
+ * a whole reap interval, so a hot id keeps its lock path and is not created
+ * again on every lock(). The delete is not waited for and fails with NOTEMPTY
+ * if the lock path is still queued by anyone, which is simply ignored.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkLockPathReaper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkLockPathReaper.class);
+
+    private final ZooKeeperManager manager;
+
+    /**
+     * The lock paths released in the current interval
+     */
+    private volatile Set<String> released = newPathSet();
+
+    /**
+     * The lock paths released in the previous interval
+     */
+    private Set<String> idle = newPathSet();
+
+    private final VoidCallback deleted = (rc, path, ctx) -> {
+        Code code = Code.get(rc);
+        if (code != Code.OK && code != Code.NOTEMPTY && code != Code.NONODE && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Unable to delete the idle lock path " + path + ": " + code);
+        }
+    };
+
+    ZkLockPathReaper(ZooKeeperManager manager) {
+        super();
+        this.manager = manager;
+    }
+
+    /**
+     * A znode of the lock path is released by this JVM
+     */
+    void released(String path) {
+        Set<String> current = this.released;
+        if (!current.contains(path)) {
+            current.add(path);
+        }
+    }
+
+    /**
+     * Delete the lock paths released in the previous interval and not in the
+     * current one, called once per reap interval
+     */
+    synchronized void reap() {
+        Set<String> current = this.released;
+        this.released = newPathSet();
+        for (String path : this.idle) {
+            if (!current.contains(path)) {
+                try {
+                    this.manager.getZk(path).delete(path, -1, this.deleted, null);
+                } catch (RuntimeException e) { // e.g. the session is being rebuilt, try it again later
+                    current.add(path);
+                }
+            }
+        }
+        this.idle = current;
+    }
+
+    private static Set<String> newPathSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<>());
+    }
+}
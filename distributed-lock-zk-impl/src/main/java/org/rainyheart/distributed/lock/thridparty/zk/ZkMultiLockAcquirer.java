@@ -0,0 +1,232 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.rainyheart.distributed.lock.api.Lock;
+
+/**
+ * Obtain several locks served by the same session at once. The znodes of all
+ * the lock paths are queued in one multi() transaction, so two callers sharing
+ * some of the lock paths are in the same order in every queue and cannot
+ * deadlock each other. The locks are obtained when the znodes are at the head
+ * of all the queues, otherwise only the predecessors of the conflicting znodes
+ * are watched.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkMultiLockAcquirer {
+
+    private final ZooKeeperManager manager;
+    private final SortedMap<String, Lock> locks;
+    private final byte[] uuidBytes;
+    private final String znodePrefix;
+    private final long timeout;
+
+    /**
+     * @param locks:
+     *            the locks to obtain keyed by their lock path, the paths are
+     *            sorted canonically and all served by the same session
+     */
+    ZkMultiLockAcquirer(ZooKeeperManager manager, SortedMap<String, Lock> locks, byte[] uuidBytes,
+            String znodePrefix, long timeout) {
+        super();
+        this.manager = manager;
+        this.locks = locks;
+        this.uuidBytes = uuidBytes;
+        this.znodePrefix = znodePrefix;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the names of the znodes holding the locks keyed by the lock path,
+     *         or null if the locks are not obtained before timeout
+     */
+    Map<String, String> acquire() throws ZkServerConnectionException {
+        long deadline = System.currentTimeMillis() + timeout;
+        Map<String, String> znodes = null;
+        boolean createUnconfirmed = false;
+        int failures = 0;
+        while (true) {
+            try {
+                Map<String, List<String>> children = null;
+                if (znodes == null && createUnconfirmed) {
+                    // the previous transaction may have succeeded before the connection is lost
+                    children = getSortedChildren();
+                    znodes = findZnodes(children);
+                }
+                if (znodes == null) {
+                    createUnconfirmed = true;
+                    znodes = createZnodes();
+                    createUnconfirmed = false;
+                    children = null;
+                }
+                if (children == null) {
+                    children = getSortedChildren();
+                }
+                Map<String, String> blockers = new TreeMap<>();
+                boolean gone = false;
+                for (Map.Entry<String, String> znode : znodes.entrySet()) {
+                    List<String> queue = children.get(znode.getKey());
+                    int index = queue.indexOf(znode.getValue());
+                    if (index < 0) {
+                        gone = true;
+                    } else if (index > 0) {
+                        blockers.put(znode.getKey(), queue.get(index - 1));
+                    }
+                }
+                if (gone) { // some znodes are gone with the expired session, queue them all again
+                    deleteZnodes(znodes);
+                    znodes = null;
+                } else if (blockers.isEmpty()) {
+                    return znodes;
+                } else if (ZooKeeperManager.isTimeout(timeout, deadline)) {
+                    break;
+                } else {
+                    waitForBlockers(blockers, deadline);
+                }
+            } catch (KeeperException e) {
+                manager.handleException(e.getPath() == null ? locks.firstKey() : e.getPath(), e, timeout, deadline);
+                // always give it one more try after the exception is handled, e.g. the session is rebuilt
+                if (++failures > 1 && ZooKeeperManager.isTimeout(timeout, deadline)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                manager.handleException(locks.firstKey(), e);
+                break;
+            }
+        }
+        try {
+            if (znodes == null && createUnconfirmed) {
+                znodes = findZnodes(getSortedChildren());
+            }
+            if (znodes != null) {
+                deleteZnodes(znodes);
+            }
+        } catch (KeeperException | InterruptedException e) {
+            manager.handleException(locks.firstKey(), e, timeout, deadline);
+        }
+        return null;
+    }
+
+    private Map<String, String> createZnodes() throws KeeperException, InterruptedException {
+        List<Op> ops = new ArrayList<>(locks.size());
+        for (Map.Entry<String, Lock> lock : locks.entrySet()) {
+            ops.add(Op.create(lock.getKey() + ZkLockConstant.SLASH + znodePrefix, uuidBytes,
+                    ZkLockConstant.GLOBAL_ACL, manager.determinMode(lock.getValue().mode())));
+        }
+        // the session of all the lock paths
+        ZooKeeper zk = manager.getZk(locks.firstKey());
+        List<OpResult> results;
+        try {
+            results = zk.multi(ops);
+        } catch (KeeperException.NoNodeException e) {
+            for (String path : locks.keySet()) {
+                if (zk.exists(path, false) == null) {
+                    manager.createLockPathIfNotExist(path);
+                }
+            }
+            results = zk.multi(ops);
+        }
+        Map<String, String> znodes = new TreeMap<>();
+        int i = 0;
+        for (String path : locks.keySet()) {
+            String znodePath = ((OpResult.CreateResult) results.get(i++)).getPath();
+            znodes.put(path, znodePath.substring(path.length() + 1));
+        }
+        return znodes;
+    }
+
+    private void deleteZnodes(Map<String, String> znodes) throws ZkServerConnectionException {
+        List<String> znodePaths = new ArrayList<>(znodes.size());
+        for (Map.Entry<String, String> znode : znodes.entrySet()) {
+            znodePaths.add(znode.getKey() + ZkLockConstant.SLASH + znode.getValue());
+        }
+        manager.deleteZnodes(locks.firstKey(), znodePaths);
+    }
+
+    /**
+     * @return the znodes created by the previous transaction, or null if it was
+     *         not committed
+     */
+    private Map<String, String> findZnodes(Map<String, List<String>> children) {
+        Map<String, String> znodes = new TreeMap<>();
+        for (String path : locks.keySet()) {
+            String znodeName = ZooKeeperManager.findZnode(children.get(path), znodePrefix);
+            if (znodeName != null) {
+                znodes.put(path, znodeName);
+            }
+        }
+        return znodes.isEmpty() ? null : znodes;
+    }
+
+    /**
+     * Read the children of all the lock paths in one round trip by pipelining
+     * the asynchronous requests
+     */
+    private Map<String, List<String>> getSortedChildren() throws KeeperException, InterruptedException {
+        Map<String, List<String>> children = new ConcurrentHashMap<>();
+        AtomicReference<KeeperException> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(locks.size());
+        ChildrenCallback callback = new ChildrenCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx, List<String> result) {
+                Code code = Code.get(rc);
+                if (code == Code.OK) {
+                    ZooKeeperManager.sortBySequence(result);
+                    children.put(path, result);
+                } else if (code == Code.NONODE) {
+                    children.put(path, Collections.<String> emptyList());
+                } else {
+                    error.compareAndSet(null, KeeperException.create(code, path));
+                }
+                done.countDown();
+            }
+        };
+        ZooKeeper zk = manager.getZk(locks.firstKey());
+        for (String path : locks.keySet()) {
+            zk.getChildren(path, false, callback, null);
+        }
+        done.await();
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return children;
+    }
+
+    /**
+     * Watch the predecessors of the conflicting znodes only, any of them is
+     * changed means the queues have to be checked again
+     */
+    private void waitForBlockers(Map<String, String> blockers, long deadline)
+            throws KeeperException, InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            for (Map.Entry<String, String> blocker : blockers.entrySet()) {
+                manager.watchZnode(blocker.getKey(), blocker.getValue(), latch);
+                if (latch.getCount() == 0) {
+                    return; // the predecessor was gone before the watch is left
+                }
+            }
+            ZooKeeperManager.awaitLatch(latch, timeout, deadline);
+        } finally {
+            for (Map.Entry<String, String> blocker : blockers.entrySet()) {
+                manager.unwatchZnode(blocker.getKey(), blocker.getValue(), latch);
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.rainyheart.distributed.lock.api.metrics.DistributedLockMetrics;
+
+/**
+ * The ZK client of the sessions of {@link ZooKeeperManager}. Every request,
+ * synchronous or asynchronous, is recorded once when its result is back: its
+ * round trip time into the lock metrics by request type, and a ZK operation
+ * event by {@link ZkFlightRecorder}. The ZooKeeper methods taking a boolean
+ * watch flag call the ones taking a watcher, so only the latter are recorded.
+ * Nothing is allocated for a request when neither of them is enabled.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkRecordingClient extends ZooKeeper {
+
+    private final ZooKeeperManager manager;
+
+    ZkRecordingClient(ZooKeeperManager manager, String connectString, int sessionTimeout, Watcher watcher)
+            throws IOException {
+        super(connectString, sessionTimeout, watcher);
+        this.manager = manager;
+    }
+
+    @Override
+    public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode)
+            throws KeeperException, InterruptedException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.create(path, data, acl, createMode);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_CREATE, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<ACL> acl, CreateMode createMode, StringCallback cb,
+            Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_CREATE, path);
+        if (request == null) {
+            super.create(path, data, acl, createMode, cb, ctx);
+            return;
+        }
+        super.create(path, data, acl, createMode, (rc, p, c, name) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, name);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public void delete(String path, int version) throws InterruptedException, KeeperException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            super.delete(path, version);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_DELETE, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void delete(String path, int version, VoidCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_DELETE, path);
+        if (request == null) {
+            super.delete(path, version, cb, ctx);
+            return;
+        }
+        super.delete(path, version, (rc, p, c) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.multi(ops);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_MULTI, firstPathOf(ops), start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void multi(Iterable<Op> ops, MultiCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_MULTI, firstPathOf(ops));
+        if (request == null) {
+            super.multi(ops, cb, ctx);
+            return;
+        }
+        super.multi(ops, (rc, p, c, results) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, results);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public Stat exists(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.exists(path, watcher);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_EXISTS, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void exists(String path, Watcher watcher, StatCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_EXISTS, path);
+        if (request == null) {
+            super.exists(path, watcher, cb, ctx);
+            return;
+        }
+        super.exists(path, watcher, (rc, p, c, stat) -> {
+            // a missing znode is a normal result of exists(), as the synchronous one
+            request.end(rc == Code.NONODE.intValue() ? Code.OK.intValue() : rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, stat);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public byte[] getData(String path, Watcher watcher, Stat stat) throws KeeperException, InterruptedException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.getData(path, watcher, stat);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_GET_DATA, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void getData(String path, Watcher watcher, DataCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_GET_DATA, path);
+        if (request == null) {
+            super.getData(path, watcher, cb, ctx);
+            return;
+        }
+        super.getData(path, watcher, (rc, p, c, data, stat) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, data, stat);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public Stat setData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.setData(path, data, version);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_SET_DATA, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void setData(String path, byte[] data, int version, StatCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_SET_DATA, path);
+        if (request == null) {
+            super.setData(path, data, version, cb, ctx);
+            return;
+        }
+        super.setData(path, data, version, (rc, p, c, stat) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, stat);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public List<String> getChildren(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.getChildren(path, watcher);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_GET_CHILDREN, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public List<String> getChildren(String path, Watcher watcher, Stat stat)
+            throws KeeperException, InterruptedException {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        String resultCode = ZkFlightRecorder.OK;
+        try {
+            return super.getChildren(path, watcher, stat);
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            resultCode = resultCodeOf(e);
+            throw e;
+        } finally {
+            record(ZkLockConstant.ROUND_TRIP_GET_CHILDREN, path, start, event, resultCode);
+        }
+    }
+
+    @Override
+    public void getChildren(String path, Watcher watcher, ChildrenCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_GET_CHILDREN, path);
+        if (request == null) {
+            super.getChildren(path, watcher, cb, ctx);
+            return;
+        }
+        super.getChildren(path, watcher, (ChildrenCallback) (rc, p, c, children) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, children);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public void getChildren(String path, Watcher watcher, Children2Callback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_GET_CHILDREN, path);
+        if (request == null) {
+            super.getChildren(path, watcher, cb, ctx);
+            return;
+        }
+        super.getChildren(path, watcher, (Children2Callback) (rc, p, c, children, stat) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c, children, stat);
+            }
+        }, ctx);
+    }
+
+    @Override
+    public void sync(String path, VoidCallback cb, Object ctx) {
+        Request request = begin(ZkLockConstant.ROUND_TRIP_SYNC, path);
+        if (request == null) {
+            super.sync(path, cb, ctx);
+            return;
+        }
+        super.sync(path, (rc, p, c) -> {
+            request.end(rc);
+            if (cb != null) {
+                cb.processResult(rc, p, c);
+            }
+        }, ctx);
+    }
+
+    /**
+     * @return the start time of a round trip, 0 if the metrics are not enabled
+     */
+    private long startRoundTrip() {
+        return this.manager.getMetrics() == null ? 0 : System.nanoTime();
+    }
+
+    private void record(String request, String path, long start, Object event, String resultCode) {
+        DistributedLockMetrics metrics = this.manager.getMetrics();
+        if (metrics != null && start != 0) {
+            metrics.recordRoundTrip(request, System.nanoTime() - start);
+        }
+        ZkFlightRecorder.endOperation(event, request, path, resultCode);
+    }
+
+    /**
+     * @return the asynchronous request begun, null if it is not recorded at all
+     */
+    private Request begin(String type, String path) {
+        long start = startRoundTrip();
+        Object event = ZkFlightRecorder.beginOperation();
+        if (start == 0 && event == null) {
+            return null;
+        }
+        return new Request(type, path, start, event);
+    }
+
+    /**
+     * @return the name of the ZK result code, or the exception type if there is
+     *         no result from ZK
+     */
+    private static String resultCodeOf(Exception e) {
+        if (e instanceof KeeperException) {
+            return ((KeeperException) e).code().name();
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    private static String firstPathOf(Iterable<Op> ops) {
+        for (Op op : ops) {
+            return op.getPath();
+        }
+        return null;
+    }
+
+    /**
+     * An asynchronous request waiting for its result
+     */
+    private class Request {
+        private final String type;
+        private final String path;
+        private final long start;
+        private final Object event;
+
+        Request(String type, String path, long start, Object event) {
+            this.type = type;
+            this.path = path;
+            this.start = start;
+            this.event = event;
+        }
+
+        void end(int rc) {
+            record(this.type, this.path, this.start, this.event,
+                    rc == Code.OK.intValue() ? ZkFlightRecorder.OK : Code.get(rc).name());
+        }
+    }
+}
@@ -20,4 +20,8 @@ public class ZkServerConnectionException extends DistributedLockException {
         super(msg, e);
     }
 
+    public ZkServerConnectionException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+
 }
@@ -0,0 +1,264 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The reconnect state machine of one ZK session. A thread hitting the broken
+ * session only requests the recovery, which never blocks, and then waits for it
+ * no longer than its own deadline, or not at all for a tryLock(). A client
+ * which lost its connection reconnects the same session on its own, so the
+ * recovery waits for it up to the session timeout and the ephemeral znodes of
+ * the locks held are kept. The session is only rebuilt once it is expired, on
+ * the recovery thread, one attempt at a time with an exponential backoff and
+ * jitter between the failed attempts, and the new session is set up once by
+ * the attempt which connects it.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkSessionRecovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkSessionRecovery.class);
+
+    /**
+     * Max time in milliseconds an attempt waits for the new session to be
+     * connected
+     */
+    static final long CONNECT_TIMEOUT = 10000;
+
+    /**
+     * The ZK session being recovered
+     */
+    interface Session {
+
+        ZooKeeper getZk();
+
+        /**
+         * Replace the ZK client by a new one and set the new session up, it is only
+         * called on the recovery thread
+         */
+        void rebuild() throws ZkServerConnectionException;
+    }
+
+    private final ZooKeeperManager manager;
+    private final String name;
+    private final Session session;
+
+    /**
+     * Released when the session is recovered or the manager is destroyed, null
+     * while the session is not known to be broken
+     */
+    private final AtomicReference<CountDownLatch> recovering = new AtomicReference<>();
+
+    /**
+     * The latch of the recovery while it waits for the client to reconnect the
+     * same session, null once the session is being rebuilt
+     */
+    private final AtomicReference<CountDownLatch> reconnecting = new AtomicReference<>();
+
+    /**
+     * Id of the last scheduled attempt, the earlier ones are stale
+     */
+    private final AtomicInteger scheduledAttempt = new AtomicInteger();
+
+    private final AtomicInteger recoveries = new AtomicInteger();
+
+    private volatile Thread recoveryThread;
+    private volatile boolean closed = false;
+
+    /**
+     * Only changed on the recovery thread
+     */
+    private int failedAttempts = 0;
+
+    ZkSessionRecovery(ZooKeeperManager manager, String name, Session session) {
+        super();
+        this.manager = manager;
+        this.name = name;
+        this.session = session;
+    }
+
+    /**
+     * Start the recovery unless the session is connected or being recovered
+     * already, it returns at once
+     */
+    void recover() {
+        if (this.closed || isConnected()) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        if (!this.recovering.compareAndSet(null, latch)) {
+            return;
+        }
+        ZooKeeper zk = this.session.getZk();
+        if (zk != null && zk.getState().isAlive()) {
+            // the session expires on the server if it is not reconnected within its timeout
+            this.reconnecting.set(latch);
+            LOGGER.warn("ZK session {} is disconnected, waiting {} ms for it to reconnect...", this.name,
+                    zk.getSessionTimeout());
+            schedule(zk.getSessionTimeout());
+            if (isConnected()) {
+                reconnected(); // before the wait is set up
+            }
+        } else {
+            LOGGER.warn("ZK session {} is broken, now recovering...", this.name);
+            schedule(0);
+        }
+    }
+
+    /**
+     * The client is connected, which ends the wait for the same session to
+     * reconnect. A rebuilt session is finished by its attempt after it is set
+     * up instead.
+     */
+    void reconnected() {
+        CountDownLatch latch = this.reconnecting.get();
+        if (latch != null && this.reconnecting.compareAndSet(latch, null)) {
+            this.scheduledAttempt.incrementAndGet(); // the rebuild at the session timeout is not needed
+            if (this.recovering.compareAndSet(latch, null)) {
+                LOGGER.info("ZK session {} is reconnected", this.name);
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * The session is expired, rebuild it at once rather than waiting for it to
+     * reconnect
+     */
+    void expired() {
+        if (this.reconnecting.getAndSet(null) != null) {
+            schedule(0);
+        } else {
+            recover();
+        }
+    }
+
+    /**
+     * Wait for the recovery in progress, if there is any
+     *
+     * @param waitTime:
+     *            max time to wait in milliseconds, the call fails fast if it is 0
+     * @return true if the session is not being recovered when it returns
+     */
+    boolean awaitRecovered(long waitTime) throws InterruptedException {
+        CountDownLatch latch = this.recovering.get();
+        if (latch == null) {
+            return true;
+        } else if (waitTime <= 0 || isRecoveryThread()) {
+            return false; // the recovery thread never waits for itself
+        }
+        return latch.await(waitTime, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isRecovering() {
+        return this.recovering.get() != null;
+    }
+
+    boolean isRecoveryThread() {
+        return Thread.currentThread() == this.recoveryThread;
+    }
+
+    /**
+     * @return number of times the session is rebuilt
+     */
+    int getRecoveries() {
+        return this.recoveries.get();
+    }
+
+    /**
+     * Stop recovering and release the waiting threads
+     */
+    void close() {
+        this.closed = true;
+        finish();
+    }
+
+    private boolean isConnected() {
+        ZooKeeper zk = this.session.getZk();
+        return zk != null && zk.getState() == States.CONNECTED;
+    }
+
+    private void schedule(long delay) {
+        int id = this.scheduledAttempt.incrementAndGet();
+        try {
+            this.manager.getRecoveryExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (id == scheduledAttempt.get()) {
+                        attempt();
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            finish(); // the manager is destroyed
+        }
+    }
+
+    private void attempt() {
+        if (this.closed) {
+            finish();
+            return;
+        }
+        if (this.reconnecting.getAndSet(null) != null && isConnected()) {
+            finish(); // reconnected right at the session timeout
+            return;
+        }
+        this.recoveryThread = Thread.currentThread();
+        try {
+            this.session.rebuild();
+        } catch (ZkServerConnectionException | RuntimeException e) {
+            LOGGER.warn("Fail to rebuild ZK session " + this.name, e);
+        } finally {
+            this.recoveryThread = null;
+        }
+        if (isConnected()) {
+            this.failedAttempts = 0;
+            this.recoveries.incrementAndGet();
+            this.manager.recordReconnect();
+            LOGGER.info("ZK session {} is recovered", this.name);
+            finish();
+        } else if (this.closed) {
+            finish();
+        } else {
+            long delay = backoff(++this.failedAttempts, this.manager.getReconnectBackoffBase(),
+                    this.manager.getReconnectBackoffMax());
+            LOGGER.warn("ZK session {} is not recovered after {} attempts, retrying in {} ms",
+                    new Object[] { this.name, this.failedAttempts, delay });
+            schedule(delay);
+        }
+    }
+
+    private void finish() {
+        this.reconnecting.set(null);
+        CountDownLatch latch = this.recovering.getAndSet(null);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is kept and the
+     * other half is random, so the clients of a restarted ensemble do not
+     * reconnect in step
+     */
+    static long backoff(int failedAttempts, long base, long max) {
+        long ceiling = base;
+        for (int i = 1; i < failedAttempts && ceiling < max; i++) {
+            ceiling <<= 1;
+        }
+        ceiling = Math.min(ceiling, max);
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+}
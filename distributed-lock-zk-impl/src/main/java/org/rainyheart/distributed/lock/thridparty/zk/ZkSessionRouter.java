@@ -0,0 +1,59 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Route the lock paths to the ZK sessions by consistent hashing. All the
+ * requests of one lock path go to the same session, so its znodes, watches and
+ * deletes stay together and a lost session only affects the lock paths routed
+ * to it.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkSessionRouter {
+
+    /**
+     * Points of each session on the hash ring, to spread the lock paths evenly
+     */
+    private static final int VIRTUAL_NODES = 160;
+
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+    ZkSessionRouter(int sessionCount) {
+        super();
+        for (int session = 0; session < sessionCount; session++) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                this.ring.put(hash("session-" + session + "#" + i), session);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the session serving the given lock path
+     */
+    int route(String path) {
+        Map.Entry<Integer, Integer> entry = this.ring.ceilingEntry(hash(path));
+        return entry == null ? this.ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * 32 bits FNV-1a with the murmur3 finalizer, String.hashCode() is too poorly
+     * distributed for the similar lock paths
+     */
+    static int hash(String key) {
+        int hash = 0x811c9dc5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
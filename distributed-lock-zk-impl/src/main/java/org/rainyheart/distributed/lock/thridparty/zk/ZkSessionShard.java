@@ -0,0 +1,151 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One of the extra ZK sessions serving the lock paths routed to it. It only
+ * carries the lock traffic, the root nodes, the configuration and the
+ * registrations are kept by the primary session of {@link ZooKeeperManager}.
+ * A shard is recovered on its own, so only its waiters are woken up.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkSessionShard {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkSessionShard.class);
+
+    private final ZooKeeperManager manager;
+    private final ZkSessionRecovery recovery;
+    private final int index;
+    private final String hostPort;
+    private final int sessionTimeout;
+    private final String adminAuth;
+
+    private volatile ZooKeeper zk;
+
+    /**
+     * Serialize the rebuilds of the session, the threads waiting for it do not
+     * pin the carrier thread of a virtual thread
+     */
+    private final ReentrantLock connectLock = new ReentrantLock();
+
+    /**
+     * Latches of the threads waiting for a watch of this session
+     */
+    private final Set<CountDownLatch> waitingLatches = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * The watches on the predecessor znodes shared by the waiters of this session
+     */
+    private final ZkWatchRegistry watchRegistry = new ZkWatchRegistry();
+
+    ZkSessionShard(ZooKeeperManager manager, int index, String hostPort, int sessionTimeout, String adminAuth) {
+        super();
+        this.manager = manager;
+        this.index = index;
+        this.hostPort = hostPort;
+        this.sessionTimeout = sessionTimeout;
+        this.adminAuth = adminAuth;
+        this.recovery = new ZkSessionRecovery(manager, "shard " + index, new ZkSessionRecovery.Session() {
+            @Override
+            public ZooKeeper getZk() {
+                return zk;
+            }
+
+            @Override
+            public void rebuild() throws ZkServerConnectionException {
+                connect();
+            }
+        });
+    }
+
+    void connect() throws ZkServerConnectionException {
+        this.connectLock.lock();
+        try {
+            if (this.zk != null) {
+                // kept until it is replaced, the calls meanwhile fail with CONNECTIONLOSS
+                this.zk.close();
+            }
+            CountDownLatch connectedLatch = new CountDownLatch(1);
+            this.zk = new ZkRecordingClient(this.manager, this.hostPort, this.sessionTimeout,
+                    createSessionWatcher(connectedLatch));
+            if (!connectedLatch.await(ZkSessionRecovery.CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new ZkServerConnectionException("Fail to connect the ZK session shard: " + this.index);
+            }
+            this.zk.addAuthInfo(ZkLockConstant.ZK_SCHEME, this.adminAuth.getBytes());
+        } catch (IOException e) {
+            throw new ZkServerConnectionException("Fail to connect the ZK session shard: " + this.index, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZkServerConnectionException("Interrupted to connect the ZK session shard: " + this.index, e);
+        } finally {
+            // the watches left by the waiters are gone with the old client
+            wakeUpWaiters();
+            this.connectLock.unlock();
+        }
+    }
+
+    private Watcher createSessionWatcher(CountDownLatch connectedLatch) {
+        return new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == KeeperState.SyncConnected) {
+                    connectedLatch.countDown();
+                    recovery.reconnected();
+                } else if (event.getState() == KeeperState.Expired) {
+                    // never rebuild the session on the event thread
+                    LOGGER.warn("ZK session shard {} expired. now rebuilding...", index);
+                    recovery.expired();
+                }
+            }
+        };
+    }
+
+    void close() throws InterruptedException {
+        this.recovery.close();
+        if (this.zk != null) {
+            this.zk.close();
+        }
+    }
+
+    ZooKeeper getZk() {
+        return this.zk;
+    }
+
+    ZkSessionRecovery getRecovery() {
+        return this.recovery;
+    }
+
+    ZkWatchRegistry getWatchRegistry() {
+        return this.watchRegistry;
+    }
+
+    void addWaitingLatch(CountDownLatch latch) {
+        this.waitingLatches.add(latch);
+    }
+
+    void removeWaitingLatch(CountDownLatch latch) {
+        this.waitingLatches.remove(latch);
+    }
+
+    private void wakeUpWaiters() {
+        for (CountDownLatch latch : this.waitingLatches) {
+            latch.countDown();
+        }
+        this.watchRegistry.fireAll();
+    }
+}
@@ -0,0 +1,27 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+/**
+ * Access to the current thread which differs between the Java versions. This
+ * is the Java 8 version, the one under META-INF/versions/21 of the jar is
+ * used on Java 21 or later.
+ *
+ * @author Ken Ye
+ *
+ */
+final class ZkThreads {
+
+    private ZkThreads() {
+        super();
+    }
+
+    static long currentThreadId() {
+        return Thread.currentThread().getId();
+    }
+
+    /**
+     * There is no virtual thread before Java 21
+     */
+    static boolean isCurrentThreadVirtual() {
+        return false;
+    }
+}
@@ -0,0 +1,143 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * The existence watches of one ZK session keyed by the znode path. All the
+ * local threads waiting for the same znode share one watch, which wakes them
+ * all up. The waiters of a watch are counted by their latches, the entry is
+ * removed by the last one leaving, e.g. on timeout, so the registry does not
+ * grow with the znodes nobody waits for any more. ZooKeeper 3.4 cannot remove
+ * a watch, the one left behind only fires into the retired entry, and the next
+ * waiter of the znode sets a new one.
+ *
+ * @author Ken Ye
+ *
+ */
+class ZkWatchRegistry {
+
+    private final ConcurrentMap<String, ZkWatch> watches = new ConcurrentHashMap<>();
+
+    /**
+     * Count down the latch when the znode is changed or deleted, or right away if
+     * it does not exist or is changed since it was created. The latch must be
+     * removed by {@link #leave(String, CountDownLatch)}.
+     * 
+     * @return whether the watch is set by this call, i.e. a request is sent to
+     *         ZK
+     */
+    boolean join(ZooKeeper zk, String znodePath, CountDownLatch latch) throws KeeperException, InterruptedException {
+        ZkWatch watch;
+        boolean first;
+        while (true) {
+            watch = this.watches.computeIfAbsent(znodePath, ZkWatch::new);
+            watch.lock.lock();
+            try {
+                if (watch.fired) {
+                    continue; // replaced by a new watch in the meantime
+                }
+                first = !watch.watching;
+                watch.watching = true;
+                watch.latches.add(latch);
+            } finally {
+                watch.lock.unlock();
+            }
+            break;
+        }
+        if (first) {
+            boolean unchanged = false;
+            try {
+                Stat stat = ZkBlockingCalls.exists(zk, znodePath, watch);
+                unchanged = stat != null && stat.getVersion() == ZkLockConstant.CREATED_ZNODE_VERSION;
+            } finally {
+                if (!unchanged) { // gone or changed already, or failed to leave the watch
+                    fire(watch);
+                }
+            }
+        }
+        return first;
+    }
+
+    void leave(String znodePath, CountDownLatch latch) {
+        ZkWatch watch = this.watches.get(znodePath);
+        if (watch != null) {
+            watch.lock.lock();
+            try {
+                if (watch.latches.remove(latch) && watch.latches.isEmpty() && !watch.fired) {
+                    // the last waiter, retire the entry
+                    watch.fired = true;
+                    this.watches.remove(znodePath, watch);
+                }
+            } finally {
+                watch.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wake up all the waiters when the session is rebuilt, the watches are gone
+     * with the old session
+     */
+    void fireAll() {
+        for (ZkWatch watch : this.watches.values()) {
+            fire(watch);
+        }
+    }
+
+    int size() {
+        return this.watches.size();
+    }
+
+    private void fire(ZkWatch watch) {
+        watch.lock.lock();
+        try {
+            watch.fired = true;
+            this.watches.remove(watch.znodePath, watch);
+            for (CountDownLatch latch : watch.latches) {
+                latch.countDown();
+            }
+            watch.latches.clear();
+        } finally {
+            watch.lock.unlock();
+        }
+    }
+
+    private class ZkWatch implements Watcher {
+        private final String znodePath;
+        /**
+         * Not the monitor of the watch, a thread waiting for it should not pin the
+         * carrier thread of a virtual thread
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * The waiters of the watch
+         */
+        private final Set<CountDownLatch> latches = new HashSet<>();
+        private boolean watching = false;
+        /**
+         * Fired or retired, a new waiter takes a new entry
+         */
+        private boolean fired = false;
+
+        ZkWatch(String znodePath) {
+            super();
+            this.znodePath = znodePath;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            fire(this);
+        }
+    }
+}
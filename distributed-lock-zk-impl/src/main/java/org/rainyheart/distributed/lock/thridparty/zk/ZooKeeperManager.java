@@ -5,19 +5,37 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
@@ -30,12 +48,17 @@ import org.apache.zookeeper.data.Id;
 import org.apache.zookeeper.data.Stat;
 import org.rainyheart.distributed.lock.api.DistributedLockManager;
 import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.impl.LockHandleImpl;
+import org.rainyheart.distributed.lock.api.memory.InMemoryDistributedLockManager;
+import org.rainyheart.distributed.lock.api.metrics.DistributedLockMetrics;
 import org.rainyheart.distributed.lock.thridparty.zk.utils.ZkPasswordUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 
 /**
  * The ZooKeeper Manager class.
@@ -47,13 +70,12 @@ import org.springframework.util.StringUtils;
  *
  */
 @Component
+@Profile("!" + InMemoryDistributedLockManager.PROFILE)
 public class ZooKeeperManager implements DistributedLockManager {
 
     private static final String TRUE = "true";
     private static final String MSG_NON_ZERO_COUNT_DOWN_FOR_ZOOKEEPER_CONNECTION_THREAD = "Non-zero count down for zookeeper connection thread";
     private static final String MSG_FAIL_TO_GENERATE_USER_PASSWORD = "Fail to generate User Password!";
-    private static final String MSG_FAIL_TO_REBUILD_ZK_CLIENT_FOR_EVENT = "Fail to rebuild Zk Client for event: ";
-    private static final String MSG_ZK_REBUILD_SUCCESSFULLY = "Zk rebuild successfully ...";
     private static final String MSG_ZK_SESSION_EXPIRED_NOW_REBUILDING = "Zk session expired. now rebuilding...";
     private static final String COMMER = ", ";
     private static final String MSG_UNEXPECTED_EXCEPTION = "Unexpected Exception!";
@@ -65,10 +87,33 @@ public class ZooKeeperManager implements DistributedLockManager {
     private static final String MSG_TRYING_TO_RECONNECT_TO_ZOO_KEEPER_SERVER = "Trying to reconnect to ZooKeeper Server";
     private static final String MSG_ZOO_KEEPER_CONNECTION_SESSION_IS_BROKEN = "ZooKeeper Connection/Session is broken!!!";
     private static final String MSG_UNABLE_TO_DELETE_ZNODE = "Unable to delete Znode: ";
+    private static final String MSG_ZNODE_CHANGED_BY_OTHERS = "Znode is changed by others, not deleted: ";
     private static final String HOSTNAME_PATTERN = "^([a-zA-Z0-9]|[a-zA-Z0-9][a-zA-Z0-9\\-]*[a-zA-Z0-9])(\\.([a-zA-Z0-9]|[a-zA-Z0-9][a-zA-Z0-9\\-]*[a-zA-Z0-9]))*$";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperManager.class);
 
+    /**
+     * Compare the znode names by their sequence, i.e. the last SEQUENCE_LENGTH
+     * characters, in place without any substring
+     */
+    private static final Comparator<String> SEQUENCE_COMPARATOR = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            int length1 = Math.min(o1.length(), ZkLockConstant.SEQUENCE_LENGTH);
+            int length2 = Math.min(o2.length(), ZkLockConstant.SEQUENCE_LENGTH);
+            int offset1 = o1.length() - length1;
+            int offset2 = o2.length() - length2;
+            int length = Math.min(length1, length2);
+            for (int i = 0; i < length; i++) {
+                int diff = o1.charAt(offset1 + i) - o2.charAt(offset2 + i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length1 - length2;
+        }
+    };
+
     @Value("#{zkProperties['hostPort']}")
     private String hostPort;
     @Value("#{zkProperties['sessionTimeout']}")
@@ -79,11 +124,54 @@ public class ZooKeeperManager implements DistributedLockManager {
     private int clientConnectCount;
     @Value("#{zkProperties['adminAuth']}")
     private String adminAuth;
+    /**
+     * Max times in a row a held znode is handed over to a local waiter before it
+     * is released to the other nodes, 0 turns the lock cohorting off
+     */
+    @Value("#{zkProperties['cohortMaxHandoffs'] ?: 0}")
+    private int cohortMaxHandoffs;
+    /**
+     * Number of ZK sessions sharing the lock traffic, the lock paths are routed to
+     * them by consistent hashing
+     */
+    @Value("#{zkProperties['sessionCount'] ?: 1}")
+    private int sessionCount = 1;
+    /**
+     * The first and the max delay in milliseconds between the failed attempts to
+     * recover a broken session, the delay doubles after each failure
+     */
+    @Value("#{zkProperties['reconnectBackoffBase'] ?: 100}")
+    private long reconnectBackoffBase = 100;
+    @Value("#{zkProperties['reconnectBackoffMax'] ?: 10000}")
+    private long reconnectBackoffMax = 10000;
+    /**
+     * Milliseconds a released lock path is left idle before it is deleted, 0
+     * keeps the lock paths forever
+     */
+    @Value("#{zkProperties['lockPathReapInterval'] ?: 60000}")
+    private long lockPathReapInterval = 60000;
+    /**
+     * Read the holder of a lock after a sync() when a fencing token is validated,
+     * so a holder already replaced on the leader is not seen as valid by a
+     * lagging server
+     */
+    @Value("#{zkProperties['linearizableTokenValidation'] ?: false}")
+    private boolean linearizableTokenValidation;
 
-    private long interval;
+    /**
+     * The primary session, which also keeps the root nodes, the configuration and
+     * the registrations. It is replaced by the recovery thread when the session
+     * is rebuilt.
+     */
+    private volatile ZooKeeper zk;
 
-    private ZooKeeper zk;
-    private List<ACL> acls;
+    /**
+     * The extra sessions when sessionCount > 1, the primary session is the shard 0
+     * so the first element is always null
+     */
+    private ZkSessionShard[] shards;
+    private ZkSessionRouter router;
+    private volatile List<ACL> acls;
 
     private String ipAddress;
     /**
@@ -93,92 +181,286 @@ public class ZooKeeperManager implements DistributedLockManager {
     private boolean debug = false;
 
     /**
-     * A unique uuid for current thread to protect lock() and unlock()
+     * A unique id of this manager, which identifies the znodes of its threads
+     * together with their thread ids, see {@link ZkLockOwner}
      */
-    private ThreadLocal<byte[]> threadUuidBytesHolder = new ThreadLocal<>();
-    private ThreadLocal<Integer> lockMode = new ThreadLocal<>();
-    private ThreadLocal<Long> startTime = new ThreadLocal<>();
-    private ThreadLocal<AtomicLong> timeToWait = new ThreadLocal<>();
+    private final String instanceId = UUID.randomUUID().toString();
+
+    /**
+     * Number of the lockAsync() calls, which tells the znode prefixes of the
+     * calls of a thread apart
+     */
+    private final AtomicLong asyncCalls = new AtomicLong();
+
+
+    /**
+     * The lock paths of the recently used ids of each lock level
+     */
+    private volatile ZkLockPathCache globalLockPaths;
+    private volatile ZkLockPathCache serverLockPaths;
+    private volatile ZkLockPathCache appLockPaths;
+
+    /**
+     * The sequential znode held by this JVM for each lock path
+     */
+    private final ConcurrentMap<String, ZkLockHolder> holders = new ConcurrentHashMap<>();
+
+    /**
+     * The read znodes held by the threads of this JVM, keyed by the lock path and
+     * the read znode prefix of the thread
+     */
+    private final ConcurrentMap<String, ZkLockHolder> readHolders = new ConcurrentHashMap<>();
+
+    /**
+     * The local threads contending for each lock path when cohorting is on
+     */
+    private final ConcurrentMap<String, ZkLockCohort> cohorts = new ConcurrentHashMap<>();
+
+    /**
+     * Latches of the threads waiting for a watch of the primary session, they are
+     * all released when the ZK client is rebuilt because the watches are lost
+     * with it
+     */
+    private final Set<CountDownLatch> waitingLatches = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * The watches on the predecessor znodes shared by the waiters of the primary
+     * session
+     */
+    private final ZkWatchRegistry watchRegistry = new ZkWatchRegistry();
+
+    /**
+     * Timer of the lockAsync() timeouts and of the lock path reaping, its thread
+     * is started by the first scheduled task only
+     */
+    private final ScheduledThreadPoolExecutor asyncTimer;
+
+    /**
+     * Deletes the lock paths left idle
+     */
+    private final ZkLockPathReaper lockPathReaper = new ZkLockPathReaper(this);
+    private ScheduledFuture<?> lockPathReaping;
+
+    /**
+     * Thread of the session recoveries, the callers never rebuild a session
+     * themselves
+     */
+    private final ScheduledThreadPoolExecutor recoveryExecutor;
+
+    /**
+     * Recovery of the primary session
+     */
+    private final ZkSessionRecovery recovery;
+
+    /**
+     * Round trip times and reconnects are recorded into it, null if the metrics
+     * are not enabled
+     */
+    private DistributedLockMetrics metrics;
 
     public ZooKeeperManager() {
         super();
-        String envInteval = System.getenv(ZkLockConstant.ENV_DISTRIBUTED_LOCK_THREAD_INTERVAL);
-        if (StringUtils.isEmpty(envInteval)) {
-            this.interval = 500l;
-        } else {
-            try {
-                this.interval = Long.parseLong(envInteval);
-            } catch (Exception e) {
-                sysoutOrLog("Invalid environment variable " + ZkLockConstant.ENV_DISTRIBUTED_LOCK_THREAD_INTERVAL + ": "
-                        + envInteval);
-                this.interval = 500l;
+        this.recoveryExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "distributed-lock-zk-recovery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.recovery = new ZkSessionRecovery(this, "primary", new ZkSessionRecovery.Session() {
+            @Override
+            public ZooKeeper getZk() {
+                return zk;
+            }
+
+            @Override
+            public void rebuild() throws ZkServerConnectionException {
+                init();
+            }
+        });
+        this.asyncTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "distributed-lock-async-timer");
+                thread.setDaemon(true);
+                return thread;
             }
+        });
+        this.asyncTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Create an EPHEMERAL_SEQUENTIAL (or PERSISTENT_SEQUENTIAL for mode 1) znode
+     * under the lock path. The node name carries the owner uuid so that the node
+     * can be found again if the connection is lost before the create returns.
+     * 
+     * @return the path of the created znode
+     */
+    private String doCreateZnode(String path, ZkLockOwner owner, String znodePrefix, CreateMode mode)
+            throws KeeperException, InterruptedException {
+        String createPath = ZkLockOwner.getCreatePath(path, znodePrefix);
+        try {
+            return ZkBlockingCalls.create(getZk(path), createPath, owner.getUuidBytes(), ZkLockConstant.GLOBAL_ACL,
+                    mode);
+        } catch (KeeperException.NoNodeException e) {
+            createLockPathIfNotExist(path);
+            return ZkBlockingCalls.create(getZk(path), createPath, owner.getUuidBytes(), ZkLockConstant.GLOBAL_ACL,
+                    mode);
         }
     }
 
-    private String doCreateZnode(Lock lock, String path, CreateMode mode) throws KeeperException, InterruptedException {
-        this.initThreadUuidBytes();
+    void createLockPathIfNotExist(String path) throws KeeperException, InterruptedException {
+        try {
+            getZk(path).create(path, getClassNameBytes(), ZkLockConstant.GLOBAL_ACL, CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException e) {
+            // another client created it in the meantime
+        }
+    }
 
-        synchronized (lock) {
-            return zk.create(path, threadUuidBytesHolder.get(), ZkLockConstant.GLOBAL_ACL, mode);
+    /**
+     * A persistent znode is deleted at once, any other one only by its owner. The
+     * znodes of this thread are known by their holders and never changed after
+     * they are created, so the owner is checked locally and the znode deleted
+     * at its created version in one round trip, a znode changed or created
+     * again by others in between is not deleted.
+     */
+    private boolean doDeleteZnode(String path, Integer mode) throws InterruptedException, KeeperException {
+        if (isPersistentLockMode(mode)) {
+            this.zk.delete(path, -1);
+            return true;
+        }
+        String lockPath = path.substring(0, path.lastIndexOf(ZkLockConstant.SLASH));
+        ZkLockHolder holder = this.holders.get(lockPath);
+        if (holder == null || !holder.isOwnedBy(ZkThreads.currentThreadId()) || !path.equals(holder.getZnodePath())) {
+            return false;
         }
+        try {
+            getZk(lockPath).delete(path, ZkLockConstant.CREATED_ZNODE_VERSION);
+        } catch (KeeperException.BadVersionException e) {
+            printOrLogWarn(MSG_ZNODE_CHANGED_BY_OTHERS + path, e);
+            return false;
+        }
+        return true;
     }
 
-    private boolean doDeleteZnode(String path) throws InterruptedException, KeeperException {
-        boolean success = false;
-        byte[] lockUuidBytes = null;
+    /**
+     * The lock mode of the unlock call, a lock without mode is released in the
+     * same way as a persistent one
+     */
+    private static boolean isPersistentLockMode(Integer mode) {
+        return !isNotPersistentLockMode(mode);
+    }
+
+    private static boolean isNotPersistentLockMode(Integer mode) {
+        return mode != null && mode.intValue() != 1;
+    }
+
+    /**
+     * Watch the predecessor znode only and wait until it is deleted, the timeout
+     * expires or the ZK client is rebuilt. Only the direct successor is woken up
+     * by a release, so there is no herd effect.
+     */
+    private void waitForPredecessor(String path, String predecessorName, long timeout, long deadline)
+            throws KeeperException, InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
         try {
-            lockUuidBytes = this.getData(path);
-        } catch (ZkServerConnectionException e) {
-            printOrLogError(MSG_UNABLE_TO_DELETE_ZNODE + path, e);
+            watchZnode(path, predecessorName, latch);
+            awaitLatch(latch, timeout, deadline);
+        } finally {
+            unwatchZnode(path, predecessorName, latch);
         }
-        if (isPersistentLockMode() || (isNotPersistentLockMode() && isLockOwnedByThisThread(lockUuidBytes))) {
-            zk.delete(path, -1);
-            success = true;
+    }
+
+    /**
+     * Count down the latch when the znode under the lock path is changed or
+     * deleted, or right away if it does not exist. The local waiters of the same
+     * znode share one watch of the session serving the lock path.
+     */
+    void watchZnode(String path, String znodeName, CountDownLatch latch)
+            throws KeeperException, InterruptedException {
+        getWatchRegistry(path).join(getZk(path), path + ZkLockConstant.SLASH + znodeName, latch);
+    }
+
+    void unwatchZnode(String path, String znodeName, CountDownLatch latch) {
+        getWatchRegistry(path).leave(path + ZkLockConstant.SLASH + znodeName, latch);
+    }
+
+    ZkWatchRegistry getWatchRegistry(String path) {
+        ZkSessionShard shard = getShard(path);
+        return shard == null ? this.watchRegistry : shard.getWatchRegistry();
+    }
+
+    /**
+     * @return a latch which is also released when the session of the lock path
+     *         is rebuilt, it must be removed by
+     *         {@link #removeWaitingLatch(CountDownLatch)}
+     */
+    CountDownLatch newWaitingLatch(String path) {
+        CountDownLatch latch = new CountDownLatch(1);
+        ZkSessionShard shard = getShard(path);
+        if (shard == null) {
+            this.waitingLatches.add(latch);
+        } else {
+            shard.addWaitingLatch(latch);
         }
-        return success;
+        return latch;
     }
 
-    private boolean isPersistentLockMode() {
-        return !isNotPersistentLockMode();
+    void removeWaitingLatch(CountDownLatch latch) {
+        if (!this.waitingLatches.remove(latch) && this.shards != null) {
+            for (int i = 1; i < this.shards.length; i++) {
+                this.shards[i].removeWaitingLatch(latch);
+            }
+        }
     }
 
-    private boolean isNotPersistentLockMode() {
-        return this.lockMode.get() != null && this.lockMode.get().intValue() != 1;
+    static Watcher newLatchWatcher(CountDownLatch latch) {
+        return new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                latch.countDown();
+            }
+        };
     }
 
-    private boolean existZnodeOrLeaveWatcher(Lock lock, String path) throws ZkServerConnectionException {
-        Stat stat = null;
-        try {
-            stat = zk.exists(path, new Watcher() {
-                @Override
-                public void process(WatchedEvent event) {
-                    if (event.getType() == EventType.NodeDeleted) {
-                        synchronized (lock) {
-                            lock.notifyAll();
-                        }
-                    } else {
-                        try {
-                            zk.exists(path, true);
-                        } catch (KeeperException | InterruptedException e) {
-                            try {
-                                handleException(path, e);
-                            } catch (ZkServerConnectionException e1) {
-                                printOrLogError(path + COMMER + e1.getLocalizedMessage(), e1);
-                            }
-                        }
-                    }
-                }
-            });
-        } catch (KeeperException | InterruptedException e) {
-            handleException(path, e);
+    /**
+     * Wait until the latch is released or the deadline, forever if timeout < 0
+     */
+    static void awaitLatch(CountDownLatch latch, long timeout, long deadline) throws InterruptedException {
+        if (timeout < 0) {
+            latch.await();
+        } else {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining > 0) {
+                latch.await(remaining, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void wakeUpWaiters() {
+        for (CountDownLatch latch : this.waitingLatches) {
+            latch.countDown();
         }
-        return stat != null;
+        this.watchRegistry.fireAll();
     }
 
-    private void handleException(String path, Exception e) throws ZkServerConnectionException {
+    void handleException(String path, Exception e) throws ZkServerConnectionException {
+        handleException(path, e, getRecoveryWaitTime());
+    }
+
+    /**
+     * Handle the exception of a call with its own deadline, a broken session is
+     * waited for until the deadline only, or not at all if timeout == 0
+     */
+    void handleException(String path, Exception e, long timeout, long deadline) throws ZkServerConnectionException {
+        long waitTime = timeout < 0 ? getRecoveryWaitTime() : Math.max(deadline - System.currentTimeMillis(), 0);
+        handleException(path, e, waitTime);
+    }
+
+    private void handleException(String path, Exception e, long waitTime) throws ZkServerConnectionException {
         if (e instanceof KeeperException) {
-            handleKeeperException(path, e);
+            handleKeeperException(path, e, waitTime);
         } else if (e instanceof InterruptedException) {
             printOrLogError(MSG_UNEXPECTED_EXCEPTION, e);
             Thread.currentThread().interrupt();
@@ -204,17 +486,11 @@ public class ZooKeeperManager implements DistributedLockManager {
         }
     }
 
-    private void handleKeeperException(String path, Exception e) throws ZkServerConnectionException {
+    private void handleKeeperException(String path, Exception e, long waitTime) throws ZkServerConnectionException {
         KeeperException ke = (KeeperException) e;
         if (isConnectionOrSessionIssue(ke)) {
             printOrLog(MSG_ZOO_KEEPER_CONNECTION_SESSION_IS_BROKEN, MSG_TRYING_TO_RECONNECT_TO_ZOO_KEEPER_SERVER, ke);
-            int retry = 0;
-            synchronized (this) {
-                while (retry < this.clientConnectCount && this.zk.getState() != States.CONNECTED) {
-                    this.init();
-                    retry++;
-                }
-            }
+            awaitRecovered(path, waitTime);
         } else if (isNoNodeIssue(ke)) {
             try {
                 syserrOrLog(MSG_ZK_MAY_BE_HACKED);
@@ -233,6 +509,45 @@ public class ZooKeeperManager implements DistributedLockManager {
         }
     }
 
+    /**
+     * Recover the session of the path and the primary one if they are broken,
+     * and wait for them up to the wait time
+     */
+    private void awaitRecovered(String path, long waitTime) {
+        long deadline = System.currentTimeMillis() + waitTime;
+        ZkSessionShard shard = getShard(path);
+        try {
+            if (shard != null) {
+                shard.getRecovery().recover();
+                shard.getRecovery().awaitRecovered(waitTime);
+            }
+            this.recovery.recover();
+            this.recovery.awaitRecovered(Math.max(deadline - System.currentTimeMillis(), 0));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start recovering the session of the path without waiting for it, e.g. for
+     * a failed lockAsync()
+     */
+    void requestRecovery(String path) {
+        ZkSessionShard shard = getShard(path);
+        if (shard != null) {
+            shard.getRecovery().recover();
+        }
+        this.recovery.recover();
+    }
+
+    /**
+     * A call without its own deadline waits for a broken session as long as the
+     * clientConnectCount attempts to connect it
+     */
+    private long getRecoveryWaitTime() {
+        return Math.max(this.clientConnectCount, 1) * ZkSessionRecovery.CONNECT_TIMEOUT;
+    }
+
     private void createZnodeAndRegister(String path)
             throws ZkServerConnectionException, KeeperException, InterruptedException {
         if (path.startsWith(getServerLockRootPath())) {
@@ -246,15 +561,26 @@ public class ZooKeeperManager implements DistributedLockManager {
         }
     }
 
-    private void initThreadUuidBytes() {
-        if (this.threadUuidBytesHolder.get() == null) {
-            UUID uuid = UUID.randomUUID();
-            this.threadUuidBytesHolder.set(uuid.toString().getBytes());
-        }
+    /**
+     * @return the identity of current thread in the znodes, built for each call
+     */
+    ZkLockOwner currentOwner() {
+        return ZkLockOwner.current(this.instanceId);
+    }
+
+    /**
+     * @return the number of a new lockAsync() call
+     */
+    long nextAsyncCall() {
+        return this.asyncCalls.incrementAndGet();
     }
 
     /**
-     * This is the core lock method
+     * This is the core lock method. Each caller queues an EPHEMERAL_SEQUENTIAL
+     * znode under the lock path and the lowest one holds the lock. A waiter only
+     * watches the znode just ahead of it, so one release wakes up exactly one
+     * waiter without any polling. The owner thread can reenter the lock without
+     * any ZK round trip.
      * 
      * @param lock
      * @param path
@@ -263,65 +589,465 @@ public class ZooKeeperManager implements DistributedLockManager {
      * @throws ZkServerConnectionException
      */
     private boolean lock(Lock lock, String path, long timeout) throws ZkServerConnectionException {
-        String result = null;
-        this.startTime.set(Long.valueOf(System.currentTimeMillis()));
-        this.timeToWait.set(new AtomicLong(timeout));
+        if (reenter(path)) {
+            return true;
+        }
+        ZkLockOwner owner = currentOwner();
+        if (isReadLockedByCurrentThread(path, owner)) {
+            return false; // upgrading a read lock would wait for itself
+        }
+        if (isCohortEnabled(lock)) {
+            return cohortLock(lock, path, owner, timeout);
+        }
+        String znodePath = acquireZnode(lock, path, owner, owner.getLockZnodePrefix(), timeout);
+        if (znodePath == null) {
+            return false;
+        }
+        this.holders.put(path, new ZkLockHolder(ZkThreads.currentThreadId(), znodePath));
+        return true;
+    }
+
+    /**
+     * @return true if the lock path is reentered by its owner thread, no need to
+     *         touch the znode
+     */
+    private boolean reenter(String path) {
+        ZkLockHolder holder = this.holders.get(path);
+        if (holder != null && holder.isOwnedBy(ZkThreads.currentThreadId())) {
+            holder.increaseHoldCount();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isReadLockedByCurrentThread(String path, ZkLockOwner owner) {
+        return !this.readHolders.isEmpty() && this.readHolders.containsKey(getReadHolderKey(path, owner));
+    }
+
+    /**
+     * Only the local lock owner competes for the znode, so the other threads of
+     * this JVM do not create znodes at all. A znode kept by the previous local
+     * owner is taken over without any ZK round trip.
+     */
+    private boolean cohortLock(Lock lock, String path, ZkLockOwner owner, long timeout)
+            throws ZkServerConnectionException {
+        long deadline = System.currentTimeMillis() + timeout;
+        ZkLockCohort cohort = joinCohort(path);
+        boolean locallyLocked = false;
+        boolean success = false;
+        try {
+            locallyLocked = cohort.lockLocally(timeout);
+            if (!locallyLocked) {
+                return false;
+            }
+            String znodePath = cohort.takeOver(getZk(path).getSessionId());
+            if (znodePath == null) {
+                long remaining = timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 0) : timeout;
+                znodePath = acquireZnode(lock, path, owner, owner.getLockZnodePrefix(), remaining);
+                if (znodePath == null) {
+                    return false;
+                }
+            }
+            this.holders.put(path, new ZkLockHolder(ZkThreads.currentThreadId(), znodePath));
+            success = true;
+        } catch (InterruptedException e) {
+            handleException(path, e);
+        } finally {
+            if (!success) {
+                if (locallyLocked) {
+                    cohort.unlockLocally();
+                }
+                leaveCohort(path, cohort);
+            }
+        }
+        return success;
+    }
+
+    private boolean isCohortEnabled(Lock lock) {
+        return this.cohortMaxHandoffs > 0 && determinMode(lock.mode()) == CreateMode.EPHEMERAL_SEQUENTIAL;
+    }
+
+    private ZkLockCohort joinCohort(String path) {
+        return this.cohorts.compute(path, (key, cohort) -> {
+            ZkLockCohort joined = cohort == null ? new ZkLockCohort() : cohort;
+            joined.join();
+            return joined;
+        });
+    }
+
+    /**
+     * The last thread leaving the cohort deletes the znode kept for a local
+     * waiter which has given up in the meantime
+     */
+    private void leaveCohort(String path, ZkLockCohort cohort) throws ZkServerConnectionException {
+        this.cohorts.computeIfPresent(path, (key, joined) -> joined.leave() ? null : joined);
+        if (cohort.isDeserted()) {
+            String znodePath = cohort.takeOverAbandoned();
+            if (znodePath != null) {
+                deleteZnodeQuietly(path, null, znodePath.substring(path.length() + 1), false, 0,
+                        System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Hand the znode over to the next local waiter, or delete it if there is no
+     * waiter or the max handoffs is reached. A znode whose zxid is given out as a
+     * fencing token is always deleted, the next holder gets a new znode and a
+     * greater token.
+     */
+    private boolean cohortUnlock(String path, ZkLockCohort cohort, ZkLockHolder holder)
+            throws ZkServerConnectionException {
+        try {
+            if (!holder.isFenced() && cohort.handOver(holder.getZnodePath(), getZk(path).getSessionId(), this.cohortMaxHandoffs)) {
+                return true;
+            }
+            return deleteZnode(path, holder.getZnodePath());
+        } finally {
+            cohort.unlockLocally();
+            leaveCohort(path, cohort);
+        }
+    }
+
+    /**
+     * A read znode only waits for the nearest write znode ahead of it, while a
+     * write znode waits for any znode ahead of it.
+     * 
+     * @return the path of the znode holding the lock, or null if the lock is not
+     *         obtained before timeout
+     */
+    private String acquireZnode(Lock lock, String path, ZkLockOwner owner, String znodePrefix, long timeout)
+            throws ZkServerConnectionException {
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean shared = isReadZnode(znodePrefix);
+        String znodePath = null;
+        String znodeName = null;
+        boolean createUnconfirmed = false;
+        int failures = 0;
+        Object event = ZkFlightRecorder.beginAcquire();
+        int attempts = 0;
+        String outcome = ZkFlightRecorder.FAILED;
+        try {
+            while (true) {
+                attempts++;
+                try {
+                    List<String> children = null;
+                    if (znodeName == null && createUnconfirmed) {
+                        children = getSortedChildren(path);
+                        // the previous create may have succeeded before the connection is lost
+                        znodeName = findZnode(children, znodePrefix);
+                        znodePath = znodeName == null ? null : path + ZkLockConstant.SLASH + znodeName;
+                    }
+                    if (znodeName == null) {
+                        createUnconfirmed = true;
+                        znodePath = doCreateZnode(path, owner, znodePrefix, determinMode(lock.mode()));
+                        znodeName = znodePath.substring(path.length() + 1);
+                        createUnconfirmed = false;
+                        children = null;
+                    }
+                    if (children == null || !children.contains(znodeName)) {
+                        children = getSortedChildren(path);
+                    }
+                    int index = children.indexOf(znodeName);
+                    if (index < 0) { // our znode is gone with the expired session
+                        znodeName = null;
+                        continue;
+                    }
+                    String blocker = findBlocker(children, index, shared);
+                    if (blocker == null) {
+                        outcome = ZkFlightRecorder.ACQUIRED;
+                        return znodePath;
+                    } else if (isTimeout(timeout, deadline)) {
+                        outcome = timeout == 0 ? ZkFlightRecorder.HELD_BY_OTHERS : ZkFlightRecorder.TIMEOUT;
+                        break;
+                    } else {
+                        waitForPredecessor(path, blocker, timeout, deadline);
+                    }
+                } catch (KeeperException e) {
+                    handleException(path, e, timeout, deadline);
+                    // always give it one more try after the exception is handled, e.g. the session is rebuilt
+                    if (++failures > 1 && isTimeout(timeout, deadline)) {
+                        outcome = ZkFlightRecorder.TIMEOUT;
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    handleException(path, e);
+                    outcome = ZkFlightRecorder.INTERRUPTED;
+                    break;
+                }
+            }
+            deleteZnodeQuietly(path, znodePrefix, znodeName, createUnconfirmed, timeout, deadline);
+            return null;
+        } finally {
+            ZkFlightRecorder.endAcquire(event, lock.id(), String.valueOf(lock.level()), shared, attempts, outcome);
+        }
+    }
+
+    static boolean isTimeout(long timeout, long deadline) {
+        return timeout == 0 || (timeout > 0 && System.currentTimeMillis() >= deadline);
+    }
+
+    /**
+     * Give up the queued znode when the lock is not obtained, a broken session is
+     * waited for until the deadline of the call only. A znode left behind goes
+     * with the session when it is recovered.
+     */
+    private void deleteZnodeQuietly(String path, String znodePrefix, String znodeName, boolean createUnconfirmed,
+            long timeout, long deadline) throws ZkServerConnectionException {
+        try {
+            if (znodeName == null && createUnconfirmed) {
+                znodeName = findZnode(getSortedChildren(path), znodePrefix);
+            }
+            if (znodeName != null) {
+                ZkBlockingCalls.delete(getZk(path), path + ZkLockConstant.SLASH + znodeName, ZkLockConstant.CREATED_ZNODE_VERSION);
+            }
+        } catch (KeeperException.NoNodeException e) {
+            // already gone
+        } catch (KeeperException | InterruptedException e) {
+            handleException(path, e, timeout, deadline);
+        }
+    }
+
+    /**
+     * @return the children of the lock path sorted by their sequence number, an
+     *         empty list if the lock path does not exist yet
+     */
+    private List<String> getSortedChildren(String path) throws KeeperException, InterruptedException {
+        List<String> children;
+        try {
+            children = ZkBlockingCalls.getChildren(getZk(path), path);
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        }
+        sortBySequence(children);
+        return children;
+    }
+
+    static void sortBySequence(List<String> children) {
+        Collections.sort(children, SEQUENCE_COMPARATOR);
+    }
+
+    static String getSequence(String znodeName) {
+        int length = znodeName.length();
+        return length > ZkLockConstant.SEQUENCE_LENGTH
+                ? znodeName.substring(length - ZkLockConstant.SEQUENCE_LENGTH)
+                : znodeName;
+    }
+
+    static String findZnode(List<String> children, String znodePrefix) {
+        for (String child : children) {
+            if (child.startsWith(znodePrefix)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the znode a znode at the given index has to wait for, or null if it
+     *         holds the lock
+     */
+    static String findBlocker(List<String> children, int index, boolean shared) {
+        if (!shared) {
+            return index > 0 ? children.get(index - 1) : null;
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            if (!isReadZnode(children.get(i))) {
+                return children.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isReadZnode(String znodeName) {
+        return znodeName.startsWith(ZkLockConstant.READ_ZNODE_PREFIX);
+    }
+
+    private static String getReadHolderKey(String path, ZkLockOwner owner) {
+        return path + ZkLockConstant.SLASH + owner.getReadZnodePrefix();
+    }
+
+    /**
+     * Obtain a read lock, which is shared with the other readers
+     */
+    private boolean readLock(Lock lock, String path, long timeout) throws ZkServerConnectionException {
+        ZkLockOwner owner = currentOwner();
+        String key = getReadHolderKey(path, owner);
+        ZkLockHolder readHolder = this.readHolders.get(key);
+        if (readHolder != null) {
+            readHolder.increaseHoldCount();
+            return true;
+        }
+        String znodePath;
+        ZkLockHolder writeHolder = this.holders.get(path);
+        if (writeHolder != null && writeHolder.isOwnedBy(ZkThreads.currentThreadId())) {
+            znodePath = createReadZnodeBeside(lock, path, owner, writeHolder.getZnodePath(), false);
+        } else {
+            znodePath = acquireZnode(lock, path, owner, owner.getReadZnodePrefix(), timeout);
+        }
+        if (znodePath == null) {
+            return false;
+        }
+        this.readHolders.put(key, new ZkLockHolder(ZkThreads.currentThreadId(), znodePath));
+        return true;
+    }
+
+    /**
+     * Create a read znode with the same sequence as the write znode held by
+     * current thread, so that it is ahead of all the waiters queued after the
+     * write znode. The write znode is deleted in the same transaction for a
+     * downgrade.
+     * 
+     * @return the path of the read znode, or null if it fails
+     */
+    private String createReadZnodeBeside(Lock lock, String path, ZkLockOwner owner, String writeZnodePath,
+            boolean deleteWriteZnode) throws ZkServerConnectionException {
+        String znodePath = path + ZkLockConstant.SLASH + owner.getReadZnodePrefix()
+                + getSequence(writeZnodePath.substring(path.length() + 1));
+        CreateMode mode = determinMode(lock.mode()) == CreateMode.PERSISTENT_SEQUENTIAL ? CreateMode.PERSISTENT
+                : CreateMode.EPHEMERAL;
+        List<Op> ops = new ArrayList<>(2);
+        ops.add(Op.create(znodePath, owner.getUuidBytes(), ZkLockConstant.GLOBAL_ACL, mode));
+        if (deleteWriteZnode) {
+            ops.add(Op.delete(writeZnodePath, ZkLockConstant.CREATED_ZNODE_VERSION));
+        }
+        try {
+            getZk(path).multi(ops);
+            return znodePath;
+        } catch (KeeperException | InterruptedException e) {
+            handleException(path, e);
+        }
+        return null;
+    }
+
+    private boolean readUnlockByPath(String path) throws ZkServerConnectionException {
+        String key = getReadHolderKey(path, currentOwner());
+        ZkLockHolder holder = this.readHolders.get(key);
+        if (holder == null) {
+            return false;
+        } else if (holder.decreaseHoldCount() > 0) {
+            return true;
+        }
+        this.readHolders.remove(key, holder);
+        holder.released();
+        return deleteZnode(path, holder.getZnodePath());
+    }
+
+    @Override
+    public boolean downgradeWriteLock(Lock lock) throws ZkServerConnectionException {
+        String path = getLockPath(lock);
+        ZkLockHolder holder = this.holders.get(path);
+        if (holder == null || !holder.isOwnedBy(ZkThreads.currentThreadId()) || holder.getHoldCount() > 1) {
+            return false;
+        }
+        ZkLockOwner owner = currentOwner();
+        String key = getReadHolderKey(path, owner);
+        ZkLockHolder readHolder = this.readHolders.get(key);
+        if (readHolder != null) { // the read lock is held already, just release the write lock
+            readHolder.increaseHoldCount();
+            return unlockByPath(path);
+        }
+        String znodePath = createReadZnodeBeside(lock, path, owner, holder.getZnodePath(), true);
+        if (znodePath == null) {
+            return false;
+        }
+        this.holders.remove(path, holder);
+        holder.released();
+        this.readHolders.put(key, new ZkLockHolder(ZkThreads.currentThreadId(), znodePath));
+        ZkLockCohort cohort = this.cohorts.get(path);
+        if (cohort != null && cohort.isLockedByCurrentThread()) {
+            cohort.unlockLocally(); // the write znode is gone, nothing to hand over
+            leaveCohort(path, cohort);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean tryReadLock(Lock lock) throws ZkServerConnectionException {
+        return readLock(lock, getLockPath(lock), 0);
+    }
+
+    @Override
+    public boolean readLock(Lock lock, long timeout) throws ZkServerConnectionException {
+        return readLock(lock, getLockPath(lock), timeout);
+    }
+
+    @Override
+    public boolean readUnlock(Lock lock) throws ZkServerConnectionException {
+        return readUnlockByPath(getLockPath(lock));
+    }
+
+    private boolean unlockByPath(String path) throws ZkServerConnectionException {
+        return unlockByPath(path, null);
+    }
+
+    private boolean unlockByPath(String path, Integer mode) throws ZkServerConnectionException {
+        ZkLockHolder holder = this.holders.get(path);
+        if (holder != null && holder.isOwnedBy(ZkThreads.currentThreadId())) {
+            if (holder.decreaseHoldCount() > 0) {
+                return true;
+            }
+            this.holders.remove(path, holder);
+            holder.released();
+            ZkLockCohort cohort = this.cohorts.get(path);
+            if (cohort != null && cohort.isLockedByCurrentThread()) {
+                return cohortUnlock(path, cohort, holder);
+            }
+            return deleteZnode(path, holder.getZnodePath());
+        } else if (isPersistentLockMode(mode)) {
+            return deleteHoldingZnode(path);
+        }
+        return false;
+    }
+
+    /**
+     * Release a znode held by this JVM in one round trip
+     */
+    private boolean deleteZnode(String path, String znodePath) throws ZkServerConnectionException {
+        boolean success = false;
+        try {
+            ZkBlockingCalls.delete(getZk(path), znodePath, ZkLockConstant.CREATED_ZNODE_VERSION);
+            this.lockPathReaper.released(path);
+            success = true;
+        } catch (KeeperException.BadVersionException e) {
+            printOrLogWarn(MSG_ZNODE_CHANGED_BY_OTHERS + znodePath, e);
+        } catch (KeeperException | InterruptedException e) {
+            handleException(path, e);
+        }
+        return success;
+    }
+
+    /**
+     * Release the lock path no matter who is holding it, e.g. a persistent lock
+     * obtained by another process
+     */
+    private boolean deleteHoldingZnode(String path) throws ZkServerConnectionException {
+        boolean success = false;
         try {
-            result = doCreateZnode(lock, path, determinMode(lock.mode()));
+            List<String> children = getSortedChildren(path);
+            if (!children.isEmpty()) {
+                String znodePath = path + ZkLockConstant.SLASH + children.get(0);
+                ZkBlockingCalls.delete(getZk(path), znodePath, -1);
+                removeHolder(path, znodePath);
+                this.lockPathReaper.released(path);
+                success = true;
+            }
         } catch (KeeperException | InterruptedException e) {
             handleException(path, e);
-
-            if (timeout == 0) { // no timeout then return immediately
-                return false;
-            } else {
-                result = waitAndGetZnode(lock, path, timeout);
-            }
-        } finally {
-            this.timeToWait.remove();
-            this.startTime.remove();
         }
-        return result != null;
-    }
-
-    private boolean unlockByPath(String path) throws ZkServerConnectionException {
-        return deleteNodeIfExist(path);
+        return success;
     }
 
-    private void wait(Lock lock) throws ZkServerConnectionException {
-        synchronized (lock) {
-            try {
-                lock.wait(interval);
-            } catch (InterruptedException e) {
-                handleException("_wait", e);
-            } finally {
-                long timePassed = System.currentTimeMillis() - this.startTime.get();
-                this.timeToWait.get().addAndGet(Math.negateExact(timePassed)); // timeToWait = timeToWait - timePassed
-            }
-        }
+    void registerHolder(String path, ZkLockHolder holder) {
+        this.holders.put(path, holder);
     }
 
-    private String waitAndGetZnode(Lock lock, String path, long timeout) throws ZkServerConnectionException {
-        boolean existZnode = existZnodeOrLeaveWatcher(lock, path);
-        String znodePath = null;
-        if (timeout > 0) {
-            if (!existZnode) {
-                znodePath = createZnode(lock, path); // try to create it since it does not exist
-            }
-            if (znodePath == null) { // maybe another guy get the lock by this gap...
-                while (this.timeToWait.get().longValue() >= 0 && znodePath == null) {
-                    wait(lock);
-                    znodePath = createZnode(lock, path); // give the girl up if you still can't create it
-                }
-            }
-        } else { // timeout < 0, wait for the girl forever until you get her
-            while (znodePath == null) {
-                znodePath = createZnode(lock, path);
-                if (znodePath == null) {
-                    wait(lock);
-                }
-            }
+    void removeHolder(String path, String znodePath) {
+        ZkLockHolder holder = this.holders.get(path);
+        if (holder != null && holder.getZnodePath().equals(znodePath)) {
+            this.holders.remove(path, holder);
+            holder.released();
         }
-        return znodePath;
     }
 
     @Override
@@ -353,35 +1079,25 @@ public class ZooKeeperManager implements DistributedLockManager {
         return createdValue != null;
     }
 
-    private String createZnode(Lock lock, String path) throws ZkServerConnectionException {
-        String znodePath = null;
-        try {
-            znodePath = doCreateZnode(lock, path, determinMode(lock.mode()));
-        } catch (KeeperException | InterruptedException e1) {
-            handleException(path, e1);
-        }
-        return znodePath;
-    }
-
     /**
-     * If mode == 1, then return CreateMode.PERSISTENT, else return
-     * CreateMode.EPHEMERAL
+     * If mode == 1, then return CreateMode.PERSISTENT_SEQUENTIAL, else return
+     * CreateMode.EPHEMERAL_SEQUENTIAL
      * 
      * @param mode
      * @return CreateMode
      */
-    private CreateMode determinMode(Integer mode) {
+    CreateMode determinMode(Integer mode) {
         if (mode != null && mode.intValue() == 1) {
-            return CreateMode.PERSISTENT;
+            return CreateMode.PERSISTENT_SEQUENTIAL;
         } else {
-            return CreateMode.EPHEMERAL;
+            return CreateMode.EPHEMERAL_SEQUENTIAL;
         }
     }
 
     protected boolean deleteNodeIfExist(String path) throws ZkServerConnectionException {
         boolean success = false;
         try {
-            success = doDeleteZnode(path);
+            success = doDeleteZnode(path, null);
         } catch (KeeperException | InterruptedException e) {
             handleException(path, e);
         }
@@ -390,16 +1106,23 @@ public class ZooKeeperManager implements DistributedLockManager {
 
     @PreDestroy
     public void destroy() throws ZkServerConnectionException {
+        this.recovery.close();
+        this.recoveryExecutor.shutdownNow();
         if (this.zk != null && this.zk.getState() == States.CONNECTED) {
             try {
+                if (this.shards != null) {
+                    for (int i = 1; i < this.shards.length; i++) {
+                        this.shards[i].close();
+                    }
+                }
                 this.zk.close();
             } catch (InterruptedException e) {
                 handleException("ZooKeeperManager.destry()", e);
             } finally {
-                this.threadUuidBytesHolder.remove();
-                this.lockMode.remove();
-                this.startTime.remove();
-                this.timeToWait.remove();
+                this.holders.clear();
+                this.readHolders.clear();
+                this.cohorts.clear();
+                this.asyncTimer.shutdownNow();
             }
         }
     }
@@ -413,7 +1136,12 @@ public class ZooKeeperManager implements DistributedLockManager {
     }
 
     private String getAppLockPath(String id) {
-        return getAppLockRootPath() + ZkLockConstant.SLASH + id;
+        ZkLockPathCache paths = this.appLockPaths;
+        if (paths == null) {
+            paths = new ZkLockPathCache(getAppLockRootPath());
+            this.appLockPaths = paths;
+        }
+        return paths.getLockPath(id);
     }
 
     private byte[] getClassNameBytes() {
@@ -436,7 +1164,12 @@ public class ZooKeeperManager implements DistributedLockManager {
     }
 
     private String getGlobalLockPath(String id) {
-        return getGlobalLockRootPath() + ZkLockConstant.SLASH + id;
+        ZkLockPathCache paths = this.globalLockPaths;
+        if (paths == null) {
+            paths = new ZkLockPathCache(getGlobalLockRootPath());
+            this.globalLockPaths = paths;
+        }
+        return paths.getLockPath(id);
     }
 
     protected String getGlobalLockRootPath() {
@@ -452,7 +1185,11 @@ public class ZooKeeperManager implements DistributedLockManager {
     }
 
     protected String getServerLockPath(String id) {
-        return getServerLockRootPath() + ZkLockConstant.SLASH + id;
+        ZkLockPathCache paths = this.serverLockPaths;
+        if (paths == null) { // the ip address is not known before init()
+            return getServerLockRootPath() + ZkLockConstant.SLASH + id;
+        }
+        return paths.getLockPath(id);
     }
 
     public int getSessionTimeout() {
@@ -474,6 +1211,25 @@ public class ZooKeeperManager implements DistributedLockManager {
         return this.zk;
     }
 
+    /**
+     * @return the session serving the given lock path
+     */
+    ZooKeeper getZk(String path) {
+        ZkSessionShard shard = getShard(path);
+        return shard == null ? this.zk : shard.getZk();
+    }
+
+    /**
+     * @return the extra session serving the given lock path, or null if it is
+     *         served by the primary session
+     */
+    ZkSessionShard getShard(String path) {
+        if (this.router == null || path == null) {
+            return null;
+        }
+        return this.shards[this.router.route(path)];
+    }
+
     @Override
     public boolean globalLock(Lock lock, long timeout) throws ZkServerConnectionException {
         return lock(lock, getGlobalLockPath(lock.id()), timeout);
@@ -488,13 +1244,14 @@ public class ZooKeeperManager implements DistributedLockManager {
     public void init() throws ZkServerConnectionException {
         try {
             if (this.zk != null) {
+                // kept until it is replaced, the calls meanwhile fail with CONNECTIONLOSS
                 this.zk.close();
-                this.zk = null;
             }
             CountDownLatch connectedLatch = new CountDownLatch(1);
-            this.zk = new ZooKeeper(this.hostPort, this.sessionTimeout, createZkSessionWatcher(connectedLatch));
+            this.zk = new ZkRecordingClient(this, this.hostPort, this.sessionTimeout,
+                    createZkSessionWatcher(connectedLatch));
             if (States.CONNECTING == this.zk.getState()) {
-                boolean zeroCount = connectedLatch.await(10, TimeUnit.SECONDS);
+                boolean zeroCount = connectedLatch.await(ZkSessionRecovery.CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
                 if (!zeroCount && LOGGER != null) {
                     LOGGER.error(MSG_NON_ZERO_COUNT_DOWN_FOR_ZOOKEEPER_CONNECTION_THREAD);
                 } else {
@@ -513,11 +1270,35 @@ public class ZooKeeperManager implements DistributedLockManager {
 
             registerServerAddress();
             registerApp();
+            if (this.shards == null && this.sessionCount > 1) {
+                initShards();
+            }
+            if (this.lockPathReaping == null && this.lockPathReapInterval > 0) {
+                this.lockPathReaping = this.asyncTimer.scheduleWithFixedDelay(this.lockPathReaper::reap,
+                        this.lockPathReapInterval, this.lockPathReapInterval, TimeUnit.MILLISECONDS);
+            }
+
+            // the watches left by the waiters are gone with the old client
+            wakeUpWaiters();
         } catch (IOException | InterruptedException e) {
             handleException("ZooKeeperManager.init()", e);
         }
     }
 
+    /**
+     * The extra sessions are connected once, each of them is rebuilt on its own
+     * afterwards
+     */
+    private void initShards() throws ZkServerConnectionException {
+        ZkSessionShard[] sessions = new ZkSessionShard[this.sessionCount];
+        for (int i = 1; i < sessions.length; i++) {
+            sessions[i] = new ZkSessionShard(this, i, this.hostPort, this.sessionTimeout, this.adminAuth);
+            sessions[i].connect();
+        }
+        this.shards = sessions;
+        this.router = new ZkSessionRouter(this.sessionCount);
+    }
+
     private void initZkAuth() {
         this.zk.addAuthInfo(ZkLockConstant.ZK_SCHEME, this.adminAuth.getBytes());
     }
@@ -528,22 +1309,18 @@ public class ZooKeeperManager implements DistributedLockManager {
             public void process(WatchedEvent event) {
                 if (event.getState() == KeeperState.SyncConnected) {
                     connectedLatch.countDown();
+                    recovery.reconnected();
                 } else if (event.getState() == KeeperState.Expired) {
+                    // never rebuild the session on the event thread
                     syserrOrLog(MSG_ZK_SESSION_EXPIRED_NOW_REBUILDING);
-                    try {
-                        init();
-                        connectedLatch.countDown();
-                        sysoutOrLog(MSG_ZK_REBUILD_SUCCESSFULLY);
-                    } catch (ZkServerConnectionException e) {
-                        printOrLogError(MSG_FAIL_TO_REBUILD_ZK_CLIENT_FOR_EVENT + event.toString(), e);
-                    }
+                    recovery.expired();
                 }
             }
         };
     }
 
     private void initACLs() throws ZkServerConnectionException {
-        this.acls = new ArrayList<>(1);
+        List<ACL> newAcls = new ArrayList<>(1);
 
         Id superUser = null;
         try {
@@ -552,7 +1329,8 @@ public class ZooKeeperManager implements DistributedLockManager {
             throw new ZkServerConnectionException(MSG_FAIL_TO_GENERATE_USER_PASSWORD, e);
         }
         ACL acl = new ACL(ZooDefs.Perms.ALL, superUser);
-        this.acls.add(acl);
+        newAcls.add(acl);
+        this.acls = newAcls;
     }
 
     private void initConfiguration() throws ZkServerConnectionException {
@@ -588,10 +1366,6 @@ public class ZooKeeperManager implements DistributedLockManager {
         createNodeIfNotExist(ZkLockConstant.DISTRIBUTED_LOCK_ROOT, getClassNameBytes());
     }
 
-    private boolean isLockOwnedByThisThread(byte[] lockUuidBytes) {
-        return lockUuidBytes != null && Arrays.equals(lockUuidBytes, this.threadUuidBytesHolder.get());
-    }
-
     @Override
     public boolean lock(Lock lock, long timeout) throws ZkServerConnectionException {
         boolean success = false;
@@ -677,6 +1451,7 @@ public class ZooKeeperManager implements DistributedLockManager {
             this.ipAddress = "127.0.0.1";
             hostName = "Unknown-Host";
         }
+        this.serverLockPaths = new ZkLockPathCache(getServerLockRootPath());
 
         return createNodeIfNotExist(getServerLockRootPath(), hostName.getBytes());
     }
@@ -722,6 +1497,96 @@ public class ZooKeeperManager implements DistributedLockManager {
         this.sessionTimeout = Integer.valueOf(sessionTimeout);
     }
 
+    public void setClientConnectCount(int clientConnectCount) {
+        this.clientConnectCount = clientConnectCount;
+    }
+
+    public void setCohortMaxHandoffs(int cohortMaxHandoffs) {
+        if (cohortMaxHandoffs < 0) {
+            throw new IllegalArgumentException("cohortMaxHandoffs cannot be negative");
+        }
+        this.cohortMaxHandoffs = cohortMaxHandoffs;
+    }
+
+    public int getCohortMaxHandoffs() {
+        return this.cohortMaxHandoffs;
+    }
+
+    public void setSessionCount(int sessionCount) {
+        if (sessionCount < 1) {
+            throw new IllegalArgumentException("sessionCount must be positive");
+        }
+        this.sessionCount = sessionCount;
+    }
+
+    public int getSessionCount() {
+        return this.sessionCount;
+    }
+
+    public void setReconnectBackoffBase(long reconnectBackoffBase) {
+        if (reconnectBackoffBase <= 0) {
+            throw new IllegalArgumentException("reconnectBackoffBase must be positive");
+        }
+        this.reconnectBackoffBase = reconnectBackoffBase;
+    }
+
+    public long getReconnectBackoffBase() {
+        return this.reconnectBackoffBase;
+    }
+
+    public void setReconnectBackoffMax(long reconnectBackoffMax) {
+        if (reconnectBackoffMax <= 0) {
+            throw new IllegalArgumentException("reconnectBackoffMax must be positive");
+        }
+        this.reconnectBackoffMax = reconnectBackoffMax;
+    }
+
+    public long getReconnectBackoffMax() {
+        return this.reconnectBackoffMax;
+    }
+
+    public void setLockPathReapInterval(long lockPathReapInterval) {
+        if (lockPathReapInterval < 0) {
+            throw new IllegalArgumentException("lockPathReapInterval cannot be negative");
+        }
+        this.lockPathReapInterval = lockPathReapInterval;
+    }
+
+    public long getLockPathReapInterval() {
+        return this.lockPathReapInterval;
+    }
+
+    public void setLinearizableTokenValidation(boolean linearizableTokenValidation) {
+        this.linearizableTokenValidation = linearizableTokenValidation;
+    }
+
+    public boolean isLinearizableTokenValidation() {
+        return this.linearizableTokenValidation;
+    }
+
+    ZkLockPathReaper getLockPathReaper() {
+        return this.lockPathReaper;
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(DistributedLockMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public DistributedLockMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * A broken session is rebuilt by the recovery
+     */
+    void recordReconnect() {
+        DistributedLockMetrics current = this.metrics;
+        if (current != null) {
+            current.recordReconnect();
+        }
+    }
+
     @Override
     public boolean tryLock(Lock lock) throws ZkServerConnectionException {
         boolean success = false;
@@ -744,26 +1609,464 @@ public class ZooKeeperManager implements DistributedLockManager {
 
     @Override
     public boolean unlock(Lock lock) throws ZkServerConnectionException {
+        // the lock mode goes with the call, it only matters to a lock held by others
+        return unlockByPath(getLockPath(lock), lock.mode());
+    }
+
+    /**
+     * The fencing token is the creation zxid of the znode holding the lock. The
+     * znodes of a lock path are created one after another, so a later holder
+     * always has a greater token, and it costs one exists() per holding.
+     */
+    @Override
+    public LockHandle lockWithToken(Lock lock, long timeout) throws ZkServerConnectionException {
+        if (!lock(lock, timeout)) {
+            return null;
+        }
+        String path = getLockPath(lock);
+        ZkLockHolder holder = this.holders.get(path);
+        if (!holder.isFenced()) {
+            try {
+                Stat stat = ZkBlockingCalls.exists(getZk(path), holder.getZnodePath(), null);
+                if (stat != null) {
+                    holder.setFencingToken(stat.getCzxid());
+                }
+            } catch (KeeperException | InterruptedException e) {
+                handleException(path, e);
+            }
+            if (!holder.isFenced()) { // the znode is gone with the session, or unknown
+                unlock(lock);
+                return null;
+            }
+        }
+        return new LockHandleImpl(lock, holder.getFencingToken());
+    }
+
+    /**
+     * The token is valid while the znode created with it is the write znode at
+     * the head of the lock queue. The znode of a token given out by this JVM is
+     * known by its holder and stays at the head as long as it exists, so it is
+     * checked by one exists(), the head of the queue is read for any other
+     * token. With linearizableTokenValidation the reads follow a sync().
+     */
+    @Override
+    public boolean validateToken(Lock lock, long fencingToken) throws ZkServerConnectionException {
+        if (fencingToken <= 0) {
+            return false;
+        }
+        String path = getLockPath(lock);
+        try {
+            ZooKeeper zk = getZk(path);
+            if (this.linearizableTokenValidation) {
+                // not waited for, the reads below are queued after it on the same session
+                zk.sync(path, null, null);
+            }
+            ZkLockHolder holder = this.holders.get(path);
+            String znodePath;
+            if (holder != null && holder.isFenced() && holder.getFencingToken() == fencingToken) {
+                znodePath = holder.getZnodePath();
+            } else {
+                List<String> children = getSortedChildren(path);
+                if (children.isEmpty() || isReadZnode(children.get(0))) {
+                    return false;
+                }
+                znodePath = path + ZkLockConstant.SLASH + children.get(0);
+            }
+            Stat stat = ZkBlockingCalls.exists(zk, znodePath, null);
+            return stat != null && stat.getCzxid() == fencingToken;
+        } catch (KeeperException | InterruptedException e) {
+            handleException(path, e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean lockAll(Collection<Lock> locks, long timeout) throws ZkServerConnectionException {
+        SortedMap<String, Lock> sorted = toLockPaths(locks);
+        List<ZkLockHolder> reentered = new ArrayList<>();
+        ZkLockOwner owner = currentOwner();
+        for (String path : new ArrayList<>(sorted.keySet())) {
+            ZkLockHolder holder = this.holders.get(path);
+            if (holder != null && holder.isOwnedBy(ZkThreads.currentThreadId())) {
+                reentered.add(holder);
+                sorted.remove(path);
+            } else if (isReadLockedByCurrentThread(path, owner)) {
+                return false; // upgrading a read lock would wait for itself
+            }
+        }
+        if (!sorted.isEmpty()) {
+            Map<String, String> znodes = acquireAll(sorted, owner, timeout);
+            if (znodes == null) {
+                return false;
+            }
+            for (Map.Entry<String, String> znode : znodes.entrySet()) {
+                this.holders.put(znode.getKey(), new ZkLockHolder(ZkThreads.currentThreadId(),
+                        znode.getKey() + ZkLockConstant.SLASH + znode.getValue()));
+            }
+        }
+        for (ZkLockHolder holder : reentered) {
+            holder.increaseHoldCount();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unlockAll(Collection<Lock> locks) throws ZkServerConnectionException {
+        SortedMap<String, ZkLockHolder> released = new TreeMap<>();
+        boolean success = true;
+        for (String path : toLockPaths(locks).keySet()) {
+            ZkLockHolder holder = this.holders.get(path);
+            if (holder == null || !holder.isOwnedBy(ZkThreads.currentThreadId())) {
+                success = false;
+                continue;
+            }
+            ZkLockCohort cohort = this.cohorts.get(path);
+            if (cohort != null && cohort.isLockedByCurrentThread()) {
+                success &= unlockByPath(path); // the znode may be handed over to a local waiter
+            } else if (holder.decreaseHoldCount() == 0) {
+                this.holders.remove(path, holder);
+                holder.released();
+                released.put(path, holder);
+            }
+        }
+        for (SortedMap<String, ZkLockHolder> group : groupBySession(released)) {
+            List<String> znodePaths = new ArrayList<>(group.size());
+            for (ZkLockHolder holder : group.values()) {
+                znodePaths.add(holder.getZnodePath());
+            }
+            success &= deleteZnodes(group.firstKey(), znodePaths);
+            for (String path : group.keySet()) {
+                this.lockPathReaper.released(path);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * A multi() transaction runs on one session, so the znodes of the lock paths
+     * of each session are queued in a transaction of their own. The sessions
+     * are taken one after another in the order of their index, holding the
+     * locks obtained on the previous ones, so every caller obtains the locks in
+     * the same order and cannot deadlock each other. The locks obtained are
+     * released again if the ones of a later session are not.
+     *
+     * @return the names of the znodes holding the locks keyed by the lock path,
+     *         or null if the locks are not obtained before timeout
+     */
+    private Map<String, String> acquireAll(SortedMap<String, Lock> sorted, ZkLockOwner owner, long timeout)
+            throws ZkServerConnectionException {
+        long deadline = System.currentTimeMillis() + timeout;
+        byte[] uuidBytes = owner.getUuidBytes();
+        String znodePrefix = owner.getLockZnodePrefix();
+        Map<String, String> znodes = new TreeMap<>();
+        List<SortedMap<String, String>> obtained = new ArrayList<>();
         boolean success = false;
-        this.lockMode.set(lock.mode());
         try {
-            switch (lock.level()) {
-            case GLOBAL:
-                success = this.globalUnlock(lock.id());
-                break;
-            case SERVER:
-                success = this.serverUnlock(lock.id());
-                break;
-            case APPLICATION:
-                success = this.appUnlock(lock.id());
-                break;
-            default:
-                break;
+            for (SortedMap<String, Lock> group : groupBySession(sorted)) {
+                long remaining = timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 0) : timeout;
+                Map<String, String> groupZnodes = new ZkMultiLockAcquirer(this, group, uuidBytes, znodePrefix,
+                        remaining).acquire();
+                if (groupZnodes == null) {
+                    return null;
+                }
+                obtained.add(new TreeMap<>(groupZnodes));
+                znodes.putAll(groupZnodes);
             }
+            success = true;
+            return znodes;
         } finally {
-            this.lockMode.remove();
+            if (!success) {
+                for (SortedMap<String, String> groupZnodes : obtained) {
+                    List<String> znodePaths = new ArrayList<>(groupZnodes.size());
+                    for (Map.Entry<String, String> znode : groupZnodes.entrySet()) {
+                        znodePaths.add(znode.getKey() + ZkLockConstant.SLASH + znode.getValue());
+                    }
+                    deleteZnodes(groupZnodes.firstKey(), znodePaths);
+                }
+            }
         }
-        return success;
+    }
+
+    /**
+     * @return the entries grouped by the session serving their lock path, in
+     *         the order of the session index
+     */
+    <V> Collection<SortedMap<String, V>> groupBySession(SortedMap<String, V> byPath) {
+        if (byPath.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (this.router == null) {
+            return Collections.singletonList(byPath);
+        }
+        SortedMap<Integer, SortedMap<String, V>> groups = new TreeMap<>();
+        for (Map.Entry<String, V> entry : byPath.entrySet()) {
+            groups.computeIfAbsent(this.router.route(entry.getKey()), k -> new TreeMap<>()).put(entry.getKey(),
+                    entry.getValue());
+        }
+        return groups.values();
+    }
+
+    /**
+     * Claim the locks which are not held yet in one pipelined batch, the ones
+     * with an unknown result are claimed again one by one
+     */
+    @Override
+    public List<Lock> tryLockBatch(List<Lock> locks) throws ZkServerConnectionException {
+        Set<String> obtained = new HashSet<>();
+        Map<String, Lock> candidates = new LinkedHashMap<>();
+        ZkLockOwner owner = currentOwner();
+        for (Lock lock : locks) {
+            String path = getLockPath(lock);
+            if (obtained.contains(path) || candidates.containsKey(path)) {
+                continue; // the same lock is given twice
+            }
+            ZkLockHolder holder = this.holders.get(path);
+            if (holder != null && holder.isOwnedBy(ZkThreads.currentThreadId())) {
+                holder.increaseHoldCount();
+                obtained.add(path);
+            } else if (isReadLockedByCurrentThread(path, owner)) {
+                continue; // upgrading a read lock would wait for itself
+            } else if (isCohortEnabled(lock)) {
+                if (cohortLock(lock, path, owner, 0)) {
+                    obtained.add(path);
+                }
+            } else {
+                candidates.put(path, lock);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            String znodePrefix = owner.getLockZnodePrefix();
+            ZkBatchLockClaimer claimer = new ZkBatchLockClaimer(this, candidates, owner.getUuidBytes(), znodePrefix);
+            Map<String, String> claimed = claimer.claim();
+            for (String path : claimer.getUnconfirmed()) {
+                String znodePath = acquireZnode(candidates.get(path), path, owner, znodePrefix, 0);
+                if (znodePath != null) {
+                    claimed.put(path, znodePath.substring(path.length() + 1));
+                }
+            }
+            for (Map.Entry<String, String> znode : claimed.entrySet()) {
+                this.holders.put(znode.getKey(), new ZkLockHolder(ZkThreads.currentThreadId(),
+                        znode.getKey() + ZkLockConstant.SLASH + znode.getValue()));
+                obtained.add(znode.getKey());
+            }
+        }
+        List<Lock> result = new ArrayList<>(obtained.size());
+        for (Lock lock : locks) {
+            if (obtained.remove(getLockPath(lock))) {
+                result.add(lock);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Lock> unlockBatch(List<Lock> locks) throws ZkServerConnectionException {
+        List<Lock> released = new ArrayList<>(locks.size());
+        Map<String, Lock> deleting = new LinkedHashMap<>();
+        for (Lock lock : locks) {
+            String path = getLockPath(lock);
+            ZkLockHolder holder = this.holders.get(path);
+            if (holder == null || !holder.isOwnedBy(ZkThreads.currentThreadId())) {
+                if (determinMode(lock.mode()) == CreateMode.PERSISTENT_SEQUENTIAL && unlock(lock)) {
+                    released.add(lock); // a persistent lock can be released by anyone
+                }
+                continue;
+            }
+            ZkLockCohort cohort = this.cohorts.get(path);
+            if (cohort != null && cohort.isLockedByCurrentThread()) {
+                if (unlockByPath(path)) { // the znode may be handed over to a local waiter
+                    released.add(lock);
+                }
+            } else if (holder.decreaseHoldCount() > 0) {
+                released.add(lock);
+            } else {
+                this.holders.remove(path, holder);
+                holder.released();
+                deleting.put(holder.getZnodePath(), lock);
+            }
+        }
+        Set<String> deleted = ZkBatchLockClaimer.deleteZnodes(this, new ArrayList<>(deleting.keySet()));
+        for (Map.Entry<String, Lock> znode : deleting.entrySet()) {
+            if (deleted.contains(znode.getKey())) {
+                released.add(znode.getValue());
+                this.lockPathReaper.released(getLockPath(znode.getValue()));
+            }
+        }
+        return released;
+    }
+
+    /**
+     * @return the locks keyed by their lock path in the canonical order
+     */
+    private SortedMap<String, Lock> toLockPaths(Collection<Lock> locks) {
+        SortedMap<String, Lock> paths = new TreeMap<>();
+        for (Lock lock : locks) {
+            paths.put(getLockPath(lock), lock);
+        }
+        return paths;
+    }
+
+    /**
+     * Delete the znodes in one transaction, or one by one if some of them are
+     * gone already
+     */
+    boolean deleteZnodes(String path, List<String> znodePaths) throws ZkServerConnectionException {
+        List<Op> ops = new ArrayList<>(znodePaths.size());
+        for (String znodePath : znodePaths) {
+            ops.add(Op.delete(znodePath, ZkLockConstant.CREATED_ZNODE_VERSION));
+        }
+        ZooKeeper session = getZk(path);
+        try {
+            session.multi(ops);
+            return true;
+        } catch (KeeperException.NoNodeException | KeeperException.BadVersionException e) {
+            for (String znodePath : znodePaths) {
+                try {
+                    session.delete(znodePath, ZkLockConstant.CREATED_ZNODE_VERSION);
+                } catch (KeeperException.NoNodeException e1) {
+                    // gone with an expired session
+                } catch (KeeperException.BadVersionException e1) {
+                    printOrLogWarn(MSG_ZNODE_CHANGED_BY_OTHERS + znodePath, e1);
+                } catch (KeeperException | InterruptedException e1) {
+                    handleException(path, e1);
+                }
+            }
+        } catch (KeeperException | InterruptedException e) {
+            handleException(path, e);
+        }
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryLockAsync(Lock lock) {
+        return lockAsync(lock, 0);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> lockAsync(Lock lock, long timeout) {
+        String path = getLockPath(lock);
+        if (reenter(path)) {
+            return CompletableFuture.completedFuture(Boolean.TRUE);
+        }
+        ZkLockOwner owner = currentOwner();
+        if (isReadLockedByCurrentThread(path, owner)) {
+            return CompletableFuture.completedFuture(Boolean.FALSE);
+        }
+        return new ZkAsyncLockAcquirer(this, lock, path, timeout, owner).start();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> unlockAsync(Lock lock) {
+        String path = getLockPath(lock);
+        ZkLockHolder holder = this.holders.get(path);
+        if (holder != null && holder.isOwnedBy(ZkThreads.currentThreadId())) {
+            if (holder.decreaseHoldCount() > 0) {
+                return CompletableFuture.completedFuture(Boolean.TRUE);
+            }
+            this.holders.remove(path, holder);
+            holder.released();
+            ZkLockCohort cohort = this.cohorts.get(path);
+            if (cohort != null && cohort.isLockedByCurrentThread()) {
+                return cohortUnlockAsync(path, cohort, holder);
+            }
+            return deleteZnodeAsync(path, holder.getZnodePath());
+        } else if (holder != null && holder.isObtainedAsyncBy(lock)) {
+            this.holders.remove(path, holder);
+            holder.released();
+            return deleteZnodeAsync(path, holder.getZnodePath());
+        } else if (isPersistentLockMode(lock.mode())) {
+            return deleteHoldingZnodeAsync(path);
+        }
+        return CompletableFuture.completedFuture(Boolean.FALSE);
+    }
+
+    private CompletableFuture<Boolean> cohortUnlockAsync(String path, ZkLockCohort cohort, ZkLockHolder holder) {
+        try {
+            if (cohort.handOver(holder.getZnodePath(), getZk(path).getSessionId(), this.cohortMaxHandoffs)) {
+                return CompletableFuture.completedFuture(Boolean.TRUE);
+            }
+            return deleteZnodeAsync(path, holder.getZnodePath());
+        } finally {
+            cohort.unlockLocally();
+            try {
+                leaveCohort(path, cohort);
+            } catch (ZkServerConnectionException e) {
+                printOrLogError(MSG_UNABLE_TO_DELETE_ZNODE + path, e);
+            }
+        }
+    }
+
+    private CompletableFuture<Boolean> deleteZnodeAsync(String lockPath, String znodePath) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        getZk(lockPath).delete(znodePath, ZkLockConstant.CREATED_ZNODE_VERSION, new VoidCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx) {
+                Code code = Code.get(rc);
+                if (code == Code.OK) {
+                    lockPathReaper.released(lockPath);
+                    future.complete(Boolean.TRUE);
+                } else if (code == Code.NONODE || code == Code.BADVERSION) {
+                    future.complete(Boolean.FALSE);
+                } else {
+                    KeeperException e = KeeperException.create(code, path);
+                    future.completeExceptionally(
+                            new ZkServerConnectionException(MSG_UNABLE_TO_DELETE_ZNODE + path, e));
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    private CompletableFuture<Boolean> deleteHoldingZnodeAsync(String path) {
+        CompletableFuture<String> holding = new CompletableFuture<>();
+        getZk(path).getChildren(path, false, new ChildrenCallback() {
+            @Override
+            public void processResult(int rc, String childrenPath, Object ctx, List<String> children) {
+                Code code = Code.get(rc);
+                if (code == Code.OK && !children.isEmpty()) {
+                    sortBySequence(children);
+                    holding.complete(childrenPath + ZkLockConstant.SLASH + children.get(0));
+                } else if (code == Code.OK || code == Code.NONODE) {
+                    holding.complete(null);
+                } else {
+                    KeeperException e = KeeperException.create(code, childrenPath);
+                    holding.completeExceptionally(
+                            new ZkServerConnectionException(MSG_UNABLE_TO_DELETE_ZNODE + childrenPath, e));
+                }
+            }
+        }, null);
+        return holding.thenCompose(znodePath -> {
+            if (znodePath == null) {
+                return CompletableFuture.completedFuture(Boolean.FALSE);
+            }
+            removeHolder(path, znodePath);
+            return deleteZnodeAsync(path, znodePath);
+        });
+    }
+
+    String getLockPath(Lock lock) {
+        switch (lock.level()) {
+        case GLOBAL:
+            return getGlobalLockPath(lock.id());
+        case SERVER:
+            return getServerLockPath(lock.id());
+        case APPLICATION:
+            return getAppLockPath(lock.id());
+        default:
+            throw new IllegalArgumentException("Unknown lock level: " + lock.level());
+        }
+    }
+
+    ScheduledExecutorService getAsyncTimer() {
+        return this.asyncTimer;
+    }
+
+    ScheduledExecutorService getRecoveryExecutor() {
+        return this.recoveryExecutor;
+    }
+
+    ZkSessionRecovery getRecovery() {
+        return this.recovery;
     }
 
     public void setAdminAuth(String adminAuth) {
@@ -772,6 +2075,7 @@ public class ZooKeeperManager implements DistributedLockManager {
 
     public void setAppName(String appName) {
         this.appName = appName;
+        this.appLockPaths = null;
     }
 
     private void syserr(String message) {
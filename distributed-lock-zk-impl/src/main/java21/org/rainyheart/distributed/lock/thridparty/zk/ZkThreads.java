@@ -0,0 +1,23 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+/**
+ * Access to the current thread which differs between the Java versions. This
+ * is the Java 21 version packaged under META-INF/versions/21 of the jar.
+ *
+ * @author Ken Ye
+ *
+ */
+final class ZkThreads {
+
+    private ZkThreads() {
+        super();
+    }
+
+    static long currentThreadId() {
+        return Thread.currentThread().threadId();
+    }
+
+    static boolean isCurrentThreadVirtual() {
+        return Thread.currentThread().isVirtual();
+    }
+}
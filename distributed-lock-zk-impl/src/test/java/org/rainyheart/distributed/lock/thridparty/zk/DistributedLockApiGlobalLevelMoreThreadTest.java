@@ -18,6 +18,7 @@ import org.rainyheart.distributed.lock.api.LockLevel;
 import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
 import org.rainyheart.distributed.lock.api.impl.LockImpl;
 import org.rainyheart.distributed.lock.thridparty.zk.utils.TestExceptionUtils;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
 import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -115,7 +116,7 @@ public class DistributedLockApiGlobalLevelMoreThreadTest extends EmbeddedZooKeep
     }
 
     private Thread newThread(long timeout) {
-        Thread thread1 = new Thread(new Runnable() {
+        Thread thread1 = TestThreads.newThread(new Runnable() {
 
             @Override
             public void run() {
@@ -17,6 +17,7 @@ import org.rainyheart.distributed.lock.api.LockLevel;
 import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
 import org.rainyheart.distributed.lock.api.impl.LockImpl;
 import org.rainyheart.distributed.lock.thridparty.zk.utils.TestExceptionUtils;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
 import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,10 +37,13 @@ public class DistributedLockApiGlobalLevelTest extends EmbeddedZooKeeperServer {
     @Autowired
     DistributedLockApi api;
 
+    @Autowired
+    ZooKeeperManager zkManager;
+
     Lock lock;
 
     private Thread newThread(long timeout) {
-        Thread thread1 = new Thread(new Runnable() {
+        Thread thread1 = TestThreads.newThread(new Runnable() {
 
             @Override
             public void run() {
@@ -63,9 +67,11 @@ public class DistributedLockApiGlobalLevelTest extends EmbeddedZooKeeperServer {
     }
 
     @Before
-    public void setup() {
+    public void setup() throws ZkServerConnectionException {
         lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
         TestExceptionUtils.clearException();
+        // wait for the session to the embedded server restarted for this class, tryLock() fails fast without it
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
     }
 
     private void startAndWaitFor2Threads(long timeout) throws InterruptedException {
@@ -110,8 +116,9 @@ public class DistributedLockApiGlobalLevelTest extends EmbeddedZooKeeperServer {
     @Test
     public void testGlobalTryLock() throws UnknownHostException, DistributedLockException {
         assertTrue(api.tryLock(lock));
-        assertFalse(api.tryLock(lock));
+        assertTrue(api.tryLock(lock)); // reentered
 
+        assertTrue(api.unlock(lock));
         assertTrue(api.unlock(lock));
         assertFalse(api.unlock(lock));
     }
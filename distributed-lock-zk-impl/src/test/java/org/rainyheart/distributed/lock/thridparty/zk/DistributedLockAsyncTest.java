@@ -0,0 +1,156 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockAsyncTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "asyncTestId";
+
+    private static final String LOCK_PATH = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + TEST_ID;
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    Lock asyncLock;
+
+    @Before
+    public void setup() {
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        asyncLock = new LockImpl(TEST_ID, "async".getBytes(), LockLevel.GLOBAL);
+    }
+
+    @Test
+    public void testTryLockAsync() throws InterruptedException, ExecutionException, TimeoutException {
+        assertTrue(get(api.tryLockAsync(asyncLock)));
+        assertFalse(get(api.tryLockAsync(asyncLock)));
+
+        assertTrue(get(api.unlockAsync(asyncLock)));
+        assertFalse(get(api.unlockAsync(asyncLock)));
+    }
+
+    @Test
+    public void testLockAsyncIsCompletedOnRelease() throws DistributedLockException, InterruptedException,
+            ExecutionException, TimeoutException {
+        assertTrue(api.lock(lock, 1000));
+
+        CompletableFuture<Boolean> future = fromOtherThread(() -> api.lockAsync(asyncLock, 10000));
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+
+        assertTrue(api.unlock(lock));
+        assertTrue(get(future));
+
+        // the lock is released by another thread with an equal lock instance
+        CompletableFuture<Boolean> unlocked = CompletableFuture.supplyAsync(() -> {
+            return api.unlockAsync(new LockImpl(TEST_ID, "async".getBytes(), LockLevel.GLOBAL)).join();
+        });
+        assertTrue(get(unlocked));
+    }
+
+    @Test
+    public void testLockAsyncTimeout() throws DistributedLockException, InterruptedException, ExecutionException,
+            TimeoutException, KeeperException {
+        assertTrue(api.lock(lock, 1000));
+
+        assertFalse(get(fromOtherThread(() -> api.lockAsync(asyncLock, 300))));
+        Thread.sleep(200);
+        assertEquals(1, zkManager.getZk().getChildren(LOCK_PATH, false).size());
+
+        assertTrue(api.unlock(lock));
+    }
+
+    @Test
+    public void testLockAsyncReentersLockOfThread() throws DistributedLockException, InterruptedException,
+            ExecutionException, TimeoutException, KeeperException {
+        assertTrue(api.lock(lock, 1000));
+        List<String> children = zkManager.getZk().getChildren(LOCK_PATH, false);
+        assertEquals(1, children.size());
+        // the znode carries the owner of the thread, the same as a blocking lock()
+        assertArrayEquals(zkManager.currentOwner().getUuidBytes(),
+                zkManager.getZk().getData(LOCK_PATH + ZkLockConstant.SLASH + children.get(0), false, null));
+
+        // reentered at once without queueing another znode
+        assertTrue(get(api.tryLockAsync(asyncLock)));
+        assertEquals(children, zkManager.getZk().getChildren(LOCK_PATH, false));
+        assertTrue(get(api.unlockAsync(asyncLock)));
+        assertFalse(get(fromOtherThread(() -> api.tryLockAsync(asyncLock))));
+
+        assertTrue(api.unlock(lock));
+        assertTrue(zkManager.getZk().getChildren(LOCK_PATH, false).isEmpty());
+    }
+
+    @Test
+    public void testZnodeOfLostCreateIsDeleted() throws Exception {
+        assertTrue(api.lock(lock, 1000));
+        List<CompletableFuture<Boolean>> futures = CompletableFuture.supplyAsync(() -> {
+            List<CompletableFuture<Boolean>> calls = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                calls.add(zkManager.lockAsync(asyncLock, 300));
+            }
+            return calls;
+        }).get(10, TimeUnit.SECONDS);
+        // some creates are done by the server but their results are lost with the connection
+        stopZK();
+        try {
+            for (CompletableFuture<Boolean> future : futures) {
+                try {
+                    assertFalse(get(future));
+                } catch (ExecutionException e) {
+                    // failed with the connection
+                }
+            }
+        } finally {
+            startZK();
+        }
+
+        // the znodes created before the connection is lost are found and deleted once it is back
+        long deadline = System.currentTimeMillis() + 30000;
+        while (zkManager.getZk().getChildren(LOCK_PATH, false).size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, zkManager.getZk().getChildren(LOCK_PATH, false).size());
+        assertTrue(api.unlock(lock));
+        assertTrue(zkManager.getZk().getChildren(LOCK_PATH, false).isEmpty());
+    }
+
+    private CompletableFuture<Boolean> fromOtherThread(Supplier<CompletableFuture<Boolean>> call) {
+        return CompletableFuture.supplyAsync(call).thenCompose(future -> future);
+    }
+
+    private Boolean get(CompletableFuture<Boolean> future)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+}
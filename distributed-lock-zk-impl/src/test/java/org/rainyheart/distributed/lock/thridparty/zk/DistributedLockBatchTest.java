@@ -0,0 +1,133 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify a batch of independent locks is claimed and released at once
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockBatchTest extends EmbeddedZooKeeperServer {
+
+    private static final String[] TEST_IDS = { "batchTestIdA", "batchTestIdB", "batchTestIdC" };
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    ExecutorService executor;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        executor = Executors.newSingleThreadExecutor();
+        // reconnect to the embedded server restarted for this class before using the ZK client directly
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @After
+    public void clear() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTryLockBatchSkipsHeldLocks() throws Exception {
+        Lock held = newLock(TEST_IDS[1]);
+        assertTrue(executor.submit(() -> api.lock(held, 1000)).get(10, TimeUnit.SECONDS));
+        try {
+            List<Lock> locks = newLocks(TEST_IDS);
+            List<Lock> obtained = api.tryLockBatch(locks);
+            assertEquals(Arrays.asList(locks.get(0), locks.get(2)), obtained);
+            // the lost znode leaves the queue
+            assertEquals(1, queueSize(TEST_IDS[1]));
+
+            assertEquals(obtained, api.unlockBatch(locks));
+            for (String id : TEST_IDS) {
+                assertEquals(id.equals(TEST_IDS[1]) ? 1 : 0, queueSize(id));
+            }
+        } finally {
+            assertTrue(executor.submit(() -> api.unlock(held)).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testTryLockBatchReentersOwnedLocks() throws Exception {
+        List<Lock> locks = newLocks(TEST_IDS);
+        assertTrue(api.lock(locks.get(0), 1000));
+
+        // the lock given twice is obtained once
+        List<Lock> batch = new ArrayList<>(locks);
+        batch.add(newLock(TEST_IDS[2]));
+        assertEquals(locks, api.tryLockBatch(batch));
+        assertEquals(1, queueSize(TEST_IDS[0]));
+
+        assertEquals(3, api.unlockBatch(locks).size());
+        assertEquals(1, queueSize(TEST_IDS[0]));
+        assertTrue(api.unlock(locks.get(0)));
+        assertEquals(0, queueSize(TEST_IDS[0]));
+        assertTrue(api.unlockBatch(locks).isEmpty());
+    }
+
+    @Test
+    public void testTryLockBatchOfNewLocks() throws Exception {
+        String[] ids = new String[200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "batchTestWorkItem" + i;
+        }
+        List<Lock> locks = newLocks(ids);
+        assertEquals(locks, api.tryLockBatch(locks));
+        assertFalse(executor.submit(() -> api.tryLock(newLock(ids[0]))).get(10, TimeUnit.SECONDS));
+        assertTrue(executor.submit(() -> api.tryLockBatch(newLocks(ids)).isEmpty()).get(10, TimeUnit.SECONDS));
+
+        assertEquals(ids.length, api.unlockBatch(locks).size());
+        assertEquals(0, queueSize(ids[ids.length - 1]));
+    }
+
+    private List<Lock> newLocks(String... ids) {
+        List<Lock> locks = new ArrayList<>();
+        for (String id : ids) {
+            locks.add(newLock(id));
+        }
+        return locks;
+    }
+
+    private Lock newLock(String id) {
+        return new LockImpl(id, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+    }
+
+    private int queueSize(String id) throws KeeperException, InterruptedException {
+        try {
+            return zkManager.getZk()
+                    .getChildren(ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + id, false).size();
+        } catch (KeeperException.NoNodeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestExceptionUtils;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the local threads hand the znode over to each other when cohorting is
+ * turned on
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockCohortTest extends EmbeddedZooKeeperServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributedLockCohortTest.class);
+
+    private static final int THREAD_NUMBER = 10;
+
+    private static final String TEST_ID = "cohortTestId";
+
+    private static final String LOCK_PATH = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + TEST_ID;
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    @Before
+    public void setup() {
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        TestExceptionUtils.clearException();
+    }
+
+    @After
+    public void clear() {
+        zkManager.setCohortMaxHandoffs(0);
+        assertFalse(TestExceptionUtils.hasException());
+    }
+
+    @Test
+    public void testLocalWaitersShareOneZnode() throws InterruptedException, DistributedLockException {
+        zkManager.setCohortMaxHandoffs(100);
+        int cversion = zkManager.getStat(LOCK_PATH) == null ? 0 : zkManager.getStat(LOCK_PATH).getCversion();
+
+        AtomicInteger owners = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREAD_NUMBER; i++) {
+            Thread thread = newWorker(String.valueOf(i), Collections.synchronizedList(new ArrayList<>()), owners);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(20000);
+        }
+
+        // one create and one delete for the whole cohort instead of for each thread
+        int changes = zkManager.getStat(LOCK_PATH).getCversion() - cversion;
+        assertTrue("cversion changes: " + changes, changes < THREAD_NUMBER * 2);
+    }
+
+    @Test
+    public void testZnodeIsReleasedAfterMaxHandoffs()
+            throws DistributedLockException, InterruptedException, KeeperException, Exception {
+        zkManager.setCohortMaxHandoffs(1);
+        assertTrue(api.lock(lock, 1000));
+
+        // a waiter out of the cohort, e.g. another node, not the owner thread which would reenter
+        Lock asyncLock = new LockImpl(TEST_ID, "async".getBytes(), LockLevel.GLOBAL);
+        CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> api.lockAsync(asyncLock, 10000))
+                .thenCompose(locked -> locked);
+        waitForQueueSize(2);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger owners = new AtomicInteger();
+        Thread first = newWorker("first", order, owners);
+        first.start();
+        Thread.sleep(200);
+        Thread second = newWorker("second", order, owners);
+        second.start();
+        Thread.sleep(200);
+
+        assertTrue(api.unlock(lock));
+        assertTrue(future.get(10, TimeUnit.SECONDS));
+        order.add("async");
+        assertEquals(Arrays.asList("first", "async"), order);
+
+        assertTrue(api.unlockAsync(asyncLock).get(10, TimeUnit.SECONDS));
+        second.join(10000);
+        assertEquals(Arrays.asList("first", "async", "second"), order);
+        assertEquals(0, queueSize());
+    }
+
+    private Thread newWorker(String name, List<String> order, AtomicInteger owners) {
+        return TestThreads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                Lock workerLock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(),
+                        LockLevel.GLOBAL);
+                try {
+                    if (!api.lock(workerLock, 10000)) {
+                        TestExceptionUtils.addException(new AssertionError(name + " is timeout"));
+                        return;
+                    }
+                    if (owners.incrementAndGet() != 1) {
+                        TestExceptionUtils.addException(new AssertionError("more than one owner"));
+                    }
+                    order.add(name);
+                    Thread.sleep(100);
+                    owners.decrementAndGet();
+                    if (!api.unlock(workerLock)) {
+                        TestExceptionUtils.addException(new AssertionError(name + " fails to unlock"));
+                    }
+                } catch (DistributedLockException | InterruptedException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    TestExceptionUtils.addException(e);
+                }
+            }
+        });
+    }
+
+    private void waitForQueueSize(int size) throws KeeperException, InterruptedException {
+        for (int i = 0; i < 100 && queueSize() < size; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private int queueSize() throws KeeperException, InterruptedException {
+        return zkManager.getZk().getChildren(LOCK_PATH, false).size();
+    }
+}
@@ -0,0 +1,150 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockHandle;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify each holding of a lock gets a greater fencing token and only the token
+ * of the current holder is valid
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockFencingTokenTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "fencingTokenTestId";
+
+    private static final String LOCK_PATH = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + TEST_ID;
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        // reconnect to the embedded server restarted for this class before using the ZK client directly
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @After
+    public void clear() {
+        zkManager.setCohortMaxHandoffs(0);
+        zkManager.setLinearizableTokenValidation(false);
+    }
+
+    @Test
+    public void testTokenGrowsWithEachHolding() throws Exception {
+        LockHandle first = api.lockWithToken(lock, 1000);
+        assertNotNull(first);
+        assertTrue(api.validateToken(lock, first.fencingToken()));
+        // reentered with the same token
+        assertEquals(first, api.lockWithToken(lock, 1000));
+        assertTrue(api.unlock(lock));
+        assertTrue(api.validateToken(lock, first.fencingToken()));
+        assertTrue(api.unlock(lock));
+        assertFalse(api.validateToken(lock, first.fencingToken()));
+
+        LockHandle second = api.lockWithToken(lock, 1000);
+        assertTrue(second.fencingToken() > first.fencingToken());
+        assertFalse(api.validateToken(lock, first.fencingToken()));
+        assertTrue(api.validateToken(lock, second.fencingToken()));
+        assertTrue(api.unlock(lock));
+    }
+
+    @Test
+    public void testTokenOfLostHolderIsRejected() throws Exception {
+        LockHandle stale = api.lockWithToken(lock, 1000);
+        assertNotNull(stale);
+        // the znode is gone as if the session of the holder expired during a long pause
+        List<String> children = zkManager.getZk(LOCK_PATH).getChildren(LOCK_PATH, false);
+        assertEquals(1, children.size());
+        zkManager.getZk(LOCK_PATH).delete(LOCK_PATH + ZkLockConstant.SLASH + children.get(0), -1);
+        assertFalse(api.validateToken(lock, stale.fencingToken()));
+
+        LockHandle current = CompletableFuture.supplyAsync(() -> {
+            Lock other = new LockImpl(TEST_ID, "other".getBytes(), LockLevel.GLOBAL);
+            try {
+                LockHandle handle = api.lockWithToken(other, 1000);
+                assertTrue(api.validateToken(other, handle.fencingToken()));
+                assertTrue(api.unlock(other));
+                return handle;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertTrue(current.fencingToken() > stale.fencingToken());
+        assertFalse(api.unlock(lock));
+    }
+
+    @Test
+    public void testTokenOfAnotherProcess() throws Exception {
+        zkManager.setLinearizableTokenValidation(true);
+        // the znode of a holder in another process, unknown to this JVM
+        ZooKeeper zk = zkManager.getZk(LOCK_PATH);
+        zkManager.createLockPathIfNotExist(LOCK_PATH);
+        String znodePath = zk.create(LOCK_PATH + ZkLockConstant.SLASH + ZkLockConstant.LOCK_ZNODE_PREFIX,
+                "another".getBytes(), ZkLockConstant.GLOBAL_ACL, CreateMode.EPHEMERAL_SEQUENTIAL);
+        long token = zk.exists(znodePath, false).getCzxid();
+        assertTrue(api.validateToken(lock, token));
+        assertFalse(api.validateToken(lock, token - 1));
+        zk.delete(znodePath, ZkLockConstant.CREATED_ZNODE_VERSION);
+        assertFalse(api.validateToken(lock, token));
+
+        LockHandle handle = api.lockWithToken(lock, 1000);
+        assertTrue(api.validateToken(lock, handle.fencingToken()));
+        assertFalse(api.validateToken(lock, token));
+        assertTrue(api.unlock(lock));
+    }
+
+    @Test
+    public void testFencedZnodeIsNotHandedOver() throws Exception {
+        zkManager.setCohortMaxHandoffs(100);
+        LockHandle first = api.lockWithToken(lock, 1000);
+        assertNotNull(first);
+        CompletableFuture<LockHandle> waiter = CompletableFuture.supplyAsync(() -> {
+            Lock local = new LockImpl(TEST_ID, "local".getBytes(), LockLevel.GLOBAL);
+            try {
+                LockHandle handle = api.lockWithToken(local, 10000);
+                assertTrue(api.unlock(local));
+                return handle;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertTrue(api.unlock(lock));
+
+        LockHandle second = waiter.get(10, TimeUnit.SECONDS);
+        assertTrue(second.fencingToken() > first.fencingToken());
+        assertFalse(api.validateToken(lock, first.fencingToken()));
+    }
+}
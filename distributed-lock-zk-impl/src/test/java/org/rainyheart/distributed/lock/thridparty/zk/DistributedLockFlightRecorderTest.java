@@ -0,0 +1,118 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Verify the lock acquire, lock held and ZK operation events are recorded by
+ * Java Flight Recorder
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockFlightRecorderTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "flightRecorderTestId";
+
+    private static final String ACQUIRE = "org.rainyheart.distributed.lock.LockAcquire";
+    private static final String HELD = "org.rainyheart.distributed.lock.LockHeld";
+    private static final String OPERATION = "org.rainyheart.distributed.lock.ZkOperation";
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        Assume.assumeTrue(ZkFlightRecorder.isAvailable());
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        // reconnect to the embedded server restarted for this class before using the ZK client directly
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @Test
+    public void testLockEventsAreRecorded() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(ACQUIRE).withThreshold(Duration.ZERO);
+            recording.enable(HELD).withThreshold(Duration.ZERO);
+            recording.enable(OPERATION).withThreshold(Duration.ZERO);
+            recording.start();
+
+            assertTrue(api.lock(lock, 1000));
+            boolean obtainedByOther = CompletableFuture.supplyAsync(() -> {
+                Lock other = new LockImpl(TEST_ID, "other".getBytes(), LockLevel.GLOBAL);
+                try {
+                    return api.lock(other, 100);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertFalse(obtainedByOther);
+            assertTrue(api.unlock(lock));
+
+            recording.stop();
+            File file = File.createTempFile("distributed-lock", ".jfr");
+            try {
+                recording.dump(file.toPath());
+                events = RecordingFile.readAllEvents(file.toPath());
+            } finally {
+                file.delete();
+            }
+        }
+
+        List<String> outcomes = new ArrayList<>();
+        int held = 0;
+        int deletes = 0;
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            if (ACQUIRE.equals(name) && TEST_ID.equals(event.getString("id"))) {
+                assertEquals("GLOBAL", event.getString("level"));
+                assertTrue(event.getInt("attempts") > 0);
+                outcomes.add(event.getString("outcome"));
+            } else if (HELD.equals(name) && event.getString("znodePath").contains(TEST_ID)) {
+                held++;
+            } else if (OPERATION.equals(name) && "delete".equals(event.getString("operation"))
+                    && event.getString("path").contains(TEST_ID)) {
+                assertEquals("OK", event.getString("resultCode"));
+                deletes++;
+            }
+        }
+        assertTrue(outcomes.toString(), outcomes.contains(ZkFlightRecorder.ACQUIRED));
+        assertTrue(outcomes.toString(), outcomes.contains(ZkFlightRecorder.TIMEOUT));
+        assertEquals(1, held);
+        // the timed out znode and the released one
+        assertEquals(2, deletes);
+    }
+}
@@ -0,0 +1,167 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the re-entrant lock and unlock of a held lock and the ordering of the
+ * lock queue do not allocate, and an uncontended lock allocates little beyond
+ * its ZK requests. The manager is called directly, the debug logging
+ * of the api depends on the logging configuration of the application
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockHotPathTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "hotPathTestId";
+
+    private static final int WARM_UP = 50000;
+    private static final int ROUNDS = 10000;
+
+    private static final int ZK_WARM_UP = 2000;
+    private static final int ZK_ROUNDS = 2000;
+    /**
+     * The holder, its map entry, the owner with its znode prefix and create
+     * path, the znode name matched against the children, the hold time and the
+     * flight recorder events of one lock
+     */
+    private static final int MAX_BYTES_BEYOND_ZK = 2048;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        // wait for the session to the embedded server restarted for this class, tryLock() fails fast without it
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @Test
+    public void testReentrantLockAllocatesNothing() throws Exception {
+        Lock lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        assertTrue(zkManager.lock(lock, 1000));
+        try {
+            for (int i = 0; i < WARM_UP; i++) {
+                zkManager.tryLock(lock);
+                zkManager.unlock(lock);
+            }
+            long before = allocatedBytes();
+            for (int i = 0; i < ROUNDS; i++) {
+                zkManager.tryLock(lock);
+                zkManager.unlock(lock);
+            }
+            long allocated = allocatedBytes() - before;
+            // far below one object per round, the rest is the noise of the measurement itself
+            assertTrue("allocated " + allocated + " bytes", allocated < ROUNDS);
+        } finally {
+            assertTrue(zkManager.unlock(lock));
+        }
+    }
+
+    @Test
+    public void testUncontendedLockAllocatesOnlyZkRequests() throws Exception {
+        Lock lock = new LockImpl(TEST_ID + "Uncontended", null, LockLevel.GLOBAL);
+        String path = zkManager.getLockPath(lock);
+        ZooKeeper zk = zkManager.getZk(path);
+        String znodePrefix = path + ZkLockConstant.SLASH + ZkLockConstant.LOCK_ZNODE_PREFIX;
+        byte[] data = lock.id().getBytes();
+        for (int i = 0; i < ZK_WARM_UP; i++) {
+            assertTrue(zkManager.tryLock(lock));
+            assertTrue(zkManager.unlock(lock));
+            zk.delete(zk.create(znodePrefix, data, ZkLockConstant.GLOBAL_ACL, CreateMode.EPHEMERAL_SEQUENTIAL),
+                    ZkLockConstant.CREATED_ZNODE_VERSION);
+            zk.getChildren(path, false);
+        }
+        // the same requests sent directly
+        long before = allocatedBytes();
+        for (int i = 0; i < ZK_ROUNDS; i++) {
+            String znodePath = zk.create(znodePrefix, data, ZkLockConstant.GLOBAL_ACL,
+                    CreateMode.EPHEMERAL_SEQUENTIAL);
+            zk.getChildren(path, false);
+            zk.delete(znodePath, ZkLockConstant.CREATED_ZNODE_VERSION);
+        }
+        long requests = allocatedBytes() - before;
+        before = allocatedBytes();
+        for (int i = 0; i < ZK_ROUNDS; i++) {
+            zkManager.tryLock(lock);
+            zkManager.unlock(lock);
+        }
+        long locks = allocatedBytes() - before;
+        assertTrue("allocated " + (locks - requests) / ZK_ROUNDS + " bytes per lock beyond its ZK requests",
+                locks - requests < ZK_ROUNDS * MAX_BYTES_BEYOND_ZK);
+    }
+
+    @Test
+    public void testCurrentOwnerIsBuiltPerCall() throws InterruptedException {
+        ZkLockOwner owner = ZkLockOwner.current("instance");
+        ZkLockOwner again = ZkLockOwner.current("instance");
+        assertNotSame(owner, again);
+        assertEquals(owner.getLockZnodePrefix(), again.getLockZnodePrefix());
+        assertArrayEquals(owner.getUuidBytes(), again.getUuidBytes());
+        // built once for the call
+        assertSame(owner.getLockZnodePrefix(), owner.getLockZnodePrefix());
+        assertNotEquals(owner.newAsyncZnodePrefix(1), owner.newAsyncZnodePrefix(2));
+        assertNotEquals(owner.getLockZnodePrefix(), ZkLockOwner.current("another").getLockZnodePrefix());
+        // another thread is another owner
+        String[] prefix = new String[1];
+        Thread thread = new Thread(() -> prefix[0] = ZkLockOwner.current("instance").getLockZnodePrefix());
+        thread.start();
+        thread.join();
+        assertNotEquals(owner.getLockZnodePrefix(), prefix[0]);
+    }
+
+    @Test
+    public void testSortBySequenceAllocatesNothing() {
+        List<String> children = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            children.add(ZkLockConstant.LOCK_ZNODE_PREFIX + i + ZkLockConstant.LOCK_ZNODE_SEPARATOR
+                    + String.format("%010d", i * 7 % 20));
+        }
+        for (int i = 0; i < WARM_UP; i++) {
+            Collections.shuffle(children);
+            ZooKeeperManager.sortBySequence(children);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            ZooKeeperManager.sortBySequence(children);
+        }
+        long allocated = allocatedBytes() - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < ROUNDS);
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
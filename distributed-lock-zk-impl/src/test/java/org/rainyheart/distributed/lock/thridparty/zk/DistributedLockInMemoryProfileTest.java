@@ -0,0 +1,60 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.memory.InMemoryDistributedLockManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the in-memory profile replaces the ZooKeeperManager, no ZooKeeper
+ * server is needed
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+@ActiveProfiles(InMemoryDistributedLockManager.PROFILE)
+public class DistributedLockInMemoryProfileTest {
+
+    @Autowired
+    ApplicationContext context;
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Test
+    public void testInMemoryManagerSelected() throws Exception {
+        assertEquals(1, context.getBeansOfType(DistributedLockManager.class).size());
+        assertTrue(context.getBean(DistributedLockManager.class) instanceof InMemoryDistributedLockManager);
+        assertTrue(context.getBeansOfType(ZooKeeperManager.class).isEmpty());
+        assertTrue(context.getBeansOfType(ZkDistributedSemaphore.class).isEmpty());
+
+        Lock lock = new LockImpl("inMemoryProfileTestId", null, LockLevel.GLOBAL);
+        assertTrue(api.lock(lock, 0));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertFalse(executor.submit(() -> api.tryLock(lock)).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(api.unlock(lock));
+    }
+}
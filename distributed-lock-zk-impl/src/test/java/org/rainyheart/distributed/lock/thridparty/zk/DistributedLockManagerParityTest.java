@@ -0,0 +1,90 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockManager;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.memory.InMemoryDistributedLockManager;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the in-memory manager gives the same results as the ZooKeeperManager
+ * for the same calls
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockManagerParityTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "parityTestId";
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    InMemoryDistributedLockManager inMemoryManager;
+    ExecutorService other;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+        inMemoryManager = new InMemoryDistributedLockManager();
+        other = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        other.shutdownNow();
+        inMemoryManager.destroy();
+    }
+
+    @Test
+    public void testUnlockByLockMode() throws Exception {
+        List<Boolean> expected = Arrays.asList(true, false, false, true, true, true, true, false, true, true, false);
+        assertEquals(expected, unlockByLockMode(zkManager));
+        assertEquals(expected, unlockByLockMode(inMemoryManager));
+    }
+
+    private List<Boolean> unlockByLockMode(DistributedLockManager manager) throws Exception {
+        Lock lock = new LockImpl(TEST_ID, null, LockLevel.GLOBAL);
+        Lock persistent = new LockImpl(TEST_ID, null, LockLevel.GLOBAL, 1);
+        Lock withoutMode = new LockImpl(TEST_ID, null, LockLevel.GLOBAL, null);
+        List<Boolean> results = new ArrayList<>();
+        results.add(manager.lock(lock, 0));
+        results.add(call(() -> manager.tryLock(lock)));
+        // a temporary lock is only released by its owner
+        results.add(call(() -> manager.unlock(lock)));
+        // a persistent one or one without mode by anyone
+        results.add(call(() -> manager.unlock(persistent)));
+        results.add(manager.tryLock(lock));
+        results.add(manager.tryLock(lock));
+        results.add(call(() -> manager.globalUnlock(TEST_ID)));
+        results.add(call(() -> manager.unlock(withoutMode)));
+        results.add(manager.lock(lock, 0));
+        results.add(call(() -> manager.unlock(withoutMode)));
+        results.add(manager.unlock(lock));
+        return results;
+    }
+
+    private boolean call(Callable<Boolean> callable) throws Exception {
+        return other.submit(callable).get(5, TimeUnit.SECONDS);
+    }
+}
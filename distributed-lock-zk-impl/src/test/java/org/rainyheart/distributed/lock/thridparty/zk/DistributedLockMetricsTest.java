@@ -0,0 +1,131 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.DistributedLockApiImpl;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.api.metrics.DistributedLockMetrics;
+import org.rainyheart.distributed.lock.api.metrics.LockOperation;
+import org.rainyheart.distributed.lock.api.metrics.MeteredDistributedLockManager;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the lock calls and the ZK round trips are recorded into the metrics
+ * exposed by JMX
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockMetricsTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "metricsTestId";
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    DistributedLockMetrics metrics;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        // reconnect to the embedded server restarted for this class before using the ZK client directly
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+        metrics.reset();
+    }
+
+    @Test
+    public void testLockCallsAreRecorded() throws Exception {
+        assertTrue(((DistributedLockApiImpl) api).getManager() instanceof MeteredDistributedLockManager);
+        assertTrue(zkManager.getMetrics() == metrics);
+
+        assertTrue(api.lock(lock, 1000));
+        boolean obtainedByOther = CompletableFuture.supplyAsync(() -> {
+            Lock other = new LockImpl(TEST_ID, "other".getBytes(), LockLevel.GLOBAL);
+            try {
+                return api.tryLock(other);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertFalse(obtainedByOther);
+        assertTrue(api.unlock(lock));
+
+        assertEquals(1, metrics.getAcquisitions());
+        assertEquals(1, metrics.getContentions());
+        assertEquals(1, metrics.getLatency(LockOperation.LOCK, LockLevel.GLOBAL).getCount());
+        assertEquals(1, metrics.getHoldTime(LockLevel.GLOBAL).getCount());
+        assertNotNull(metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_CREATE));
+        assertNotNull(metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_DELETE));
+        assertEquals("GLOBAL:" + TEST_ID + "=1", metrics.getHotLocks()[0]);
+    }
+
+    @Test
+    public void testUncontendedTryLockRoundTrips() throws Exception {
+        // the lock path exists after the first one
+        assertTrue(api.tryLock(lock));
+        assertTrue(api.unlock(lock));
+        metrics.reset();
+
+        assertTrue(api.tryLock(lock));
+        assertTrue(api.unlock(lock));
+        // the znode is created first and the queue is read once
+        assertEquals(1, metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_CREATE).getCount());
+        assertEquals(1, metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_GET_CHILDREN).getCount());
+        assertEquals(1, metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_DELETE).getCount());
+    }
+
+    @Test
+    public void testEveryZkRequestIsRecorded() throws Exception {
+        Lock another = new LockImpl(TEST_ID + "2", lock.value(), LockLevel.GLOBAL);
+        assertTrue(api.lockAll(Arrays.asList(lock, another), 1000));
+        assertTrue(api.unlockAll(Arrays.asList(lock, another)));
+        zkManager.getData(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+
+        assertNotNull(metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_MULTI));
+        assertNotNull(metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_GET_DATA));
+        // the requests of all types are counted, not only the single lock ones
+        assertTrue(metrics.getRoundTripCount() >= metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_MULTI).getCount()
+                + metrics.getRoundTrip(ZkLockConstant.ROUND_TRIP_GET_DATA).getCount());
+        assertEquals(2, metrics.getHoldTime(LockLevel.GLOBAL).getCount());
+    }
+
+    @Test
+    public void testMBeanIsRegistered() throws Exception {
+        assertTrue(api.tryLock(lock));
+        assertTrue(api.unlock(lock));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertNotNull(metrics.getObjectName());
+        assertTrue(server.isRegistered(metrics.getObjectName()));
+        assertEquals(1L, server.getAttribute(metrics.getObjectName(), "Acquisitions"));
+        String[] latencies = (String[]) server.getAttribute(metrics.getObjectName(), "Latencies");
+        assertTrue(latencies[0], latencies[0].startsWith("tryLock.GLOBAL count=1 "));
+    }
+}
@@ -0,0 +1,171 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify several locks are obtained and released at once
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockMultiTest extends EmbeddedZooKeeperServer {
+
+    private static final String[] TEST_IDS = { "multiTestIdA", "multiTestIdB", "multiTestIdC" };
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    ExecutorService executor;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        executor = TestThreads.newExecutor();
+        // reconnect to the embedded server restarted for this class before using the ZK client directly
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @After
+    public void clear() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLockAllAndUnlockAll() throws Exception {
+        List<Lock> locks = newLocks(TEST_IDS);
+        assertTrue(api.lockAll(locks, 1000));
+        for (String id : TEST_IDS) {
+            assertEquals(1, queueSize(id));
+            assertFalse(executor.submit(() -> api.tryLock(newLock(id))).get(10, TimeUnit.SECONDS));
+        }
+        // reentered by the owner thread
+        assertTrue(api.lock(locks.get(0), 1000));
+        assertTrue(api.unlock(locks.get(0)));
+
+        assertTrue(api.unlockAll(locks));
+        for (String id : TEST_IDS) {
+            assertEquals(0, queueSize(id));
+        }
+        assertFalse(api.unlockAll(locks));
+    }
+
+    @Test
+    public void testLockAllWaitsForConflict() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Boolean> holder = executor.submit(() -> {
+            Lock lock = newLock(TEST_IDS[1]);
+            if (!api.lock(lock, 1000)) {
+                return false;
+            }
+            release.await();
+            return api.unlock(lock);
+        });
+        Future<Boolean> waiter;
+        try {
+            waitForQueueSize(TEST_IDS[1], 1);
+
+            waiter = executor.submit(() -> {
+                List<Lock> locks = newLocks(TEST_IDS);
+                return api.lockAll(locks, 10000) && api.unlockAll(locks);
+            });
+            waitForQueueSize(TEST_IDS[1], 2);
+            assertFalse(waiter.isDone());
+            // the free lock paths are queued by the waiter too
+            assertEquals(1, queueSize(TEST_IDS[0]));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(holder.get(10, TimeUnit.SECONDS));
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+        assertEquals(0, queueSize(TEST_IDS[0]));
+    }
+
+    @Test
+    public void testLockAllTimeout() throws Exception {
+        Lock lock = newLock(TEST_IDS[2]);
+        assertTrue(api.lock(lock, 1000));
+
+        assertFalse(executor.submit(() -> api.lockAll(newLocks(TEST_IDS), 300)).get(10, TimeUnit.SECONDS));
+        assertEquals(0, queueSize(TEST_IDS[0]));
+        assertEquals(0, queueSize(TEST_IDS[1]));
+        assertEquals(1, queueSize(TEST_IDS[2]));
+
+        assertTrue(api.unlock(lock));
+    }
+
+    @Test
+    public void testDifferentOrdersDoNotDeadlock() throws Exception {
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String[] ids : Arrays.asList(TEST_IDS, new String[] { TEST_IDS[2], TEST_IDS[1], TEST_IDS[0] })) {
+            results.add(executor.submit(() -> {
+                List<Lock> locks = newLocks(ids);
+                for (int i = 0; i < 10; i++) {
+                    if (!api.lockAll(locks, -1) || !api.unlockAll(locks)) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    private List<Lock> newLocks(String... ids) {
+        List<Lock> locks = new ArrayList<>();
+        for (String id : ids) {
+            locks.add(newLock(id));
+        }
+        return locks;
+    }
+
+    private Lock newLock(String id) {
+        return new LockImpl(id, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+    }
+
+    private void waitForQueueSize(String id, int size) throws KeeperException, InterruptedException {
+        for (int i = 0; i < 100 && queueSize(id) < size; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private int queueSize(String id) throws KeeperException, InterruptedException {
+        try {
+            return zkManager.getZk()
+                    .getChildren(ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + id, false).size();
+        } catch (KeeperException.NoNodeException e) {
+            return 0;
+        }
+    }
+}
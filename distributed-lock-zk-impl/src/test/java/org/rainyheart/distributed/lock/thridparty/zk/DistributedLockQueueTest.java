@@ -0,0 +1,205 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestExceptionUtils;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the waiters are queued as sequential znodes and obtain the lock in
+ * FIFO order
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockQueueTest extends EmbeddedZooKeeperServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributedLockQueueTest.class);
+
+    private static final String TEST_ID = "queueTestId";
+
+    private static final String LOCK_PATH = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + TEST_ID;
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        TestExceptionUtils.clearException();
+        // wait for the session to the embedded server restarted for this class, tryLock() fails fast without it
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @Test
+    public void testWaitersObtainLockInOrder() throws DistributedLockException, InterruptedException, KeeperException {
+        assertTrue(api.lock(lock, 1000));
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread waiter = newWaiter(i, order);
+            waiters.add(waiter);
+            waiter.start();
+            waitForQueueSize(i + 2);
+        }
+
+        assertTrue(api.unlock(lock));
+        for (Thread waiter : waiters) {
+            waiter.join(10000);
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2), order);
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testTimeoutWaiterLeavesQueue() throws DistributedLockException, InterruptedException, KeeperException {
+        assertTrue(api.lock(lock, 1000));
+
+        Thread waiter = TestThreads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                Lock waiterLock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+                try {
+                    if (api.lock(waiterLock, 500)) {
+                        TestExceptionUtils.addException(new AssertionError());
+                    }
+                } catch (DistributedLockException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    TestExceptionUtils.addException(e);
+                }
+            }
+        });
+        waiter.start();
+        waiter.join(10000);
+
+        assertEquals(1, queueSize());
+        assertTrue(api.unlock(lock));
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testReentrantLockKeepsOneZnode()
+            throws DistributedLockException, InterruptedException, KeeperException {
+        assertTrue(api.lock(lock, 1000));
+        long cversion = zkManager.getStat(LOCK_PATH).getCversion();
+        assertTrue(api.lock(lock, 1000));
+        assertTrue(api.tryLock(lock));
+        assertEquals(cversion, zkManager.getStat(LOCK_PATH).getCversion());
+
+        assertTrue(api.unlock(lock));
+        assertTrue(api.unlock(lock));
+        assertEquals(1, queueSize());
+        assertTrue(api.unlock(lock));
+        assertEquals(0, queueSize());
+        assertFalse(api.unlock(lock));
+    }
+
+    @Test
+    public void testUnlockKeepsZnodeChangedByOthers()
+            throws DistributedLockException, InterruptedException, KeeperException {
+        assertTrue(api.lock(lock, 1000));
+        String znodePath = LOCK_PATH + ZkLockConstant.SLASH + zkManager.getZk().getChildren(LOCK_PATH, false).get(0);
+        zkManager.getZk().setData(znodePath, "others".getBytes(), ZkLockConstant.CREATED_ZNODE_VERSION);
+
+        // the versioned delete leaves it alone
+        assertFalse(api.unlock(lock));
+        assertEquals(1, queueSize());
+        zkManager.getZk().delete(znodePath, -1);
+    }
+
+    @Test
+    public void testIdleLockPathIsReaped() throws Exception {
+        String id = TEST_ID + "Reaped";
+        String path = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + id;
+        Lock idLock = new LockImpl(id, null, LockLevel.GLOBAL);
+        ZkLockPathReaper reaper = zkManager.getLockPathReaper();
+        assertTrue(api.lock(idLock, 1000));
+        assertTrue(api.unlock(idLock));
+
+        // kept while it is released in the current interval
+        reaper.reap();
+        assertTrue(zkManager.getZk().exists(path, false) != null);
+        // kept while it is queued again, the requests of a session are answered in
+        // order so the reaping is done before the next one
+        assertTrue(api.lock(idLock, 1000));
+        reaper.reap();
+        assertEquals(1, zkManager.getZk().getChildren(path, false).size());
+        assertTrue(api.unlock(idLock));
+
+        reaper.reap();
+        reaper.reap();
+        assertTrue(zkManager.getZk().exists(path, false) == null);
+        // created again by the next lock
+        assertTrue(api.tryLock(idLock));
+        assertTrue(api.unlock(idLock));
+    }
+
+    @After
+    public void checkException() {
+        assertFalse(TestExceptionUtils.hasException());
+    }
+
+    private Thread newWaiter(int index, List<Integer> order) {
+        return TestThreads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                Lock waiterLock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+                try {
+                    if (!api.lock(waiterLock, 10000)) {
+                        TestExceptionUtils.addException(new AssertionError());
+                        return;
+                    }
+                    order.add(index);
+                    if (!api.unlock(waiterLock)) {
+                        TestExceptionUtils.addException(new AssertionError());
+                    }
+                } catch (DistributedLockException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    TestExceptionUtils.addException(e);
+                }
+            }
+        });
+    }
+
+    private void waitForQueueSize(int size) throws KeeperException, InterruptedException {
+        for (int i = 0; i < 100 && queueSize() < size; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private int queueSize() throws KeeperException, InterruptedException {
+        return zkManager.getZk().getChildren(LOCK_PATH, false).size();
+    }
+}
@@ -0,0 +1,198 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedLockApi;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the shared read locks and the exclusive write locks of the same id
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockReadWriteTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "readWriteTestId";
+
+    private static final String LOCK_PATH = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + TEST_ID;
+
+    @Autowired
+    DistributedLockApi api;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    ExecutorService executor;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        lock = newLock();
+        executor = TestThreads.newExecutor();
+        // wait for the session to the embedded server restarted for this class, tryLock() fails fast without it
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @After
+    public void clear() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReadersShareLock() throws Exception {
+        assertTrue(api.readLock(lock, 1000));
+        assertTrue(api.readLock(lock, 1000)); // reentered
+
+        assertTrue(runInAnotherThread(() -> {
+            Lock reader = newLock();
+            return api.tryReadLock(reader) && api.readUnlock(reader);
+        }));
+        assertFalse(runInAnotherThread(() -> api.tryWriteLock(newLock())));
+        assertEquals(1, queueSize());
+
+        assertTrue(api.readUnlock(lock));
+        assertTrue(api.readUnlock(lock));
+        assertFalse(api.readUnlock(lock));
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testReaderWaitsForWriterAhead() throws Exception {
+        assertTrue(api.readLock(lock, 1000));
+
+        Future<Boolean> writer = executor.submit(() -> {
+            Lock writerLock = newLock();
+            return api.writeLock(writerLock, 10000) && api.writeUnlock(writerLock);
+        });
+        waitForQueueSize(2);
+
+        // a new reader does not get in ahead of the waiting writer
+        assertFalse(runInAnotherThread(() -> api.readLock(newLock(), 300)));
+        assertFalse(writer.isDone());
+
+        assertTrue(api.readUnlock(lock));
+        assertTrue(writer.get(10, TimeUnit.SECONDS));
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testReadersShareOneWatch() throws Exception {
+        assertTrue(api.writeLock(lock, 1000));
+
+        List<Future<Boolean>> readers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            readers.add(executor.submit(() -> {
+                Lock reader = newLock();
+                return api.readLock(reader, 10000) && api.readUnlock(reader);
+            }));
+        }
+        waitForQueueSize(6);
+        // a timeout reader leaves the watch of the write znode to the others
+        assertFalse(runInAnotherThread(() -> api.readLock(newLock(), 300)));
+        assertEquals(1, zkManager.getWatchRegistry(LOCK_PATH).size());
+
+        assertTrue(api.writeUnlock(lock));
+        for (Future<Boolean> reader : readers) {
+            assertTrue(reader.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(0, zkManager.getWatchRegistry(LOCK_PATH).size());
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testUpgradeIsRefused() throws DistributedLockException, KeeperException, InterruptedException {
+        assertTrue(api.readLock(lock, 1000));
+        assertFalse(api.writeLock(lock, 1000));
+        assertTrue(api.readUnlock(lock));
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testDowngradeWriteLock() throws Exception {
+        assertFalse(api.downgradeWriteLock(lock));
+        assertTrue(api.writeLock(lock, 1000));
+
+        Future<Boolean> writer = executor.submit(() -> {
+            Lock writerLock = newLock();
+            return api.writeLock(writerLock, 10000) && api.writeUnlock(writerLock);
+        });
+        waitForQueueSize(2);
+
+        assertTrue(api.downgradeWriteLock(lock));
+        assertFalse(api.writeUnlock(lock));
+        // the waiting writer is still behind the downgraded read lock
+        Thread.sleep(300);
+        assertFalse(writer.isDone());
+        assertEquals(2, queueSize());
+
+        assertTrue(api.readUnlock(lock));
+        assertTrue(writer.get(10, TimeUnit.SECONDS));
+        assertEquals(0, queueSize());
+    }
+
+    @Test
+    public void testDowngradeWithoutWaiter() throws Exception {
+        assertTrue(api.writeLock(lock, 1000));
+        assertTrue(api.downgradeWriteLock(lock));
+
+        assertTrue(runInAnotherThread(() -> {
+            Lock reader = newLock();
+            return api.tryReadLock(reader) && api.readUnlock(reader);
+        }));
+        assertFalse(runInAnotherThread(() -> api.tryWriteLock(newLock())));
+
+        assertTrue(api.readUnlock(lock));
+        assertEquals(0, queueSize());
+    }
+
+    private Lock newLock() {
+        return new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+    }
+
+    private Boolean runInAnotherThread(Callable<Boolean> callable)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return executor.submit(callable).get(10, TimeUnit.SECONDS);
+    }
+
+    private void waitForQueueSize(int size) throws KeeperException, InterruptedException {
+        for (int i = 0; i < 100 && queueSize() < size; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private int queueSize() throws KeeperException, InterruptedException {
+        try {
+            return zkManager.getZk().getChildren(LOCK_PATH, false).size();
+        } catch (KeeperException.NoNodeException e) {
+            return 0;
+        }
+    }
+}
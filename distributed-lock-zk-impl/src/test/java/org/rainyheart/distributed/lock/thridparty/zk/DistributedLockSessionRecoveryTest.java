@@ -0,0 +1,107 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify a broken session is recovered in the background while the callers
+ * fail fast or wait up to their own deadline
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedLockSessionRecoveryTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "sessionRecoveryTestId";
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        // reconnect to the embedded server restarted for this class before counting the recoveries
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @Test
+    public void testCallersDoNotWaitForTheRecovery() throws Exception {
+        Lock lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        int recoveries = zkManager.getRecovery().getRecoveries();
+        stopZK();
+        wipeZK();
+        try {
+            long start = System.currentTimeMillis();
+            assertFalse(zkManager.tryLock(lock));
+            assertTrue(System.currentTimeMillis() - start < ZkSessionRecovery.CONNECT_TIMEOUT);
+            assertTrue(zkManager.getRecovery().isRecovering());
+
+            start = System.currentTimeMillis();
+            assertFalse(zkManager.lock(lock, 1500));
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("waited " + elapsed + " ms", elapsed < ZkSessionRecovery.CONNECT_TIMEOUT);
+        } finally {
+            startZK();
+        }
+
+        // the new ensemble refuses the session which has seen later changes, so it is rebuilt
+        // once its timeout is over
+        // and the new session is set up by the recovery thread alone
+        assertTrue(zkManager.getRecovery().awaitRecovered(zkManager.getZk().getSessionTimeout() + 30000));
+        assertEquals(recoveries + 1, zkManager.getRecovery().getRecoveries());
+        assertTrue(zkManager.lock(lock, 30000));
+        assertNotNull(zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT));
+        assertTrue(zkManager.unlock(lock));
+    }
+
+    @Test
+    public void testBouncedServerKeepsTheSession() throws Exception {
+        Lock lock = new LockImpl(TEST_ID + "Held", Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        assertTrue(zkManager.lock(lock, 1000));
+        long sessionId = zkManager.getZk().getSessionId();
+        int recoveries = zkManager.getRecovery().getRecoveries();
+        stopZK();
+        try {
+            assertFalse(zkManager.tryLock(new LockImpl(TEST_ID, lock.value(), LockLevel.GLOBAL)));
+            assertTrue(zkManager.getRecovery().isRecovering());
+        } finally {
+            startZK();
+        }
+
+        // reconnected within the session timeout rather than rebuilt
+        assertTrue(zkManager.getRecovery().awaitRecovered(30000));
+        assertEquals(recoveries, zkManager.getRecovery().getRecoveries());
+        assertEquals(sessionId, zkManager.getZk().getSessionId());
+        // the lock is still held by its znode
+        String path = zkManager.getLockPath(lock);
+        assertEquals(1, zkManager.getZk().getChildren(path, false).size());
+        assertTrue(zkManager.unlock(lock));
+        assertTrue(zkManager.getZk().getChildren(path, false).isEmpty());
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            long first = ZkSessionRecovery.backoff(1, 100, 10000);
+            assertTrue(first >= 50 && first <= 100);
+            long fifth = ZkSessionRecovery.backoff(5, 100, 10000);
+            assertTrue(fifth >= 800 && fifth <= 1600);
+            long capped = ZkSessionRecovery.backoff(40, 100, 10000);
+            assertTrue(capped >= 5000 && capped <= 10000);
+        }
+    }
+}
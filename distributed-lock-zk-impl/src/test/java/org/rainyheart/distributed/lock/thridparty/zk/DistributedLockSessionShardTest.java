@@ -0,0 +1,187 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+
+/**
+ * Verify the lock paths are served by several ZK sessions
+ *
+ * @author Ken Ye
+ *
+ */
+public class DistributedLockSessionShardTest extends EmbeddedZooKeeperServer {
+
+    private static final int SESSION_COUNT = 3;
+
+    ZooKeeperManager zkManager;
+
+    List<Lock> locks;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        zkManager = new ZooKeeperManager();
+        zkManager.setHostPort("127.0.0.1:2181");
+        zkManager.setSessionTimeout("60000");
+        zkManager.setAppName("distributed-lock-app");
+        zkManager.setClientConnectCount(3);
+        zkManager.setAdminAuth("admin:rainyHeart!23456");
+        zkManager.setSessionCount(SESSION_COUNT);
+        zkManager.init();
+
+        locks = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            locks.add(new LockImpl("shardTestId" + i, Thread.currentThread().getName().getBytes(),
+                    LockLevel.GLOBAL));
+        }
+    }
+
+    @After
+    public void clear() throws ZkServerConnectionException {
+        zkManager.destroy();
+    }
+
+    @Test
+    public void testLocksAreSpreadAcrossSessions() throws Exception {
+        Set<Long> sessionIds = new HashSet<>();
+        for (Lock lock : locks) {
+            assertTrue(zkManager.tryLock(lock));
+            String path = zkManager.getLockPath(lock);
+            long sessionId = zkManager.getZk(path).getSessionId();
+            // the znode is owned by the session serving its lock path
+            assertEquals(sessionId, getLockZnode(path).getEphemeralOwner());
+            sessionIds.add(sessionId);
+        }
+        assertEquals(SESSION_COUNT, sessionIds.size());
+        for (Lock lock : locks) {
+            assertTrue(zkManager.unlock(lock));
+        }
+    }
+
+    @Test
+    public void testLostSessionOnlyAffectsItsLocks() throws Exception {
+        ZooKeeper lost = null;
+        for (Lock lock : locks) {
+            assertTrue(zkManager.tryLock(lock));
+            ZooKeeper session = zkManager.getZk(zkManager.getLockPath(lock));
+            if (lost == null && session != zkManager.getZk()) {
+                lost = session;
+            }
+        }
+        assertNotNull(lost);
+        lost.close();
+
+        Lock lostLock = null;
+        for (Lock lock : locks) {
+            String path = zkManager.getLockPath(lock);
+            if (zkManager.getZk(path) == lost) {
+                assertNull(getLockZnode(path));
+                lostLock = lock;
+            } else {
+                assertNotNull(getLockZnode(path));
+                assertTrue(zkManager.unlock(lock));
+            }
+        }
+        // the lost session is rebuilt on its own after the next request of its lock paths
+        Lock lock = new LockImpl(lostLock.id() + "Again", lostLock.value(), LockLevel.GLOBAL);
+        for (int i = 0; zkManager.getZk(zkManager.getLockPath(lock)) != lost; i++) {
+            lock = new LockImpl(lostLock.id() + "Again" + i, lostLock.value(), LockLevel.GLOBAL);
+        }
+        assertFalse(zkManager.tryLock(lock));
+        assertTrue(zkManager.getShard(zkManager.getLockPath(lock)).getRecovery().awaitRecovered(30000));
+        assertTrue(zkManager.tryLock(lock));
+        assertTrue(zkManager.getZk(zkManager.getLockPath(lock)) != lost);
+        assertTrue(zkManager.unlock(lock));
+    }
+
+    @Test
+    public void testLockAllAcrossSessions() throws Exception {
+        assertTrue(zkManager.lockAll(locks, 1000));
+        Set<Long> sessionIds = new HashSet<>();
+        for (Lock lock : locks) {
+            String path = zkManager.getLockPath(lock);
+            long sessionId = zkManager.getZk(path).getSessionId();
+            // queued by the transaction of the session serving its lock path
+            assertEquals(sessionId, getLockZnode(path).getEphemeralOwner());
+            sessionIds.add(sessionId);
+        }
+        assertEquals(SESSION_COUNT, sessionIds.size());
+        assertTrue(zkManager.unlockAll(locks));
+        for (Lock lock : locks) {
+            assertNull(getLockZnode(zkManager.getLockPath(lock)));
+        }
+    }
+
+    @Test
+    public void testLockAllTimeoutReleasesObtainedSessions() throws Exception {
+        // a lock of the last session, obtained after the ones of the other sessions
+        ZkSessionRouter router = new ZkSessionRouter(SESSION_COUNT);
+        Lock blocked = null;
+        for (Lock lock : locks) {
+            if (router.route(zkManager.getLockPath(lock)) == SESSION_COUNT - 1) {
+                blocked = lock;
+            }
+        }
+        assertNotNull(blocked);
+        ExecutorService holder = Executors.newSingleThreadExecutor();
+        try {
+            Lock held = blocked;
+            assertTrue(holder.submit(() -> zkManager.tryLock(held)).get(10, TimeUnit.SECONDS));
+            assertFalse(zkManager.lockAll(locks, 200));
+            for (Lock lock : locks) {
+                Stat znode = getLockZnode(zkManager.getLockPath(lock));
+                if (lock == blocked) {
+                    assertNotNull(znode);
+                } else {
+                    assertNull(znode);
+                }
+            }
+            assertTrue(holder.submit(() -> zkManager.unlock(held)).get(10, TimeUnit.SECONDS));
+        } finally {
+            holder.shutdownNow();
+        }
+        assertTrue(zkManager.lockAll(locks, 1000));
+        assertTrue(zkManager.unlockAll(locks));
+    }
+
+    @Test
+    public void testRouterSpreadsPathsEvenly() {
+        ZkSessionRouter router = new ZkSessionRouter(4);
+        ZkSessionRouter another = new ZkSessionRouter(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < 10000; i++) {
+            String path = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + "order" + i;
+            counts[router.route(path)]++;
+            assertEquals(router.route(path), another.route(path));
+        }
+        for (int count : counts) {
+            assertTrue("uneven sessions: " + count, count > 1500 && count < 3500);
+        }
+    }
+
+    private Stat getLockZnode(String path) throws Exception {
+        List<String> children = zkManager.getZk().getChildren(path, false);
+        return children.isEmpty() ? null
+                : zkManager.getZk().exists(path + ZkLockConstant.SLASH + children.get(0), false);
+    }
+}
@@ -0,0 +1,162 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.DistributedSemaphore;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.exception.DistributedLockException;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class DistributedSemaphoreTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_ID = "semaphoreTestId";
+
+    private static final int MAX_PERMITS = 3;
+
+    @Autowired
+    DistributedSemaphore semaphore;
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    Lock lock;
+
+    ExecutorService executor;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        lock = new LockImpl(TEST_ID, Thread.currentThread().getName().getBytes(), LockLevel.GLOBAL);
+        executor = TestThreads.newExecutor();
+        // wait for the session to the embedded server restarted for this class, tryLock() fails fast without it
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @After
+    public void clear() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTryAcquire() throws DistributedLockException {
+        assertTrue(semaphore.tryAcquire(lock, 2, MAX_PERMITS));
+        assertFalse(semaphore.tryAcquire(lock, 2, MAX_PERMITS));
+        assertTrue(semaphore.tryAcquire(lock, 1, MAX_PERMITS));
+        assertEquals(0, semaphore.availablePermits(lock, MAX_PERMITS));
+
+        assertFalse(semaphore.release(lock, 4));
+        assertTrue(semaphore.release(lock, 3));
+        assertFalse(semaphore.release(lock, 1));
+        assertEquals(MAX_PERMITS, semaphore.availablePermits(lock, MAX_PERMITS));
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        assertTrue(semaphore.acquire(lock, MAX_PERMITS, MAX_PERMITS, 1000));
+
+        Future<Boolean> waiter = executor.submit(() -> semaphore.acquire(lock, 2, MAX_PERMITS, 10000));
+        Thread.sleep(300);
+        assertFalse(waiter.isDone());
+
+        assertTrue(semaphore.release(lock, 1));
+        Thread.sleep(300);
+        assertFalse(waiter.isDone());
+
+        // permits are released by another thread
+        assertTrue(executor.submit(() -> semaphore.release(lock, 1)).get(10, TimeUnit.SECONDS));
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+        assertEquals(0, semaphore.availablePermits(lock, MAX_PERMITS));
+
+        assertTrue(semaphore.release(lock, MAX_PERMITS));
+    }
+
+    @Test
+    public void testAcquireTimeout() throws DistributedLockException {
+        assertTrue(semaphore.acquire(lock, 2, MAX_PERMITS, 1000));
+        assertFalse(semaphore.acquire(lock, 2, MAX_PERMITS, 300));
+        // the timeout leases leave the queue
+        assertEquals(1, semaphore.availablePermits(lock, MAX_PERMITS));
+        assertTrue(semaphore.release(lock, 2));
+    }
+
+    @Test
+    public void testWaitersWatchTheirPredecessorOnly() throws Exception {
+        String path = zkManager.getLockPath(lock) + ZkLockConstant.SEMAPHORE_PATH_SUFFIX;
+        assertTrue(semaphore.acquire(lock, MAX_PERMITS, MAX_PERMITS, 1000));
+        List<Future<Boolean>> waiters = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            waiters.add(executor.submit(() -> semaphore.acquire(lock, 1, MAX_PERMITS, 10000)));
+            waitFor(() -> zkManager.getZk().getChildren(path, false).size() == MAX_PERMITS + waiters.size());
+        }
+        // the first waiter watches the holders, the other two the lease ahead of theirs
+        waitFor(() -> zkManager.getWatchRegistry(path).size() == 2);
+        Thread.sleep(200);
+        for (Future<Boolean> waiter : waiters) {
+            assertFalse(waiter.isDone());
+        }
+
+        // each release hands a permit over to the next waiter in order
+        for (int i = 0; i < waiters.size(); i++) {
+            assertTrue(semaphore.release(lock, 1));
+            assertTrue(waiters.get(i).get(10, TimeUnit.SECONDS));
+            for (int j = i + 1; j < waiters.size(); j++) {
+                assertFalse(waiters.get(j).isDone());
+            }
+        }
+        assertEquals(0, zkManager.getWatchRegistry(path).size());
+        // the leases set to wake up a waiter are released as well
+        assertTrue(semaphore.release(lock, MAX_PERMITS));
+        assertEquals(MAX_PERMITS, semaphore.availablePermits(lock, MAX_PERMITS));
+    }
+
+    @Test
+    public void testConcurrentHoldersAreCapped() throws Exception {
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(executor.submit(() -> {
+                if (!semaphore.acquire(lock, 1, MAX_PERMITS, 20000)) {
+                    return false;
+                }
+                maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                Thread.sleep(100);
+                holders.decrementAndGet();
+                return semaphore.release(lock, 1);
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get(30, TimeUnit.SECONDS));
+        }
+        assertTrue(maxHolders.get() <= MAX_PERMITS);
+        assertEquals(MAX_PERMITS, semaphore.availablePermits(lock, MAX_PERMITS));
+    }
+
+    private void waitFor(Callable<Boolean> condition) throws Exception {
+        for (int i = 0; i < 100 && !condition.call(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.call());
+    }
+}
@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.zookeeper.KeeperException;
@@ -25,6 +24,7 @@ import org.rainyheart.distributed.lock.api.Lock;
 import org.rainyheart.distributed.lock.api.LockLevel;
 import org.rainyheart.distributed.lock.api.impl.LockImpl;
 import org.rainyheart.distributed.lock.thridparty.zk.utils.TestExceptionUtils;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
 import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -102,7 +102,8 @@ public class MultiThreadTest extends EmbeddedZooKeeperServer {
         if(stat != null) {
             List<String> children = zkManager.getZk().getChildren(rootPath, false);
             for(String child : children) {
-                zkManager.getZk().delete(rootPath + ZkLockConstant.SLASH + child, -1);
+                // the tree is kept by the server for the whole test run
+                clearRootPath(rootPath + ZkLockConstant.SLASH + child);
             }
             zkManager.getZk().delete(rootPath, -1);
         }
@@ -118,17 +119,17 @@ public class MultiThreadTest extends EmbeddedZooKeeperServer {
     @Test
     public void test() throws UnknownHostException, InterruptedException, ZkServerConnectionException {
         startWorkerThreads(-1);
-        Stat stat = zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+        Stat stat = zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH + TEST_ID);
         int cversion = stat.getCversion();
         System.out.println(cversion);
-        assertTrue(cversion >= THREAD_NUMBER * 2); // create + delete
+        assertTrue(cversion >= THREAD_NUMBER * 2); // create + delete of the sequential znodes
         // if multiple VM is started, then the number should be <= VM * 2 *
         // THREAD_NUMBER
         assertFalse(TestExceptionUtils.hasException());
     }
 
     private void startWorkerThreads(long timeout) throws InterruptedException {
-        ExecutorService es = Executors.newFixedThreadPool(20);
+        ExecutorService es = TestThreads.newExecutor(20);
         List<Callable<Lock>> threads = new ArrayList<>();
         for (int i = 0; i < THREAD_NUMBER; i++) {
             threads.add(newCallable(timeout));
@@ -0,0 +1,153 @@
+package org.rainyheart.distributed.lock.thridparty.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rainyheart.distributed.lock.api.Lock;
+import org.rainyheart.distributed.lock.api.LockLevel;
+import org.rainyheart.distributed.lock.api.impl.LockImpl;
+import org.rainyheart.distributed.lock.thridparty.zk.utils.TestThreads;
+import org.rainyheart.distributed.lock.thridparty.zkserver.EmbeddedZooKeeperServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verify the async ZK calls used by the virtual threads behave like the
+ * synchronous ones
+ *
+ * @author Ken Ye
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:distributed-lock-spring.xml" })
+public class ZkBlockingCallsTest extends EmbeddedZooKeeperServer {
+
+    private static final String TEST_PATH = ZkLockConstant.DISTRIBUTED_LOCK_ROOT + ZkLockConstant.SLASH
+            + "blockingCallsTestId";
+
+    @Autowired
+    ZooKeeperManager zkManager;
+
+    @Before
+    public void setup() throws ZkServerConnectionException {
+        // reconnect to the embedded server restarted for this class before using the ZK client directly
+        zkManager.getStat(ZkLockConstant.DISTRIBUTED_LOCK_ROOT);
+    }
+
+    @Test
+    public void testAsyncCalls() throws Exception {
+        ZooKeeper zk = zkManager.getZk();
+        ZkBlockingCalls.createAsync(zk, TEST_PATH, null, ZkLockConstant.GLOBAL_ACL, CreateMode.PERSISTENT);
+        String znodePath = ZkBlockingCalls.createAsync(zk, TEST_PATH + ZkLockConstant.SLASH + "lock-",
+                "owner".getBytes(), ZkLockConstant.GLOBAL_ACL, CreateMode.EPHEMERAL_SEQUENTIAL);
+        assertTrue(znodePath.startsWith(TEST_PATH + ZkLockConstant.SLASH + "lock-"));
+
+        List<String> children = ZkBlockingCalls.getChildrenAsync(zk, TEST_PATH);
+        assertEquals(1, children.size());
+        assertEquals(znodePath, TEST_PATH + ZkLockConstant.SLASH + children.get(0));
+
+        CountDownLatch deleted = new CountDownLatch(1);
+        assertNotNull(ZkBlockingCalls.existsAsync(zk, znodePath, ZooKeeperManager.newLatchWatcher(deleted)));
+        ZkBlockingCalls.deleteAsync(zk, znodePath, -1);
+        assertTrue(deleted.await(10, TimeUnit.SECONDS));
+
+        // a missing znode is not an error of exists()
+        assertNull(ZkBlockingCalls.existsAsync(zk, znodePath, null));
+        ZkBlockingCalls.deleteAsync(zk, TEST_PATH, -1);
+    }
+
+    @Test
+    public void testWatchIsRemovedByLastWaiter() throws Exception {
+        ZooKeeper zk = zkManager.getZk();
+        ZkWatchRegistry registry = new ZkWatchRegistry();
+        zk.create(TEST_PATH, null, ZkLockConstant.GLOBAL_ACL, CreateMode.PERSISTENT);
+        try {
+            CountDownLatch first = new CountDownLatch(1);
+            CountDownLatch second = new CountDownLatch(1);
+            assertTrue(registry.join(zk, TEST_PATH, first));
+            assertFalse(registry.join(zk, TEST_PATH, second));
+            registry.leave(TEST_PATH, first);
+            assertEquals(1, registry.size());
+            registry.leave(TEST_PATH, second);
+            assertEquals(0, registry.size());
+
+            // the next waiter sets a new watch, which still fires
+            CountDownLatch third = new CountDownLatch(1);
+            assertTrue(registry.join(zk, TEST_PATH, third));
+            zk.delete(TEST_PATH, -1);
+            assertTrue(third.await(10, TimeUnit.SECONDS));
+            // the waiters gone are not woken up
+            assertEquals(1, first.getCount());
+            assertEquals(1, second.getCount());
+            assertEquals(0, registry.size());
+        } finally {
+            if (zk.exists(TEST_PATH, false) != null) {
+                zk.delete(TEST_PATH, -1);
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncCallErrors() throws Exception {
+        ZooKeeper zk = zkManager.getZk();
+        try {
+            ZkBlockingCalls.deleteAsync(zk, TEST_PATH + "Missing", -1);
+            fail("the znode does not exist");
+        } catch (KeeperException.NoNodeException e) {
+            assertEquals(TEST_PATH + "Missing", e.getPath());
+        }
+        try {
+            ZkBlockingCalls.getChildrenAsync(zk, TEST_PATH + "Missing");
+            fail("the znode does not exist");
+        } catch (KeeperException.NoNodeException e) {
+            assertEquals(TEST_PATH + "Missing", e.getPath());
+        }
+    }
+
+    @Test
+    public void testPlatformThreadsUseSyncCalls() throws Exception {
+        assertFalse(ZkThreads.isCurrentThreadVirtual());
+        assertEquals(Thread.currentThread().getId(), ZkThreads.currentThreadId());
+    }
+
+    /**
+     * Only run when the test threads are virtual, the classes of Java 21 must
+     * be the ones tested then
+     */
+    @Test
+    public void testVirtualThreadsUseAsyncCalls() throws Exception {
+        assumeTrue(TestThreads.VIRTUAL);
+        Lock lock = new LockImpl("virtualThreadTestId", null, LockLevel.GLOBAL);
+        boolean[] results = new boolean[3];
+        Thread thread = TestThreads.newThread(() -> {
+            try {
+                results[0] = ZkThreads.isCurrentThreadVirtual();
+                results[1] = zkManager.tryLock(lock);
+                results[2] = zkManager.unlock(lock);
+            } catch (ZkServerConnectionException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        thread.join(10000);
+        assertTrue("the classes of Java 21 are not used", results[0]);
+        assertTrue(results[1]);
+        assertTrue(results[2]);
+    }
+}
@@ -0,0 +1,65 @@
+package org.rainyheart.distributed.lock.thridparty.zk.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Ignore;
+
+/**
+ * The threads the test cases lock from. They are virtual threads when the
+ * system property test.virtualThreads is true, e.g. in the JDK 21 build, and
+ * platform threads otherwise. The tests are built for Java 8, so the virtual
+ * threads are created by reflection.
+ *
+ * @author Ken Ye
+ *
+ */
+@Ignore
+public class TestThreads {
+
+    public static final boolean VIRTUAL = Boolean.getBoolean("test.virtualThreads");
+
+    private TestThreads() {
+        super();
+    }
+
+    /**
+     * @return an executor running each task on a new virtual thread, or a cached
+     *         thread pool
+     */
+    public static ExecutorService newExecutor() {
+        return VIRTUAL ? newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * @return an executor running each task on a new virtual thread, or a pool
+     *         of the given number of threads
+     */
+    public static ExecutorService newExecutor(int platformThreads) {
+        return VIRTUAL ? newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(platformThreads);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+        }
+    }
+
+    /**
+     * @return a virtual or platform thread of the task, not started yet
+     */
+    public static Thread newThread(Runnable task) {
+        if (!VIRTUAL) {
+            return new Thread(task);
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class)
+                    .invoke(builder, task);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package org.rainyheart.distributed.lock.thridparty.zkserver;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
+import org.apache.curator.test.DirectoryUtils;
+import org.apache.curator.test.InstanceSpec;
 import org.apache.curator.test.TestingServer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -11,6 +15,10 @@ import org.slf4j.LoggerFactory;
 /**
  * All ZK test case should extends this class to start up a ZK server
  * 
+ * The data directory is kept for the whole test run, so the sessions of the
+ * shared managers survive the restart of the server between the test cases
+ * like a bounced ensemble
+ * 
  * @author Ken Ye
  *
  */
@@ -19,10 +27,22 @@ public class EmbeddedZooKeeperServer {
 
     private static TestingServer server;
 
+    private static File dataDirectory;
+
     @BeforeClass
     public static void startZK() throws Exception {
         LOGGER.info("Starting EmbeddedZooKeeperServer");
-        server = new TestingServer(2181, true);
+        if (dataDirectory == null) {
+            dataDirectory = Files.createTempDirectory("distributed-lock-zk").toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    DirectoryUtils.deleteRecursively(dataDirectory);
+                } catch (IOException e) {
+                    LOGGER.warn("Fail to delete temp directoty " + dataDirectory, e);
+                }
+            }));
+        }
+        server = new TestingServer(new InstanceSpec(dataDirectory, 2181, -1, -1, false, -1), true);
         LOGGER.info("Stared EmbeddedZooKeeperServer");
     }
 
@@ -30,14 +50,19 @@ public class EmbeddedZooKeeperServer {
     public static void stopZK() throws IOException {
         if (server != null) {
             LOGGER.info("Stopping EmbeddedZooKeeperServer");
-            try {
-                server.stop();
-                server.close();
-                LOGGER.info("Stopped EmbeddedZooKeeperServer");
-            } finally {
-                LOGGER.info("Deleting temp directoty");
-                server.getTempDirectory().deleteOnExit();
-            }
+            server.stop();
+            server.close();
+            server = null;
+            LOGGER.info("Stopped EmbeddedZooKeeperServer");
         }
     }
+
+    /**
+     * Delete the data of the stopped server, the next one started is a new
+     * ensemble which knows none of the sessions
+     */
+    protected static void wipeZK() throws IOException {
+        LOGGER.info("Deleting the data of EmbeddedZooKeeperServer");
+        DirectoryUtils.deleteDirectoryContents(dataDirectory);
+    }
 }